@@ -1,17 +1,19 @@
 package net.floodlightcontroller.core.coap;
 
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.coap.statsmanager.CoapDataManager;
+import net.floodlightcontroller.core.coap.statsmanager.StatsSnapshot;
 
 import net.floodlightcontroller.core.coap.structs.*;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
 import net.floodlightcontroller.core.coap.util.CoapUtils;
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
 
 /**
  * The CoapManager is the module that makes configuration related decisions for the COAP APs. 
@@ -46,10 +48,12 @@ public class CoapManager implements Runnable {
 	private long currTs, clearTs;
 	
 	// Store a local copy of wireless statistics for analysis required to make configuration decisions.
-	private HashMap<Integer, ArrayList<AirtimeUtilStat>> utilPolicyMap;
-	private HashMap<Integer, ArrayList<AirtimeUtilStat>> utilHopPolicyMap;
-	private HashMap<Integer, ArrayList<StationStatsPerClient>> stationStatsPolicyMap;
-	private HashMap<Integer, ArrayList<TrafficInfoPerClient>> trafficinfoPolicyMap;
+	// Read-only views of the in-memory statistics, taken at the start of each policy pass (see StatsSnapshot).
+	private StatsSnapshot policySnapshot;
+	private Map<Integer, AirtimeUtilSeries> utilPolicyMap;
+	private Map<Integer, AirtimeUtilSeries> utilHopPolicyMap;
+	private Map<Integer, ClientTable<StationStatsPerClient>> stationStatsPolicyMap;
+	private Map<Integer, ClientTable<TrafficInfoPerClient>> trafficinfoPolicyMap;
 
 	// Store channel assignment information for COAP APs.
 	private HashMap<Integer, MutablePair<Integer, Long>> chanMap = 
@@ -61,7 +65,6 @@ public class CoapManager implements Runnable {
 	// Send configuration commands to APs using the ConfigManager module.
 	private ConfigManager apConfigurer;
 
-	@SuppressWarnings("unchecked")
 	public CoapManager(IFloodlightProviderService floodlightProvider) {
 		apConfigurer = new ConfigManager(floodlightProvider);
 
@@ -70,10 +73,20 @@ public class CoapManager implements Runnable {
 		// Initialize channel list.
 		channelList = new HashMap<Integer, String>();
 
-		utilPolicyMap = (HashMap<Integer, ArrayList<AirtimeUtilStat>>) CoapDataManager.getUtilParser().getInMemoryHashMap();
-		utilHopPolicyMap = (HashMap<Integer, ArrayList<AirtimeUtilStat>>) CoapDataManager.getUtilHopParser().getInMemoryHashMap();
-		stationStatsPolicyMap = (HashMap<Integer, ArrayList<StationStatsPerClient>>) CoapDataManager.getStationStatsParser().getInMemoryHashMap();
-		trafficinfoPolicyMap = (HashMap<Integer, ArrayList<TrafficInfoPerClient>>) CoapDataManager.getTrafficInfoParser().getInMemoryHashMap();
+		updatePolicySnapshot();
+	}
+
+	/**
+	 * Take a new read-only view of the in-memory statistics for the policies. The policies read
+	 * the view without locking, while the statistics keep being processed.
+	 */
+	private void updatePolicySnapshot() {
+		policySnapshot = CoapDataManager.getStatsSnapshot();
+
+		utilPolicyMap = policySnapshot.getUtil();
+		utilHopPolicyMap = policySnapshot.getUtilHop();
+		stationStatsPolicyMap = policySnapshot.getStationStats();
+		trafficinfoPolicyMap = policySnapshot.getTrafficInfo();
 	}
 
 	@Override
@@ -106,7 +119,9 @@ public class CoapManager implements Runnable {
 			diff = Math.max(diff, 0);
 			System.out.println("MIT: lag in data between AP and controller = " + diff);
 
-			// 0211: Removed the repeated reference update. Only printing the stats.
+			// All the policies of this pass use the same view of the statistics (see StatsSnapshot).
+			updatePolicySnapshot();
+			System.out.println("MIT: policy snapshot epoch: " + policySnapshot.getEpoch());
 			System.out.println("MIT: utilPolicyMap size: " + utilPolicyMap.keySet().size());
 			System.out.println("MIT: utilHopPolicyMap size: " + utilHopPolicyMap.keySet().size());
 			System.out.println("MIT: stationStatsPolicyMap size: " + stationStatsPolicyMap.keySet().size());
@@ -139,12 +154,14 @@ public class CoapManager implements Runnable {
 			}
 
 			/**
-			 * Periodically clear the in-memory statistics to bound the memory overhead.
+			 * Periodically clear the in-memory statistics to bound the memory overhead. The statistics of the
+			 * active APs/clients are already expired as they're received, this pass only drops the time buckets
+			 * of the idle ones, so it's short and runs often.
 			 */
 			System.out.println("MIT: ClearMaps: " + CoapUtils.getCurrentTime() + " " +
 					"clear_ts: " + clearTs + " currTs: " + currTs);
 			
-			if (currTs - clearTs >= CoapConstants.INMEMORY_DATA_INTERVAL_SEC) {
+			if (currTs - clearTs >= CoapConstants.INMEMORY_EVICTION_INTERVAL_SEC) {
 				
 				System.out.println("MIT: ClearMaps: " + CoapUtils.getCurrentTime() + "Clearing the in-memory data: clear_ts: " +
 						clearTs + " currTs: " + currTs);
@@ -288,41 +305,51 @@ public class CoapManager implements Runnable {
 			return averageUtilNoXmit;
 		}
 
-		ArrayList<AirtimeUtilStat> utilHopInfo = utilHopPolicyMap.get(currApid);
+		AirtimeUtilSeries utilHopInfo = utilHopPolicyMap.get(currApid);
+		sumHopUtil(utilHopInfo, fromTsSec, currSumHopAvgUtil);
 
+		// Not enough information available to proceed.
+		if (!currSumHopAvgUtil.containsKey(currFreq)) {
+			System.out.println("MIT: Hop utilization information missing for curr_freq: " + currFreq +
+					" for ap_id: " + currApid + "Returning null...");
+			return averageUtilNoXmit;
+		}
+
+		return (currSumHopAvgUtil.get(currFreq).snd / currSumHopAvgUtil.get(currFreq).fst) - averageXmit;
+	}
+
+	/**
+	 * Sum the airtime utilization samples per hopped channel, going backwards from the most
+	 * recent sample to fromTsSec.
+	 * 
+	 * @param utilHopInfo
+	 * @param fromTsSec
+	 * @param currSumHopAvgUtil output: frequency -> (number of samples, sum of the utilization).
+	 */
+	private void sumHopUtil(AirtimeUtilSeries utilHopInfo, long fromTsSec, 
+			HashMap<Integer, MutablePair<Integer, Double>> currSumHopAvgUtil) {
 		// TODO: Assumption is that everything is sorted by time. 
 		for (int i = utilHopInfo.size() - 1; i >= 0; i--) {
-			if (utilHopInfo.get(i).ts < fromTsSec) {
+			if (utilHopInfo.getTs(i) < fromTsSec) {
 				break;
 			}
 
-			AirtimeUtilStat currHopStats = utilHopInfo.get(i);
-
-			if (currHopStats.activeTime < CoapConstants.MIN_HOP_ACTIVE_DURATION_MS) {
+			int activeTime = utilHopInfo.getActiveTime(i);
+			if (activeTime < CoapConstants.MIN_HOP_ACTIVE_DURATION_MS) {
 				continue;
 			}
 
-			if (!currSumHopAvgUtil.containsKey(currHopStats.frequency)) {
-				//System.out.println("MIT:Current ap_id a1 ab1 " + currApid + " i: " + i +  "...");
-
-				currSumHopAvgUtil.put(currHopStats.frequency, new MutablePair<Integer, Double>
-				(1, currHopStats.busyTime * 1.0 / currHopStats.activeTime));
+			int frequency = utilHopInfo.getFrequency(i);
+			double util = utilHopInfo.getBusyTime(i) * 1.0 / activeTime;
 
+			MutablePair<Integer, Double> sumUtil = currSumHopAvgUtil.get(frequency);
+			if (sumUtil == null) {
+				currSumHopAvgUtil.put(frequency, new MutablePair<Integer, Double>(1, util));
 			} else {
-
-				currSumHopAvgUtil.get(currHopStats.frequency).fst += 1;
-				currSumHopAvgUtil.get(currHopStats.frequency).snd += (currHopStats.busyTime * 1.0 / currHopStats.activeTime);
+				sumUtil.fst += 1;
+				sumUtil.snd += util;
 			}
 		}
-
-		// Not enough information available to proceed.
-		if (!currSumHopAvgUtil.containsKey(currFreq)) {
-			System.out.println("MIT: Hop utilization information missing for curr_freq: " + currFreq +
-					" for ap_id: " + currApid + "Returning null...");
-			return averageUtilNoXmit;
-		}
-
-		return (currSumHopAvgUtil.get(currFreq).snd / currSumHopAvgUtil.get(currFreq).fst) - averageXmit;
 	}
 
 	/**
@@ -347,32 +374,8 @@ public class CoapManager implements Runnable {
 			return null;
 		}
 
-		ArrayList<AirtimeUtilStat> utilHopInfo = utilHopPolicyMap.get(currApid);
-
-		// TODO: Assumption is that everything is sorted by time. 
-		for (int i = utilHopInfo.size() - 1; i >= 0; i--) {
-			if (utilHopInfo.get(i).ts < fromTsSec) {
-				break;
-			}
-
-			AirtimeUtilStat currHopStats = utilHopInfo.get(i);
-
-			if (currHopStats.activeTime < CoapConstants.MIN_HOP_ACTIVE_DURATION_MS) {
-				continue;
-			}
-
-			if (!currSumHopAvgUtil.containsKey(currHopStats.frequency)) {
-				//System.out.println("MIT:Current ap_id a1 ab1 " + currApid + " i: " + i +  "...");
-
-				currSumHopAvgUtil.put(currHopStats.frequency, new MutablePair<Integer, Double>
-				(1, currHopStats.busyTime * 1.0 / currHopStats.activeTime));
-
-			} else {
-
-				currSumHopAvgUtil.get(currHopStats.frequency).fst += 1;
-				currSumHopAvgUtil.get(currHopStats.frequency).snd += (currHopStats.busyTime * 1.0 / currHopStats.activeTime);
-			}
-		}
+		AirtimeUtilSeries utilHopInfo = utilHopPolicyMap.get(currApid);
+		sumHopUtil(utilHopInfo, fromTsSec, currSumHopAvgUtil);
 
 		// Not enough information available to proceed.
 		if (!currSumHopAvgUtil.containsKey(currFreq)) {
@@ -430,28 +433,27 @@ public class CoapManager implements Runnable {
 	 * due to the local transmissions.
 	 */
 	private Pair<Double, Double> GetCurrentAPUtil(int currApid, long fromTsSec)	{
-		AirtimeUtilStat currUtilStats;
 		int countUtils = 0;
 		double averageUtil = 0.0, averageXmit = 0.0;
 
-		ArrayList<AirtimeUtilStat> utilInfo = utilPolicyMap.get(currApid);
+		AirtimeUtilSeries utilInfo = utilPolicyMap.get(currApid);
 		System.out.println("MIT: " + CoapUtils.getCurrentTime() + " " + fromTsSec + " ap_id " + currApid + " has " +
 				utilInfo.size() + " util entries...");
 
 		if (utilInfo.size() == 0) {
 			return null;
 		}
-		
+
 		// Going backwards...
 		for (int i = utilInfo.size() - 1; i >= 0; i--) {
-			if (utilInfo.get(i).ts < fromTsSec) {
+			if (utilInfo.getTs(i) < fromTsSec) {
 
 				break;
 			}
 
-			currUtilStats = utilInfo.get(i);
-			averageUtil += ((currUtilStats.busyTime - currUtilStats.transmitTime) * 1.0 / currUtilStats.activeTime);
-			averageXmit += ((currUtilStats.transmitTime) * 1.0 / currUtilStats.activeTime);
+			int activeTime = utilInfo.getActiveTime(i), transmitTime = utilInfo.getTransmitTime(i);
+			averageUtil += ((utilInfo.getBusyTime(i) - transmitTime) * 1.0 / activeTime);
+			averageXmit += (transmitTime * 1.0 / activeTime);
 
 			countUtils ++;
 		}
@@ -473,10 +475,10 @@ public class CoapManager implements Runnable {
 	 * @return the most recent known WiFi channel used by the input AP. 
 	 */
 	private int getCurrentAPFreq(int currApid) {
-		ArrayList<AirtimeUtilStat> utilInfo = utilPolicyMap.get(currApid);
+		AirtimeUtilSeries utilInfo = utilPolicyMap.get(currApid);
 
 		if (utilInfo.size() > 0) {
-			return utilInfo.get(utilInfo.size() - 1).frequency;
+			return utilInfo.getFrequency(utilInfo.size() - 1);
 		}
 
 		return -1;
@@ -496,7 +498,7 @@ public class CoapManager implements Runnable {
 			//return false;
 		}
 
-		ArrayList<StationStatsPerClient> stationStatsObjectList = stationStatsPolicyMap.get(ap_id);
+		ClientTable<StationStatsPerClient> stationStatsObjectList = stationStatsPolicyMap.get(ap_id);
 		int numClients = stationStatsObjectList.size();
 		MutablePair<Integer,Long> chEntry = chanMap.get(ap_id);
 
@@ -515,7 +517,7 @@ public class CoapManager implements Runnable {
 			StationStatsPerClient object = stationStatsObjectList.get(i);
 			int numEntries = object.statsList.size();
 
-			System.out.println("MIT: CanChangeChannel " + CoapUtils.getCurrentTime() + " ap_id " + ap_id + " client " + object.clientId + " num entries " + numEntries);
+			System.out.println("MIT: CanChangeChannel " + CoapUtils.getCurrentTime() + " ap_id " + ap_id + " client " + StatsDictionary.decodeMac(object.clientMac) + " num entries " + numEntries);
 
 			// Search within the most recent instances for activity.
 			for (int j = numEntries - 1; j > Math.max(0, numEntries - 10) ; --j) {
@@ -1,12 +1,18 @@
 package net.floodlightcontroller.core.coap.dataparsers;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.floodlightcontroller.core.coap.statsmanager.DatabaseCommitter;
+import net.floodlightcontroller.core.coap.statsmanager.StatsDecoder;
+import net.floodlightcontroller.core.coap.structs.AirtimeUtilSeries;
 import net.floodlightcontroller.core.coap.structs.AirtimeUtilStat;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.CoapUtils;
 
 import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.protocol.statistics.coap.OFUtilStatisticsReply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,7 +24,8 @@ import org.slf4j.LoggerFactory;
  * @author "Ashish Patro"
  *
  */
-public class AirtimeUtilParser implements Parser {
+public class AirtimeUtilParser implements Parser<Map<Integer, HashMap<Long, AirtimeUtilStat>>, Map<Integer, AirtimeUtilSeries>>,
+		StatsRecordParser<AirtimeUtilStat> {
 
 	// Logger.
 	protected static Logger log = 
@@ -26,52 +33,108 @@ public class AirtimeUtilParser implements Parser {
 
 	@Override
 	public void processOFStat(OFStatistics currStat, int apId) {
-		OFUtilStatisticsReply ofUtilStat = (OFUtilStatisticsReply) currStat;
+		add(apId, StatsDecoder.decodeUtil((OFUtilStatisticsReply) currStat));
+	}
 
-		AirtimeUtilStat currUtilStat = new AirtimeUtilStat(ofUtilStat.getChannel(), ofUtilStat.getTimestamp(),
-				ofUtilStat.getUtilVal(), ofUtilStat.getActive(),
-				ofUtilStat.getBusy(), ofUtilStat.getReceive(), 
-				ofUtilStat.getXmit(), ofUtilStat.getNoiseFloor());
+	@Override
+	public OFStatisticsType getStatsType() {
+		return OFStatisticsType.UTIL;
+	}
+
+	@Override
+	public AirtimeUtilStat decode(OFStatistics currStat, int apId) {
+		return StatsDecoder.decodeUtil((OFUtilStatisticsReply) currStat);
+	}
+
+	/**
+	 * Store the airtime utilization record decoded from the AP's statistics (see StatsDecoder).
+	 * 
+	 * @param apId
+	 * @param currUtilStat
+	 */
+	public void add(int apId, AirtimeUtilStat currUtilStat) {
+		addAll(apId, Collections.singletonList(currUtilStat));
+	}
 
-		synchronized (utilMapForStorage) {
-			if (!utilMapForStorage.containsKey(apId)) {
-				utilMapForStorage.put(apId, new HashMap<Long, AirtimeUtilStat>());
+	/**
+	 * Only the AP's own maps are locked, the writers for different APs don't contend.
+	 */
+	@Override
+	public void addAll(int apId, List<AirtimeUtilStat> records) {
+		HashMap<Long, AirtimeUtilStat> apMap = utilMapForStorage.get(apId);
+		if (apMap == null) {
+			HashMap<Long, AirtimeUtilStat> newApMap = new HashMap<Long, AirtimeUtilStat>();
+			apMap = utilMapForStorage.putIfAbsent(apId, newApMap);
+			if (apMap == null) {
+				apMap = newApMap;
 			}
+		}
 
-			maxTs = Math.max(maxTs, currUtilStat.ts);
+		long batchMaxTs = 0;
+		synchronized (apMap) {
+			for (AirtimeUtilStat currUtilStat: records) {
+				apMap.put(currUtilStat.ts, currUtilStat);
+				batchMaxTs = Math.max(batchMaxTs, currUtilStat.ts);
+			}
 		}
 
-		synchronized (utilInMemoryMap) {
-			if (!utilInMemoryMap.containsKey(apId)) {
-				utilInMemoryMap.put(apId, new ArrayList<AirtimeUtilStat>());
+		CoapUtils.updateMax(maxTs, batchMaxTs);
+
+		AirtimeUtilSeries utilSeries = utilInMemoryMap.get(apId);
+		if (utilSeries == null) {
+			AirtimeUtilSeries newSeries = new AirtimeUtilSeries(CoapConstants.UTIL_SERIES_CAPACITY,
+					CoapConstants.INMEMORY_DATA_INTERVAL_SEC);
+			utilSeries = utilInMemoryMap.putIfAbsent(apId, newSeries);
+			if (utilSeries == null) {
+				utilSeries = newSeries;
 			}
+		}
 
-			utilMapForStorage.get(apId).put(currUtilStat.ts, currUtilStat);
-			utilInMemoryMap.get(apId).add(currUtilStat);
+		synchronized (utilSeries) {
+			for (AirtimeUtilStat currUtilStat: records) {
+				utilSeries.append(currUtilStat);
+			}
 		}
 	}
 
 	@Override
-	public Object getStorageHashMap() {
+	public Map<Integer, HashMap<Long, AirtimeUtilStat>> getStorageHashMap() {
 		return utilMapForStorage;
 	}
 
 	@Override
-	public Object getInMemoryHashMap() {
+	public Map<Integer, AirtimeUtilSeries> getInMemoryHashMap() {
 		return utilInMemoryMap;
 	}
 
+	/**
+	 * Read-only copy of the in-memory series of each AP (see AirtimeUtilSeries.snapshot()), e.g.,
+	 * for the policies of the CoapManager.
+	 * 
+	 * @return snapshot of the in-memory statistics.
+	 */
+	public Map<Integer, AirtimeUtilSeries> getInMemorySnapshot() {
+		HashMap<Integer, AirtimeUtilSeries> snapshot = new HashMap<Integer, AirtimeUtilSeries>();
+		for (Map.Entry<Integer, AirtimeUtilSeries> entry: utilInMemoryMap.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().snapshot());
+		}
+
+		return Collections.unmodifiableMap(snapshot);
+	}
+
 	/**
 	 * Stores airtime utilization information data before it is committed to a persistent storage.
+	 * Each AP's map is locked separately.
 	 */
-	Map<Integer, HashMap<Long, AirtimeUtilStat> > utilMapForStorage = 
-			new HashMap<Integer, HashMap<Long,AirtimeUtilStat>>();
+	ConcurrentHashMap<Integer, HashMap<Long, AirtimeUtilStat> > utilMapForStorage = 
+			new ConcurrentHashMap<Integer, HashMap<Long,AirtimeUtilStat>>();
 	
 	/**
 	 * Stores airtime utilization information in memory for immediate processing requirements.
+	 * Each AP's series is locked separately.
 	 */
-	Map<Integer, ArrayList<AirtimeUtilStat>> utilInMemoryMap = 
-			new HashMap<Integer, ArrayList<AirtimeUtilStat>>();
+	ConcurrentHashMap<Integer, AirtimeUtilSeries> utilInMemoryMap = 
+			new ConcurrentHashMap<Integer, AirtimeUtilSeries>();
 
 	@Override
 	public void commit(long tsLimit) {
@@ -79,15 +142,12 @@ public class AirtimeUtilParser implements Parser {
 			String queryFormat = "insert into " + CoapConstants.UTIL_TABLE + " VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)";
 			ArrayList<ArrayList<Object>> objArrayVector = new ArrayList<ArrayList<Object>>();
 			
-			synchronized (utilMapForStorage) {
-				Iterator<Map.Entry<Integer, HashMap<Long, AirtimeUtilStat>>> it = 
-						utilMapForStorage.entrySet().iterator();
-
-				while (it.hasNext()) {
-					boolean dontRemove = false;
-					Map.Entry<Integer, HashMap<Long, AirtimeUtilStat>> pair = it.next();
-					int ap_id = pair.getKey();
-					Iterator<Map.Entry<Long, AirtimeUtilStat>> tim_it = pair.getValue().entrySet().iterator();
+			for (Map.Entry<Integer, HashMap<Long, AirtimeUtilStat>> pair: utilMapForStorage.entrySet()) {
+				int ap_id = pair.getKey();
+				HashMap<Long, AirtimeUtilStat> apMap = pair.getValue();
+
+				synchronized (apMap) {
+					Iterator<Map.Entry<Long, AirtimeUtilStat>> tim_it = apMap.entrySet().iterator();
 					while (tim_it.hasNext()) {
 						Map.Entry<Long, AirtimeUtilStat> pair_tim = tim_it.next();
 						long ts = pair_tim.getKey();
@@ -108,54 +168,36 @@ public class AirtimeUtilParser implements Parser {
 
 						tim_it.remove();
 					}
-
-					if (!dontRemove) {
-						it.remove();
-					}
 				}
-
-				//DatabaseCommitter.ExecuteQuery(queries);
-				DatabaseCommitter.executeQuery(queryFormat, objArrayVector);
-				//System.out.println("queries size = " + queries.size());
 			}
+
+			// The AP maps aren't locked while the records are inserted.
+			//DatabaseCommitter.ExecuteQuery(queries);
+			DatabaseCommitter.executeQuery(queryFormat, objArrayVector);
+			//System.out.println("queries size = " + queries.size());
 		} catch (Exception e) {
 			log.error("Exception while inserting util statistics into DB: " + e.getMessage());
 			e.printStackTrace();
 		}
 	}
 
-	long maxTs = 0;
+	AtomicLong maxTs = new AtomicLong(0);
 
 	@Override
 	public long getMaxTs() {
-		return maxTs;
+		return maxTs.get();
 	}
 
 	@Override
 	public int ClearInMemoryData(long tsLimit) {
 		int cnt = 0;
 
-		synchronized(utilInMemoryMap) {
-			Iterator<Map.Entry<Integer, ArrayList<AirtimeUtilStat>>> utilIterator = utilInMemoryMap.entrySet().iterator();
-			while (utilIterator.hasNext()) {
-				Map.Entry<Integer, ArrayList<AirtimeUtilStat>> utilEntry = utilIterator.next();
-				ArrayList<AirtimeUtilStat> utilArray = utilEntry.getValue();
-				Iterator<AirtimeUtilStat> arrayIter = utilArray.iterator();
-
-				while (arrayIter.hasNext()) {
-					AirtimeUtilStat obj = arrayIter.next();
-					if (obj.ts > tsLimit - CoapConstants.INMEMORY_DATA_INTERVAL_SEC) {
-						break;
-					}
-
-					cnt ++;
-					arrayIter.remove();
-				}
-			}
-
-			System.out.println("ClearMaps: " + tsLimit + " removed " + cnt + " util entries...");
+		for (AirtimeUtilSeries utilSeries: utilInMemoryMap.values()) {
+			cnt += utilSeries.expire(tsLimit - CoapConstants.INMEMORY_DATA_INTERVAL_SEC);
 		}
 
+		System.out.println("ClearMaps: " + tsLimit + " removed " + cnt + " util entries...");
+
 		return cnt;
 	}
 }
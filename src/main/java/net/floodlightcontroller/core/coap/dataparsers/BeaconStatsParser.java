@@ -1,15 +1,23 @@
 package net.floodlightcontroller.core.coap.dataparsers;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.floodlightcontroller.core.coap.statsmanager.DatabaseCommitter;
+import net.floodlightcontroller.core.coap.statsmanager.StatsDecoder;
 import net.floodlightcontroller.core.coap.structs.BeaconStat;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.CoapUtils;
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
 
 import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.protocol.statistics.coap.OFBeaconStatisticsReply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,7 +29,8 @@ import org.slf4j.LoggerFactory;
  * @author "Ashish Patro"
  *
  */
-public class BeaconStatsParser implements Parser {
+public class BeaconStatsParser implements Parser<Map<Integer, HashMap<Long, HashMap<Long, BeaconStat>>>, Void>,
+		StatsRecordParser<BeaconStat> {
 
 	// Logger.
 	protected static Logger log = 
@@ -29,39 +38,70 @@ public class BeaconStatsParser implements Parser {
 
 	@Override
 	public void processOFStat(OFStatistics currStat, int apId) {
-		OFBeaconStatisticsReply ofBeaconStat = (OFBeaconStatisticsReply) currStat;
+		add(apId, StatsDecoder.decodeBeacon((OFBeaconStatisticsReply) currStat));
+	}
 
-		BeaconStat currBeacon = new BeaconStat(ofBeaconStat.getAp(), ofBeaconStat.getAvgRssi(), ofBeaconStat.getChannel(), ofBeaconStat.getTimestamp());
+	@Override
+	public OFStatisticsType getStatsType() {
+		return OFStatisticsType.BEACON;
+	}
 
-		String apMacId = ofBeaconStat.getAp();
-		Long sec = (long) ofBeaconStat.getTimestamp();
-		
-		synchronized (beaconInforForStorageMap) {
-			if (!beaconInforForStorageMap.containsKey(apId)) {
-				beaconInforForStorageMap.put(apId, new HashMap<Long, HashMap<String, BeaconStat>>());
-			}
+	@Override
+	public BeaconStat decode(OFStatistics currStat, int apId) {
+		return StatsDecoder.decodeBeacon((OFBeaconStatisticsReply) currStat);
+	}
+
+	/**
+	 * Store the beacon record decoded from the AP's statistics (see StatsDecoder).
+	 * 
+	 * @param apId
+	 * @param currBeacon
+	 */
+	public void add(int apId, BeaconStat currBeacon) {
+		addAll(apId, Collections.singletonList(currBeacon));
+	}
 
-			if (!beaconInforForStorageMap.get(apId).containsKey(sec)) {
-				beaconInforForStorageMap.get(apId).put(sec, new HashMap<String, BeaconStat>());
+	/**
+	 * Only the AP's own map is locked, the writers for different APs don't contend.
+	 */
+	@Override
+	public void addAll(int apId, List<BeaconStat> records) {
+		HashMap<Long, HashMap<Long, BeaconStat>> apMap = beaconInforForStorageMap.get(apId);
+		if (apMap == null) {
+			HashMap<Long, HashMap<Long, BeaconStat>> newApMap = new HashMap<Long, HashMap<Long, BeaconStat>>();
+			apMap = beaconInforForStorageMap.putIfAbsent(apId, newApMap);
+			if (apMap == null) {
+				apMap = newApMap;
 			}
+		}
 
-			beaconInforForStorageMap.get(apId).get(sec).put(apMacId, currBeacon);
-			maxTs = Math.max(maxTs, sec);
+		long batchMaxTs = 0;
+		synchronized (apMap) {
+			for (BeaconStat currBeacon: records) {
+				Long sec = currBeacon.timestamp;
+				if (!apMap.containsKey(sec)) {
+					apMap.put(sec, new HashMap<Long, BeaconStat>());
+				}
+
+				apMap.get(sec).put(currBeacon.apMac, currBeacon);
+				batchMaxTs = Math.max(batchMaxTs, sec);
+			}
 		}
+
+		CoapUtils.updateMax(maxTs, batchMaxTs);
 	}
 
 	@Override
-	public synchronized Object getStorageHashMap() {
-		synchronized (beaconInforForStorageMap) {
-			return beaconInforForStorageMap;
-		}
+	public Map<Integer, HashMap<Long, HashMap<Long, BeaconStat>>> getStorageHashMap() {
+		return beaconInforForStorageMap;
 	}
 
 	/**
-	 * Stores beacon information data before it is committed to a persistent storage.
+	 * Stores beacon information data before it is committed to a persistent storage, keyed by
+	 * the BSSID encoded with StatsDictionary.encodeMac(). Each AP's map is locked separately.
 	 */
-	public HashMap<Integer, HashMap<Long, HashMap<String, BeaconStat> > > beaconInforForStorageMap = 
-			new HashMap<Integer, HashMap<Long, HashMap<String, BeaconStat> > >();
+	public ConcurrentHashMap<Integer, HashMap<Long, HashMap<Long, BeaconStat> > > beaconInforForStorageMap = 
+			new ConcurrentHashMap<Integer, HashMap<Long, HashMap<Long, BeaconStat> > >();
 
 	@Override
 	public void commit(long tsLimit) {
@@ -71,19 +111,12 @@ public class BeaconStatsParser implements Parser {
 
 			//System.out.println("commiting beacon stats");
 
-			synchronized (beaconInforForStorageMap) {
-				@SuppressWarnings("rawtypes")
-				Iterator it = beaconInforForStorageMap.entrySet().iterator();
-	
-				while (it.hasNext()) {
-	
-					@SuppressWarnings("rawtypes")
-					Map.Entry pairs = (Map.Entry)it.next();
-					Integer ap_id = (Integer)pairs.getKey();
-					@SuppressWarnings("unchecked")
-					HashMap<Long, HashMap<String, BeaconStat> > tim_hashmap = 
-					(HashMap<Long, HashMap<String, BeaconStat> >)pairs.getValue();
-	
+			for (Map.Entry<Integer, HashMap<Long, HashMap<Long, BeaconStat> > > pairs:
+					beaconInforForStorageMap.entrySet()) {
+				Integer ap_id = pairs.getKey();
+				HashMap<Long, HashMap<Long, BeaconStat> > tim_hashmap = pairs.getValue();
+
+				synchronized (tim_hashmap) {
 					@SuppressWarnings("rawtypes")
 					Iterator timIt = tim_hashmap.entrySet().iterator();
 	
@@ -93,15 +126,15 @@ public class BeaconStatsParser implements Parser {
 						Long sec = (Long)tim_pairs.getKey();
 	
 						@SuppressWarnings("unchecked")
-						HashMap<String, BeaconStat> client_map = 
-						(HashMap<String, BeaconStat>)tim_pairs.getValue();
+						HashMap<Long, BeaconStat> client_map = 
+						(HashMap<Long, BeaconStat>)tim_pairs.getValue();
 						@SuppressWarnings("rawtypes")
 						Iterator client_it = client_map.entrySet().iterator();
 	
 						while (client_it.hasNext()) {
 							@SuppressWarnings("rawtypes")
 							Map.Entry client_pairs = (Map.Entry)client_it.next();
-							String client_mac = (String)client_pairs.getKey();
+							String client_mac = StatsDictionary.decodeMac((Long)client_pairs.getKey());
 							BeaconStat stat = (BeaconStat)client_pairs.getValue();
 	
 							ArrayList<Object> objArray = new ArrayList<Object>();
@@ -118,29 +151,28 @@ public class BeaconStatsParser implements Parser {
 	
 						timIt.remove();
 					}
-	
-					it.remove();
 				}
-	
-				//DatabaseCommitter.ExecuteQuery(queries);
-				DatabaseCommitter.executeQuery(queryFormat, params);
-				//System.out.println("sz = " + queries.size());
-				//beacon_map.clear();
 			}
+
+			// The AP maps aren't locked while the records are inserted.
+			//DatabaseCommitter.ExecuteQuery(queries);
+			DatabaseCommitter.executeQuery(queryFormat, params);
+			//System.out.println("sz = " + queries.size());
+			//beacon_map.clear();
 		} catch (Exception e) {
 			log.error("Exception while inserting beacon statistics into DB: " + e.getMessage());
 			e.printStackTrace();
 		}
 	}
 
-	long maxTs = 0;
+	AtomicLong maxTs = new AtomicLong(0);
 	@Override
 	public long getMaxTs() {
-		return maxTs;
+		return maxTs.get();
 	}
 
 	@Override
-	public Object getInMemoryHashMap() {
+	public Void getInMemoryHashMap() {
 		// TODO Auto-generated method stub
 		return null;
 	}
@@ -1,16 +1,21 @@
 package net.floodlightcontroller.core.coap.dataparsers;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.floodlightcontroller.core.coap.statsmanager.DatabaseCommitter;
+import net.floodlightcontroller.core.coap.statsmanager.StatsDecoder;
 import net.floodlightcontroller.core.coap.structs.NonWiFiDevice;
-import net.floodlightcontroller.core.coap.structs.NonWiFiDeviceType;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.CoapUtils;
+import net.floodlightcontroller.core.coap.util.LongKeyMap;
 
 import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.protocol.statistics.coap.OFNonWiFiStatisticsReply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,7 +27,8 @@ import org.slf4j.LoggerFactory;
  * @author "Ashish Patro"
  *
  */
-public class NonWiFiStatsParser implements Parser {
+public class NonWiFiStatsParser implements Parser<Map<Integer, LongKeyMap<NonWiFiDevice>>, Void>,
+		StatsRecordParser<OFNonWiFiStatisticsReply> {
 	// Constants.
 	public static int MAXIMUM_INACTIVE_DURATION_SEC = 30;
 
@@ -32,50 +38,92 @@ public class NonWiFiStatsParser implements Parser {
 
 	@Override
 	public void processOFStat(OFStatistics currStat, int apId) {
-		OFNonWiFiStatisticsReply ofNonWiFiDevice = (OFNonWiFiStatisticsReply) currStat;
+		addAll(apId, Collections.singletonList((OFNonWiFiStatisticsReply) currStat));
+	}
 
-		NonWiFiDevice currNonWiFiDevice = new NonWiFiDevice(ofNonWiFiDevice.getTimestamp(),
-						ofNonWiFiDevice.getStartTs(),
-						ofNonWiFiDevice.getEndTs(),
+	@Override
+	public OFStatisticsType getStatsType() {
+		return OFStatisticsType.NONWIFI;
+	}
 
-						ofNonWiFiDevice.getDuration(),
-						ofNonWiFiDevice.getRssi(),
+	/**
+	 * The replies are merged into the tracked devices by addAll(), a NonWiFiDevice is only
+	 * allocated for a newly detected device.
+	 */
+	@Override
+	public OFNonWiFiStatisticsReply decode(OFStatistics currStat, int apId) {
+		return (OFNonWiFiStatisticsReply) currStat;
+	}
 
-						ofNonWiFiDevice.getStartBin(), ofNonWiFiDevice.getCenterBin(), ofNonWiFiDevice.getEndBin(),
-						NonWiFiDeviceType.get(ofNonWiFiDevice.getDeviceType()),
-						ofNonWiFiDevice.getChannel());
+	/**
+	 * Store a non-WiFi device activity, replacing the tracked device with the same key.
+	 * 
+	 * @param apId
+	 * @param currNonWiFiDevice
+	 */
+	public void add(int apId, NonWiFiDevice currNonWiFiDevice) {
+		LongKeyMap<NonWiFiDevice> apMap = getApMap(apId);
+		synchronized (apMap) {
+			apMap.put(currNonWiFiDevice.getKey(), currNonWiFiDevice);
+		}
 
-		synchronized (nonwifiDevicForStorageeMap) {
-			String currId = currNonWiFiDevice.getKey();
+		CoapUtils.updateMax(maxTs, currNonWiFiDevice.timeStamp);
+	}
 
-			if (!nonwifiDevicForStorageeMap.containsKey(apId)) {
-				nonwifiDevicForStorageeMap.put(apId, new HashMap<String, NonWiFiDevice>());
-			}
+	/**
+	 * Merge the reports of the ongoing devices in place (see StatsDecoder.updateNonWiFi()), keyed
+	 * by the packed (startTs, type, subbandFreq) key. Only the AP's map is locked.
+	 */
+	@Override
+	public void addAll(int apId, List<OFNonWiFiStatisticsReply> records) {
+		LongKeyMap<NonWiFiDevice> apMap = getApMap(apId);
+		long batchMaxTs = 0;
+
+		synchronized (apMap) {
+			for (int i = 0; i < records.size(); i++) {
+				OFNonWiFiStatisticsReply reply = records.get(i);
+				long currId = StatsDecoder.getNonWiFiKey(reply);
+
+				NonWiFiDevice currNonWiFiDevice = apMap.get(currId);
+				if (currNonWiFiDevice != null) {
+					StatsDecoder.updateNonWiFi(currNonWiFiDevice, reply);
+				} else {
+					currNonWiFiDevice = StatsDecoder.decodeNonWiFi(reply);
+					apMap.put(currId, currNonWiFiDevice);
+				}
 
-			if (nonwifiDevicForStorageeMap.get(apId).containsKey(currId)) {
-				//System.out.println("Removing : " + currId.toString());
-				nonwifiDevicForStorageeMap.get(apId).remove(currId);
+				//System.out.println("Num nonwifi " + currId + " " + apMap.size());
+				batchMaxTs = Math.max(batchMaxTs, currNonWiFiDevice.timeStamp);
 			}
+		}
 
-			nonwifiDevicForStorageeMap.get(apId).put(currId, currNonWiFiDevice);
+		CoapUtils.updateMax(maxTs, batchMaxTs);
+	}
 
-			//System.out.println("Num nonwifi " + currId.hashCode() + " " + nonwifi_device_map.get(ap_id).size());
-			maxTs = Math.max(maxTs, currNonWiFiDevice.timeStamp);
+	private LongKeyMap<NonWiFiDevice> getApMap(int apId) {
+		LongKeyMap<NonWiFiDevice> apMap = nonwifiDevicForStorageeMap.get(apId);
+		if (apMap == null) {
+			LongKeyMap<NonWiFiDevice> newApMap = new LongKeyMap<NonWiFiDevice>();
+			apMap = nonwifiDevicForStorageeMap.putIfAbsent(apId, newApMap);
+			if (apMap == null) {
+				apMap = newApMap;
+			}
 		}
+
+		return apMap;
 	}
 
 	@Override
-	public synchronized Object getStorageHashMap() {
-		synchronized (nonwifiDevicForStorageeMap) {
-			return nonwifiDevicForStorageeMap;
-		}
+	public Map<Integer, LongKeyMap<NonWiFiDevice>> getStorageHashMap() {
+		return nonwifiDevicForStorageeMap;
 	}
 
 	/**
 	 * Stores non-WiFi activity information data before it is committed to a persistent storage.
+	 * Each AP's map is locked separately.
 	 */
-	public HashMap<Integer, HashMap<String, NonWiFiDevice > > nonwifiDevicForStorageeMap = 
-			new HashMap<Integer, HashMap<String, NonWiFiDevice> >();
+	public ConcurrentHashMap<Integer, LongKeyMap<NonWiFiDevice>> nonwifiDevicForStorageeMap = 
+			new ConcurrentHashMap<Integer, LongKeyMap<NonWiFiDevice>>();
 
 	@Override
 	public void commit(long tsLimit) { // Time limit doesn't matter in this case.
@@ -86,28 +134,24 @@ public class NonWiFiStatsParser implements Parser {
 			
 			//System.out.println("commiting airshark stats");
 
-			synchronized (nonwifiDevicForStorageeMap) {
-				@SuppressWarnings("rawtypes")
-				Iterator it = nonwifiDevicForStorageeMap.entrySet().iterator();
-	
-				while (it.hasNext()) {
-					//int ret = 0;
-					//boolean dontRemove = false;
-	
-					@SuppressWarnings("rawtypes")
-					Map.Entry pairs = (Map.Entry)it.next();
-					Integer ap_id = (Integer)pairs.getKey();
-					@SuppressWarnings("unchecked")
-					HashMap<String, NonWiFiDevice > dev_hashmap = 
-					(HashMap<String, NonWiFiDevice >)pairs.getValue();
-	
-					@SuppressWarnings("rawtypes")
-					Iterator dev_it = dev_hashmap.entrySet().iterator();
-					while (dev_it.hasNext()) {
-						@SuppressWarnings("rawtypes")
-						Map.Entry tim_pairs = (Map.Entry)dev_it.next();
-						//String devId = (String)tim_pairs.getKey();
-						NonWiFiDevice stat = (NonWiFiDevice) tim_pairs.getValue();
+			for (Map.Entry<Integer, LongKeyMap<NonWiFiDevice>> pairs: nonwifiDevicForStorageeMap.entrySet()) {
+				//int ret = 0;
+				//boolean dontRemove = false;
+
+				Integer ap_id = pairs.getKey();
+				LongKeyMap<NonWiFiDevice> dev_hashmap = pairs.getValue();
+
+				synchronized (dev_hashmap) {
+
+					// Keys of the committed devices, removed after the scan.
+					long[] committedKeys = new long[dev_hashmap.size()];
+					int numCommitted = 0;
+
+					for (int slot = 0; slot < dev_hashmap.capacity(); ++slot) {
+						NonWiFiDevice stat = dev_hashmap.valueAt(slot);
+						if (stat == null) {
+							continue;
+						}
 	
 						// 0223: Added to insert all entries.
 						/*
@@ -137,16 +181,22 @@ public class NonWiFiStatsParser implements Parser {
 							//System.out.println("Adding: " + devId + " - " + stat.centerFreq);
 	
 							params.add(objArray);
-							dev_it.remove();
+							committedKeys[numCommitted ++] = dev_hashmap.keyAt(slot);
 						}
 					}
-					System.out.println("Num nonwifi after clear: " + nonwifiDevicForStorageeMap.get(ap_id).size());
+
+					for (int i = 0; i < numCommitted; ++i) {
+						dev_hashmap.remove(committedKeys[i]);
+					}
+
+					System.out.println("Num nonwifi after clear: " + dev_hashmap.size());
 				}
-	
-				//DatabaseCommitter.ExecuteQuery(queries);
-				DatabaseCommitter.executeQuery(queryFormat, params);
-				//System.out.println("sz = " + queries.size());
 			}
+
+			// The AP maps aren't locked while the records are inserted.
+			//DatabaseCommitter.ExecuteQuery(queries);
+			DatabaseCommitter.executeQuery(queryFormat, params);
+			//System.out.println("sz = " + queries.size());
 		} catch (Exception e) {
 			log.error("Exception while inserting non-WiFi statistics into DB: " + e.getMessage());
 			
@@ -154,15 +204,15 @@ public class NonWiFiStatsParser implements Parser {
 		}
 	}
 
-	long maxTs = 0;
+	AtomicLong maxTs = new AtomicLong(0);
 
 	@Override
 	public long getMaxTs() {
-		return maxTs;
+		return maxTs.get();
 	}
 
 	@Override
-	public Object getInMemoryHashMap() {
+	public Void getInMemoryHashMap() {
 		// TODO Auto-generated method stub
 		return null;
 	}
@@ -6,10 +6,14 @@ import org.openflow.protocol.statistics.OFStatistics;
  * The Parse interface is implemented by all classes that are used to parse the COAP related
  * wireless statistics collected from the COAP APs.
  * 
+ * @param <S> type of the map storing the statistics until they're committed to a database.
+ * @param <M> type of the in-memory map used for real-time data-analytics, Void if the parser
+ * doesn't maintain one.
+ * 
  * @author "Ashish Patro"
  *
  */
-public interface Parser {
+public interface Parser<S, M> {
 	//void process(String rest, int apId);
 	
 	/**
@@ -25,14 +29,14 @@ public interface Parser {
 	 * 
 	 * @return Data HashMap
 	 */
-	public Object getStorageHashMap();
+	public S getStorageHashMap();
 	
 	/**
 	 * Get reference to the in-memory HashMap maintained for real-time data-analytics.
 	 * 
 	 * @return Data HashMap
 	 */
-	public Object getInMemoryHashMap();
+	public M getInMemoryHashMap();
 	
 	/**
 	 * Commit the data to a backing database from the in-memory HashMap.
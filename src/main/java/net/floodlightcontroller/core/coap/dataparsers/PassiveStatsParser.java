@@ -1,15 +1,24 @@
 package net.floodlightcontroller.core.coap.dataparsers;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.floodlightcontroller.core.coap.statsmanager.DatabaseCommitter;
+import net.floodlightcontroller.core.coap.statsmanager.StatsDecoder;
+import net.floodlightcontroller.core.coap.structs.Pair;
 import net.floodlightcontroller.core.coap.structs.PassiveStats;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.CoapUtils;
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
 
 import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.protocol.statistics.coap.OFPassiveStatisticsReply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,7 +31,8 @@ import org.slf4j.LoggerFactory;
  * @author "Ashish Patro"
  *
  */
-public class PassiveStatsParser implements Parser {
+public class PassiveStatsParser implements Parser<Map<Integer, HashMap<Long, HashMap<Pair<Long, Long>, PassiveStats>>>, Void>,
+		StatsRecordParser<PassiveStats> {
 	
 	// Logger.
 	protected static Logger log = 
@@ -30,33 +40,73 @@ public class PassiveStatsParser implements Parser {
 
 	@Override
 	public void processOFStat(OFStatistics currStat, int apId) {
+		add(apId, StatsDecoder.decodePassive((OFPassiveStatisticsReply) currStat));
+	}
+
+	@Override
+	public OFStatisticsType getStatsType() {
+		return OFStatisticsType.PASSIVE;
+	}
+
+	/**
+	 * Only the statistics collected on the AP's channel (type 0) are processed here, the 
+	 * statistics collected while hopping across channels are processed by the PassiveHopParser.
+	 */
+	@Override
+	public PassiveStats decode(OFStatistics currStat, int apId) {
 		OFPassiveStatisticsReply ofPassiveStat = (OFPassiveStatisticsReply) currStat;
-		
-		String link = String.format("%s %s", ofPassiveStat.getSender(), ofPassiveStat.getReceiver());
-		PassiveStats currPassiveStat = new PassiveStats(ofPassiveStat.getAveragePacketLength(), ofPassiveStat.getAverageRate(), 
-						ofPassiveStat.getRssi(), ofPassiveStat.getPacketCount(),
-						ofPassiveStat.getPacketRetries(), ofPassiveStat.getRetryString(),
-						ofPassiveStat.getChannel());		
-		Long sec = (long) ofPassiveStat.getTimestamp(); 
-
-		maxTs = Math.max(maxTs, sec);
-		
-		synchronized (passiveStatsForStorageMap) {
-			if (!passiveStatsForStorageMap.containsKey(apId)) {
-				passiveStatsForStorageMap.put(apId, new HashMap<Long, HashMap<String, PassiveStats> >());
-			}
+		if (ofPassiveStat.getType() != 0) {
+			return null;
+		}
 
-			if (!passiveStatsForStorageMap.get(apId).containsKey(sec)) {
-				passiveStatsForStorageMap.get(apId).put(sec, new HashMap<String, PassiveStats>());
+		return StatsDecoder.decodePassive(ofPassiveStat);
+	}
+
+	/**
+	 * Store the link's statistics decoded from the AP's statistics (see StatsDecoder).
+	 * 
+	 * @param apId
+	 * @param currPassiveStat
+	 */
+	public void add(int apId, PassiveStats currPassiveStat) {
+		addAll(apId, Collections.singletonList(currPassiveStat));
+	}
+
+	/**
+	 * Only the AP's own map is locked, the writers for different APs don't contend.
+	 */
+	@Override
+	public void addAll(int apId, List<PassiveStats> records) {
+		HashMap<Long, HashMap<Pair<Long, Long>, PassiveStats>> apMap = passiveStatsForStorageMap.get(apId);
+		if (apMap == null) {
+			HashMap<Long, HashMap<Pair<Long, Long>, PassiveStats>> newApMap =
+					new HashMap<Long, HashMap<Pair<Long, Long>, PassiveStats> >();
+			apMap = passiveStatsForStorageMap.putIfAbsent(apId, newApMap);
+			if (apMap == null) {
+				apMap = newApMap;
 			}
+		}
 
-			passiveStatsForStorageMap.get(apId).get(sec).put(link, currPassiveStat);
+		long batchMaxTs = 0;
+		synchronized (apMap) {
+			for (PassiveStats currPassiveStat: records) {
+				Pair<Long, Long> link = new Pair<Long, Long>(currPassiveStat.senderMac, currPassiveStat.receiverMac);
+				Long sec = currPassiveStat.ts;
+
+				if (!apMap.containsKey(sec)) {
+					apMap.put(sec, new HashMap<Pair<Long, Long>, PassiveStats>());
+				}
+
+				apMap.get(sec).put(link, currPassiveStat);
+				batchMaxTs = Math.max(batchMaxTs, sec);
+			}
 		}
 
+		CoapUtils.updateMax(maxTs, batchMaxTs);
 	}
 
 	@Override
-	public synchronized Object getStorageHashMap() {
+	public Map<Integer, HashMap<Long, HashMap<Pair<Long, Long>, PassiveStats>>> getStorageHashMap() {
 		return passiveStatsForStorageMap;
 	}
 
@@ -66,25 +116,23 @@ public class PassiveStatsParser implements Parser {
 			String queryFormat = "insert into " + CoapConstants.PASSIVE_TABLE + " values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 			ArrayList<ArrayList<Object>> params = new ArrayList<ArrayList<Object>>();
 		
-			synchronized (passiveStatsForStorageMap) {
-				Iterator<Map.Entry<Integer, HashMap<Long, HashMap<String, PassiveStats> > > > it = 
-						passiveStatsForStorageMap.entrySet().iterator();
-				
-				while (it.hasNext()) {
-					boolean dontRemove = false;
-					Map.Entry<Integer, HashMap<Long, HashMap<String, PassiveStats> > > pair = it.next();
-					int ap_id = pair.getKey();
-					Iterator<Map.Entry<Long, HashMap<String, PassiveStats> > > tim_it = pair.getValue().entrySet().iterator();
+			for (Map.Entry<Integer, HashMap<Long, HashMap<Pair<Long, Long>, PassiveStats> > > pair:
+					passiveStatsForStorageMap.entrySet()) {
+				int ap_id = pair.getKey();
+				HashMap<Long, HashMap<Pair<Long, Long>, PassiveStats> > apMap = pair.getValue();
+
+				synchronized (apMap) {
+					Iterator<Map.Entry<Long, HashMap<Pair<Long, Long>, PassiveStats> > > tim_it = apMap.entrySet().iterator();
 					while (tim_it.hasNext()) {
-						Map.Entry<Long, HashMap<String, PassiveStats>> pair_tim = tim_it.next();
+						Map.Entry<Long, HashMap<Pair<Long, Long>, PassiveStats>> pair_tim = tim_it.next();
 						long ts = pair_tim.getKey();
 						
-						Iterator<Map.Entry<String, PassiveStats>> link_it = pair_tim.getValue().entrySet().iterator();
+						Iterator<Map.Entry<Pair<Long, Long>, PassiveStats>> link_it = pair_tim.getValue().entrySet().iterator();
 						while (link_it.hasNext()) {
-							Map.Entry<String, PassiveStats> pair_link = link_it.next();
-							String link = pair_link.getKey();
+							Map.Entry<Pair<Long, Long>, PassiveStats> pair_link = link_it.next();
+							Pair<Long, Long> link = pair_link.getKey();
 							PassiveStats stats = pair_link.getValue();
-							String ap = link.split(" ")[0], client = link.split(" ")[1];
+							String ap = StatsDictionary.decodeMac(link.fst), client = StatsDictionary.decodeMac(link.snd);
 							
 							ArrayList<Object> objArray = new ArrayList<Object>();
 							objArray.add(ap_id);
@@ -104,37 +152,36 @@ public class PassiveStatsParser implements Parser {
 						
 						tim_it.remove();
 					}
-					
-					if (!dontRemove) {
-						it.remove();
-					}
 				}
-				
-				//System.out.println("queries size = " + queries.size());
-				//DatabaseCommitter.ExecuteQuery(queries);
-				DatabaseCommitter.executeQuery(queryFormat, params);
 			}
+
+			// The AP maps aren't locked while the records are inserted.
+			//System.out.println("queries size = " + queries.size());
+			//DatabaseCommitter.ExecuteQuery(queries);
+			DatabaseCommitter.executeQuery(queryFormat, params);
 		} catch (Exception e) {
 			log.error("Exception while inserting passive statistics into DB: " + e.getMessage());
 			e.printStackTrace();
 		}
 	}
 	
-	long maxTs = 0;
+	AtomicLong maxTs = new AtomicLong(0);
 	
 	/**
-	 * Stores the passive WiFi statistics before it is committed to a persistent storage.
+	 * Stores the passive WiFi statistics before it is committed to a persistent storage, keyed by
+	 * the (sender, receiver) link with the MACs encoded with StatsDictionary.encodeMac(). Each AP's
+	 * map is locked separately.
 	 */
-	HashMap<Integer, HashMap<Long, HashMap<String, PassiveStats> > > passiveStatsForStorageMap = 
-			new HashMap<Integer, HashMap<Long,HashMap<String,PassiveStats>>>();
+	ConcurrentHashMap<Integer, HashMap<Long, HashMap<Pair<Long, Long>, PassiveStats> > > passiveStatsForStorageMap = 
+			new ConcurrentHashMap<Integer, HashMap<Long,HashMap<Pair<Long, Long>,PassiveStats>>>();
 	
 	@Override
 	public long getMaxTs() {
-		return maxTs;
+		return maxTs.get();
 	}
 	
 	@Override
-	public Object getInMemoryHashMap() {
+	public Void getInMemoryHashMap() {
 		// TODO Auto-generated method stub
 		return null;
 	}
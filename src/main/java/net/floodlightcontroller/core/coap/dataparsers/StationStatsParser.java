@@ -1,16 +1,27 @@
 package net.floodlightcontroller.core.coap.dataparsers;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.floodlightcontroller.core.coap.statsmanager.DatabaseCommitter;
+import net.floodlightcontroller.core.coap.statsmanager.StatsDecoder;
+import net.floodlightcontroller.core.coap.structs.ClientTable;
 import net.floodlightcontroller.core.coap.structs.StationStats;
 import net.floodlightcontroller.core.coap.structs.StationStatsPerClient;
+import net.floodlightcontroller.core.coap.structs.TimeBucketList;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.CoapUtils;
+import net.floodlightcontroller.core.coap.util.StatsCursor;
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
 
 import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.protocol.statistics.coap.OFStationStatisticsReply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,7 +33,8 @@ import org.slf4j.LoggerFactory;
  * @author "Ashish Patro"
  *
  */
-public class StationStatsParser implements Parser {
+public class StationStatsParser implements Parser<Map<Integer, HashMap<Long, HashMap<Long, StationStats>>>, Map<Integer, ClientTable<StationStatsPerClient>>>,
+		StatsRecordParser<StationStats> {
 
 	// Logger.
 	protected static Logger log = 
@@ -30,75 +42,179 @@ public class StationStatsParser implements Parser {
 
 	@Override
 	public void processOFStat(OFStatistics currStat, int apId) {
+		add(apId, StatsDecoder.decodeStation((OFStationStatisticsReply) currStat));
+	}
+
+	@Override
+	public OFStatisticsType getStatsType() {
+		return OFStatisticsType.STATION;
+	}
+
+	/**
+	 * Skips the records older than the ones ingested in a previous poll (see StatsCursor). The
+	 * repeated records of the cursor's second were already dropped by the StatsDedupFilter.
+	 */
+	@Override
+	public StationStats decode(OFStatistics currStat, int apId) {
 		OFStationStatisticsReply ofStationStat = (OFStationStatisticsReply) currStat;
+		if (ofStationStat.getTimestamp() < StatsCursor.getWatermark(apId, OFStatisticsType.STATION)) {
+			StatsCursor.recordSkipped(1);
+			return null;
+		}
 
-		StationStats stationStat =  new StationStats(ofStationStat.getTimestamp(), ofStationStat.getPacketCount(),
-				ofStationStat.getPacketRetries(), ofStationStat.getRetryString());
-		String clientMac = ofStationStat.getClientMacid();
-		Long sec = stationStat.ts;
+		return StatsDecoder.decodeStation(ofStationStat);
+	}
 
-		maxTs = Math.max(maxTs, sec);
-		
-		synchronized (stationStatsForStorageMap) {
-			if (!stationStatsForStorageMap.containsKey(apId)) {
-				stationStatsForStorageMap.put(apId, new HashMap<Long, HashMap<String, StationStats>>());
-			}
+	/**
+	 * Report the range of the timestamps of an AP's reply to its StatsCursor, before any of
+	 * the records is skipped.
+	 * 
+	 * @param stats
+	 * @param apId
+	 */
+	public static void observeReply(List<OFStatistics> stats, int apId) {
+		long minTs = Long.MAX_VALUE, maxTs = Long.MIN_VALUE;
+		for (OFStatistics currStat: stats) {
+			long ts = ((OFStationStatisticsReply) currStat).getTimestamp();
+			minTs = Math.min(minTs, ts);
+			maxTs = Math.max(maxTs, ts);
+		}
+
+		StatsCursor.observeReply(apId, OFStatisticsType.STATION, minTs, maxTs);
+	}
 
-			if (!stationStatsForStorageMap.get(apId).containsKey(sec)) {
-				stationStatsForStorageMap.get(apId).put(sec, new HashMap<String, StationStats>());
+	/**
+	 * Store the client's statistics decoded from the AP's statistics (see StatsDecoder).
+	 * 
+	 * @param apId
+	 * @param stationStat
+	 */
+	public void add(int apId, StationStats stationStat) {
+		addAll(apId, Collections.singletonList(stationStat));
+	}
+
+	/**
+	 * Only the AP's own maps are locked, the writers for different APs don't contend.
+	 */
+	@Override
+	public void addAll(int apId, List<StationStats> records) {
+		long batchMaxTs = 0;
+
+		HashMap<Long, HashMap<Long, StationStats>> apMap = stationStatsForStorageMap.get(apId);
+		if (apMap == null) {
+			HashMap<Long, HashMap<Long, StationStats>> newApMap = new HashMap<Long, HashMap<Long, StationStats>>();
+			apMap = stationStatsForStorageMap.putIfAbsent(apId, newApMap);
+			if (apMap == null) {
+				apMap = newApMap;
 			}
+		}
+
+		synchronized (apMap) {
+			for (StationStats stationStat: records) {
+				Long sec = stationStat.ts;
+				if (!apMap.containsKey(sec)) {
+					apMap.put(sec, new HashMap<Long, StationStats>());
+				}
 
-			stationStatsForStorageMap.get(apId).get(sec).put(clientMac, stationStat);
+				apMap.get(sec).put(stationStat.clientMac, stationStat);
+				batchMaxTs = Math.max(batchMaxTs, sec);
+			}
 		}
 
-		synchronized (stationStatsInMemoryMap) {
-			boolean found = false; 
+		CoapUtils.updateMax(maxTs, batchMaxTs);
 
-			if (!stationStatsInMemoryMap.containsKey(apId)) {
-				stationStatsInMemoryMap.put(apId, new ArrayList<StationStatsPerClient>());
+		ClientTable<StationStatsPerClient> clientTable = stationStatsInMemoryMap.get(apId);
+		if (clientTable == null) {
+			ClientTable<StationStatsPerClient> newTable = new ClientTable<StationStatsPerClient>();
+			clientTable = stationStatsInMemoryMap.putIfAbsent(apId, newTable);
+			if (clientTable == null) {
+				clientTable = newTable;
 			}
+		}
+
+		synchronized (clientTable) {
+			for (StationStats stationStat: records) {
+				long clientMac = stationStat.clientMac;
+				StationStatsPerClient obj = clientTable.find(clientMac);
 
-			for (int i = 0; i < stationStatsInMemoryMap.get(apId).size(); i++) {
-				if (clientMac.equals(stationStatsInMemoryMap.get(apId).get(i).clientId)) {
-					stationStatsInMemoryMap.get(apId).get(i).statsList.add(stationStat);
-					found = true;
-					break;
+				if (obj == null) {
+					obj = new StationStatsPerClient();
+					obj.statsList = new TimeBucketList<StationStats>(CoapConstants.INMEMORY_BUCKET_SEC,
+							CoapConstants.INMEMORY_DATA_INTERVAL_SEC);
+					obj.clientMac = clientMac;
+					clientTable.add(clientMac, obj);
 				}
-			}
 
-			if (!found) {
-				StationStatsPerClient obj = new StationStatsPerClient();
-				obj.statsList = new ArrayList<StationStats>();
-				obj.clientId = clientMac;
-				obj.statsList.add(stationStat);
-				stationStatsInMemoryMap.get(apId).add(obj);
+				// Expires the client's buckets older than the in-memory window.
+				obj.statsList.add(stationStat.ts, stationStat);
 			}
+
+			clientTable.markModified();
 		}
+
+		StatsCursor.advance(apId, OFStatisticsType.STATION, batchMaxTs);
+		StatsCursor.recordIngested(records.size());
 	}
 
 	@Override
-	public synchronized Object getStorageHashMap() {
-		synchronized (stationStatsForStorageMap) {
-			return stationStatsForStorageMap;
-		}
+	public Map<Integer, HashMap<Long, HashMap<Long, StationStats>>> getStorageHashMap() {
+		return stationStatsForStorageMap;
 	}
 
 	@Override
-	public Object getInMemoryHashMap() {
+	public Map<Integer, ClientTable<StationStatsPerClient>> getInMemoryHashMap() {
 		return stationStatsInMemoryMap;
 	}
 
+	private static final ClientTable.Copier<StationStatsPerClient> CLIENT_COPIER =
+			new ClientTable.Copier<StationStatsPerClient>() {
+		@Override
+		public StationStatsPerClient copy(StationStatsPerClient client) {
+			return client.copy();
+		}
+	};
+
+	// The clients without any statistics left in the in-memory window.
+	private static final ClientTable.IdleCheck<StationStatsPerClient> IDLE_CHECK = new ClientTable.IdleCheck<StationStatsPerClient>() {
+		@Override
+		public boolean isIdle(StationStatsPerClient client) {
+			return client.statsList.isEmpty();
+		}
+	};
+
+	/**
+	 * Read-only copy of the in-memory statistics of each AP (see ClientTable.snapshot()), e.g.,
+	 * for the policies of the CoapManager. Each AP's table is only locked while it is copied.
+	 * 
+	 * @return snapshot of the in-memory statistics.
+	 */
+	public Map<Integer, ClientTable<StationStatsPerClient>> getInMemorySnapshot() {
+		HashMap<Integer, ClientTable<StationStatsPerClient>> snapshot = 
+				new HashMap<Integer, ClientTable<StationStatsPerClient>>();
+
+		for (Map.Entry<Integer, ClientTable<StationStatsPerClient>> entry: stationStatsInMemoryMap.entrySet()) {
+			ClientTable<StationStatsPerClient> clientTable = entry.getValue();
+			synchronized (clientTable) {
+				snapshot.put(entry.getKey(), clientTable.snapshot(CLIENT_COPIER));
+			}
+		}
+
+		return Collections.unmodifiableMap(snapshot);
+	}
+
 	/**
-	 * Stores station statistics before it is committed to a persistent storage.
+	 * Stores station statistics before it is committed to a persistent storage, keyed by the
+	 * client MAC encoded with StatsDictionary.encodeMac(). Each AP's map is locked separately.
 	 */
-	HashMap<Integer, HashMap<Long, HashMap<String, StationStats> > > stationStatsForStorageMap = 
-			new HashMap<Integer, HashMap<Long,HashMap<String,StationStats>>>();
+	ConcurrentHashMap<Integer, HashMap<Long, HashMap<Long, StationStats> > > stationStatsForStorageMap = 
+			new ConcurrentHashMap<Integer, HashMap<Long,HashMap<Long,StationStats>>>();
 	
 	/**
-	 *  Stores traffic information in memory for immediate processing requirements.
+	 *  Stores traffic information in memory for immediate processing requirements, per client
+	 *  (keyed by the encoded client MAC). Each AP's table is locked separately.
 	 */
-	HashMap<Integer, ArrayList<StationStatsPerClient>> stationStatsInMemoryMap = 
-			new HashMap<Integer, ArrayList<StationStatsPerClient>>();
+	ConcurrentHashMap<Integer, ClientTable<StationStatsPerClient>> stationStatsInMemoryMap = 
+			new ConcurrentHashMap<Integer, ClientTable<StationStatsPerClient>>();
 
 	@Override
 	public void commit(long tsLimit) {
@@ -107,26 +223,22 @@ public class StationStatsParser implements Parser {
 			String queryFormat = "insert into " + CoapConstants.STATION_TABLE + " VALUES(?, ?, ?, ?, ?, ?)";
 			ArrayList<ArrayList<Object>> params = new ArrayList<ArrayList<Object>>();
 			
-			synchronized (stationStatsForStorageMap) {
-				Iterator<Map.Entry<Integer, HashMap<Long, HashMap<String, StationStats> > > > it = 
-						stationStatsForStorageMap.entrySet().iterator();
-			
-				while (it.hasNext()) {
-					boolean dontRemove = false;
-			
-					Map.Entry<Integer, HashMap<Long, HashMap<String, StationStats> > > pair = it.next();
-					int apId = pair.getKey();
-					Iterator<Map.Entry<Long, HashMap<String, StationStats> > > timeIt = pair.getValue().entrySet().iterator();
+			for (Map.Entry<Integer, HashMap<Long, HashMap<Long, StationStats> > > pair: stationStatsForStorageMap.entrySet()) {
+				int apId = pair.getKey();
+				HashMap<Long, HashMap<Long, StationStats>> apMap = pair.getValue();
+
+				synchronized (apMap) {
+					Iterator<Map.Entry<Long, HashMap<Long, StationStats> > > timeIt = apMap.entrySet().iterator();
 			
 					while (timeIt.hasNext()) {
-						Map.Entry<Long, HashMap<String, StationStats>> pair_tim = timeIt.next();
+						Map.Entry<Long, HashMap<Long, StationStats>> pair_tim = timeIt.next();
 						long ts = pair_tim.getKey();
 			
-						Iterator<Map.Entry<String, StationStats>> linkIt = pair_tim.getValue().entrySet().iterator();
+						Iterator<Map.Entry<Long, StationStats>> linkIt = pair_tim.getValue().entrySet().iterator();
 			
 						while (linkIt.hasNext()) {
-							Map.Entry<String, StationStats> pair_link = linkIt.next();
-							String client = pair_link.getKey();
+							Map.Entry<Long, StationStats> pair_link = linkIt.next();
+							String client = StatsDictionary.decodeMac(pair_link.getKey());
 							StationStats stats = pair_link.getValue();
 			
 							ArrayList<Object> objArray = new ArrayList<Object>();
@@ -143,62 +255,48 @@ public class StationStatsParser implements Parser {
 			
 						timeIt.remove();
 					}
-			
-					if (!dontRemove) {
-						it.remove();
-					}
 				}
-			
-				//DatabaseCommitter.ExecuteQuery(queries);
-				DatabaseCommitter.executeQuery(queryFormat, params);
-				//System.out.println("queries size = " + queries.size());
 			}
+
+			// The AP maps aren't locked while the records are inserted.
+			//DatabaseCommitter.ExecuteQuery(queries);
+			DatabaseCommitter.executeQuery(queryFormat, params);
+			//System.out.println("queries size = " + queries.size());
 		} catch (Exception e) {
 			log.error("Exception while inserting station statistics into DB: " + e.getMessage());
 			e.printStackTrace();
 		}
 	}
 
-	long maxTs = 0;
+	AtomicLong maxTs = new AtomicLong(0);
 
 	@Override
 	public long getMaxTs() {
-		return maxTs;
+		return maxTs.get();
 	}
 
 	@Override
 	public int ClearInMemoryData(long tsLimit) {
-		int cnt = 0;
-
-		synchronized(stationStatsInMemoryMap) {
-			Iterator<Map.Entry<Integer, ArrayList<StationStatsPerClient>>> stationIterator = stationStatsInMemoryMap.entrySet().iterator();
+		int cnt = 0, clientCnt = 0;
 
-			while (stationIterator.hasNext()) {
-				Map.Entry<Integer, ArrayList<StationStatsPerClient>> stationEntry = stationIterator.next();
-				ArrayList<StationStatsPerClient> stationArray = stationEntry.getValue();
-				Iterator<StationStatsPerClient> arrayIter = stationArray.iterator();
-
-				while (arrayIter.hasNext()) {
-					StationStatsPerClient obj = arrayIter.next();
-					Iterator<StationStats> statsTter = obj.statsList.iterator();
-
-					while (statsTter.hasNext()) {
-						Long ts = statsTter.next().ts;
-						if (ts > tsLimit - CoapConstants.INMEMORY_DATA_INTERVAL_SEC) {
-							break;
-						}
+		for (ClientTable<StationStatsPerClient> stationTable: stationStatsInMemoryMap.values()) {
+			synchronized (stationTable) {
+				int tableCnt = cnt;
+				for (int slot = 0; slot < stationTable.size(); ++slot) {
+					StationStatsPerClient obj = stationTable.get(slot);
+					cnt += obj.statsList.expire(tsLimit - CoapConstants.INMEMORY_DATA_INTERVAL_SEC);
+				}
 
-						statsTter.remove();
-						cnt ++;
-					}
+				if (cnt > tableCnt) {
+					stationTable.markModified();
 				}
 
-				//utilIterator.remove();
+				clientCnt += stationTable.removeIdle(IDLE_CHECK);
 			}
-
-			System.out.println("ClearMaps: " + tsLimit + " removed " + cnt + " station entries...");
 		}
 
+		System.out.println("ClearMaps: " + tsLimit + " removed " + cnt + " station entries and " + clientCnt + " idle clients...");
+
 		return cnt;
 	}
 }
@@ -0,0 +1,39 @@
+package net.floodlightcontroller.core.coap.dataparsers;
+
+import java.util.List;
+
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+/**
+ * Implemented by the parsers of a single type of the statistics polled from the COAP APs, which
+ * are registered with the StatsParserRegistry. The statistics of a poll are decoded into typed
+ * records first, and then added to the parser as a single batch, i.e., the parser's maps are
+ * locked once per poll instead of once per record.
+ * 
+ * @param <R> type of the records decoded from the statistics.
+ */
+public interface StatsRecordParser<R> {
+
+	/**
+	 * @return type of the statistics processed by the parser.
+	 */
+	public OFStatisticsType getStatsType();
+
+	/**
+	 * Decode the input statistics into a record. Shouldn't lock or update the parser's maps.
+	 * 
+	 * @param currStat
+	 * @param apId
+	 * @return decoded record, null if the statistics are skipped by the parser.
+	 */
+	public R decode(OFStatistics currStat, int apId);
+
+	/**
+	 * Add the records decoded from a single poll of an AP.
+	 * 
+	 * @param apId
+	 * @param records non-empty list of records.
+	 */
+	public void addAll(int apId, List<R> records);
+}
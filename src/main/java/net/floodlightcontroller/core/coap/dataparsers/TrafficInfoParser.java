@@ -1,17 +1,28 @@
 package net.floodlightcontroller.core.coap.dataparsers;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.floodlightcontroller.core.coap.statsmanager.DatabaseCommitter;
+import net.floodlightcontroller.core.coap.statsmanager.StatsDedupFilter;
+import net.floodlightcontroller.core.coap.statsmanager.StatsIngestPipeline;
+import net.floodlightcontroller.core.coap.structs.ClientTable;
 import net.floodlightcontroller.core.coap.structs.TrafficInfoPerClient;
 import net.floodlightcontroller.core.coap.structs.TrafficInfoStat;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.CoapUtils;
+import net.floodlightcontroller.core.coap.util.StatsCursor;
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
+import net.floodlightcontroller.core.coap.util.StatsTokenizer;
 
 import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,12 +33,31 @@ import org.slf4j.LoggerFactory;
  * @author "Ashish Patro"
  *
  */
-public class TrafficInfoParser implements Parser {
+public class TrafficInfoParser implements Parser<Map<Integer, HashMap<Long, ArrayList<TrafficInfoStat>>>, Map<Integer, ClientTable<TrafficInfoPerClient>>> {
 
 	// Logger.
 	protected static Logger log = 
 			LoggerFactory.getLogger(TrafficInfoParser.class);
 
+	/**
+	 * Dictionary id of the ICMP transport type, which has no ports.
+	 */
+	private static final int ICMP_TYPE = StatsDictionary.LABELS.getPinnedId("ICMP");
+
+	private static AtomicLong malformedRecords = new AtomicLong(0);
+
+	// Drops the records of the cursor's second that were already ingested, null if disabled.
+	private volatile StatsDedupFilter dedupFilter = null;
+
+	/**
+	 * Enable the deduplication of the records, see process().
+	 * 
+	 * @param dedupFilter
+	 */
+	public void setDedupFilter(StatsDedupFilter dedupFilter) {
+		this.dedupFilter = dedupFilter;
+	}
+
 	/**
 	 * Process the input string containing the traffic related information.
 	 * 
@@ -35,129 +65,252 @@ public class TrafficInfoParser implements Parser {
 	 * @param apId
 	 */
 	public void process(String statString, int apId) {
+		process(statString, 0, statString.length(), apId);
+	}
 
-		int cnt = Integer.parseInt(statString.substring(0, 2));
+	/**
+	 * Process the traffic related information in statString[offset, end), e.g., the payload
+	 * following the message type of a data string, without copying it.
+	 * 
+	 * @param statString
+	 * @param offset
+	 * @param end
+	 * @param apId
+	 */
+	public void process(String statString, int offset, int end, int apId) {
+
+		int cnt = StatsTokenizer.parseRecordCount(statString, offset, end);
 		if (cnt == 0) {
 			return;
 		}
 
-		statString = statString.substring(3);
-		String[] terms = statString.split(";");
-		assert(cnt == terms.length);
-
-		for (int i = 0; i < cnt; ++i) {
-			// Old example: 28:CF:E9:18:14:C1 2915184226 3232236431 80 53080 TCP 36 47610 1392313564
-			// New example: 99514018ec7a996121 711e9530338 514fcb67d0a 443 58859 TCP google^google_inc.^us 159 223008 1425159713
-			String curr = terms[i];
-			String client, type;
-			String trafficinfo[];
-			String[] currTerms = curr.split(" ");
+		// Skip the records older than the ones ingested in a previous poll, using the timestamp
+		// at the end of each record, before the record is parsed. The records of the cursor's
+		// second are re-sent by the AP, the ones already ingested are dropped as exact repeats.
+		StatsDedupFilter dedupFilter = this.dedupFilter;
+		long watermark = StatsCursor.getWatermark(apId, OFStatisticsType.TRAFFICINFO);
+		long maxRecordTs = watermark;
+		long minReplyTs = Long.MAX_VALUE, maxReplyTs = Long.MIN_VALUE;
+		int skipped = 0, malformed = 0;
+		String firstError = null;
+
+		StatsTokenizer tokenizer = StatsIngestPipeline.getTokenizer();
+
+		int start = offset + 3;
+		for (int i = 0; i < cnt && start < end; ++i) {
+			int recordEnd = statString.indexOf(';', start);
+			if (recordEnd < 0 || recordEnd > end) {
+				recordEnd = end;
+			}
 
-			//System.out.println("higherlayer term " + i + " :" + terms[i] + "--" + curr_terms[6] + "XX");
+			int recordStart = start;
+			start = recordEnd + 1;
 
-			client = currTerms[0];
+			long recordTs = parseRecordTs(statString, recordStart, recordEnd);
+			if (recordTs != Long.MAX_VALUE) {
+				minReplyTs = Math.min(minReplyTs, recordTs);
+				maxReplyTs = Math.max(maxReplyTs, recordTs);
+			}
 
-			// TODO: Not used
-			String srcIP = currTerms[1];
-			String dstIP = currTerms[2];
+			if (recordTs < watermark) {
+				skipped ++;
+				continue;
+			}
 
-			type = currTerms[5];
-			trafficinfo = currTerms[6].split("\\^");
+			if (dedupFilter != null && recordTs != Long.MAX_VALUE && dedupFilter.isDuplicate(
+					OFStatisticsType.TRAFFICINFO, apId, recordTs,
+					StatsDedupFilter.hash(0, statString, recordStart, recordEnd))) {
+				skipped ++;
+				continue;
+			}
 
-			int srcPort = 0, dstPort = 0, packetCnt = 0, numBytes = 0, num_retries = 0;
-			long sec = 0;
+			// A malformed record only drops itself, not the rest of the payload.
+			TrafficInfoStat stats = new TrafficInfoStat();
+			try {
+				tokenizer.reset(statString, recordStart, recordEnd);
+				parseRecord(tokenizer, stats);
+			} catch (RuntimeException e) {
+				malformed ++;
+				if (firstError == null) {
+					firstError = e + " in record: " + statString.substring(recordStart, recordEnd);
+				}
+				continue;
+			}
 
-			if (!type.equals("ICMP")) {
-				srcPort = Integer.parseInt(currTerms[3]);
-				dstPort = Integer.parseInt(currTerms[4]);
+			if (recordTs != Long.MAX_VALUE) {
+				maxRecordTs = Math.max(maxRecordTs, recordTs);
 			}
-			
-			packetCnt = Integer.parseInt(currTerms[7]);
-			numBytes = Integer.parseInt(currTerms[8]);
-			sec = Long.parseLong(currTerms[9]);
 
-			// TODO: Not using retries for now.
-			// int num_retries = Integer.parseInt(curr_terms[5]);
+			updateMap(apId, stats.ts, stats.clientId, stats);
+		}
 
-			TrafficInfoStat stats = new TrafficInfoStat();
+		if (malformed > 0) {
+			malformedRecords.addAndGet(malformed);
+			log.warn("Dropped " + malformed + " malformed of " + cnt + " trafficinfo records from ap " + 
+					apId + ", first: " + firstError);
+		}
+
+		StatsCursor.observeReply(apId, OFStatisticsType.TRAFFICINFO, minReplyTs, maxReplyTs);
+		StatsCursor.advance(apId, OFStatisticsType.TRAFFICINFO, maxRecordTs);
+		StatsCursor.recordSkipped(skipped);
+		StatsCursor.recordIngested(cnt - skipped - malformed);
+	}
+
+	/**
+	 * @return number of records dropped since they couldn't be parsed.
+	 */
+	public static long getMalformedRecords() {
+		return malformedRecords.get();
+	}
+
+	/**
+	 * Parse a single traffic information record in a single pass over the tokenizer's region.
+	 * The identifiers and labels are dictionary encoded without allocating strings, unless they
+	 * are seen for the first time.
+	 * 
+	 * Old example: 28:CF:E9:18:14:C1 2915184226 3232236431 80 53080 TCP 36 47610 1392313564
+	 * New example: 99514018ec7a996121 711e9530338 514fcb67d0a 443 58859 TCP google^google_inc.^us 159 223008 1425159713
+	 * 
+	 * @param tokenizer positioned at the start of the record, limited to the record.
+	 * @param stats output statistics.
+	 */
+	public static void parseRecord(StatsTokenizer tokenizer, TrafficInfoStat stats) {
+		// 0216: Added client info to get a direct reference, pretty inefficient otherwise.
+		stats.clientId = tokenizer.nextId(' ', StatsDictionary.CLIENT_IDS);
+
+		// TODO: Not used
+		stats.srcIp = tokenizer.nextToken(' ');
+		stats.dstIp = tokenizer.nextToken(' ');
+
+		// The ports are only valid for non-ICMP traffic, which is known after the type is read.
+		int portsPos = tokenizer.getPosition();
+		tokenizer.skip(' ');
+		tokenizer.skip(' ');
+
+		// TODO: 0218: Added to get more information about the traffic flow.
+		// stats.type = typ + " " + srcPort + " " + dstPort;
+		stats.type = tokenizer.nextId(' ', StatsDictionary.LABELS);
+
+		if (stats.type != ICMP_TYPE) {
+			int typePos = tokenizer.getPosition();
+			tokenizer.setPosition(portsPos);
+			stats.srcPort = tokenizer.nextInt(' ');
+			stats.dstPort = tokenizer.nextInt(' ');
+			tokenizer.setPosition(typePos);
+		}
+
+		// tid^info1^info2
+		int infoEnd = tokenizer.indexOf(' ');
+		stats.tid = tokenizer.nextId('^', StatsDictionary.LABELS);
+
+		String statString = tokenizer.getString();
+		int infoStart = tokenizer.getPosition();
+		int secondCaret = statString.indexOf('^', infoStart);
+		if (infoStart > infoEnd || secondCaret < 0 || secondCaret >= infoEnd) {
+			throw new IllegalArgumentException("Malformed traffic info field at " + infoStart + 
+					" in: " + statString);
+		}
 
-			// 0216: Added client info to get a direct reference, pretty inefficient otherwise.
-			stats.clientId = client.toLowerCase();
-
-			stats.srcIp = srcIP;
-			stats.dstIp = dstIP;
-			stats.srcPort = srcPort;
-			stats.dstPort = dstPort;
-			
-			stats.ts = sec;
-			stats.numBytes = numBytes;
-			stats.packetCount = packetCnt;
-			stats.packetRetries = num_retries; // Unused
-			
-			// TODO: 0218: Added to get more information about the traffic flow.
-			// stats.type = typ + " " + srcPort + " " + dstPort;
-			stats.type = type;
-			stats.tid = trafficinfo[0];
-			stats.trafficInfo = trafficinfo[1] + "^" + trafficinfo[2];
-
-
-			updateMap(apId, sec, client, stats);
+		int thirdCaret = statString.indexOf('^', secondCaret + 1);
+		stats.trafficInfo = StatsDictionary.LABELS.getId(statString, infoStart, 
+				(thirdCaret < 0 || thirdCaret > infoEnd) ? infoEnd : thirdCaret);
+		tokenizer.setPosition(infoEnd + 1);
+
+		stats.packetCount = tokenizer.nextInt(' ');
+		stats.numBytes = tokenizer.nextInt(' ');
+		stats.ts = tokenizer.nextLong(' ');
+
+		// TODO: Not using retries for now.
+		stats.packetRetries = 0; // Unused
+	}
+
+	/**
+	 * Parse the timestamp, i.e., the last space separated term, of the record in 
+	 * statString[start, end) without allocating a substring.
+	 * 
+	 * @param statString
+	 * @param start
+	 * @param end
+	 * @return record timestamp (sec), or Long.MAX_VALUE if it could not be parsed.
+	 */
+	private static long parseRecordTs(String statString, int start, int end) {
+		while (end > start && statString.charAt(end - 1) == ' ') {
+			end --;
+		}
+
+		int tsStart = statString.lastIndexOf(' ', end - 1) + 1;
+		if (tsStart <= start || tsStart >= end) {
+			// Let the regular parsing handle (and report) malformed records.
+			return Long.MAX_VALUE;
+		}
+
+		long ts = 0;
+		for (int i = tsStart; i < end; ++i) {
+			char c = statString.charAt(i);
+			if (c < '0' || c > '9') {
+				return Long.MAX_VALUE;
+			}
+			ts = ts * 10 + (c - '0');
 		}
+
+		return ts;
 	}
 
 	/**
-	 * Update the local structures with the input statistics.
+	 * Update the local structures with the input statistics. Only the AP's own maps are locked,
+	 * the writers for different APs don't contend.
 	 * 
 	 * @param apId
 	 * @param sec
-	 * @param clientMac
+	 * @param clientId StatsDictionary.CLIENT_IDS id.
 	 * @param o
 	 */
-	public void updateMap(int apId, Long sec, String clientMac, Object o) {
-		maxTs = Math.max(maxTs, sec);
+	public void updateMap(int apId, Long sec, int clientId, Object o) {
+		CoapUtils.updateMax(maxTs, sec);
 		
-		synchronized (trafficinfoForStorageMap) {
-			if (!trafficinfoForStorageMap.containsKey(apId)) {
-				trafficinfoForStorageMap.put(apId, new HashMap<Long, ArrayList<TrafficInfoStat>>());
+		HashMap<Long, ArrayList<TrafficInfoStat>> apMap = trafficinfoForStorageMap.get(apId);
+		if (apMap == null) {
+			HashMap<Long, ArrayList<TrafficInfoStat>> newApMap = new HashMap<Long, ArrayList<TrafficInfoStat>>();
+			apMap = trafficinfoForStorageMap.putIfAbsent(apId, newApMap);
+			if (apMap == null) {
+				apMap = newApMap;
 			}
+		}
 
-			if (!trafficinfoForStorageMap.get(apId).containsKey(sec)) {
-				trafficinfoForStorageMap.get(apId).put(sec, new ArrayList<TrafficInfoStat>());
+		synchronized (apMap) {
+			if (!apMap.containsKey(sec)) {
+				apMap.put(sec, new ArrayList<TrafficInfoStat>());
 			}
 
-			trafficinfoForStorageMap.get(apId).get(sec).add((TrafficInfoStat)o);
+			apMap.get(sec).add((TrafficInfoStat)o);
 		}
 
-		synchronized (trafficinfoInMemoryMap) {
-			if (!trafficinfoInMemoryMap.containsKey(apId)) {
-				trafficinfoInMemoryMap.put(apId, new ArrayList<TrafficInfoPerClient>());
+		ClientTable<TrafficInfoPerClient> clientTable = trafficinfoInMemoryMap.get(apId);
+		if (clientTable == null) {
+			ClientTable<TrafficInfoPerClient> newTable = new ClientTable<TrafficInfoPerClient>();
+			clientTable = trafficinfoInMemoryMap.putIfAbsent(apId, newTable);
+			if (clientTable == null) {
+				clientTable = newTable;
 			}
+		}
 
-			boolean found = false;
-			for (int i = 0; i < trafficinfoInMemoryMap.get(apId).size(); i++)	{
-				if (clientMac.equals(trafficinfoInMemoryMap.get(apId).get(i).clientId)) {
-					trafficinfoInMemoryMap.get(apId).get(i).statsList.add((TrafficInfoStat) o);
-					found = true;
-					break;
-				}
+		synchronized (clientTable) {
+			TrafficInfoPerClient obj = clientTable.find(clientId);
+			if (obj == null) {
+				obj = new TrafficInfoPerClient();
+				obj.clientId = clientId;
+				clientTable.add(clientId, obj);
 			}
 
-			if (!found) {
-				TrafficInfoPerClient obj = new TrafficInfoPerClient();
-				obj.statsList = new ArrayList<TrafficInfoStat>();
-				obj.clientId = clientMac;
-				obj.statsList.add((TrafficInfoStat)o);
-
-				trafficinfoInMemoryMap.get(apId).add(obj);
-			}
+			// Expires the client's buckets older than the in-memory window.
+			obj.statsList.add(sec, (TrafficInfoStat) o);
+			clientTable.markModified();
 		}
 	}
 
 	@Override
-	public synchronized Object getStorageHashMap() {
-		synchronized (trafficinfoForStorageMap) {
-			return trafficinfoForStorageMap;
-		}
+	public Map<Integer, HashMap<Long, ArrayList<TrafficInfoStat>>> getStorageHashMap() {
+		return trafficinfoForStorageMap;
 	}
 
 	@Override
@@ -166,17 +319,12 @@ public class TrafficInfoParser implements Parser {
 			String queryFormat = "insert into " + CoapConstants.HIGHER_LAYER_TABLE + " VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 			ArrayList<ArrayList<Object>> params = new ArrayList<ArrayList<Object>>();
 
-			synchronized ( trafficinfoForStorageMap) {
-				Iterator<Map.Entry<Integer, HashMap<Long, ArrayList<TrafficInfoStat> > > > it =
-						trafficinfoForStorageMap.entrySet().iterator();
-				
-				while (it.hasNext()) {
-					boolean dontRemove = false;
-		
-					Entry<Integer, HashMap<Long, ArrayList<TrafficInfoStat>>> pair = it.next();
-					int ap_id = pair.getKey();
-					
-					Iterator<Entry<Long, ArrayList<TrafficInfoStat>>> tim_it = pair.getValue().entrySet().iterator();
+			for (Entry<Integer, HashMap<Long, ArrayList<TrafficInfoStat>>> pair: trafficinfoForStorageMap.entrySet()) {
+				int ap_id = pair.getKey();
+				HashMap<Long, ArrayList<TrafficInfoStat>> apMap = pair.getValue();
+
+				synchronized (apMap) {
+					Iterator<Entry<Long, ArrayList<TrafficInfoStat>>> tim_it = apMap.entrySet().iterator();
 					while (tim_it.hasNext()) {
 						Entry<Long, ArrayList<TrafficInfoStat>> pair_tim = tim_it.next();
 						long ts = pair_tim.getKey();
@@ -190,17 +338,17 @@ public class TrafficInfoParser implements Parser {
 
 							objArray.add(ap_id);
 							objArray.add(ts);
-							objArray.add(stats.clientId);
-							objArray.add(stats.srcIp);
-							objArray.add(stats.dstIp);
+							objArray.add(stats.getClientId());
+							objArray.add(stats.getSrcIp());
+							objArray.add(stats.getDstIp());
 							objArray.add(stats.srcPort);
 							objArray.add(stats.dstPort);
-							objArray.add(stats.type);
-							objArray.add(stats.tid);
+							objArray.add(stats.getType());
+							objArray.add(stats.getTid());
 							objArray.add(stats.packetCount);
 							objArray.add(stats.numBytes);
 							objArray.add(stats.packetRetries);
-							objArray.add(stats.trafficInfo);
+							objArray.add(stats.getTrafficInfo());
 							
 							params.add(objArray);
 							link_it.remove();
@@ -208,18 +356,15 @@ public class TrafficInfoParser implements Parser {
 		
 						tim_it.remove();
 					}
-		
-					if (!dontRemove) {
-						it.remove();
-					}
 				}
-		
-				/*if (queries.size() > 0) {
-				DatabaseCommitter.ExecuteQuery(queries);
-				}*/
-				DatabaseCommitter.executeQuery(queryFormat, params);
-				//System.out.println("queries size = " + queries.size());
 			}
+
+			// The AP maps aren't locked while the records are inserted.
+			/*if (queries.size() > 0) {
+			DatabaseCommitter.ExecuteQuery(queries);
+			}*/
+			DatabaseCommitter.executeQuery(queryFormat, params);
+			//System.out.println("queries size = " + queries.size());
 		} catch (Exception e) {
 			log.error("Exception while inserting trafficInfo statistics into DB: " + e.getMessage());
 			e.printStackTrace();
@@ -227,60 +372,91 @@ public class TrafficInfoParser implements Parser {
 	}
 
 	/**
-	 * Stores traffic information data before it is committed to a persistent storage.
+	 * Stores traffic information data before it is committed to a persistent storage. Each AP's
+	 * map is locked separately.
 	 */
-	static HashMap<Integer, HashMap<Long, ArrayList<TrafficInfoStat> > > trafficinfoForStorageMap = 
-			new HashMap<Integer, HashMap<Long, ArrayList<TrafficInfoStat>>>();
+	static ConcurrentHashMap<Integer, HashMap<Long, ArrayList<TrafficInfoStat> > > trafficinfoForStorageMap = 
+			new ConcurrentHashMap<Integer, HashMap<Long, ArrayList<TrafficInfoStat>>>();
 	
 	/**
-	 * Stores traffic information in memory for immediate processing requirements.
+	 * Stores traffic information in memory for immediate processing requirements, per client
+	 * (keyed by the client's StatsDictionary.CLIENT_IDS id). Each AP's table is locked separately.
 	 */
-	static HashMap<Integer,  ArrayList<TrafficInfoPerClient>> trafficinfoInMemoryMap = 
-			new HashMap<Integer, ArrayList<TrafficInfoPerClient>>();
+	static ConcurrentHashMap<Integer, ClientTable<TrafficInfoPerClient>> trafficinfoInMemoryMap = 
+			new ConcurrentHashMap<Integer, ClientTable<TrafficInfoPerClient>>();
 
 
-	long maxTs = 0;
+	AtomicLong maxTs = new AtomicLong(0);
 
 	@Override
 	public long getMaxTs() {
-		return maxTs;
+		return maxTs.get();
 	}
 
 	@Override
-	public Object getInMemoryHashMap() {
+	public Map<Integer, ClientTable<TrafficInfoPerClient>> getInMemoryHashMap() {
 		return trafficinfoInMemoryMap;
 	}
 
+	private static final ClientTable.Copier<TrafficInfoPerClient> CLIENT_COPIER =
+			new ClientTable.Copier<TrafficInfoPerClient>() {
+		@Override
+		public TrafficInfoPerClient copy(TrafficInfoPerClient client) {
+			return client.copy();
+		}
+	};
+
+	// The clients without any statistics left in the in-memory window.
+	private static final ClientTable.IdleCheck<TrafficInfoPerClient> IDLE_CHECK = new ClientTable.IdleCheck<TrafficInfoPerClient>() {
+		@Override
+		public boolean isIdle(TrafficInfoPerClient client) {
+			return client.statsList.isEmpty();
+		}
+	};
+
+	/**
+	 * Read-only copy of the in-memory statistics of each AP (see ClientTable.snapshot()), e.g.,
+	 * for the policies of the CoapManager. Each AP's table is only locked while it is copied.
+	 * 
+	 * @return snapshot of the in-memory statistics.
+	 */
+	public Map<Integer, ClientTable<TrafficInfoPerClient>> getInMemorySnapshot() {
+		HashMap<Integer, ClientTable<TrafficInfoPerClient>> snapshot = 
+				new HashMap<Integer, ClientTable<TrafficInfoPerClient>>();
+
+		for (Map.Entry<Integer, ClientTable<TrafficInfoPerClient>> entry: trafficinfoInMemoryMap.entrySet()) {
+			ClientTable<TrafficInfoPerClient> clientTable = entry.getValue();
+			synchronized (clientTable) {
+				snapshot.put(entry.getKey(), clientTable.snapshot(CLIENT_COPIER));
+			}
+		}
+
+		return Collections.unmodifiableMap(snapshot);
+	}
+
 	@Override
 	public int ClearInMemoryData(long tsLimit) {
-		int cnt = 0;
-
-		synchronized(trafficinfoInMemoryMap) {
-			Iterator<Map.Entry<Integer, ArrayList<TrafficInfoPerClient>>> higherLayerIterator = trafficinfoInMemoryMap.entrySet().iterator();
-			while (higherLayerIterator.hasNext()) {
-				Map.Entry<Integer, ArrayList<TrafficInfoPerClient>> higherLayerEntry = higherLayerIterator.next();
-				ArrayList<TrafficInfoPerClient> higherLayerArray = higherLayerEntry.getValue();
-				Iterator<TrafficInfoPerClient> arrayIter = higherLayerArray.iterator();
-
-				while (arrayIter.hasNext()) {
-					TrafficInfoPerClient obj = arrayIter.next();
-					Iterator<TrafficInfoStat> stats_iter = obj.statsList.iterator();
-
-					while (stats_iter.hasNext()) {
-						Long ts = stats_iter.next().ts;
-						if (ts > tsLimit - CoapConstants.INMEMORY_DATA_INTERVAL_SEC) {
-							break;
-						}
+		int cnt = 0, clientCnt = 0;
+
+		for (ClientTable<TrafficInfoPerClient> higherLayerTable: trafficinfoInMemoryMap.values()) {
+			synchronized (higherLayerTable) {
+				int tableCnt = cnt;
+				for (int slot = 0; slot < higherLayerTable.size(); ++slot) {
+					TrafficInfoPerClient obj = higherLayerTable.get(slot);
+					cnt += obj.statsList.expire(tsLimit - CoapConstants.INMEMORY_DATA_INTERVAL_SEC);
+				}
 
-						stats_iter.remove();
-						cnt ++;
-					}
+				if (cnt > tableCnt) {
+					higherLayerTable.markModified();
 				}
+
+				clientCnt += higherLayerTable.removeIdle(IDLE_CHECK);
 			}
 
-			System.out.println("ClearMaps: " + tsLimit + " removed " + cnt + " higher layer entries...");
 		}
 
+		System.out.println("ClearMaps: " + tsLimit + " removed " + cnt + " higher layer entries and " + clientCnt + " idle clients...");
+
 		return cnt;
 	}
 
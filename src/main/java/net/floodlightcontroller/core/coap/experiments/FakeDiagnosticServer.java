@@ -0,0 +1,163 @@
+/*
+ *  Temporary code for debugging and experiments.
+ */
+package net.floodlightcontroller.core.coap.experiments;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.DiagnosticStatsClient;
+
+/**
+ * Local stand-in for the Click ControlSocket of a COAP AP, used for testing the
+ * DiagnosticStatsClient without AP hardware. Every "read <handler>" command is answered with
+ * a multi-line payload whose last line is "record <n>".
+ *
+ * In "controlsocket" mode the server follows the ControlSocket protocol and keeps the connection
+ * open. In "nc" mode it writes the raw payload and closes the connection after each command.
+ *
+ * Usage: FakeDiagnosticServer [controlsocket|nc] [port] [numQueries] [payloadLength]
+ * Starts the server and queries it with a DiagnosticStatsClient.
+ */
+public class FakeDiagnosticServer implements Runnable {
+
+	private ServerSocket serverSocket;
+	private boolean isControlSocket;
+	private int payloadLength;
+
+	private AtomicInteger acceptedConnections = new AtomicInteger(0);
+	private AtomicLong servedRecords = new AtomicLong(0);
+
+	public FakeDiagnosticServer(int port, boolean isControlSocket, int payloadLength) throws IOException {
+		this.serverSocket = new ServerSocket(port);
+		this.isControlSocket = isControlSocket;
+		this.payloadLength = payloadLength;
+	}
+
+	@Override
+	public void run() {
+		while (!serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				acceptedConnections.incrementAndGet();
+
+				Thread t = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				}, "FakeDiagnosticConnection");
+				t.setDaemon(true);
+				t.start();
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					System.err.println("FakeDiagnosticServer: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+			OutputStream out = socket.getOutputStream();
+
+			if (isControlSocket) {
+				out.write("Click::ControlSocket/1.3\r\n".getBytes("US-ASCII"));
+				out.flush();
+			}
+
+			String command;
+			while ((command = in.readLine()) != null) {
+				if (!command.startsWith("read ")) {
+					out.write("510 Syntax error\r\n".getBytes("US-ASCII"));
+					out.flush();
+					continue;
+				}
+
+				byte[] payload = createPayload(servedRecords.incrementAndGet());
+				if (isControlSocket) {
+					String header = "200 Read handler '" + command.substring(5).trim() + "' OK\r\n" +
+							"DATA " + payload.length + "\r\n";
+					out.write(header.getBytes("US-ASCII"));
+					out.write(payload);
+					out.flush();
+				} else {
+					out.write(payload);
+					out.flush();
+					break;
+				}
+			}
+		} catch (IOException e) {
+			// Client went away.
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Ignore.
+			}
+		}
+	}
+
+	private byte[] createPayload(long recordId) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		String lastLine = "record " + recordId;
+
+		while (sb.length() + lastLine.length() < payloadLength) {
+			sb.append("older ").append(sb.length()).append(" 1425159713 2412 -95 54 1\n");
+		}
+		sb.append(lastLine).append('\n');
+
+		return sb.toString().getBytes("US-ASCII");
+	}
+
+	public int getAcceptedConnections() {
+		return acceptedConnections.get();
+	}
+
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean isControlSocket = args.length > 0 ? !args[0].equals("nc") : true;
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 18777;
+		int numQueries = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int payloadLength = args.length > 3 ? Integer.parseInt(args[3]) : CoapConstants.DIAGNOSTICINFO_STATS_LENGTH;
+
+		FakeDiagnosticServer server = new FakeDiagnosticServer(port, isControlSocket, payloadLength);
+		Thread serverThread = new Thread(server, "FakeDiagnosticServer");
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		DiagnosticStatsClient client = new DiagnosticStatsClient(
+				CoapConstants.DIAGNOSTIC_CONNECT_TIMEOUT_MSEC, CoapConstants.DIAGNOSTIC_READ_TIMEOUT_MSEC);
+
+		int failures = 0;
+		long startTs = System.nanoTime();
+		for (int i = 0; i < numQueries; ++i) {
+			String lastLine = client.query("127.0.0.1", port, "read passive_ap_state.stats");
+			if (!lastLine.startsWith("record ")) {
+				failures ++;
+			}
+		}
+		long durationNs = System.nanoTime() - startTs;
+
+		System.out.println("Mode " + (isControlSocket ? "controlsocket" : "nc") + ": " + numQueries +
+				" queries of " + payloadLength + " bytes, avg " + (durationNs / numQueries / 1000) + " us/query" +
+				", failures " + failures +
+				", connections opened " + client.getOpenedConnections() +
+				", reused " + client.getReusedConnections() +
+				", accepted by server " + server.getAcceptedConnections());
+
+		server.close();
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ *  Temporary code for debugging and experiments.
+ */
+package net.floodlightcontroller.core.coap.experiments;
+
+import java.util.Map;
+import java.util.Random;
+
+import net.floodlightcontroller.core.coap.dataparsers.StationStatsParser;
+import net.floodlightcontroller.core.coap.structs.StationStats;
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
+import net.floodlightcontroller.core.coap.util.StatsTrace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Micro-benchmark for the per-record cost of ingesting the OpenFlow statistics replies (see
+ * CoapDataManager.processStats()), using a poll of station statistics:
+ *   - "toString logging": the previous ingest path, which formatted every reply for the
+ *     log.info("Got " + i + " " + reply.toString()) call before storing it.
+ *   - "decode": the decode stage (StatsDecoder) followed by the parser, with StatsTrace disabled.
+ *   - "decode + sampled trace": same, with 1 in "sampleRate" records traced.
+ *
+ * The replies are emulated by StationReply, which has the fields and the toString() format of
+ * OFStationStatisticsReply, so that the benchmark runs without the OpenFlow library. The log
+ * messages are built but not written, i.e., the numbers are a lower bound of the logging cost.
+ *
+ * Usage: IngestDecodeBenchmark [clientsPerPoll] [iterations] [sampleRate]
+ */
+public class IngestDecodeBenchmark {
+
+	// Logger.
+	protected static Logger log =
+			LoggerFactory.getLogger(IngestDecodeBenchmark.class);
+
+	/**
+	 * Fields and toString() of OFStationStatisticsReply.
+	 */
+	static class StationReply {
+		int timestamp;
+		String clientMacid;
+		int packetCount, packetRetries;
+		String retryString;
+
+		@Override
+		public String toString() {
+			return "OFStationStatisticsReply [timestamp=" + timestamp + ", clientMacid=" + clientMacid +
+					", packetCount=" + packetCount + ", packetRetries=" + packetRetries +
+					", retryString=" + retryString + "]";
+		}
+	}
+
+	/**
+	 * @param numClients
+	 * @param random
+	 * @return poll of station statistics replies.
+	 */
+	static StationReply[] createPoll(int numClients, Random random) {
+		StationReply[] replies = new StationReply[numClients];
+		for (int i = 0; i < numClients; ++i) {
+			StationReply reply = new StationReply();
+			reply.timestamp = 1425159713;
+			reply.clientMacid = String.format("%012x", random.nextLong() & 0xFFFFFFFFFFFFL).replaceAll("(..)(?!$)", "$1:");
+			reply.packetCount = 1 + random.nextInt(500);
+			reply.packetRetries = random.nextInt(reply.packetCount);
+			reply.retryString = "54.0@" + reply.packetCount + "@" + (reply.packetCount + reply.packetRetries) +
+					"#MCS7@" + random.nextInt(100) + "@" + random.nextInt(200);
+			replies[i] = reply;
+		}
+
+		return replies;
+	}
+
+	/**
+	 * Previous ingest path: format and log the reply, then store it.
+	 */
+	static long ingestLogged(StationReply[] replies, int apId) {
+		StationStatsParser parser = new StationStatsParser();
+		for (int i = 0; i < replies.length; i++) {
+			StationReply reply = replies[i];
+			log.info("Got " + i + " " + reply.toString());
+
+			parser.add(apId, decode(reply));
+		}
+
+		return ((Map<?, ?>) parser.getInMemoryHashMap()).size();
+	}
+
+	/**
+	 * Current ingest path: decode the reply and store it, sampled tracing.
+	 */
+	static long ingestDecoded(StationReply[] replies, int apId) {
+		StationStatsParser parser = new StationStatsParser();
+		for (int i = 0; i < replies.length; i++) {
+			StationReply reply = replies[i];
+			StatsTrace.trace("station", apId, reply);
+
+			parser.add(apId, decode(reply));
+		}
+
+		return ((Map<?, ?>) parser.getInMemoryHashMap()).size();
+	}
+
+	/**
+	 * Same as StatsDecoder.decodeStation().
+	 */
+	private static StationStats decode(StationReply reply) {
+		StationStats stats = new StationStats(reply.timestamp, reply.packetCount,
+				reply.packetRetries, reply.retryString);
+		stats.clientMac = StatsDictionary.encodeMac(reply.clientMacid);
+		return stats;
+	}
+
+	public static void main(String[] args) {
+		int clientsPerPoll = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+		int sampleRate = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+		final StationReply[] replies = createPoll(clientsPerPoll, new Random(1234));
+		final int apId = 1;
+
+		System.out.println("station: " + clientsPerPoll + " records/poll, " + iterations + " iterations");
+
+		ParserBenchmark.measure("toString logging", new ParserBenchmark.Benchmark() {
+			@Override
+			public long run(String payload) {
+				return ingestLogged(replies, apId);
+			}
+		}, null, clientsPerPoll, iterations);
+
+		ParserBenchmark.Benchmark decoded = new ParserBenchmark.Benchmark() {
+			@Override
+			public long run(String payload) {
+				return ingestDecoded(replies, apId);
+			}
+		};
+
+		StatsTrace.setSampleRate(0);
+		ParserBenchmark.measure("decode", decoded, null, clientsPerPoll, iterations);
+
+		StatsTrace.setSampleRate(sampleRate);
+		ParserBenchmark.measure("decode + trace 1/" + sampleRate, decoded, null, clientsPerPoll, iterations);
+		StatsTrace.setSampleRate(0);
+
+		System.out.println("Traced records: " + StatsTrace.getTracedRecords());
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ *  Temporary code for debugging and experiments.
+ */
+package net.floodlightcontroller.core.coap.experiments;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Random;
+
+import net.floodlightcontroller.core.coap.statsmanager.StatsStreamServer;
+import net.floodlightcontroller.core.coap.util.CoapConstants;
+
+/**
+ * Simulates COAP APs that stream their statistics to the StatsStreamServer, for testing the
+ * streaming ingest without AP hardware. Each simulated AP opens its own connection, identifies
+ * itself with a "hello;<apId>" line and periodically streams traffic information and utilhop
+ * records in the format used by the COAP APs.
+ *
+ * Usage: LoopbackApSimulator [local|host] [port] [numAps] [intervalMs] [durationSec]
+ * With "local", a StatsStreamServer is started in the same process.
+ */
+public class LoopbackApSimulator implements Runnable {
+
+	private String host;
+	private int port;
+	private int apId;
+	private long intervalMs;
+	private long endTs;
+
+	private Random random;
+	private long sentRecords = 0;
+
+	public LoopbackApSimulator(String host, int port, int apId, long intervalMs, long endTs) {
+		this.host = host;
+		this.port = port;
+		this.apId = apId;
+		this.intervalMs = intervalMs;
+		this.endTs = endTs;
+		this.random = new Random(apId);
+	}
+
+	@Override
+	public void run() {
+		Socket socket = null;
+		try {
+			socket = new Socket(host, port);
+			OutputStream out = socket.getOutputStream();
+
+			send(out, StatsStreamServer.HELLO_MSG + ";" + apId);
+
+			while (System.currentTimeMillis() < endTs) {
+				long sec = System.currentTimeMillis() / 1000;
+
+				send(out, createTrafficInfoRecord(sec));
+				send(out, createUtilHopRecord(sec));
+				sentRecords += 2;
+
+				Thread.sleep(intervalMs);
+			}
+		} catch (Exception e) {
+			System.err.println("Simulated AP " + apId + " failed: " + e.getMessage());
+		} finally {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// Ignore.
+				}
+			}
+		}
+	}
+
+	private void send(OutputStream out, String line) throws IOException {
+		out.write((line + "\n").getBytes("US-ASCII"));
+		out.flush();
+	}
+
+	/**
+	 * @param sec
+	 * @return traffic information record, e.g.,
+	 * "trafficinfo;01;99514018ec7a996121 711e9530338 514fcb67d0a 443 58859 TCP google^google_inc.^us 159 223008 1425159713".
+	 */
+	private String createTrafficInfoRecord(long sec) {
+		int numFlows = 1 + random.nextInt(5);
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(CoapConstants.TRAFFICINFO_MSG).append(';').append(String.format("%02d", numFlows));
+		for (int i = 0; i < numFlows; ++i) {
+			int packets = 1 + random.nextInt(500);
+			sb.append(';')
+				.append(String.format("%012x", (long) apId * 100 + i)).append(' ')
+				.append(Long.toHexString(random.nextInt() & 0xFFFFFFFFL)).append(' ')
+				.append(Long.toHexString(random.nextInt() & 0xFFFFFFFFL)).append(' ')
+				.append(443).append(' ')
+				.append(1024 + random.nextInt(60000)).append(' ')
+				.append("TCP").append(' ')
+				.append("google^google_inc.^us").append(' ')
+				.append(packets).append(' ')
+				.append(packets * (64 + random.nextInt(1400))).append(' ')
+				.append(sec);
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * @param sec
+	 * @return utilhop record, e.g., "utilhop;01;2412 100 40 20 10 1425159713 -95".
+	 */
+	private String createUtilHopRecord(long sec) {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(CoapConstants.UTILHOP_MSG).append(';').append(String.format("%02d", CoapConstants.FREQ_LIST.size()));
+		for (int freq: CoapConstants.FREQ_LIST) {
+			int active = 100;
+			int busy = random.nextInt(active);
+			int recv = busy / 2;
+			int transmit = busy / 4;
+
+			sb.append(';')
+				.append(freq).append(' ')
+				.append(active).append(' ')
+				.append(busy).append(' ')
+				.append(recv).append(' ')
+				.append(transmit).append(' ')
+				.append(sec).append(' ')
+				.append(-95 + random.nextInt(10));
+		}
+
+		return sb.toString();
+	}
+
+	public long getSentRecords() {
+		return sentRecords;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String host = args.length > 0 ? args[0] : "local";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : CoapConstants.STATS_STREAM_PORT;
+		int numAps = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		long intervalMs = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+		long durationSec = args.length > 4 ? Long.parseLong(args[4]) : 10;
+
+		if (host.equals("local")) {
+			host = CoapConstants.STATS_STREAM_BIND_ADDRESS;
+
+			Thread serverThread = new Thread(new StatsStreamServer(port), "CoapStatsStreamServer");
+			serverThread.setDaemon(true);
+			serverThread.start();
+
+			// Give the server time to bind.
+			Thread.sleep(500);
+		}
+
+		long endTs = System.currentTimeMillis() + durationSec * 1000;
+		LoopbackApSimulator[] aps = new LoopbackApSimulator[numAps];
+		Thread[] threads = new Thread[numAps];
+
+		for (int i = 0; i < numAps; ++i) {
+			aps[i] = new LoopbackApSimulator(host, port, 2000 + i, intervalMs, endTs);
+			threads[i] = new Thread(aps[i], "SimulatedAP-" + (2000 + i));
+			threads[i].start();
+		}
+
+		long sentRecords = 0;
+		for (int i = 0; i < numAps; ++i) {
+			threads[i].join();
+			sentRecords += aps[i].getSentRecords();
+		}
+
+		// Let the server drain the streams.
+		Thread.sleep(500);
+
+		System.out.println("Simulated " + numAps + " APs, sent " + sentRecords + " records, " +
+				"server ingested " + StatsStreamServer.getStreamedRecords() + " records, dropped " +
+				StatsStreamServer.getDroppedRecords());
+	}
+}
@@ -0,0 +1,469 @@
+/*
+ *  Temporary code for debugging and experiments.
+ */
+package net.floodlightcontroller.core.coap.experiments;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.floodlightcontroller.core.coap.dataparsers.TrafficInfoParser;
+import net.floodlightcontroller.core.coap.structs.AirtimeUtilStat;
+import net.floodlightcontroller.core.coap.structs.TrafficInfoStat;
+import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.StatsTokenizer;
+
+/**
+ * Micro-benchmark for the parsers of the statistics strings received from the COAP APs. Each
+ * benchmark compares the current parser with the previous (split based) implementation, which
+ * is kept here as the baseline, using realistic payloads. It reports the records parsed per
+ * second and the bytes allocated per record (measured with the per-thread allocation counter
+ * of the HotSpot JVM).
+ *
+ * The dispatch benchmarks measure the full handling of the "<type>;<payload>" data strings (as
+ * in CoapDataManager.processDataString()): the previous implementation split the data string and
+ * rebuilt the payload with string concatenation before parsing it, the current one matches the
+ * type prefix and parses the payload in place.
+ *
+ * Usage: ParserBenchmark [recordsPerPayload] [iterations]
+ */
+public class ParserBenchmark {
+
+	/**
+	 * A benchmarked parser. Returns a value derived from the parsed records, so that the
+	 * parsing isn't optimized away.
+	 */
+	interface Benchmark {
+		long run(String payload);
+	}
+
+	/**
+	 * TrafficInfoStat before the identifiers and labels were dictionary encoded, produced by the
+	 * baseline parser.
+	 */
+	static class LegacyTrafficInfoStat {
+		public long ts;
+		public int packetCount, numBytes, packetRetries;
+		public String trafficId, type, tid, trafficInfo;
+		public String clientId;
+		public String srcIp, dstIp;
+		public int srcPort, dstPort;
+	}
+
+	private static ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * @return bytes allocated by the current thread, -1 if not supported by the JVM.
+	 */
+	private static long getAllocatedBytes() {
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(
+					Thread.currentThread().getId());
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Run the benchmark and print the throughput and allocation per record.
+	 *
+	 * @param name
+	 * @param benchmark
+	 * @param payload
+	 * @param recordsPerPayload
+	 * @param iterations
+	 */
+	static void measure(String name, Benchmark benchmark, String payload, int recordsPerPayload, int iterations) {
+		long checksum = 0;
+
+		// Warm up.
+		for (int i = 0; i < iterations / 2 + 1; ++i) {
+			checksum += benchmark.run(payload);
+		}
+
+		long allocStart = getAllocatedBytes();
+		long startNs = System.nanoTime();
+
+		for (int i = 0; i < iterations; ++i) {
+			checksum += benchmark.run(payload);
+		}
+
+		long durationNs = System.nanoTime() - startNs;
+		long allocBytes = getAllocatedBytes() - allocStart;
+		long records = (long) recordsPerPayload * iterations;
+
+		System.out.println(String.format("%-28s %12.0f records/sec %10s bytes/record (checksum %d)",
+				name, records * 1e9 / durationNs,
+				allocStart < 0 ? "n/a" : String.format("%.1f", allocBytes * 1.0 / records), checksum));
+	}
+
+	/**
+	 * @param numRecords
+	 * @param random
+	 * @return traffic information payload (without the "trafficinfo;" prefix).
+	 */
+	static String createTrafficInfoPayload(int numRecords, Random random) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%02d", numRecords));
+
+		String[] types = {"TCP", "UDP", "ICMP"};
+		String[] infos = {"google^google_inc.^us", "netflix^netflix_inc.^us", "akamai^akamai_tech.^nl"};
+		long sec = 1425159713;
+
+		for (int i = 0; i < numRecords; ++i) {
+			int packets = 1 + random.nextInt(500);
+			sb.append(';')
+				.append(String.format("%012X", random.nextLong() & 0xFFFFFFFFFFFFL)).append(' ')
+				.append(Long.toHexString(random.nextInt() & 0xFFFFFFFFL)).append(' ')
+				.append(Long.toHexString(random.nextInt() & 0xFFFFFFFFL)).append(' ')
+				.append(443).append(' ')
+				.append(1024 + random.nextInt(60000)).append(' ')
+				.append(types[random.nextInt(types.length)]).append(' ')
+				.append(infos[random.nextInt(infos.length)]).append(' ')
+				.append(packets).append(' ')
+				.append(packets * (64 + random.nextInt(1400))).append(' ')
+				.append(sec + i);
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Baseline: the split based TrafficInfoParser.process() implementation.
+	 *
+	 * @param statString
+	 * @return parsed records.
+	 */
+	static List<LegacyTrafficInfoStat> parseTrafficInfoLegacy(String statString) {
+		List<LegacyTrafficInfoStat> records = new ArrayList<LegacyTrafficInfoStat>();
+
+		int cnt = Integer.parseInt(statString.substring(0, 2));
+		if (cnt == 0) {
+			return records;
+		}
+
+		statString = statString.substring(3);
+		String[] terms = statString.split(";");
+
+		for (int i = 0; i < cnt; ++i) {
+			String curr = terms[i];
+			String[] currTerms = curr.split(" ");
+
+			String client = currTerms[0];
+			String type = currTerms[5];
+			String[] trafficinfo = currTerms[6].split("\\^");
+
+			int srcPort = 0, dstPort = 0;
+			if (!type.equals("ICMP")) {
+				srcPort = Integer.parseInt(currTerms[3]);
+				dstPort = Integer.parseInt(currTerms[4]);
+			}
+
+			LegacyTrafficInfoStat stats = new LegacyTrafficInfoStat();
+			stats.clientId = client.toLowerCase();
+			stats.srcIp = currTerms[1];
+			stats.dstIp = currTerms[2];
+			stats.srcPort = srcPort;
+			stats.dstPort = dstPort;
+			stats.packetCount = Integer.parseInt(currTerms[7]);
+			stats.numBytes = Integer.parseInt(currTerms[8]);
+			stats.ts = Long.parseLong(currTerms[9]);
+			stats.type = type;
+			stats.tid = trafficinfo[0];
+			stats.trafficInfo = trafficinfo[1] + "^" + trafficinfo[2];
+
+			records.add(stats);
+		}
+
+		return records;
+	}
+
+	/**
+	 * Single pass parsing using TrafficInfoParser.parseRecord().
+	 *
+	 * @param statString
+	 * @return parsed records.
+	 */
+	static List<TrafficInfoStat> parseTrafficInfo(String statString) {
+		return parseTrafficInfo(statString, 0, statString.length());
+	}
+
+	/**
+	 * Single pass parsing of statString[offset, end) using TrafficInfoParser.parseRecord().
+	 *
+	 * @param statString
+	 * @param offset
+	 * @param end
+	 * @return parsed records.
+	 */
+	static List<TrafficInfoStat> parseTrafficInfo(String statString, int offset, int end) {
+		List<TrafficInfoStat> records = new ArrayList<TrafficInfoStat>();
+
+		int cnt = (int) StatsTokenizer.parseLong(statString, offset, offset + 2);
+		StatsTokenizer tokenizer = new StatsTokenizer();
+
+		int start = offset + 3;
+		for (int i = 0; i < cnt && start < end; ++i) {
+			int recordEnd = statString.indexOf(';', start);
+			if (recordEnd < 0 || recordEnd > end) {
+				recordEnd = end;
+			}
+
+			TrafficInfoStat stats = new TrafficInfoStat();
+			tokenizer.reset(statString, start, recordEnd);
+			TrafficInfoParser.parseRecord(tokenizer, stats);
+			records.add(stats);
+
+			start = recordEnd + 1;
+		}
+
+		return records;
+	}
+
+	/**
+	 * @param random
+	 * @return utilhop payload (without the "utilhop;" prefix) with a record per channel hopped
+	 * by the AP.
+	 */
+	static String createUtilHopPayload(Random random) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%02d", CoapConstants.FREQ_LIST.size()));
+
+		long sec = 1425159713;
+		for (int freq: CoapConstants.FREQ_LIST) {
+			int active = 450 + random.nextInt(100);
+			int busy = random.nextInt(active);
+
+			sb.append(';')
+				.append(freq).append(' ')
+				.append(active).append(' ')
+				.append(busy).append(' ')
+				.append(busy / 2).append(' ')
+				.append(busy / 4).append(' ')
+				.append(sec).append(' ')
+				.append(-(85 + random.nextInt(15)));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Baseline: the split based UtilHopParser.process() implementation.
+	 *
+	 * @param rest
+	 * @return parsed records.
+	 */
+	static List<AirtimeUtilStat> parseUtilHopLegacy(String rest) {
+		List<AirtimeUtilStat> records = new ArrayList<AirtimeUtilStat>();
+
+		int cnt = Integer.parseInt(rest.substring(0, 2).replace("^0", ""));
+		if (cnt == 0) {
+			return records;
+		}
+
+		rest = rest.substring(3);
+		String[] freqTerms = rest.split(";");
+
+		for (int i = 0; i < cnt; ++i) {
+			String[] terms = freqTerms[i].split(" ");
+
+			AirtimeUtilStat stats = new AirtimeUtilStat();
+			stats.frequency = Integer.parseInt(terms[0]);
+			stats.activeTime = Integer.parseInt(terms[1]);
+			stats.busyTime = Integer.parseInt(terms[2]);
+			stats.recvTime = Integer.parseInt(terms[3]);
+			stats.transmitTime = Integer.parseInt(terms[4]);
+			stats.ts = Long.parseLong(terms[5]);
+			stats.noiseFloor = Integer.parseInt(terms[6]);
+
+			records.add(stats);
+		}
+
+		return records;
+	}
+
+	/**
+	 * Single pass parsing of statString[offset, end) using UtilHopParser.parseRecord().
+	 *
+	 * @param statString
+	 * @param offset
+	 * @param end
+	 * @return parsed records.
+	 */
+	static List<AirtimeUtilStat> parseUtilHop(String statString, int offset, int end) {
+		List<AirtimeUtilStat> records = new ArrayList<AirtimeUtilStat>();
+
+		int cnt = (int) StatsTokenizer.parseLong(statString, offset, offset + 2);
+		StatsTokenizer tokenizer = new StatsTokenizer();
+
+		int start = offset + 3;
+		for (int i = 0; i < cnt && start < end; ++i) {
+			int recordEnd = statString.indexOf(';', start);
+			if (recordEnd < 0 || recordEnd > end) {
+				recordEnd = end;
+			}
+
+			AirtimeUtilStat stats = new AirtimeUtilStat();
+			tokenizer.reset(statString, start, recordEnd);
+			UtilHopParser.parseRecord(tokenizer, stats);
+			records.add(stats);
+
+			start = recordEnd + 1;
+		}
+
+		return records;
+	}
+
+	/**
+	 * Baseline: CoapDataManager.processDataString() splitting the data string and rebuilding
+	 * the payload before parsing it.
+	 *
+	 * @param dataString
+	 * @return parsed records.
+	 */
+	static List<?> dispatchLegacy(String dataString) {
+		String[] terms = dataString.split(";");
+		if (terms.length == 1) {
+			return null;
+		}
+
+		String rest = "";
+		for (int i = 1; i < terms.length - 1; ++i) {
+			rest += terms[i];
+			rest += ";";
+		}
+
+		rest += terms[terms.length - 1];
+
+		if (terms[0].equals(CoapConstants.TRAFFICINFO_MSG)) {
+			return parseTrafficInfoLegacy(rest);
+		} else if (terms[0].equals(CoapConstants.UTILHOP_MSG)) {
+			return parseUtilHopLegacy(rest);
+		}
+
+		return null;
+	}
+
+	/**
+	 * CoapDataManager.processDataString() matching the type prefix and parsing the payload in place.
+	 *
+	 * @param dataString
+	 * @return parsed records.
+	 */
+	static List<?> dispatch(String dataString) {
+		int end = dataString.length();
+		int typeEnd = dataString.indexOf(';');
+		if (typeEnd < 0 || typeEnd >= end - 1) {
+			return null;
+		}
+
+		if (isMessageType(dataString, typeEnd, CoapConstants.TRAFFICINFO_MSG)) {
+			return parseTrafficInfo(dataString, typeEnd + 1, end);
+		} else if (isMessageType(dataString, typeEnd, CoapConstants.UTILHOP_MSG)) {
+			return parseUtilHop(dataString, typeEnd + 1, end);
+		}
+
+		return null;
+	}
+
+	private static boolean isMessageType(String dataString, int typeEnd, String msgType) {
+		return typeEnd == msgType.length() && dataString.regionMatches(0, msgType, 0, typeEnd);
+	}
+
+	static boolean isEqual(LegacyTrafficInfoStat a, TrafficInfoStat b) {
+		return a.clientId.equals(b.getClientId()) && a.srcIp.equals(b.getSrcIp()) && a.dstIp.equals(b.getDstIp()) &&
+				a.srcPort == b.srcPort && a.dstPort == b.dstPort && a.type.equals(b.getType()) &&
+				a.tid.equals(b.getTid()) && a.trafficInfo.equals(b.getTrafficInfo()) &&
+				a.packetCount == b.packetCount && a.numBytes == b.numBytes && a.ts == b.ts;
+	}
+
+	static boolean isEqual(AirtimeUtilStat a, AirtimeUtilStat b) {
+		return a.frequency == b.frequency && a.activeTime == b.activeTime && a.busyTime == b.busyTime &&
+				a.recvTime == b.recvTime && a.transmitTime == b.transmitTime && a.ts == b.ts &&
+				a.noiseFloor == b.noiseFloor;
+	}
+
+	/**
+	 * Check that the parsers produce the same records before comparing their performance.
+	 */
+	static void verifyTrafficInfo(String payload) {
+		verify(parseTrafficInfoLegacy(payload), parseTrafficInfo(payload));
+	}
+
+	/**
+	 * Check that both dispatchers produce the same records for the input data string.
+	 */
+	static void verifyDispatch(String dataString) {
+		verify(dispatchLegacy(dataString), dispatch(dataString));
+	}
+
+	private static void verify(List<?> expected, List<?> actual) {
+		if (expected.size() != actual.size()) {
+			throw new IllegalStateException("Record count mismatch: " + expected.size() + " vs " + actual.size());
+		}
+
+		for (int i = 0; i < expected.size(); ++i) {
+			Object a = expected.get(i), b = actual.get(i);
+			boolean isEqual = (a instanceof LegacyTrafficInfoStat) ?
+					isEqual((LegacyTrafficInfoStat) a, (TrafficInfoStat) b) :
+					isEqual((AirtimeUtilStat) a, (AirtimeUtilStat) b);
+
+			if (!isEqual) {
+				throw new IllegalStateException("Record " + i + " mismatch");
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		int recordsPerPayload = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+		Random random = new Random(1234);
+		String trafficInfoPayload = createTrafficInfoPayload(recordsPerPayload, random);
+		verifyTrafficInfo(trafficInfoPayload);
+
+		System.out.println("trafficinfo: " + recordsPerPayload + " records/payload, " + iterations + " iterations");
+		measure("trafficinfo split (legacy)", new Benchmark() {
+			@Override
+			public long run(String payload) {
+				return parseTrafficInfoLegacy(payload).size();
+			}
+		}, trafficInfoPayload, recordsPerPayload, iterations);
+
+		measure("trafficinfo tokenizer", new Benchmark() {
+			@Override
+			public long run(String payload) {
+				return parseTrafficInfo(payload).size();
+			}
+		}, trafficInfoPayload, recordsPerPayload, iterations);
+
+		// Data strings as received from the APs.
+		String trafficInfoData = CoapConstants.TRAFFICINFO_MSG + ";" + trafficInfoPayload;
+		String utilHopData = CoapConstants.UTILHOP_MSG + ";" + createUtilHopPayload(random);
+		int utilHopRecords = CoapConstants.FREQ_LIST.size();
+		verifyDispatch(trafficInfoData);
+		verifyDispatch(utilHopData);
+
+		Benchmark legacyDispatch = new Benchmark() {
+			@Override
+			public long run(String dataString) {
+				return dispatchLegacy(dataString).size();
+			}
+		};
+		Benchmark prefixDispatch = new Benchmark() {
+			@Override
+			public long run(String dataString) {
+				return dispatch(dataString).size();
+			}
+		};
+
+		System.out.println("dispatch: trafficinfo " + trafficInfoData.length() + " bytes, utilhop " + 
+				utilHopData.length() + " bytes (" + utilHopRecords + " records)");
+		measure("trafficinfo split+concat", legacyDispatch, trafficInfoData, recordsPerPayload, iterations);
+		measure("trafficinfo prefix dispatch", prefixDispatch, trafficInfoData, recordsPerPayload, iterations);
+		measure("utilhop split+concat", legacyDispatch, utilHopData, utilHopRecords, iterations);
+		measure("utilhop prefix dispatch", prefixDispatch, utilHopData, utilHopRecords, iterations);
+	}
+}
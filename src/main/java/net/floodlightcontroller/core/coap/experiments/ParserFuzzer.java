@@ -0,0 +1,311 @@
+/*
+ *  Temporary code for debugging and experiments.
+ */
+package net.floodlightcontroller.core.coap.experiments;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.floodlightcontroller.core.coap.dataparsers.TrafficInfoParser;
+import net.floodlightcontroller.core.coap.statsmanager.CoapDataManager;
+import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.StatsCursor;
+
+/**
+ * Corpus driven fuzzer and throughput harness for the parsers of the statistics strings received
+ * from the COAP APs: TrafficInfoParser, UtilHopParser and the "<type>;<payload>" dispatcher
+ * (CoapDataManager.processDataString(), through processStreamedDataString()).
+ *
+ * The corpus contains the recorded data strings below, synthesized data strings (see
+ * ParserBenchmark) and, optionally, the data strings of a corpus file (one per line, lines
+ * starting with '#' are ignored), e.g., captured from the APs with StatsTrace.
+ *
+ * Checks:
+ *   - Every valid corpus entry is parsed without malformed records.
+ *   - Malformed inputs (corpus entries with random truncations, deleted/replaced/inserted
+ *     characters, overflowing numbers, wrong record counts...) never make a parser throw
+ *     anything but a NumberFormatException for a malformed record count, and never make the
+ *     dispatcher throw. Each failure is reported with its case number, which is reproduced by
+ *     running the fuzzer with the same seed.
+ *
+ * The throughput of each parser is then measured (see ParserBenchmark.measure()) for valid
+ * payloads and for payloads with 1 in 10 malformed records (at least one per payload).
+ *
+ * Usage: ParserFuzzer [cases] [seed] [corpusFile]
+ */
+public class ParserFuzzer {
+
+	/**
+	 * Data strings recorded from the COAP APs.
+	 */
+	static final String[] RECORDED_CORPUS = {
+		"trafficinfo;02;99514018ec7a996121 711e9530338 514fcb67d0a 443 58859 TCP google^google_inc.^us 159 223008 1425159713;" +
+				"99514018ec7a996121 711e9530338 514fcb67d0a 0 0 ICMP akamai^akamai_tech.^nl 3 252 1425159714",
+		"trafficinfo;00",
+		"utilhop;02;2412 100 40 20 10 1425159713 -95;2437 520 300 150 75 1425159713 -92",
+		"utilhop;01;5180 480 12 6 3 1425159715 -101",
+	};
+
+	private static final String FUZZ_CHARS = " ;^-+0123456789aZ:.\t";
+
+	private static final String[] FUZZ_TOKENS = {
+		"99999999999999999999", "-2147483649", "2147483648", "-", "+", "^", "^^", ";;", "  ", "ICMP", "TCP",
+	};
+
+	/**
+	 * A fuzzed parser. Returns normally or throws the allowed exception for malformed input.
+	 */
+	interface Target {
+		void run(String dataString);
+	}
+
+	/**
+	 * @param numPayloads number of synthesized data strings of each type.
+	 * @param random
+	 * @return valid data strings.
+	 */
+	static List<String> createCorpus(int numPayloads, Random random) {
+		List<String> corpus = new ArrayList<String>();
+		for (String dataString: RECORDED_CORPUS) {
+			corpus.add(dataString);
+		}
+
+		for (int i = 0; i < numPayloads; ++i) {
+			corpus.add(CoapConstants.TRAFFICINFO_MSG + ";" +
+					ParserBenchmark.createTrafficInfoPayload(1 + random.nextInt(50), random));
+			corpus.add(CoapConstants.UTILHOP_MSG + ";" + ParserBenchmark.createUtilHopPayload(random));
+		}
+
+		return corpus;
+	}
+
+	/**
+	 * @param fileName
+	 * @return data strings of the corpus file.
+	 * @throws IOException
+	 */
+	static List<String> readCorpus(String fileName) throws IOException {
+		List<String> corpus = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					corpus.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		return corpus;
+	}
+
+	/**
+	 * Apply 1 to 3 random mutations to the input data string.
+	 *
+	 * @param dataString
+	 * @param random
+	 * @return mutated data string.
+	 */
+	static String mutate(String dataString, Random random) {
+		StringBuilder sb = new StringBuilder(dataString);
+		int numMutations = 1 + random.nextInt(3);
+
+		for (int i = 0; i < numMutations; ++i) {
+			int pos = sb.length() == 0 ? 0 : random.nextInt(sb.length());
+
+			switch (random.nextInt(6)) {
+			case 0: // Truncate.
+				sb.setLength(pos);
+				break;
+			case 1: // Delete a character.
+				if (pos < sb.length()) {
+					sb.deleteCharAt(pos);
+				}
+				break;
+			case 2: // Replace a character.
+				if (pos < sb.length()) {
+					sb.setCharAt(pos, FUZZ_CHARS.charAt(random.nextInt(FUZZ_CHARS.length())));
+				}
+				break;
+			case 3: // Insert a token.
+				sb.insert(pos, FUZZ_TOKENS[random.nextInt(FUZZ_TOKENS.length)]);
+				break;
+			case 4: { // Change the record count.
+				int countPos = sb.indexOf(";") + 1;
+				if (countPos > 0 && countPos + 2 <= sb.length()) {
+					sb.replace(countPos, countPos + 2, String.format("%02d", random.nextInt(100)));
+				}
+				break;
+			}
+			default: { // Duplicate a record.
+				int recordStart = sb.indexOf(";", pos);
+				if (recordStart >= 0) {
+					int recordEnd = sb.indexOf(";", recordStart + 1);
+					sb.insert(recordStart, sb.substring(recordStart, recordEnd < 0 ? sb.length() : recordEnd));
+				}
+				break;
+			}
+			}
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Replace 1 in 10 records of the payload (starting with the first one) with a record missing
+	 * its last fields.
+	 *
+	 * @param dataString valid data string.
+	 * @return data string with malformed records.
+	 */
+	static String corruptRecords(String dataString) {
+		String[] records = dataString.split(";");
+		StringBuilder sb = new StringBuilder(records[0]).append(';').append(records[1]);
+		for (int i = 2; i < records.length; ++i) {
+			sb.append(';').append((i - 2) % 10 == 0 ? records[i].substring(0, records[i].length() / 2) : records[i]);
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Call the parser of the data string's type directly, i.e., without the dispatcher's
+	 * catch-all.
+	 */
+	static Target createParserTarget(final TrafficInfoParser trafficInfoParser, final UtilHopParser utilHopParser,
+			final int apId) {
+		return new Target() {
+			@Override
+			public void run(String dataString) {
+				int typeEnd = dataString.indexOf(';');
+				if (typeEnd < 0) {
+					return;
+				}
+
+				String type = dataString.substring(0, typeEnd);
+				if (type.equals(CoapConstants.TRAFFICINFO_MSG)) {
+					StatsCursor.reset(apId);
+					trafficInfoParser.process(dataString, typeEnd + 1, dataString.length(), apId);
+				} else if (type.equals(CoapConstants.UTILHOP_MSG)) {
+					utilHopParser.process(dataString, typeEnd + 1, dataString.length(), apId);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return number of malformed records reported by the parsers.
+	 */
+	static long getMalformedRecords() {
+		return TrafficInfoParser.getMalformedRecords() + UtilHopParser.getMalformedRecords();
+	}
+
+	/**
+	 * Run the target on the valid corpus and on the fuzzed cases.
+	 *
+	 * @return number of failures.
+	 */
+	static int fuzz(String name, Target target, boolean isHeaderErrorAllowed, List<String> corpus,
+			int cases, long seed) {
+		int failures = 0;
+
+		for (String dataString: corpus) {
+			long malformed = getMalformedRecords();
+			try {
+				target.run(dataString);
+			} catch (RuntimeException e) {
+				System.out.println(name + ": valid corpus entry failed: " + e + "\n  " + dataString);
+				failures ++;
+				continue;
+			}
+
+			if (getMalformedRecords() != malformed) {
+				System.out.println(name + ": valid corpus entry has malformed records:\n  " + dataString);
+				failures ++;
+			}
+		}
+
+		for (int i = 0; i < cases; ++i) {
+			Random random = new Random(seed + i);
+			String dataString = mutate(corpus.get(random.nextInt(corpus.size())), random);
+
+			try {
+				target.run(dataString);
+			} catch (NumberFormatException e) {
+				if (!isHeaderErrorAllowed) {
+					System.out.println(name + ": case " + i + " failed: " + e + "\n  " + dataString);
+					failures ++;
+				}
+			} catch (RuntimeException e) {
+				System.out.println(name + ": case " + i + " failed: " + e + "\n  " + dataString);
+				failures ++;
+			}
+		}
+
+		System.out.println(String.format("%-12s %d corpus entries, %d fuzzed cases, %d failures",
+				name, corpus.size(), cases, failures));
+		return failures;
+	}
+
+	/**
+	 * Measure the throughput of the target for the data string.
+	 */
+	static void measure(String name, final Target target, String dataString, int iterations) {
+		int numRecords = dataString.split(";").length - 2;
+		ParserBenchmark.measure(name, new ParserBenchmark.Benchmark() {
+			@Override
+			public long run(String payload) {
+				target.run(payload);
+				return getMalformedRecords();
+			}
+		}, dataString, numRecords, iterations);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int cases = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1234;
+
+		Random random = new Random(seed);
+		List<String> corpus = createCorpus(20, random);
+		if (args.length > 2) {
+			corpus.addAll(readCorpus(args[2]));
+		}
+
+		final int apId = 1;
+		Target parsers = createParserTarget(new TrafficInfoParser(), new UtilHopParser(), apId);
+		Target dispatcher = new Target() {
+			@Override
+			public void run(String dataString) {
+				StatsCursor.reset(apId);
+				CoapDataManager.processStreamedDataString(dataString, apId);
+			}
+		};
+
+		System.out.println("seed: " + seed);
+		int failures = fuzz("parsers", parsers, true, corpus, cases, seed);
+		failures += fuzz("dispatcher", dispatcher, false, corpus, cases, seed);
+
+		// Throughput.
+		int iterations = 20000;
+		String trafficInfoData = CoapConstants.TRAFFICINFO_MSG + ";" +
+				ParserBenchmark.createTrafficInfoPayload(50, random);
+		String utilHopData = CoapConstants.UTILHOP_MSG + ";" + ParserBenchmark.createUtilHopPayload(random);
+
+		measure("trafficinfo", parsers, trafficInfoData, iterations);
+		measure("trafficinfo malformed", parsers, corruptRecords(trafficInfoData), iterations);
+		measure("utilhop", parsers, utilHopData, iterations);
+		measure("utilhop malformed", parsers, corruptRecords(utilHopData), iterations);
+		measure("dispatch trafficinfo", dispatcher, trafficInfoData, iterations);
+		measure("dispatch utilhop", dispatcher, utilHopData, iterations);
+
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -6,17 +6,23 @@ package net.floodlightcontroller.core.coap.experiments;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.protocol.statistics.coap.OFPassiveStatisticsReply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.floodlightcontroller.core.coap.dataparsers.Parser;
+import net.floodlightcontroller.core.coap.dataparsers.StatsRecordParser;
 import net.floodlightcontroller.core.coap.statsmanager.DatabaseCommitter;
 import net.floodlightcontroller.core.coap.structs.PassiveStats;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.CoapUtils;
 
 /**
  * Used for parsing the experimental statistics about external WiFi link activity collected passively by the COAP APs.
@@ -26,7 +32,8 @@ import net.floodlightcontroller.core.coap.util.CoapConstants;
  * @author "Ashish Patro"
  *
  */
-public class PassiveHopParser implements Parser {
+public class PassiveHopParser implements Parser<Map<Integer, HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats>>>>, Void>,
+		StatsRecordParser<OFPassiveStatisticsReply> {
 
 	// Logger.
 	protected static Logger log = 
@@ -44,27 +51,56 @@ public class PassiveHopParser implements Parser {
 		String link = String.format("%s %s", ofPassiveStat.getSender(), ofPassiveStat.getReceiver());
 		Long sec = (long) ofPassiveStat.getTimestamp();
 		
-		maxTs = Math.max(maxTs, sec);
+		CoapUtils.updateMax(maxTs, sec);
 		
-		synchronized (passiveHopStatsMapForStorage) {
-			if (!passiveHopStatsMapForStorage.containsKey(apId)) {
-				passiveHopStatsMapForStorage.put(apId, new HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats>>>());
+		// Only the AP's own map is locked.
+		HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats>>> apMap = passiveHopStatsMapForStorage.get(apId);
+		if (apMap == null) {
+			HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats>>> newApMap =
+					new HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats>>>();
+			apMap = passiveHopStatsMapForStorage.putIfAbsent(apId, newApMap);
+			if (apMap == null) {
+				apMap = newApMap;
 			}
-		
-			if (!passiveHopStatsMapForStorage.get(apId).containsKey(sec)) {
-				passiveHopStatsMapForStorage.get(apId).put(sec, new HashMap<Integer, HashMap<String,PassiveStats>>());
+		}
+
+		synchronized (apMap) {
+			if (!apMap.containsKey(sec)) {
+				apMap.put(sec, new HashMap<Integer, HashMap<String,PassiveStats>>());
 			}
 		
-			if (!passiveHopStatsMapForStorage.get(apId).get(sec).containsKey(currPassiveStat.channel)) {
-				passiveHopStatsMapForStorage.get(apId).get(sec).put(currPassiveStat.channel, new HashMap<String,PassiveStats>());
+			if (!apMap.get(sec).containsKey(currPassiveStat.channel)) {
+				apMap.get(sec).put(currPassiveStat.channel, new HashMap<String,PassiveStats>());
 			}
 		
-			passiveHopStatsMapForStorage.get(apId).get(sec).get(currPassiveStat.channel).put(link, currPassiveStat);
+			apMap.get(sec).get(currPassiveStat.channel).put(link, currPassiveStat);
+		}
+	}
+
+	@Override
+	public OFStatisticsType getStatsType() {
+		return OFStatisticsType.PASSIVE;
+	}
+
+	/**
+	 * Only the statistics collected while hopping across channels (type != 0) are processed
+	 * here, see PassiveStatsParser.
+	 */
+	@Override
+	public OFPassiveStatisticsReply decode(OFStatistics currStat, int apId) {
+		OFPassiveStatisticsReply ofPassiveStat = (OFPassiveStatisticsReply) currStat;
+		return ofPassiveStat.getType() != 0 ? ofPassiveStat : null;
+	}
+
+	@Override
+	public void addAll(int apId, List<OFPassiveStatisticsReply> records) {
+		for (OFPassiveStatisticsReply ofPassiveStat: records) {
+			processOFStat(ofPassiveStat, apId);
 		}
 	}
 
 	@Override
-	public Object getStorageHashMap() {
+	public Map<Integer, HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats>>>> getStorageHashMap() {
 		return passiveHopStatsMapForStorage;
 	}
 
@@ -74,15 +110,13 @@ public class PassiveHopParser implements Parser {
 			String queryFormat = "INSERT INTO " + CoapConstants.PASSIVE_HOP_TABLE + " VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 			ArrayList<ArrayList<Object>> params = new ArrayList<ArrayList<Object>>();
 			
-			synchronized (passiveHopStatsMapForStorage) {
-				Iterator<Map.Entry<Integer, HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats> > > > > it = 
-							passiveHopStatsMapForStorage.entrySet().iterator();
-		
-				while (it.hasNext()) {
-					boolean dontRemove = false;
-					Map.Entry<Integer, HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats> > > > pair = it.next();
-					int ap_id = pair.getKey();
-					Iterator<Map.Entry<Long, HashMap<Integer, HashMap<String, PassiveStats> > > > tim_it = pair.getValue().entrySet().iterator();
+			for (Map.Entry<Integer, HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats> > > > pair:
+					passiveHopStatsMapForStorage.entrySet()) {
+				int ap_id = pair.getKey();
+				HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats> > > apMap = pair.getValue();
+
+				synchronized (apMap) {
+					Iterator<Map.Entry<Long, HashMap<Integer, HashMap<String, PassiveStats> > > > tim_it = apMap.entrySet().iterator();
 		
 					while (tim_it.hasNext()) {
 						Map.Entry<Long, HashMap<Integer, HashMap<String, PassiveStats>>> pair_tim = tim_it.next();
@@ -123,35 +157,33 @@ public class PassiveHopParser implements Parser {
 		
 						tim_it.remove();
 					}
-		
-					if (!dontRemove) {
-						it.remove();
-					}
 				}
-		
-				DatabaseCommitter.executeQuery(queryFormat, params);
-				//System.out.println("queries size = " + queries.size());
 			}
+
+			// The AP maps aren't locked while the records are inserted.
+			DatabaseCommitter.executeQuery(queryFormat, params);
+			//System.out.println("queries size = " + queries.size());
 		} catch (Exception e) {
 			log.error("Exception while inserting beacon statistics into DB: " + e.getMessage());
 			e.printStackTrace();
 		}
 	}
 
-	long maxTs = 0;
+	AtomicLong maxTs = new AtomicLong(0);
 	@Override
 	public long getMaxTs() {
-		return maxTs;
+		return maxTs.get();
 	}
 
 	/**
-	 * Stores passive statistics data before it is committed to a persistent storage.
+	 * Stores passive statistics data before it is committed to a persistent storage. Each AP's
+	 * map is locked separately.
 	 */
-	HashMap<Integer, HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats> > > > passiveHopStatsMapForStorage = 
-			new HashMap<Integer, HashMap<Long,HashMap<Integer,HashMap<String, PassiveStats>>>>();
+	ConcurrentHashMap<Integer, HashMap<Long, HashMap<Integer, HashMap<String, PassiveStats> > > > passiveHopStatsMapForStorage = 
+			new ConcurrentHashMap<Integer, HashMap<Long,HashMap<Integer,HashMap<String, PassiveStats>>>>();
 
 	@Override
-	public Object getInMemoryHashMap() {
+	public Void getInMemoryHashMap() {
 		// TODO Auto-generated method stub
 		return null;
 	}
@@ -0,0 +1,213 @@
+/*
+ *  Temporary code for debugging and experiments.
+ */
+package net.floodlightcontroller.core.coap.experiments;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import net.floodlightcontroller.core.coap.experiments.ParserBenchmark.LegacyTrafficInfoStat;
+import net.floodlightcontroller.core.coap.structs.StationStats;
+import net.floodlightcontroller.core.coap.structs.TrafficInfoStat;
+import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
+
+/**
+ * Reports the heap footprint of the statistics kept in memory by the COAP server over the
+ * in-memory window (CoapConstants.INMEMORY_DATA_INTERVAL_SEC), before (String fields) and after
+ * (StatsDictionary encoded fields) the dictionary encoding:
+ *   - trafficinfo records, parsed from realistic payloads with a fixed population of clients,
+ *     destinations and traffic labels.
+ *   - the per-client station statistics maps, keyed by the client MAC.
+ *
+ * The footprint is measured as the difference in the used heap after garbage collection, so the
+ * report should be run with a fixed heap size (e.g., -Xms1g -Xmx1g).
+ *
+ * Usage: StatsFootprintReport [numAps] [flowsPerPoll] [numClients]
+ */
+public class StatsFootprintReport {
+
+	private static final String[] TYPES = {"TCP", "UDP", "ICMP"};
+	private static final String[] INFOS = {"google^google_inc.^us", "netflix^netflix_inc.^us",
+		"akamai^akamai_tech.^nl", "youtube^google_inc.^us", "facebook^facebook_inc.^us"};
+
+	/**
+	 * @param numRecords
+	 * @param clients
+	 * @param destinations
+	 * @param sec
+	 * @param random
+	 * @return traffic information payload (without the "trafficinfo;" prefix).
+	 */
+	static String createTrafficInfoPayload(int numRecords, String[] clients, String[] destinations,
+			long sec, Random random) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%02d", numRecords));
+
+		for (int i = 0; i < numRecords; ++i) {
+			int packets = 1 + random.nextInt(500);
+			sb.append(';')
+				.append(clients[random.nextInt(clients.length)]).append(' ')
+				.append(destinations[random.nextInt(destinations.length)]).append(' ')
+				.append(destinations[random.nextInt(destinations.length)]).append(' ')
+				.append(443).append(' ')
+				.append(1024 + random.nextInt(60000)).append(' ')
+				.append(TYPES[random.nextInt(TYPES.length)]).append(' ')
+				.append(INFOS[random.nextInt(INFOS.length)]).append(' ')
+				.append(packets).append(' ')
+				.append(packets * (64 + random.nextInt(1400))).append(' ')
+				.append(sec);
+		}
+
+		return sb.toString();
+	}
+
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; ++i) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Builds the in-memory structures whose footprint is measured.
+	 */
+	interface Builder {
+		Object build();
+	}
+
+	// Keeps the measured structures reachable.
+	private static Object retained;
+
+	/**
+	 * @param name
+	 * @param records
+	 * @param builder
+	 * @return heap footprint (bytes) of the structures created by the builder.
+	 */
+	private static long measure(String name, long records, Builder builder) {
+		long baseline = getUsedHeap();
+		retained = builder.build();
+		long bytes = getUsedHeap() - baseline;
+		retained = null;
+
+		System.out.println(String.format("%-34s %10.1f MB %8.1f bytes/record",
+				name, bytes / (1024.0 * 1024.0), bytes * 1.0 / records));
+		return bytes;
+	}
+
+	public static void main(String[] args) {
+		final int numAps = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		final int flowsPerPoll = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		final int numClients = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+		final int numPolls = CoapConstants.INMEMORY_DATA_INTERVAL_SEC * 1000 / CoapConstants.DATA_POLL_FREQUENCY_MSEC;
+		long numRecords = (long) numAps * numPolls * flowsPerPoll;
+
+		Random random = new Random(1234);
+		String[] clients = new String[numClients];
+		final String[] macs = new String[numClients];
+		for (int i = 0; i < numClients; ++i) {
+			clients[i] = String.format("%018x", random.nextLong() & Long.MAX_VALUE);
+			macs[i] = String.format("%012X", random.nextLong() & 0xFFFFFFFFFFFFL).replaceAll("(..)(?!$)", "$1:");
+		}
+
+		String[] destinations = new String[4 * numClients];
+		for (int i = 0; i < destinations.length; ++i) {
+			destinations[i] = Long.toHexString(random.nextInt() & 0xFFFFFFFFL);
+		}
+
+		final String[] payloads = new String[numPolls];
+		for (int i = 0; i < numPolls; ++i) {
+			payloads[i] = createTrafficInfoPayload(flowsPerPoll, clients, destinations, 1425159713L + i, random);
+		}
+
+		System.out.println("Window of " + CoapConstants.INMEMORY_DATA_INTERVAL_SEC + " sec: " + numAps + " APs, " +
+				numPolls + " polls, " + flowsPerPoll + " flows/poll, " + numClients + " clients, " +
+				numRecords + " trafficinfo records");
+
+		// Trafficinfo records.
+		long legacyBytes = measure("trafficinfo String fields", numRecords, new Builder() {
+			@Override
+			public Object build() {
+				List<List<LegacyTrafficInfoStat>> records = new ArrayList<List<LegacyTrafficInfoStat>>();
+				for (int ap = 0; ap < numAps; ++ap) {
+					for (String payload: payloads) {
+						records.add(ParserBenchmark.parseTrafficInfoLegacy(payload));
+					}
+				}
+				return records;
+			}
+		});
+
+		long encodedBytes = measure("trafficinfo dictionary encoded", numRecords, new Builder() {
+			@Override
+			public Object build() {
+				List<List<TrafficInfoStat>> records = new ArrayList<List<TrafficInfoStat>>();
+				for (int ap = 0; ap < numAps; ++ap) {
+					for (String payload: payloads) {
+						records.add(ParserBenchmark.parseTrafficInfo(payload));
+					}
+				}
+				return records;
+			}
+		});
+
+		// Station statistics keyed by the client MAC (StationStatsParser's storage map).
+		final int clientsPerPoll = Math.min(numClients, 20);
+		long numStationRecords = (long) numAps * numPolls * clientsPerPoll;
+		final StationStats stationStat = new StationStats(1425159713L, 10, 1, "6.5@10@12");
+
+		long stringKeyBytes = measure("station stats String MAC keys", numStationRecords, new Builder() {
+			@Override
+			public Object build() {
+				List<HashMap<String, StationStats>> maps = new ArrayList<HashMap<String, StationStats>>();
+				for (int ap = 0; ap < numAps; ++ap) {
+					for (int i = 0; i < numPolls; ++i) {
+						HashMap<String, StationStats> map = new HashMap<String, StationStats>();
+						for (int j = 0; j < clientsPerPoll; ++j) {
+							// A new string per OFStationStatisticsReply.
+							map.put(new String(macs[(ap * clientsPerPoll + j) % numClients].toCharArray()), stationStat);
+						}
+						maps.add(map);
+					}
+				}
+				return maps;
+			}
+		});
+
+		long macKeyBytes = measure("station stats 48-bit MAC keys", numStationRecords, new Builder() {
+			@Override
+			public Object build() {
+				List<HashMap<Long, StationStats>> maps = new ArrayList<HashMap<Long, StationStats>>();
+				for (int ap = 0; ap < numAps; ++ap) {
+					for (int i = 0; i < numPolls; ++i) {
+						HashMap<Long, StationStats> map = new HashMap<Long, StationStats>();
+						for (int j = 0; j < clientsPerPoll; ++j) {
+							map.put(StatsDictionary.encodeMac(macs[(ap * clientsPerPoll + j) % numClients]), stationStat);
+						}
+						maps.add(map);
+					}
+				}
+				return maps;
+			}
+		});
+
+		System.out.println(String.format("Dictionaries: %s %d strings %.1f KB, %s %d strings %.1f KB",
+				StatsDictionary.CLIENT_IDS.getName(), StatsDictionary.CLIENT_IDS.size(),
+				StatsDictionary.CLIENT_IDS.getFootprintBytes() / 1024.0,
+				StatsDictionary.LABELS.getName(), StatsDictionary.LABELS.size(),
+				StatsDictionary.LABELS.getFootprintBytes() / 1024.0));
+		System.out.println(String.format("Total: %.1f MB -> %.1f MB",
+				(legacyBytes + stringKeyBytes) / (1024.0 * 1024.0), (encodedBytes + macKeyBytes) / (1024.0 * 1024.0)));
+	}
+}
@@ -4,9 +4,12 @@
 package net.floodlightcontroller.core.coap.experiments;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openflow.protocol.statistics.OFStatistics;
 import org.slf4j.Logger;
@@ -14,8 +17,12 @@ import org.slf4j.LoggerFactory;
 
 import net.floodlightcontroller.core.coap.dataparsers.Parser;
 import net.floodlightcontroller.core.coap.statsmanager.DatabaseCommitter;
+import net.floodlightcontroller.core.coap.statsmanager.StatsIngestPipeline;
+import net.floodlightcontroller.core.coap.structs.AirtimeUtilSeries;
 import net.floodlightcontroller.core.coap.structs.AirtimeUtilStat;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.CoapUtils;
+import net.floodlightcontroller.core.coap.util.StatsTokenizer;
 
 /**
  * Used for parsing the experimental statistics about airtime utilization on different channels collected by the COAP APs.
@@ -26,107 +33,177 @@ import net.floodlightcontroller.core.coap.util.CoapConstants;
  * @author "Ashish Patro"
  *
  */
-public class UtilHopParser implements Parser {
+public class UtilHopParser implements Parser<Map<Integer, HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>>>, Map<Integer, AirtimeUtilSeries>> {
 
 	// Logger.
 	protected static Logger log = 
 			LoggerFactory.getLogger(UtilHopParser.class);
 
+	private static AtomicLong malformedRecords = new AtomicLong(0);
+
 	public void process(String rest, int apId) {
-		int cnt = Integer.parseInt(rest.substring(0, 2).replace("^0", ""));
+		process(rest, 0, rest.length(), apId);
+	}
+
+	/**
+	 * Process the utilhop statistics in statString[offset, end) in a single pass, e.g., the 
+	 * payload following the message type of a data string, without copying it.
+	 * 
+	 * @param statString
+	 * @param offset
+	 * @param end
+	 * @param apId
+	 */
+	public void process(String statString, int offset, int end, int apId) {
+		int cnt = StatsTokenizer.parseRecordCount(statString, offset, end);
 		if (cnt == 0) {
 			return;
 		}
 
-		rest = rest.substring(3);
-		String[] freqTerms = rest.split(";");
-
-		for (int i = 0; i < cnt; ++i) {
+		StatsTokenizer tokenizer = StatsIngestPipeline.getTokenizer();
+		int malformed = 0;
+		String firstError = null;
 
-			String[] terms = freqTerms[i].split(" ");
+		int start = offset + 3;
+		for (int i = 0; i < cnt && start < end; ++i) {
+			int recordEnd = statString.indexOf(';', start);
+			if (recordEnd < 0 || recordEnd > end) {
+				recordEnd = end;
+			}
 
-			//System.out.println("utilhop freq_terms " + i + " :" + freq_terms[i] + "@" +
-			//		terms[6] + "XX");
+			int recordStart = start;
+			start = recordEnd + 1;
 
-			int frequency = Integer.parseInt(terms[0]);
-			int activeTime = Integer.parseInt(terms[1]);
-			int busyTime = Integer.parseInt(terms[2]);
-			int recvTime = Integer.parseInt(terms[3]);
-			int transmitTime = Integer.parseInt(terms[4]);
-			long sec = Long.parseLong(terms[5]);
-			int noiseFloor = Integer.parseInt(terms[6]);
+			// A malformed record only drops itself, not the rest of the payload.
+			AirtimeUtilStat stats = new AirtimeUtilStat();
+			try {
+				tokenizer.reset(statString, recordStart, recordEnd);
+				parseRecord(tokenizer, stats);
+			} catch (RuntimeException e) {
+				malformed ++;
+				if (firstError == null) {
+					firstError = e + " in record: " + statString.substring(recordStart, recordEnd);
+				}
+				continue;
+			}
 
-			if (activeTime < 50) {
+			if (stats.activeTime < 50) {
 				continue;
 			}
 
-			AirtimeUtilStat stats = new AirtimeUtilStat();
-			stats.activeTime = activeTime;
-			stats.recvTime = recvTime;
-			stats.busyTime = busyTime;
-			stats.transmitTime = transmitTime;
-			stats.frequency = frequency;
-			stats.noiseFloor = noiseFloor;
-			stats.ts = sec;
-
-			updateMap(apId, sec, stats);
+			updateMap(apId, stats.ts, stats);
 		}
 
+		if (malformed > 0) {
+			malformedRecords.addAndGet(malformed);
+			log.warn("Dropped " + malformed + " malformed of " + cnt + " utilhop records from ap " + 
+					apId + ", first: " + firstError);
+		}
+	}
+
+	/**
+	 * @return number of records dropped since they couldn't be parsed.
+	 */
+	public static long getMalformedRecords() {
+		return malformedRecords.get();
 	}
 
+	/**
+	 * Parse a single utilhop record, e.g., "2412 100 40 20 10 1425159713 -95".
+	 * 
+	 * @param tokenizer positioned at the start of the record, limited to the record.
+	 * @param stats output statistics.
+	 */
+	public static void parseRecord(StatsTokenizer tokenizer, AirtimeUtilStat stats) {
+		stats.frequency = tokenizer.nextInt(' ');
+		stats.activeTime = tokenizer.nextInt(' ');
+		stats.busyTime = tokenizer.nextInt(' ');
+		stats.recvTime = tokenizer.nextInt(' ');
+		stats.transmitTime = tokenizer.nextInt(' ');
+		stats.ts = tokenizer.nextLong(' ');
+		stats.noiseFloor = tokenizer.nextInt(' ');
+	}
+
+	/**
+	 * Only the AP's own map and series are locked, the writers for different APs don't contend.
+	 */
 	public void updateMap(int apId, Long sec, AirtimeUtilStat obj) {
 
-		maxTs = Math.max(maxTs, sec);
+		CoapUtils.updateMax(maxTs, sec);
 
-		synchronized (utilHopMapForstorage) {
-			if (!utilHopMapForstorage.containsKey(apId)) {
-				utilHopMapForstorage.put(apId, new HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>>());
+		HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>> apMap = utilHopMapForstorage.get(apId);
+		if (apMap == null) {
+			HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>> newApMap =
+					new HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>>();
+			apMap = utilHopMapForstorage.putIfAbsent(apId, newApMap);
+			if (apMap == null) {
+				apMap = newApMap;
 			}
+		}
 
-			if (!utilHopMapForstorage.get(apId).containsKey(sec)) {
-				utilHopMapForstorage.get(apId).put(sec, new HashMap<Integer, ArrayList<AirtimeUtilStat>>());
+		synchronized (apMap) {
+			if (!apMap.containsKey(sec)) {
+				apMap.put(sec, new HashMap<Integer, ArrayList<AirtimeUtilStat>>());
 			}
 
-			if (!utilHopMapForstorage.get(apId).get(sec).containsKey(obj.frequency)) {
-				utilHopMapForstorage.get(apId).get(sec).put(obj.frequency, new ArrayList<AirtimeUtilStat>());
+			if (!apMap.get(sec).containsKey(obj.frequency)) {
+				apMap.get(sec).put(obj.frequency, new ArrayList<AirtimeUtilStat>());
 			}
 
-			utilHopMapForstorage.get(apId).get(sec).get(obj.frequency).add(obj);
+			apMap.get(sec).get(obj.frequency).add(obj);
 		}
 
-		synchronized (utilHopInMemoryMap) {
-			if (!utilHopInMemoryMap.containsKey(apId)) {
-				utilHopInMemoryMap.put(apId, new ArrayList<AirtimeUtilStat>());
+		AirtimeUtilSeries utilHopSeries = utilHopInMemoryMap.get(apId);
+		if (utilHopSeries == null) {
+			AirtimeUtilSeries newSeries = new AirtimeUtilSeries(CoapConstants.UTIL_SERIES_CAPACITY,
+					CoapConstants.INMEMORY_DATA_INTERVAL_SEC);
+			utilHopSeries = utilHopInMemoryMap.putIfAbsent(apId, newSeries);
+			if (utilHopSeries == null) {
+				utilHopSeries = newSeries;
 			}
-
-			utilHopInMemoryMap.get(apId).add((AirtimeUtilStat) obj);
 		}
+
+		utilHopSeries.append(obj);
 	}
 
 	@Override
-	public Object getStorageHashMap() {
+	public Map<Integer, HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>>> getStorageHashMap() {
 		return utilHopMapForstorage;
 	}
 
 	@Override
-	public Object getInMemoryHashMap() {
+	public Map<Integer, AirtimeUtilSeries> getInMemoryHashMap() {
 		return utilHopInMemoryMap;
 	}
 
+	/**
+	 * Read-only copy of the in-memory series of each AP (see AirtimeUtilSeries.snapshot()), e.g.,
+	 * for the policies of the CoapManager.
+	 * 
+	 * @return snapshot of the in-memory statistics.
+	 */
+	public Map<Integer, AirtimeUtilSeries> getInMemorySnapshot() {
+		HashMap<Integer, AirtimeUtilSeries> snapshot = new HashMap<Integer, AirtimeUtilSeries>();
+		for (Map.Entry<Integer, AirtimeUtilSeries> entry: utilHopInMemoryMap.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().snapshot());
+		}
+
+		return Collections.unmodifiableMap(snapshot);
+	}
+
 	@Override
 	public void commit(long tsLimit) {
 		try {
 			String queryFormat = "INSERT INTO " + CoapConstants.UTIL_HOP_TABLE + " VALUES(?, ?, ?, ?, ?, ?, ?, ?)";
 			ArrayList<ArrayList<Object>> objArrayVector = new ArrayList<ArrayList<Object>>();
 			
-			synchronized (utilHopMapForstorage) {
-				Iterator<Map.Entry<Integer, HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat> > > > > it = 
-						utilHopMapForstorage.entrySet().iterator();
-
-				while (it.hasNext()) {
-					Map.Entry<Integer, HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat> > > > pair = it.next();
-					int ap_id = pair.getKey();
-					Iterator<Map.Entry<Long, HashMap<Integer, ArrayList<AirtimeUtilStat> > > > tim_it = pair.getValue().entrySet().iterator();
+			for (Map.Entry<Integer, HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat> > > > pair:
+					utilHopMapForstorage.entrySet()) {
+				int ap_id = pair.getKey();
+				HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat> > > apMap = pair.getValue();
+
+				synchronized (apMap) {
+					Iterator<Map.Entry<Long, HashMap<Integer, ArrayList<AirtimeUtilStat> > > > tim_it = apMap.entrySet().iterator();
 					
 					while (tim_it.hasNext()) {
 						Map.Entry<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>> pair_tim = tim_it.next();
@@ -155,67 +232,49 @@ public class UtilHopParser implements Parser {
 
 						tim_it.remove();
 					}
-
-					it.remove();
 				}
-
-				DatabaseCommitter.executeQuery(queryFormat, objArrayVector);
-				//System.out.println("queries size = " + queries.size());
 			}
+
+			// The AP maps aren't locked while the records are inserted.
+			DatabaseCommitter.executeQuery(queryFormat, objArrayVector);
+			//System.out.println("queries size = " + queries.size());
 		} catch (Exception e) {
 			log.error("Exception while inserting utilHop statistics into DB: " + e.getMessage());
 			e.printStackTrace();
 		}
 	}
 
-	long maxTs = 0;
+	AtomicLong maxTs = new AtomicLong(0);
 
 	@Override
 	public long getMaxTs() {
-		return maxTs;
+		return maxTs.get();
 	}
 
 	/**
-	 * Stores traffic information data before it is committed to a persistent storage.
+	 * Stores traffic information data before it is committed to a persistent storage. Each AP's
+	 * map is locked separately.
 	 */
-	HashMap<Integer, HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>> > utilHopMapForstorage =
-			new HashMap<Integer, HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>>>();
+	ConcurrentHashMap<Integer, HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>> > utilHopMapForstorage =
+			new ConcurrentHashMap<Integer, HashMap<Long, HashMap<Integer, ArrayList<AirtimeUtilStat>>>>();
 	
 	/**
-	 * Stores traffic information in memory for immediate processing requirements.
+	 * Stores traffic information in memory for immediate processing requirements. Each AP's
+	 * series is locked separately.
 	 */
-	public HashMap<Integer, ArrayList<AirtimeUtilStat>> utilHopInMemoryMap = 
-			new HashMap<Integer, ArrayList<AirtimeUtilStat>>();
+	public ConcurrentHashMap<Integer, AirtimeUtilSeries> utilHopInMemoryMap = 
+			new ConcurrentHashMap<Integer, AirtimeUtilSeries>();
 
 	@Override
 	public int ClearInMemoryData(long tsLimit) {
 		int cnt = 0;
 
-		synchronized(utilHopInMemoryMap) {
-			Iterator<Map.Entry<Integer, ArrayList<AirtimeUtilStat>>> utilHopIterator = utilHopInMemoryMap.entrySet().iterator();
-
-			while (utilHopIterator.hasNext()) {
-				Map.Entry<Integer, ArrayList<AirtimeUtilStat>> utilHopEntry = utilHopIterator.next();
-				ArrayList<AirtimeUtilStat> utilHopArray = utilHopEntry.getValue();
-				Iterator<AirtimeUtilStat> arrayIter = utilHopArray.iterator();
-
-				while (arrayIter.hasNext()) {
-					AirtimeUtilStat obj = arrayIter.next();
-
-					if (obj.ts > tsLimit - CoapConstants.INMEMORY_DATA_INTERVAL_SEC) {
-						break;
-					}
-
-					cnt ++;
-					arrayIter.remove();
-				}
-
-				//utilHopIterator.remove();
-			}
-
-			System.out.println("ClearMaps: " + tsLimit + " removed " + cnt + " utilhop entries...");
+		for (AirtimeUtilSeries utilHopSeries: utilHopInMemoryMap.values()) {
+			cnt += utilHopSeries.expire(tsLimit - CoapConstants.INMEMORY_DATA_INTERVAL_SEC);
 		}
 
+		System.out.println("ClearMaps: " + tsLimit + " removed " + cnt + " utilhop entries...");
+
 		return cnt;
 	}
 
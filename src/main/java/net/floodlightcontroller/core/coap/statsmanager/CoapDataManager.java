@@ -1,14 +1,10 @@
 package net.floodlightcontroller.core.coap.statsmanager;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openflow.protocol.statistics.OFStatistics;
-import org.openflow.protocol.statistics.coap.OFApinfoStatisticsReply;
-import org.openflow.protocol.statistics.coap.OFBeaconStatisticsReply;
-import org.openflow.protocol.statistics.coap.OFClientStatisticsReply;
-import org.openflow.protocol.statistics.coap.OFNonWiFiStatisticsReply;
-import org.openflow.protocol.statistics.coap.OFPassiveStatisticsReply;
-import org.openflow.protocol.statistics.coap.OFStationStatisticsReply;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.protocol.statistics.coap.OFTrafficinfoStatisticsReply;
 import org.openflow.protocol.statistics.coap.OFUtilStatisticsReply;
 import org.slf4j.Logger;
@@ -19,6 +15,8 @@ import net.floodlightcontroller.core.coap.dataparsers.*;
 import net.floodlightcontroller.core.coap.experiments.PassiveHopParser;
 import net.floodlightcontroller.core.coap.experiments.UtilHopParser;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
+import net.floodlightcontroller.core.coap.util.StatsTrace;
 
 /**
  * This class constitutes a part of "StatsManager" module of the COAP server.
@@ -37,186 +35,185 @@ public class CoapDataManager {
     
     // Initialize parsers for processing different types of statistics collected 
     // from the routers.
-	private static Parser beaconParser = new BeaconStatsParser();
+	private static BeaconStatsParser beaconParser = new BeaconStatsParser();
 
-	private static Parser nonwifiParser = new NonWiFiStatsParser();
-	private static Parser passiveParser = new PassiveStatsParser();
-	private static Parser stationStatsParser = new StationStatsParser();
-	private static Parser utilParser = new AirtimeUtilParser();
+	private static NonWiFiStatsParser nonwifiParser = new NonWiFiStatsParser();
+	private static PassiveStatsParser passiveParser = new PassiveStatsParser();
+	private static StationStatsParser stationStatsParser = new StationStatsParser();
+	private static AirtimeUtilParser utilParser = new AirtimeUtilParser();
 	
 	// Debug stats related parsers.
-	private static Parser passiveHopParser = new PassiveHopParser();
+	private static PassiveHopParser passiveHopParser = new PassiveHopParser();
 	private static TrafficInfoParser trafficInfoParser = new TrafficInfoParser();
 	private static UtilHopParser utilHopParser = new UtilHopParser();
 	
 	private static long maxDataCommitTs = 0;
 	
+	// Parses the statistics of different APs in parallel.
+	private static StatsIngestPipeline ingestPipeline = new StatsIngestPipeline(
+			CoapConstants.STATS_INGEST_SHARDS, CoapConstants.STATS_INGEST_QUEUE_LENGTH);
+	
 	/**
-	 * Process the AP information statistics.
-	 * TODO: 0501 Bug for is5GhzSupported value.
-	 * 
-	 * @param apInfoStats
-	 * @param apId
+	 * @return the pipeline on which the statistics received from the APs are processed.
+	 */
+	public static StatsIngestPipeline getIngestPipeline() {
+		return ingestPipeline;
+	}
+	
+	/**
+	 * Parsers of the polled statistics, by type. A new type of statistics is processed by
+	 * registering its parser here.
 	 */
-	public static void processApinfoStats(List<OFStatistics> apInfoStats, int apId) {
-    	if (apInfoStats != null) {
-    		log.warn("Got " + apInfoStats.size() + " NICs for apId " + apId);
+	private static StatsParserRegistry parserRegistry = new StatsParserRegistry();
+	
+	static {
+		// Maintain the neighborhood map: AP information (AP's own NICs) and the neighboring APs.
+		parserRegistry.register(new StatsRecordParser<OFStatistics>() {
+			@Override
+			public OFStatisticsType getStatsType() {
+				return OFStatisticsType.APINFO;
+			}
 
-    		// Maintain the neighborhood map.
-    		NeighborhoodMapManager.updateApinformation(apId, apInfoStats);
+			@Override
+			public OFStatistics decode(OFStatistics currStat, int apId) {
+				return currStat;
+			}
 
-    		for (int i = 0; i < apInfoStats.size(); i++) {
-    			log.info("Got " + i + " " + ((OFApinfoStatisticsReply) apInfoStats.get(i)).toString());
-    		}
-    	}
-    }
+			@Override
+			public void addAll(int apId, List<OFStatistics> records) {
+				NeighborhoodMapManager.updateApinformation(apId, records);
+			}
+		});
+		parserRegistry.register(new StatsRecordParser<OFStatistics>() {
+			@Override
+			public OFStatisticsType getStatsType() {
+				return OFStatisticsType.BEACON;
+			}
 
-    /**
-     * Process the airtime utilization statistics.
-     * 
-     * @param airtimeUtilStats
-     * @param apId
-     */
-    public static void processAirtimeUtilStats(List<OFStatistics> airtimeUtilStats, int apId) {
-    	if (airtimeUtilStats != null) {
-    		for (int i = 0; i < airtimeUtilStats.size(); i++) {
-    			log.info("Got " + i + " " + ((OFUtilStatisticsReply) airtimeUtilStats.get(i)).toString());
-    			utilParser.processOFStat(airtimeUtilStats.get(i), apId);
-
-    			// Debug related
-    			processDataString(((OFUtilStatisticsReply) airtimeUtilStats.get(i)).getUtilhopStatsString().trim(), apId, "getUtilhopStatsString " + i);
-    		}
-    	}
-    }
+			@Override
+			public OFStatistics decode(OFStatistics currStat, int apId) {
+				return currStat;
+			}
 
-    /**
-     * Process the packet transmission statistics of local clients.
-     * 
-     * @param stationStats
-     * @param apId
-     */
-    public static void processStationStats(List<OFStatistics> stationStats, int apId) {
-    	if (stationStats != null) {
-    		log.warn("Got " + stationStats.size() + " station instances for apId " + apId);
-
-    		for (int i = 0; i < stationStats.size(); i++) {
-    			log.info("Got " + i + " " + ((OFStationStatisticsReply) stationStats.get(i)).toString());
-
-    			stationStatsParser.processOFStat(stationStats.get(i), apId);
-    		}
-    	} else {
-    		log.warn("stationStats is null for apId " + apId);
-    	}
-    }
-    
+			@Override
+			public void addAll(int apId, List<OFStatistics> records) {
+				NeighborhoodMapManager.updateNeighboringAPs(apId, records);
+			}
+		});
+		
+		// The typed records are deduplicated (see StatsDedupFilter). The neighborhood map above
+		// replaces an AP's neighbors with each batch and the data strings below aren't covered by
+		// the records' fingerprints, they get the whole batches.
+		parserRegistry.register(utilParser, true);
+		parserRegistry.register(stationStatsParser, true);
+		parserRegistry.register(beaconParser, true);
+		parserRegistry.register(nonwifiParser, true);
+		parserRegistry.register(passiveParser, true);
+		parserRegistry.register(passiveHopParser, true);
+		
+		// Debug related: the utilhop and traffic statistics are sent as formatted data strings.
+		parserRegistry.register(new StatsRecordParser<String>() {
+			@Override
+			public OFStatisticsType getStatsType() {
+				return OFStatisticsType.UTIL;
+			}
+
+			@Override
+			public String decode(OFStatistics currStat, int apId) {
+				return ((OFUtilStatisticsReply) currStat).getUtilhopStatsString();
+			}
+
+			@Override
+			public void addAll(int apId, List<String> records) {
+				for (String dataString: records) {
+					processDataString(dataString, apId, "getUtilhopStatsString");
+				}
+			}
+		});
+		parserRegistry.register(new StatsRecordParser<String>() {
+			@Override
+			public OFStatisticsType getStatsType() {
+				return OFStatisticsType.TRAFFICINFO;
+			}
+
+			@Override
+			public String decode(OFStatistics currStat, int apId) {
+				return ((OFTrafficinfoStatisticsReply) currStat).getTrafficInfoStatsString();
+			}
+
+			@Override
+			public void addAll(int apId, List<String> records) {
+				for (String dataString: records) {
+					processDataString(dataString, apId, "trafficinfoStats");
+				}
+			}
+		});
+	}
+	
+	static {
+		// Drop the records repeated by overlapping polls before they're decoded.
+		StatsDedupFilter dedupFilter = parserRegistry.getDedupFilter();
+		dedupFilter.register(OFStatisticsType.UTIL, StatsDecoder.UTIL_FINGERPRINTER);
+		dedupFilter.register(OFStatisticsType.STATION, StatsDecoder.STATION_FINGERPRINTER);
+		dedupFilter.register(OFStatisticsType.BEACON, StatsDecoder.BEACON_FINGERPRINTER);
+		dedupFilter.register(OFStatisticsType.NONWIFI, StatsDecoder.NONWIFI_FINGERPRINTER);
+		dedupFilter.register(OFStatisticsType.PASSIVE, StatsDecoder.PASSIVE_FINGERPRINTER);
+		trafficInfoParser.setDedupFilter(dedupFilter);
+	}
+	
 	/**
-	 * Process information about the neighboring APs observed by the current AP.
-     * 
-     * @param beaconStats
-     * @param apId
-     */
-    public static void processBeaconStats(List<OFStatistics> beaconStats, int apId) {
-    	if (beaconStats != null) {
-    		log.warn("Got " + beaconStats.size() + " beacons for apId " + apId);
-
-    		// Maintain the neighborhood map.
-    		NeighborhoodMapManager.updateNeighboringAPs(apId, beaconStats);
-
-    		for (int i = 0; i < beaconStats.size(); i++) {
-    			log.info("Got " + i + " " + ((OFBeaconStatisticsReply) beaconStats.get(i)).toString());
-    			beaconParser.processOFStat(beaconStats.get(i), apId);
-    		}
-    	} else {
-    		log.warn("beaconStats is null for apId " + apId);
-    	}
-    }
-    
-	/** Process the non-WiFi activity observed the AP.
-     *
-     * @param nonWiFiStats
-     * @param apId
-     */
-    public static void processNonwifiStats(List<OFStatistics> nonWiFiStats, int apId) {
-    	if (nonWiFiStats != null) {
-    		log.warn("Got " + nonWiFiStats.size() + " nonWiFi instances for apId " + apId);
-
-    		for (int i = 0; i < nonWiFiStats.size(); i++) {
-    			log.info("Got " + i + " " + ((OFNonWiFiStatisticsReply) nonWiFiStats.get(i)).toString());
-    			nonwifiParser.processOFStat(nonWiFiStats.get(i), apId);
-    		}
-    	} else {
-    		log.warn("nonWiFiStats is null for apId " + apId);
-    	}
-    }
+	 * @return the registry of the parsers of the polled statistics.
+	 */
+	public static StatsParserRegistry getParserRegistry() {
+		return parserRegistry;
+	}
 	
-    /**
-     * Process aggregate statistics about the neighboring WiFi activity observed by the AP.
-     * 
-     * @param passiveStats
-     * @param apId
-     */
-    public static void processPassiveStats(List<OFStatistics> passiveStats, int apId) {
-    	if (passiveStats != null) {
-    		log.warn("Got " + passiveStats.size() + " passive instances for apId " + apId);
-
-    		for (int i = 0; i < passiveStats.size(); i++) {
-    			OFPassiveStatisticsReply currStat = (OFPassiveStatisticsReply) passiveStats.get(i);
-    			log.info("Got " + i + " " + currStat.toString());
-
-    			if (currStat.getType() == 0) {
-    				passiveParser.processOFStat(currStat, apId);
-    			} else {
-    				passiveHopParser.processOFStat(currStat, apId);
-    			}
-    		}
-    	} else {
-    		log.warn("passiveStats is null for apId " + apId);
-    	}
-    }
-    
 	/**
-	 * Process additional information about the clients (e.g., hostname, device Id etc.)
-     * TODO - Insert the data into a DB.
-     * 
-     * @param clientStats
-     * @param apId
-     */
-    public static void processClientStats(List<OFStatistics> clientStats, int apId) {
-    	if (clientStats != null) {
-    		log.warn("Got " + clientStats.size() + " client instances for apId " + apId);
-
-    		for (int i = 0; i < clientStats.size(); i++) {
-    			log.info("Got " + i + " " + ((OFClientStatisticsReply) clientStats.get(i)).toString());
-
-    			//process_string(((OFClientStatisticsReply) clientStats.get(i)).getClientDevString().trim(), apId, "getClientDevString " + i);
-    		}
-    	} else {
-    		log.warn("clientStats is null for apId " + apId);
-    	}
-    }
-    
+	 * Process the statistics of a single type polled from an AP. Each statistics reply is decoded
+	 * into the parser's record (see StatsDecoder) and the records are added to the type's parsers 
+	 * as a single batch, without formatting the replies. A sample of the records is logged when 
+	 * StatsTrace is enabled.
+	 * 
+	 * TODO: 0501 Bug for is5GhzSupported value (APINFO).
+	 * 
+	 * @param statType
+	 * @param stats
+	 * @param apId
+	 */
+	public static void processStats(OFStatisticsType statType, List<OFStatistics> stats, int apId) {
+		if (stats == null) {
+			log.warn(statType + " stats is null for apId " + apId);
+			return;
+		}
+		
+		log.debug("Got " + stats.size() + " " + statType + " instances for apId " + apId);
+		if (statType == OFStatisticsType.STATION) {
+			StationStatsParser.observeReply(stats, apId);
+		}
+
+		parserRegistry.ingest(statType, stats, apId);
+	}
+	  
     /**
-     * Process the traffic related statistics.
+     * Process a data string streamed by an AP (see StatsStreamServer).
      * 
-     * @param trafficinfoStats
+     * @param dataString
      * @param apId
+     * @return Success/Failure status
      */
-    public static void processTrafficinfoStats(List<OFStatistics> trafficinfoStats, int apId) {
-    	if (trafficinfoStats != null) {
-    		for (int i = 0; i < trafficinfoStats.size(); i++) {
-    			processDataString(((OFTrafficinfoStatisticsReply) trafficinfoStats.get(i)).getTrafficInfoStatsString().trim(), 
-    					apId, "trafficinfoStats " + i);
-    		}
-    	} else {
-    		log.warn("trafficinfoStats is null for apId " + apId);
-    	}
+    public static int processStreamedDataString(String dataString, int apId) {
+    	return processDataString(dataString, apId, "stream");
     }
-	  
+    
     /**
      * Process the input stats data string. Some debug and temporary statistics and collected
      * as a formatted string. This function is used to process those statistics after they
      * are received from the COAP APs.
      * 
+     * The data string is "<type>;<payload>". Only the message type prefix is matched here and
+     * the payload is handed to the type's parser as a region of the input string, i.e., it
+     * isn't split or copied. Surrounding whitespace (e.g., padding of the fixed length string
+     * fields) is skipped.
      * 
      * @param dataString
      * @param apId
@@ -226,30 +223,35 @@ public class CoapDataManager {
     private static int processDataString(String dataString, int apId, String debugType) {
 
 		try {
-			String[] terms = dataString.split(";");
-			
-			if (terms.length == 1) {
-				log.info("skipping stats type: " + terms[0] + " for ap: " + apId + " debugType: " + debugType);
-				return -1;
+			int start = 0, end = dataString.length();
+			while (start < end && dataString.charAt(start) <= ' ') {
+				start ++;
 			}
-			
-			String rest = "";
-			for (int i = 1; i < terms.length - 1; ++i) {
-				rest += terms[i];
-				rest += ";";
+			while (end > start && dataString.charAt(end - 1) <= ' ') {
+				end --;
 			}
 			
-			rest += terms[terms.length - 1];
-	
-			log.info(terms[0] + " : stats for ap " + apId + " rest: " + rest);
+			int typeEnd = dataString.indexOf(';', start);
+			if (typeEnd < 0 || typeEnd >= end - 1) {
+				log.info("skipping stats type: " + dataString.substring(start, typeEnd < 0 || typeEnd > end ? end : typeEnd) + 
+						" for ap: " + apId + " debugType: " + debugType);
+				return -1;
+			}
 			
-			if (terms[0].equals(CoapConstants.TRAFFICINFO_MSG)) {
-				log.info("stats for ap " + apId + " type: " + terms[0] + " rest:" + rest);
-				trafficInfoParser.process(rest, apId);
-			} else if (terms[0].equals(CoapConstants.UTILHOP_MSG)) {
-				utilHopParser.process(rest, apId);
+			if (isMessageType(dataString, start, typeEnd, CoapConstants.TRAFFICINFO_MSG)) {
+				StatsTrace.trace(CoapConstants.TRAFFICINFO_MSG, apId, dataString);
+				trafficInfoParser.process(dataString, typeEnd + 1, end, apId);
+			} else if (isMessageType(dataString, start, typeEnd, CoapConstants.UTILHOP_MSG)) {
+				StatsTrace.trace(CoapConstants.UTILHOP_MSG, apId, dataString);
+				utilHopParser.process(dataString, typeEnd + 1, end, apId);
 			}
 			
+		} catch (NumberFormatException ex) {
+			// The payload's record count is malformed. The malformed records of a valid payload 
+			// are dropped by the parsers, without dropping the rest of the payload.
+			log.warn("process_string: malformed payload for ap: " + apId + " debugType: " + debugType + 
+					": " + ex.getMessage());
+			return -1;
 		} catch (Exception ex) {
 			log.error("process_string: " + ex.getMessage());
 			
@@ -258,11 +260,25 @@ public class CoapDataManager {
 		}
 		return 0;
 	}
+    
+    /**
+     * @param dataString
+     * @param start
+     * @param end
+     * @param msgType
+     * @return true if dataString[start, end) is the input message type.
+     */
+    private static boolean isMessageType(String dataString, int start, int end, String msgType) {
+    	return end - start == msgType.length() && dataString.regionMatches(start, msgType, 0, msgType.length());
+    }
 
     /**
      * Clears the in-memory statistics. It uses a sliding window of "currTs" seconds
      * that clears the in-memory data older than the sliding window value.
      * 
+     * The parsers already expire the data of the active APs/clients as it's received (see
+     * TimeBucketList and AirtimeUtilSeries), whole time buckets are dropped here for the idle ones.
+     * 
      * @param currTs
      * @return total removed entries. 
      */
@@ -291,6 +307,12 @@ public class CoapDataManager {
 		// TODO: Test.
 		cnt += nonwifiParser.ClearInMemoryData(currTs);
 
+		// Evict the identifiers and labels of the expired records.
+		int evicted = StatsDictionary.CLIENT_IDS.evictUnused(currTs) + StatsDictionary.LABELS.evictUnused(currTs);
+		if (evicted > 0) {
+			log.info("Evicted " + evicted + " unused dictionary strings");
+		}
+
 		//synchronized
 		return cnt;
 	}
@@ -373,27 +395,27 @@ public class CoapDataManager {
 
     }
     
-	public static Parser getBeaconParser() {
+	public static BeaconStatsParser getBeaconParser() {
 		return beaconParser;
 	}
 
-	public static Parser getNonwifiParser() {
+	public static NonWiFiStatsParser getNonwifiParser() {
 		return nonwifiParser;
 	}
 
-	public static Parser getPassiveParser() {
+	public static PassiveStatsParser getPassiveParser() {
 		return passiveParser;
 	}
 
-	public static Parser getStationStatsParser() {
+	public static StationStatsParser getStationStatsParser() {
 		return stationStatsParser;
 	}
 
-	public static Parser getUtilParser() {
+	public static AirtimeUtilParser getUtilParser() {
 		return utilParser;
 	}
 
-	public static Parser getPassiveHopParser() {
+	public static PassiveHopParser getPassiveHopParser() {
 		return passiveHopParser;
 	}
 
@@ -408,4 +430,18 @@ public class CoapDataManager {
 	public static long getMaxDataCommitTs() {
 		return maxDataCommitTs;
 	}
+
+	private static AtomicLong snapshotEpoch = new AtomicLong(0);
+
+	/**
+	 * Take a read-only view of the in-memory statistics, e.g., for a pass of the CoapManager's
+	 * policies. The parsers keep processing the statistics while the view is read.
+	 * 
+	 * @return snapshot of the in-memory statistics.
+	 */
+	public static StatsSnapshot getStatsSnapshot() {
+		return new StatsSnapshot(snapshotEpoch.incrementAndGet(), System.currentTimeMillis() / 1000,
+				utilParser.getInMemorySnapshot(), utilHopParser.getInMemorySnapshot(),
+				stationStatsParser.getInMemorySnapshot(), trafficInfoParser.getInMemorySnapshot());
+	}
 }
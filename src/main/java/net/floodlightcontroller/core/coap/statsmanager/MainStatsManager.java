@@ -1,16 +1,28 @@
 package net.floodlightcontroller.core.coap.statsmanager;
 
-import java.lang.Thread.State;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFSwitch;
 
+import net.floodlightcontroller.core.coap.util.ApRegistry;
+import net.floodlightcontroller.core.coap.util.AsyncStatsQuery;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
 import net.floodlightcontroller.core.coap.util.CoapQueryUtils;
-import net.floodlightcontroller.core.coap.util.CoapUtils;
+import net.floodlightcontroller.core.coap.util.StatsCursor;
+import net.floodlightcontroller.core.coap.util.StatsQueryCallback;
+import net.floodlightcontroller.core.coap.util.StatsQueryDispatcher;
 
 import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.protocol.statistics.OFStatisticsType;
@@ -39,160 +51,346 @@ public class MainStatsManager implements Runnable {
     protected static Logger log = 
         LoggerFactory.getLogger(MainStatsManager.class);
     
+    /**
+     * The statistics types that can be polled from a COAP AP.
+     */
+    private static final OFStatisticsType[] POLLED_STAT_TYPES = {
+    	OFStatisticsType.APINFO, OFStatisticsType.UTIL, OFStatisticsType.STATION,
+    	OFStatisticsType.NONWIFI, OFStatisticsType.BEACON, OFStatisticsType.CLIENT,
+    	OFStatisticsType.PASSIVE, OFStatisticsType.TRAFFICINFO
+    };
+    
     /**
      * Store a mapping between the COAP specific AP ID and the OpenFlow datapath ID. 
      */
-    private static HashMap<Integer, Long> apIdToDpid = new HashMap<Integer, Long>();
+    private static ApRegistry apRegistry = ApRegistry.getInstance();
 	
     /**
      * Reference to the IFloodlightProviderService instance.
      */
     private IFloodlightProviderService floodlightProvider;
     
+    /**
+     * Long-lived, bounded pool of threads used to poll the COAP APs, only created when the 
+     * stats queries are synchronous (see USE_ASYNC_STATS_QUERIES).
+     */
+    private ThreadPoolExecutor pollExecutor;
+    
+    /**
+     * Statistics types in the order in which they are shed when too many stats queries are 
+     * in flight, lowest priority first. BEACON only refreshes the neighborhood map, which 
+     * changes slowly and is kept until the next BEACON poll, so it is shed right after
+     * APINFO and CLIENT. The types used by the CoapManager's policies are last.
+     */
+    private static final OFStatisticsType[] SHED_ORDER = {
+    	OFStatisticsType.APINFO, OFStatisticsType.CLIENT, OFStatisticsType.BEACON,
+    	OFStatisticsType.PASSIVE, OFStatisticsType.NONWIFI, OFStatisticsType.TRAFFICINFO,
+    	OFStatisticsType.STATION, OFStatisticsType.UTIL
+    };
+    
+    /**
+     * apId -> poll of the AP that hasn't finished yet.
+     */
+    private ConcurrentHashMap<Integer, StatsQueryTask> inFlightPolls = 
+    		new ConcurrentHashMap<Integer, StatsQueryTask>();
+    
+    /**
+     * Number of stats queries sent to the APs that haven't been processed yet.
+     */
+    private AtomicInteger inFlightQueries = new AtomicInteger(0);
+    
+    /**
+     * Decides the statistics types to be polled from each AP.
+     */
+    private StatsPollScheduler pollScheduler = new StatsPollScheduler();
+    
+    /**
+     * Metrics about the AP polls.
+     */
+    private StatsPollMetrics pollMetrics = new StatsPollMetrics();
+    
     public MainStatsManager(IFloodlightProviderService floodlightProvider) {
     	this.floodlightProvider = floodlightProvider;
+    	
+    	apRegistry.init(floodlightProvider);
+    	
+    	if (!CoapConstants.USE_ASYNC_STATS_QUERIES) {
+    		this.pollExecutor = new ThreadPoolExecutor(CoapConstants.STATS_POLL_THREAD_POOL_SIZE, 
+    				CoapConstants.STATS_POLL_THREAD_POOL_SIZE, 60, TimeUnit.SECONDS, 
+    				new ArrayBlockingQueue<Runnable>(CoapConstants.STATS_POLL_QUEUE_LENGTH),
+    				new ThreadFactory() {
+    					private AtomicInteger threadCount = new AtomicInteger(0);
+    					
+    					@Override
+    					public Thread newThread(Runnable r) {
+    						Thread t = new Thread(r, "CoapStatsPoller-" + threadCount.incrementAndGet());
+    						t.setDaemon(true);
+    						return t;
+    					}
+    				});
+    	}
+    	
+    	// The polled statistics are processed by the ingest pipeline's shards.
+    	for (Thread t: CoapDataManager.getIngestPipeline().getShardThreads()) {
+    		pollMetrics.registerPollThread(t);
+    	}
+    	
+    	apRegistry.addListener(new ApRegistry.Listener() {
+    		@Override
+    		public void apConnected(int apId) {
+    			// Request all the records again, e.g., the clock of a rebooted AP restarts.
+    			StatsCursor.reset(apId);
+    		}
+    		
+    		@Override
+    		public void apDisconnected(int apId) {
+    			dropApState(apId);
+    		}
+    	});
     }
     
     /**
+     * Drop the polling state of a disconnected AP, so that it doesn't leak or go stale if the AP
+     * reconnects: its in-flight poll, poll schedule, statistics cursors, dedup state and 
+     * streamed statistics types.
+     * 
      * @param apId
-     * @return OpenFlow datapath ID.
      */
-    public static long GetDpIdFromAP(int apId) {
-    	if (!apIdToDpid.containsKey(apId)) {
-    		return -1;
+    private void dropApState(int apId) {
+    	StatsQueryTask inFlightPoll = inFlightPolls.get(apId);
+    	if (inFlightPoll != null) {
+    		log.info("AP " + apId + " disconnected, abandoning its poll");
+    		inFlightPoll.abandon();
     	}
     	
-    	return apIdToDpid.get(apId);
+    	pollScheduler.removeAp(apId);
+    	StatsCursor.reset(apId);
+    	CoapDataManager.getParserRegistry().getDedupFilter().reset(apId);
+    	StatsStreamServer.removeAp(apId);
+    }
+    
+    /**
+     * @param apId
+     * @return OpenFlow datapath ID.
+     */
+    public static long GetDpIdFromAP(int apId) {
+    	return apRegistry.getDpid(apId);
+    }
+    
+    /**
+     * @return the scheduler deciding the statistics polled from each AP.
+     */
+    public StatsPollScheduler getPollScheduler() {
+    	return pollScheduler;
+    }
+    
+    /**
+     * @return metrics about the AP polls.
+     */
+    public StatsPollMetrics getPollMetrics() {
+    	return pollMetrics;
     }
     
 	@Override
 	public void run() {
 		
+		if (CoapConstants.USE_STATS_STREAMING) {
+			// Receive the statistics streamed by the subscribed APs.
+			Thread streamThread = new Thread(new StatsStreamServer(CoapConstants.STATS_STREAM_PORT), 
+					"CoapStatsStreamServer");
+			streamThread.setDaemon(true);
+			streamThread.start();
+		}
+		
+		long metricsTs = System.currentTimeMillis();
+		ArrayList<DuePoll> duePolls = new ArrayList<DuePoll>();
+		
 		while (true) {
 			try {
-				Thread.sleep(CoapConstants.DATA_POLL_FREQUENCY_MSEC);
-
-				log.info("MainStatsManager: Sending data poll commands to APs");
+				Thread.sleep(CoapConstants.POLL_SCHEDULER_TICK_MSEC);
+				long currTs = System.currentTimeMillis();
 				
-			    Long[] switchDpids = floodlightProvider.getAllSwitchMap().keySet().toArray(new Long[0]);
-			    List<StatsQueryThread> activeThreads = new ArrayList<StatsQueryThread>(switchDpids.length);
-			    List<StatsQueryThread> pendingRemovalThreads = new ArrayList<StatsQueryThread>();
+			    int polledAps = 0;
 			    
-			    StatsQueryThread t;
+			    StatsQueryTask t;
+			    duePolls.clear();
 			    
-			    apIdToDpid = new HashMap<Integer, Long>();
-			    
-			    for (Long l : switchDpids) {
+			    // Send the polls for all the APs that have statistics due in one go. The results 
+			    // of each AP are handed to the CoapDataManager as soon as the AP replies.
+			    for (Map.Entry<Integer, Long> entry : apRegistry.getApIdToDpidMap().entrySet()) {
+			        int apId = entry.getKey();
+			        long l = entry.getValue();
 			        
 			        IOFSwitch sw = floodlightProvider.getAllSwitchMap().get(l);
-			        int apId = CoapUtils.getTestApIdFromRemoteIp(sw.getInetAddress().toString().toString());
-			    
-			        apIdToDpid.put(apId, l);
-			        log.info("Found " + sw.getInetAddress() + " switchDpid: " + l);
-		        	
-		        	t = new StatsQueryThread(l, apId, 0); /// CoapConstants.POLL_ALL_COAP_STATS);
-		        	t.addPollStat(OFStatisticsType.APINFO);  // Working
-		        	t.addPollStat(OFStatisticsType.CLIENT); // Crashing
-		        	t.addPollStat(OFStatisticsType.STATION); // Working
-		        	t.addPollStat(OFStatisticsType.UTIL); // Working
-		        	t.addPollStat(OFStatisticsType.TRAFFICINFO); // Working
-		        	
-		        	// Not used with the new router.
-		        	t.addPollStat(OFStatisticsType.PASSIVE); // Passive crashing, Also driver not supported on the new router.
-		        	t.addPollStat(OFStatisticsType.NONWIFI); // Working
-
-		        	//t.addPollStat(OFStatisticsType.SYNCBEACON); // Working
-		        	//t.removePollStat(OFStatisticsType.BEACON); // Don't collect beacon info for now.
-			        activeThreads.add(t);
-			        t.start();
-			    }
-			    
-			    // Join all the threads after the timeout. Set a hard timeout
-			    // of 12 seconds for the threads to finish. If the thread has not
-			    // finished the switch has not replied yet and therefore we won't 
-			    // add the switch's stats to the reply.
-			    for (int iSleepCycles = 0; iSleepCycles < 12; iSleepCycles++) {
-			        for (StatsQueryThread curThread : activeThreads) {
-			            if (curThread.getState() == State.TERMINATED) {
-			            	
-			            	List<OFStatistics> apInfoStats = curThread.getApInfoStats();
-			            	List<OFStatistics> utilStats = curThread.getUtilStats();
-			            	List<OFStatistics> stationStats = curThread.getStationStats();
-			        		List<OFStatistics> beaconStats = curThread.getBeaconStats();
-			        		List<OFStatistics> clientStats = curThread.getClientStats();
-			        		List<OFStatistics> nonWiFiStats = curThread.getNonWiFiStats();
-			        		List<OFStatistics> passiveStats = curThread.getPassiveStats();
-			        		List<OFStatistics> trafficinfoStats = curThread.getTrafficinfoStats();
-			        		
-			            	int apId = (int) curThread.apId;
-			            	
-			            	// Process the AP information statistics.
-			            	// TODO: 0501 Bug for is5GhzSupported value. 
-			            	CoapDataManager.processApinfoStats(apInfoStats, apId);
-			            	
-			            	// Process the airtime utilization statistics.
-			            	CoapDataManager.processAirtimeUtilStats(utilStats, apId);
-			            	
-			                // Process the packet transmission statistics of local clients.
-			            	CoapDataManager.processStationStats(stationStats, apId);
-			                
-			            	// Process information about the neighboring APs observed by the current AP.
-			            	CoapDataManager.processBeaconStats(beaconStats, apId);
-			                
-			            	// Process additional information about the clients (e.g., hostname, device Id etc.)
-			            	CoapDataManager.processClientStats(clientStats, apId);
-
-			            	// Process the non-WiFi activity observed the AP.
-			                CoapDataManager.processNonwifiStats(nonWiFiStats, apId);
-			            	
-			            	// Process aggregate statistics about the neighboring WiFi activity observed by the AP.
-			                CoapDataManager.processPassiveStats(passiveStats, apId);
-			                
-			            	// Process the traffic related statistics.
-			                CoapDataManager.processTrafficinfoStats(trafficinfoStats, apId);
-			            	
-			            	pendingRemovalThreads.add(curThread);
-			            }
+			        if (sw == null) {
+			        	continue;
 			        }
 			        
-			        // remove the threads that have completed the queries to the switches
-			        for (StatsQueryThread curThread : pendingRemovalThreads) {
-			            activeThreads.remove(curThread);
+			        // Don't poll an AP whose previous poll hasn't finished yet. Its due statistics
+			        // are polled once the previous poll finishes, or once it's abandoned.
+			        StatsQueryTask inFlightPoll = inFlightPolls.get(apId);
+			        if (inFlightPoll != null) {
+			        	if (currTs - inFlightPoll.startTs < CoapConstants.STATS_POLL_TIMEOUT_MSEC) {
+			        		if (pollScheduler.hasDueStats(apId, currTs)) {
+			        			pollMetrics.recordOverrun(apId);
+			        		}
+			        		continue;
+			        	}
+			        	
+			        	log.warn("Poll for apId " + apId + " did not finish in time, abandoning it");
+			        	inFlightPoll.abandon();
 			        }
-			        // clear the list so we don't try to double remove them
-			        pendingRemovalThreads.clear();
 			        
-			        // if we are done finish early so we don't always get the worst case
-			        if (activeThreads.isEmpty()) {
-			            break;
+			        long pollStatsBitmap = pollScheduler.getDueStatsBitmap(apId, currTs);
+			        if (CoapConstants.USE_STATS_STREAMING) {
+			        	// Don't poll the statistics that the AP is streaming.
+			        	pollStatsBitmap &= ~StatsStreamServer.getStreamedStatsBitmap(apId, currTs);
 			        }
 			        
-			        // sleep for 1 s here
-			        try {
-			            Thread.sleep(1000);
-			        } catch (InterruptedException e) {
-			            log.error("Interrupted while waiting for statistics", e);
+			        if (pollStatsBitmap != 0) {
+			        	duePolls.add(new DuePoll(l, apId, pollStatsBitmap));
 			        }
 			    }
+			    
+			    // Shed by priority across all the APs, not in the order in which the APs are visited.
+			    shedLowPriorityStats(duePolls, currTs);
+			    
+			    for (DuePoll duePoll: duePolls) {
+			    	int apId = duePoll.apId;
+			    	if (duePoll.pollStatsBitmap == 0) {
+			    		continue;
+			    	}
+			    	
+			        log.debug("Found AP " + apId + " switchDpid: " + duePoll.switchId);
+		        	t = new StatsQueryTask(duePoll.switchId, apId, duePoll.pollStatsBitmap);
+		        	
+		        	inFlightPolls.put(apId, t);
+		        	inFlightQueries.addAndGet(t.numQueries);
+		        	
+		        	try {
+		        		t.start();
+		        		polledAps ++;
+		        	} catch (RejectedExecutionException e) {
+		        		log.debug("Poll queue full, skipping poll for apId " + apId);
+		        		pollMetrics.recordRejectedPoll();
+		        		t.finish();
+		        	}
+			    }
+			    
+			    if (polledAps > 0) {
+			    	log.debug("MainStatsManager: Sent data poll commands to " + polledAps + " APs");
+			    }
+			    
+			    pollMetrics.recordDispatchedPolls(polledAps);
+			    pollMetrics.recordInFlight(inFlightPolls.size(), inFlightQueries.get());
+			    // The asynchronous queries wait for their replies in the dispatcher.
+			    pollMetrics.recordQueueDepth(pollExecutor != null ? pollExecutor.getQueue().size() :
+			    		StatsQueryDispatcher.getInstance().getPendingQueryCount());
+			    pollMetrics.recordIngestQueueDepth(CoapDataManager.getIngestPipeline().getMaxQueueDepth());
+			    
+			    if (currTs - metricsTs >= CoapConstants.DATA_POLL_FREQUENCY_MSEC) {
+			    	pollMetrics.logAndResetCycle(log, currTs - metricsTs);
+			    	CoapDataManager.getParserRegistry().getDedupFilter().logStats(log);
+			    	metricsTs = currTs;
+			    }
 			} catch (Exception e) {
 				log.error("Error in CoapEngine main thread: " + e);
 				e.printStackTrace();
 			}
 		}
     }
+	
+	/**
+	 * Statistics types due to be polled from an AP on a scheduler tick.
+	 */
+	private static class DuePoll {
+		final long switchId;
+		final int apId;
+		long pollStatsBitmap;
 		
+		DuePoll(long switchId, int apId, long pollStatsBitmap) {
+			this.switchId = switchId;
+			this.apId = apId;
+			this.pollStatsBitmap = pollStatsBitmap;
+		}
+	}
+	
 	/**
-	 * Runs a thread to poll COAP related statistics from a single AP. 
-	 * The pollStatsBitmap bitmap specifies the type of statistics that
-	 * will be polled from the AP.
+	 * Drop the lowest priority statistics types from the polls due on a scheduler tick if
+	 * sending them would exceed the global cap on the stats queries in flight. A type is shed
+	 * from all the APs before the next type (see SHED_ORDER) is shed from any AP. The dropped
+	 * types are polled again on the next scheduler tick.
+	 * 
+	 * @param duePolls
+	 * @param currTs
+	 */
+	private void shedLowPriorityStats(List<DuePoll> duePolls, long currTs) {
+		int available = CoapConstants.STATS_MAX_INFLIGHT_QUERIES - inFlightQueries.get();
+		int requested = 0;
+		for (DuePoll duePoll: duePolls) {
+			requested += Long.bitCount(duePoll.pollStatsBitmap);
+		}
+		
+		for (OFStatisticsType statType: SHED_ORDER) {
+			long statBit = 1 << statType.ordinal();
+			
+			for (int i = 0; i < duePolls.size() && requested > available; ++i) {
+				DuePoll duePoll = duePolls.get(i);
+				if ((duePoll.pollStatsBitmap & statBit) > 0) {
+					duePoll.pollStatsBitmap &= ~statBit;
+					requested --;
+					
+					pollScheduler.deferPoll(duePoll.apId, statType, currTs + CoapConstants.POLL_SCHEDULER_TICK_MSEC);
+					pollMetrics.recordShedQuery(statType);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Completion callback for an AP poll, executed by the AP's shard of the ingest pipeline.
+	 * Hands the statistics polled from the AP to the CoapDataManager.
+	 * 
+	 * @param task
+	 */
+	private void processPolledStats(StatsQueryTask task) {
+    	int apId = task.apId;
+    	
+    	// Decode the statistics and hand them to the parsers registered for each type (see
+    	// CoapDataManager.getParserRegistry()).
+    	for (OFStatisticsType statType: POLLED_STAT_TYPES) {
+    		if ((task.getPollStatsBitmap() & (1 << statType.ordinal())) > 0) {
+    			CoapDataManager.processStats(statType, task.getStats(statType), apId);
+    		}
+    	}
+        
+        // Adapt the poll intervals to the activity observed by the AP.
+        for (OFStatisticsType statType: POLLED_STAT_TYPES) {
+        	List<OFStatistics> stats = task.getStats(statType);
+        	
+        	if ((task.getPollStatsBitmap() & (1 << statType.ordinal())) > 0 && stats != null) {
+        		pollScheduler.reportActivity(apId, statType, StatsPollScheduler.measureActivity(statType, stats));
+        	}
+        }
+	}
+		
+	/**
+	 * Polls COAP related statistics from a single AP. The pollStatsBitmap bitmap specifies the
+	 * type of statistics that will be polled from the AP.
+	 * 
+	 * With asynchronous queries, all the queries are sent by start() and the replies are 
+	 * collected by the StatsQueryCallback methods. Otherwise, the poll thread executing the task
+	 * blocks while querying the AP. Once all the replies are in, the statistics are handed to 
+	 * the AP's shard of the ingest pipeline for processing, and the poll finishes once they
+	 * are processed.
 	 * 
 	 * @author "Ashish Patro"
 	 *
 	 */
-	protected class StatsQueryThread extends Thread {
+	protected class StatsQueryTask implements Runnable, StatsQueryCallback {
 		// Logger.
 	    protected Logger log = 
-	        LoggerFactory.getLogger(StatsQueryThread.class);
+	        LoggerFactory.getLogger(StatsQueryTask.class);
 	    
 		private long switchId;
         private int apId;
@@ -207,14 +405,61 @@ public class MainStatsManager implements Runnable {
 		private List<OFStatistics> trafficinfoStats;
 
 		private long pollStatsBitmap;
+		
+		// Number of asynchronous queries without a reply.
+		private AtomicInteger pendingQueries = new AtomicInteger(0);
+		private long startTs;
+		
+		// In-flight accounting.
+		private int numQueries;
+		private AtomicBoolean finished = new AtomicBoolean(false);
+		
+		// Set by abandon(), the statistics of an abandoned poll are never processed.
+		private volatile boolean abandoned = false;
+		private List<AsyncStatsQuery> asyncQueries = new ArrayList<AsyncStatsQuery>();
+		private Thread pollThread;
 
-		public StatsQueryThread(long switchId, int apId, long pollStatsBitmap) {
+		public StatsQueryTask(long switchId, int apId, long pollStatsBitmap) {
             this.switchId = switchId;
             this.apId = apId;
             
             this.pollStatsBitmap = pollStatsBitmap;
+            this.numQueries = getPollStatTypes().size();
+            this.startTs = System.currentTimeMillis();
         }
 		
+		/**
+		 * Release the in-flight accounting of the poll. Called once the polled statistics
+		 * are processed, or when the poll is dropped or abandoned.
+		 */
+		public void finish() {
+			if (finished.compareAndSet(false, true)) {
+				inFlightPolls.remove(apId, this);
+				inFlightQueries.addAndGet(-numQueries);
+			}
+		}
+		
+		/**
+		 * Give up on a poll that did not finish within the poll timeout: cancel its pending
+		 * queries and interrupt the poll thread waiting for the AP. The partial results aren't
+		 * processed, the next poll of the AP may already be running.
+		 */
+		public void abandon() {
+			abandoned = true;
+			pollMetrics.recordAbandonedPoll();
+			finish();
+			
+			for (AsyncStatsQuery query: asyncQueries) {
+				query.cancel();
+			}
+			
+			synchronized (this) {
+				if (pollThread != null) {
+					pollThread.interrupt();
+				}
+			}
+		}
+		
 		public long getPollStatsBitmap() {
 			return pollStatsBitmap;
 		}
@@ -263,14 +508,219 @@ public class MainStatsManager implements Runnable {
 			return trafficinfoStats;
 		}
         
+		/**
+		 * Start polling the AP.
+		 * 
+		 * @throws RejectedExecutionException if the poll could not be queued.
+		 */
+		public void start() {
+			if (!CoapConstants.USE_ASYNC_STATS_QUERIES) {
+				pollExecutor.execute(this);
+				return;
+			}
+			
+			IOFSwitch sw = floodlightProvider.getAllSwitchMap().get(switchId);
+			List<OFStatisticsType> statTypes = getPollStatTypes();
+			
+			startTs = System.currentTimeMillis();
+			pendingQueries.set(statTypes.size());
+			
+			// Nothing to query, the (empty) poll is queued for processing right away.
+			if (statTypes.isEmpty()) {
+				run();
+				return;
+			}
+			
+			for (OFStatisticsType statType: statTypes) {
+				AsyncStatsQuery query = CoapQueryUtils.getSwitchStatisticsAsync(sw, statType, this);
+				if (query != null) {
+					asyncQueries.add(query);
+				}
+			}
+		}
+
+		@Override
+		public void statsReceived(IOFSwitch sw, OFStatisticsType statType, List<OFStatistics> values) {
+			setStats(statType, values);
+			queryCompleted();
+		}
+
+		@Override
+		public void statsFailed(IOFSwitch sw, OFStatisticsType statType, Throwable cause) {
+			log.warn("Failed polling " + statType + " from apId " + apId + ": " + cause);
+			if (cause instanceof TimeoutException) {
+				pollMetrics.recordTimedOutPolls(1);
+			}
+			
+			setStats(statType, null);
+			queryCompleted();
+		}
+		
+		/**
+		 * Hand the statistics to the ingest pipeline for processing once all the replies are in.
+		 */
+		private void queryCompleted() {
+			if (pendingQueries.decrementAndGet() > 0) {
+				return;
+			}
+			
+			long duration = System.currentTimeMillis() - startTs;
+			log.debug("Polling for apId " + apId + " took " + duration + " ms.");
+			pollMetrics.recordPollLatency(apId, duration);
+			
+			if (abandoned) {
+				return;
+			}
+			
+			if (!ingest()) {
+				finish();
+			}
+		}
+		
+		public List<OFStatistics> getStats(OFStatisticsType statType) {
+			switch (statType) {
+			case APINFO: return apInfoStats;
+			case UTIL: return utilStats;
+			case STATION: return stationStats;
+			case NONWIFI: return nonWiFiStats;
+			case BEACON: return beaconStats;
+			case CLIENT: return clientStats;
+			case PASSIVE: return passiveStats;
+			case TRAFFICINFO: return trafficinfoStats;
+			default: return null;
+			}
+		}
+		
+		private void setStats(OFStatisticsType statType, List<OFStatistics> values) {
+			switch (statType) {
+			case APINFO: apInfoStats = values; break;
+			case UTIL: utilStats = values; break;
+			case STATION: stationStats = values; break;
+			case NONWIFI: nonWiFiStats = values; break;
+			case BEACON: beaconStats = values; break;
+			case CLIENT: clientStats = values; break;
+			case PASSIVE: passiveStats = values; break;
+			case TRAFFICINFO: trafficinfoStats = values; break;
+			default: break;
+			}
+		}
+		
+		private List<OFStatisticsType> getPollStatTypes() {
+			List<OFStatisticsType> statTypes = new ArrayList<OFStatisticsType>();
+			for (OFStatisticsType statType: POLLED_STAT_TYPES) {
+				if ((pollStatsBitmap & (1 << statType.ordinal())) > 0) {
+					statTypes.add(statType);
+				}
+			}
+			
+			return statTypes;
+		}
+        
 		@Override
 		public void run() {
-        	
+			boolean isQueued = false;
+			try {
+				if (!CoapConstants.USE_ASYNC_STATS_QUERIES) {
+					synchronized (this) {
+						pollThread = Thread.currentThread();
+					}
+					startTs = System.currentTimeMillis();
+					poll();
+				}
+				
+				if (!abandoned) {
+					isQueued = ingest();
+				}
+			} catch (Exception e) {
+				log.error("Error while polling apId " + apId + ": " + e);
+				e.printStackTrace();
+			} finally {
+				synchronized (this) {
+					pollThread = null;
+				}
+				// Clear a pending interrupt from abandon() before the thread is reused.
+				Thread.interrupted();
+				if (!isQueued) {
+					finish();
+				}
+			}
+		}
+		
+		/**
+		 * Queue the polled statistics for processing on the AP's shard of the ingest pipeline.
+		 * The poll finishes once the statistics are processed.
+		 * 
+		 * @return true if the statistics were queued, false if they were dropped.
+		 */
+		private boolean ingest() {
+			try {
+				CoapDataManager.getIngestPipeline().submit(apId, new Runnable() {
+					@Override
+					public void run() {
+						try {
+							// Abandoned while queued, its in-flight accounting is already released.
+							if (!abandoned) {
+								processPolledStats(StatsQueryTask.this);
+							}
+						} finally {
+							finish();
+						}
+					}
+				});
+				return true;
+			} catch (RejectedExecutionException e) {
+				log.warn("Ingest queue full, dropping stats for apId " + apId);
+				pollMetrics.recordRejectedPoll();
+				return false;
+			}
+		}
+		
+		private void poll() {
 			IOFSwitch sw = floodlightProvider.getAllSwitchMap().get(switchId);
 
-        	log.info("pollStatsBitmap: " + pollStatsBitmap + " " + (pollStatsBitmap & (1 << OFStatisticsType.BEACON.ordinal())));
+        	log.debug("pollStatsBitmap: " + pollStatsBitmap + " " + (pollStatsBitmap & (1 << OFStatisticsType.BEACON.ordinal())));
         	long duration = System.currentTimeMillis();
         	
+        	if (CoapConstants.USE_CONCURRENT_STATS_QUERIES) {
+        		pollConcurrently(sw);
+        	} else {
+        		pollSequentially(sw);
+        	}
+
+        	duration = System.currentTimeMillis() - duration;
+        	
+        	log.debug("Polling for apId " + apId + " took " + duration + " ms.");
+        	pollMetrics.recordPollLatency(apId, duration);
+		}
+		
+		/**
+		 * Send the queries for all the enabled statistics types back-to-back and wait for all
+		 * the replies together.
+		 * 
+		 * @param sw
+		 */
+		private void pollConcurrently(IOFSwitch sw) {
+			List<OFStatisticsType> statTypes = getPollStatTypes();
+			
+			Map<OFStatisticsType, List<OFStatistics>> values = 
+					CoapQueryUtils.getSwitchStatistics(sw, statTypes, CoapConstants.STATS_QUERY_TIMEOUT_MSEC);
+			
+			apInfoStats = values.get(OFStatisticsType.APINFO);
+			utilStats = values.get(OFStatisticsType.UTIL);
+			stationStats = values.get(OFStatisticsType.STATION);
+			nonWiFiStats = values.get(OFStatisticsType.NONWIFI);
+			beaconStats = values.get(OFStatisticsType.BEACON);
+			clientStats = values.get(OFStatisticsType.CLIENT);
+			passiveStats = values.get(OFStatisticsType.PASSIVE);
+			trafficinfoStats = values.get(OFStatisticsType.TRAFFICINFO);
+		}
+		
+		/**
+		 * Query the enabled statistics types one after the other.
+		 * 
+		 * @param sw
+		 */
+		private void pollSequentially(IOFSwitch sw) {
         	apInfoStats = (pollStatsBitmap & (1 << OFStatisticsType.APINFO.ordinal())) > 0 ? CoapQueryUtils.getSwitchStatistics(sw, OFStatisticsType.APINFO) : null;
         	utilStats = (pollStatsBitmap & (1 << OFStatisticsType.UTIL.ordinal())) > 0 ? CoapQueryUtils.getSwitchStatistics(sw, OFStatisticsType.UTIL) : null;
         	stationStats = (pollStatsBitmap & (1 << OFStatisticsType.STATION.ordinal())) > 0? CoapQueryUtils.getSwitchStatistics(sw, OFStatisticsType.STATION) : null;
@@ -281,10 +731,6 @@ public class MainStatsManager implements Runnable {
         	
        		// Debug
     		trafficinfoStats = (pollStatsBitmap & (1 << OFStatisticsType.TRAFFICINFO.ordinal())) > 0 ? CoapQueryUtils.getSwitchStatistics(sw, OFStatisticsType.TRAFFICINFO) : null;
-
-        	duration = System.currentTimeMillis() - duration;
-        	
-        	log.info("Polling for apId " + apId + " took " + duration + " ms.");
         }
     }
 }
@@ -1,16 +1,19 @@
 package net.floodlightcontroller.core.coap.statsmanager;
 
-import java.lang.Thread.State;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.coap.util.ApRegistry;
 import net.floodlightcontroller.core.coap.util.CoapConstants;
 import net.floodlightcontroller.core.coap.util.CoapQueryUtils;
-import net.floodlightcontroller.core.coap.util.CoapUtils;
+import net.floodlightcontroller.core.coap.util.StatsQueryCallback;
 
 import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.protocol.statistics.OFStatisticsType;
@@ -39,15 +42,16 @@ public class NeighborhoodMapManager implements Runnable {
     // Module dependencies
     private IFloodlightProviderService floodlightProvider;
     
-	// MacID -> COAP AP mapping.
-	private static HashMap<String, Integer> apIdToApinfoMap = new HashMap<String, Integer>();
+	// MacID -> COAP AP mapping. Updated concurrently by the stats poll threads.
+	private static ConcurrentHashMap<String, Integer> apIdToApinfoMap = new ConcurrentHashMap<String, Integer>();
 
 	// COAP AP -> Set of neigboring COAP APs.
-	private static HashMap<Integer, TreeSet<Integer>> coapApNeighborMap =
-			new HashMap<Integer, TreeSet<Integer>>();
+	private static ConcurrentHashMap<Integer, TreeSet<Integer>> coapApNeighborMap =
+			new ConcurrentHashMap<Integer, TreeSet<Integer>>();
 
 	// COAP AP -> All neighboring MAC IDs.
-	private static HashMap<Integer, TreeSet<String>> apNeighbourMacsMap = new HashMap<Integer, TreeSet<String>>();
+	private static ConcurrentHashMap<Integer, TreeSet<String>> apNeighbourMacsMap = 
+			new ConcurrentHashMap<Integer, TreeSet<String>>();
 	
 	// Process information about AP's own NICs.
 	public static void updateApinformation(int apId, 
@@ -85,7 +89,6 @@ public class NeighborhoodMapManager implements Runnable {
     		neighboringBeacons.add(ofBeaconStat.getAp());
     	}
     	
-    	apNeighbourMacsMap.remove(apId);
     	apNeighbourMacsMap.put(apId, neighboringBeacons);
 	}
 	
@@ -179,11 +182,8 @@ public class NeighborhoodMapManager implements Runnable {
 
 				log.info("NeighborhoodMapManager: Poll beacons from APs...");
 
-				Long[] switchDpids = floodlightProvider.getAllSwitchMap().keySet().toArray(new Long[0]);
-				List<BeaconQueryThread> activeThreads = new ArrayList<BeaconQueryThread>(switchDpids.length);
-				List<BeaconQueryThread> pendingRemovalThreads = new ArrayList<BeaconQueryThread>();
-
-				BeaconQueryThread t;
+				Long[] switchDpids = ApRegistry.getInstance().getApIdToDpidMap().values().toArray(new Long[0]);
+				List<BeaconQueryCallback> activeQueries = new ArrayList<BeaconQueryCallback>();
 
 			    // 0501 -> For debugging and preventing simultaneous scans.
 			    beaconLoopCount = (beaconLoopCount + 1) % (switchDpids.length + 1);
@@ -197,59 +197,28 @@ public class NeighborhoodMapManager implements Runnable {
 		        	
 		        	if  (count == beaconLoopCount) {
 		        		IOFSwitch sw = floodlightProvider.getAllSwitchMap().get(l);
-						int apId = CoapUtils.getTestApIdFromRemoteIp(sw.getInetAddress().toString().toString());
+						int apId = ApRegistry.getInstance().getApId(l);
+						if (sw == null || apId < 0) {
+							continue;
+						}
 
 						//log.info("Found " + sw.getInetAddress() + " switchDpid: " + l);
 
-		        		log.info("Sending beacon poll to " + apId);
+		        		log.debug("Sending beacon poll to " + apId);
 		        		
-						t = new BeaconQueryThread(sw, apId); /// CoapConstants.POLL_ALL_COAP_STATS);
-						activeThreads.add(t);
-						t.start();
+		        		activeQueries.add(new BeaconQueryCallback(sw, apId));
 		        	}
 				}
 
-				// Join all the threads after the timeout. Set a hard timeout
-				// of 12 seconds for the threads to finish. If the thread has not
+				CountDownLatch pendingQueries = new CountDownLatch(activeQueries.size());
+				for (BeaconQueryCallback query : activeQueries) {
+					query.start(pendingQueries);
+				}
+
+				// Set a hard timeout of 12 seconds for the queries to finish. If the query has not
 				// finished the switch has not replied yet and therefore we won't 
 				// add the switch's stats to the reply.
-				for (int iSleepCycles = 0; iSleepCycles < 12; iSleepCycles++) {
-					for (BeaconQueryThread curThread : activeThreads) {
-						if (curThread.getState() == State.TERMINATED) {
-
-							List<OFStatistics> beaconStats = curThread.getBeaconStats();
-
-							int apId = (int) curThread.apId;
-
-							// For database.
-							 CoapDataManager.processBeaconStats(beaconStats, apId);
-							
-							// For neighborhoodMap.
-							NeighborhoodMapManager.updateNeighboringAPs(apId, beaconStats);
-
-							pendingRemovalThreads.add(curThread);
-						}
-					}
-
-					// remove the threads that have completed the queries to the switches
-					for (BeaconQueryThread curThread : pendingRemovalThreads) {
-						activeThreads.remove(curThread);
-					}
-					// clear the list so we don't try to double remove them
-					pendingRemovalThreads.clear();
-
-					// if we are done finish early so we don't always get the worst case
-					if (activeThreads.isEmpty()) {
-						break;
-					}
-					
-					// sleep for 1 s here
-					try {
-						Thread.sleep(1000);
-					} catch (InterruptedException e) {
-						log.error("Interrupted while waiting for statistics", e);
-					}
-				}
+				pendingQueries.await(CoapConstants.STATS_POLL_TIMEOUT_MSEC, TimeUnit.MILLISECONDS);
 
 				// Code for maintaining the neighborhood map.
 				// TODO 0501 - For testing.
@@ -268,35 +237,62 @@ public class NeighborhoodMapManager implements Runnable {
 	}
 	
 	/**
-	 * Creates and executes a thread to poll beacons overheard by the input COAP AP.
+	 * Polls the beacons overheard by the input COAP AP using an asynchronous query. The
+	 * reply is processed on the AP's shard of the StatsIngestPipeline, not on the
+	 * StatsQueryDispatcher thread.
 	 * 
 	 * @author "Ashish Patro"
 	 *
 	 */
-	protected class BeaconQueryThread extends Thread {
+	protected class BeaconQueryCallback implements StatsQueryCallback {
 		// Logger.
 	    protected Logger log = 
-	        LoggerFactory.getLogger(BeaconQueryThread.class);
+	        LoggerFactory.getLogger(BeaconQueryCallback.class);
 	    
 		private IOFSwitch sw;
         private int apId;
-        
-		private List<OFStatistics> beaconStats;
+        private long startTs;
+        private CountDownLatch pendingQueries;
 
-		public BeaconQueryThread(IOFSwitch sw, int apId) {
+		public BeaconQueryCallback(IOFSwitch sw, int apId) {
             this.sw = sw;
             this.apId = apId;
         }
 		
-		public List<OFStatistics> getBeaconStats() {
-			return beaconStats;
+		public void start(CountDownLatch pendingQueries) {
+			this.pendingQueries = pendingQueries;
+			this.startTs = System.currentTimeMillis();
+			
+			CoapQueryUtils.getSwitchStatisticsAsync(sw, OFStatisticsType.BEACON, this);
 		}
-        
+
 		@Override
-		public void run() {
-        	long duration = System.currentTimeMillis();
-        	beaconStats = CoapQueryUtils.getSwitchStatistics(sw, OFStatisticsType.BEACON);
-        	log.info("Polling for apId " + apId + " took " + duration + " ms.");
-        }
+		public void statsReceived(IOFSwitch sw, OFStatisticsType statType, final List<OFStatistics> beaconStats) {
+			log.debug("Polling for apId " + apId + " took " + (System.currentTimeMillis() - startTs) + " ms.");
+
+			// The poll finishes once the beacons are processed.
+			try {
+				CoapDataManager.getIngestPipeline().submit(apId, new Runnable() {
+					@Override
+					public void run() {
+						try {
+							// For database and neighborhoodMap (see CoapDataManager.getParserRegistry()).
+							CoapDataManager.processStats(OFStatisticsType.BEACON, beaconStats, apId);
+						} finally {
+							pendingQueries.countDown();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				log.warn("Ingest queue full, dropping beacons for apId " + apId);
+				pendingQueries.countDown();
+			}
+		}
+
+		@Override
+		public void statsFailed(IOFSwitch sw, OFStatisticsType statType, Throwable cause) {
+			log.warn("Beacon poll failed for apId " + apId + ": " + cause);
+			pendingQueries.countDown();
+		}
     }
 }
@@ -0,0 +1,197 @@
+package net.floodlightcontroller.core.coap.statsmanager;
+
+import net.floodlightcontroller.core.coap.structs.AirtimeUtilStat;
+import net.floodlightcontroller.core.coap.structs.BeaconStat;
+import net.floodlightcontroller.core.coap.structs.NonWiFiDevice;
+import net.floodlightcontroller.core.coap.structs.NonWiFiDeviceType;
+import net.floodlightcontroller.core.coap.structs.PassiveStats;
+import net.floodlightcontroller.core.coap.structs.StationStats;
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
+
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.coap.OFBeaconStatisticsReply;
+import org.openflow.protocol.statistics.coap.OFNonWiFiStatisticsReply;
+import org.openflow.protocol.statistics.coap.OFPassiveStatisticsReply;
+import org.openflow.protocol.statistics.coap.OFStationStatisticsReply;
+import org.openflow.protocol.statistics.coap.OFUtilStatisticsReply;
+
+/**
+ * This class constitutes a part of "StatsManager" module of the COAP server.
+ *
+ * Decode stage of the ingest path: converts the OpenFlow statistics replies received from the
+ * COAP APs into the typed records stored by the parsers. The fields are copied from the decoded
+ * OpenFlow messages as is, and the identifiers are dictionary encoded (see StatsDictionary).
+ * Nothing is formatted or logged here, see StatsTrace for tracing the ingested records.
+ */
+public class StatsDecoder {
+
+	/**
+	 * Identifies a (ts, client) station record.
+	 */
+	public static final StatsDedupFilter.Fingerprinter STATION_FINGERPRINTER = new StatsDedupFilter.Fingerprinter() {
+		@Override
+		public long getTimestamp(OFStatistics stat) {
+			return ((OFStationStatisticsReply) stat).getTimestamp();
+		}
+
+		@Override
+		public long getFingerprint(OFStatistics stat) {
+			return StatsDedupFilter.hash(0, ((OFStationStatisticsReply) stat).getClientMacid());
+		}
+	};
+
+	/**
+	 * Identifies a non-WiFi device (see NonWiFiDevice.getKey()) and its current activity, so that
+	 * the updates of an ongoing device aren't dropped.
+	 */
+	public static final StatsDedupFilter.Fingerprinter NONWIFI_FINGERPRINTER = new StatsDedupFilter.Fingerprinter() {
+		@Override
+		public long getTimestamp(OFStatistics stat) {
+			return ((OFNonWiFiStatisticsReply) stat).getTimestamp();
+		}
+
+		@Override
+		public long getFingerprint(OFStatistics stat) {
+			OFNonWiFiStatisticsReply reply = (OFNonWiFiStatisticsReply) stat;
+			long h = StatsDedupFilter.hash(0, reply.getStartTs());
+			h = StatsDedupFilter.hash(h, reply.getDeviceType());
+			h = StatsDedupFilter.hash(h, reply.getChannel());
+			h = StatsDedupFilter.hash(h, reply.getEndTs());
+			return StatsDedupFilter.hash(h, reply.getDuration());
+		}
+	};
+
+	/**
+	 * Identifies a (ts, BSSID) beacon record.
+	 */
+	public static final StatsDedupFilter.Fingerprinter BEACON_FINGERPRINTER = new StatsDedupFilter.Fingerprinter() {
+		@Override
+		public long getTimestamp(OFStatistics stat) {
+			return ((OFBeaconStatisticsReply) stat).getTimestamp();
+		}
+
+		@Override
+		public long getFingerprint(OFStatistics stat) {
+			return StatsDedupFilter.hash(0, ((OFBeaconStatisticsReply) stat).getAp());
+		}
+	};
+
+	/**
+	 * Identifies a (ts, type, channel, sender, receiver) passive link record.
+	 */
+	public static final StatsDedupFilter.Fingerprinter PASSIVE_FINGERPRINTER = new StatsDedupFilter.Fingerprinter() {
+		@Override
+		public long getTimestamp(OFStatistics stat) {
+			return ((OFPassiveStatisticsReply) stat).getTimestamp();
+		}
+
+		@Override
+		public long getFingerprint(OFStatistics stat) {
+			OFPassiveStatisticsReply reply = (OFPassiveStatisticsReply) stat;
+			long h = StatsDedupFilter.hash(0, reply.getType());
+			h = StatsDedupFilter.hash(h, reply.getChannel());
+			h = StatsDedupFilter.hash(h, reply.getSender());
+			return StatsDedupFilter.hash(h, reply.getReceiver());
+		}
+	};
+
+	/**
+	 * Identifies a (ts, channel) airtime utilization record.
+	 */
+	public static final StatsDedupFilter.Fingerprinter UTIL_FINGERPRINTER = new StatsDedupFilter.Fingerprinter() {
+		@Override
+		public long getTimestamp(OFStatistics stat) {
+			return ((OFUtilStatisticsReply) stat).getTimestamp();
+		}
+
+		@Override
+		public long getFingerprint(OFStatistics stat) {
+			return StatsDedupFilter.hash(0, ((OFUtilStatisticsReply) stat).getChannel());
+		}
+	};
+
+	/**
+	 * @param reply
+	 * @return airtime utilization record.
+	 */
+	public static AirtimeUtilStat decodeUtil(OFUtilStatisticsReply reply) {
+		return new AirtimeUtilStat(reply.getChannel(), reply.getTimestamp(),
+				reply.getUtilVal(), reply.getActive(),
+				reply.getBusy(), reply.getReceive(),
+				reply.getXmit(), reply.getNoiseFloor());
+	}
+
+	/**
+	 * @param reply
+	 * @return client's MAC layer statistics, with the client MAC encoded in clientMac.
+	 */
+	public static StationStats decodeStation(OFStationStatisticsReply reply) {
+		StationStats stats = new StationStats(reply.getTimestamp(), reply.getPacketCount(),
+				reply.getPacketRetries(), reply.getRetryString());
+		stats.clientMac = StatsDictionary.encodeMac(reply.getClientMacid());
+		return stats;
+	}
+
+	/**
+	 * @param reply
+	 * @return beacon received from a neighboring AP.
+	 */
+	public static BeaconStat decodeBeacon(OFBeaconStatisticsReply reply) {
+		return new BeaconStat(reply.getAp(), reply.getAvgRssi(), reply.getChannel(), reply.getTimestamp());
+	}
+
+	/**
+	 * @param reply
+	 * @return non-WiFi device activity.
+	 */
+	public static NonWiFiDevice decodeNonWiFi(OFNonWiFiStatisticsReply reply) {
+		return new NonWiFiDevice(reply.getTimestamp(),
+				reply.getStartTs(),
+				reply.getEndTs(),
+				reply.getDuration(),
+				reply.getRssi(),
+				reply.getStartBin(), reply.getCenterBin(), reply.getEndBin(),
+				NonWiFiDeviceType.get(reply.getDeviceType()),
+				reply.getChannel());
+	}
+
+	/**
+	 * Merge a newer report of an ongoing non-WiFi device into the tracked device, without
+	 * allocating. The reply must have the device's key (see NonWiFiDevice.getKey()).
+	 *
+	 * @param device
+	 * @param reply
+	 */
+	public static void updateNonWiFi(NonWiFiDevice device, OFNonWiFiStatisticsReply reply) {
+		device.update(reply.getTimestamp(),
+				reply.getEndTs(),
+				reply.getDuration(),
+				reply.getRssi(),
+				reply.getStartBin(), reply.getCenterBin(), reply.getEndBin());
+	}
+
+	/**
+	 * @param reply
+	 * @return key of the non-WiFi device reported by the reply, see NonWiFiDevice.getKey().
+	 */
+	public static long getNonWiFiKey(OFNonWiFiStatisticsReply reply) {
+		return NonWiFiDevice.getKey(reply.getStartTs(), NonWiFiDeviceType.get(reply.getDeviceType()),
+				reply.getChannel());
+	}
+
+	/**
+	 * @param reply
+	 * @return activity of an over-heard WiFi link, with the link's MACs encoded in senderMac and
+	 * receiverMac.
+	 */
+	public static PassiveStats decodePassive(OFPassiveStatisticsReply reply) {
+		PassiveStats stats = new PassiveStats(reply.getAveragePacketLength(), reply.getAverageRate(),
+				reply.getRssi(), reply.getPacketCount(),
+				reply.getPacketRetries(), reply.getRetryString(),
+				reply.getChannel());
+		stats.senderMac = StatsDictionary.encodeMac(reply.getSender());
+		stats.receiverMac = StatsDictionary.encodeMac(reply.getReceiver());
+		stats.ts = reply.getTimestamp();
+		return stats;
+	}
+}
@@ -0,0 +1,399 @@
+package net.floodlightcontroller.core.coap.statsmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+
+/**
+ * This class constitutes a part of "StatsManager" module of the COAP server.
+ *
+ * Drops the statistics records that were already received from an AP in a previous poll (e.g.,
+ * the same (ts, client) station record reported by overlapping polls), before they're decoded.
+ * Each record is identified by a 64-bit fingerprint of its identity and of the fields that are
+ * updated over time (e.g., the endTs of an ongoing non-WiFi device), computed from the reply's
+ * fields without allocating (see Fingerprinter).
+ *
+ * For each AP and type of statistics, the filter keeps:
+ *   - A high-watermark: the timestamp of the most recent record. The records older than the
+ *     watermark by more than the dedup window are dropped as stale.
+ *   - The fingerprints of the records within the dedup window, in two generations (sets of
+ *     fingerprints) spanning at least the window each. The older generation is cleared and
+ *     reused when the watermark moves past the current generation, so the memory is bounded by
+ *     the records of two windows and the sets aren't reallocated.
+ * The sets store a 64-bit hash of each record's fingerprint and timestamp, not the records, so
+ * a new record whose hash collides with a recent one is dropped as a duplicate. Unlike a bloom
+ * filter the sets don't saturate: with n records in two windows, the probability of any collision
+ * is about n^2 / 2^65 (about 3 * 10^-8 for a million records).
+ *
+ * If an AP's clock jumps back by more than MAX_CLOCK_JUMP_WINDOWS windows (e.g., the AP reboots),
+ * its state is reset instead of dropping all the new records as stale.
+ */
+public class StatsDedupFilter {
+
+	private static final int MAX_CLOCK_JUMP_WINDOWS = 10;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private static final OFStatisticsType[] STAT_TYPES = OFStatisticsType.values();
+
+	/**
+	 * Extracts the timestamp and the fingerprint of a statistics reply.
+	 */
+	public interface Fingerprinter {
+		/**
+		 * @param stat
+		 * @return timestamp (sec) of the record.
+		 */
+		long getTimestamp(OFStatistics stat);
+
+		/**
+		 * @param stat
+		 * @return fingerprint of the record, see hash().
+		 */
+		long getFingerprint(OFStatistics stat);
+	}
+
+	/**
+	 * Open addressing (linear probing) set of fingerprints. 0 marks an empty slot.
+	 */
+	private static final class FingerprintSet {
+		long[] slots = new long[INITIAL_CAPACITY];
+		int size = 0;
+
+		boolean contains(long fingerprint) {
+			int mask = slots.length - 1;
+			for (int i = (int) fingerprint & mask; ; i = (i + 1) & mask) {
+				if (slots[i] == fingerprint) {
+					return true;
+				} else if (slots[i] == 0) {
+					return false;
+				}
+			}
+		}
+
+		void add(long fingerprint) {
+			if (2 * (size + 1) > slots.length) {
+				long[] oldSlots = slots;
+				slots = new long[2 * oldSlots.length];
+				size = 0;
+				for (long slot: oldSlots) {
+					if (slot != 0) {
+						insert(slot);
+					}
+				}
+			}
+
+			insert(fingerprint);
+		}
+
+		private void insert(long fingerprint) {
+			int mask = slots.length - 1;
+			int i = (int) fingerprint & mask;
+			while (slots[i] != 0 && slots[i] != fingerprint) {
+				i = (i + 1) & mask;
+			}
+
+			if (slots[i] == 0) {
+				slots[i] = fingerprint;
+				size ++;
+			}
+		}
+
+		void clear() {
+			if (size > 0) {
+				Arrays.fill(slots, 0);
+				size = 0;
+			}
+		}
+	}
+
+	/**
+	 * Recent records of a single type received from an AP.
+	 */
+	private static final class RecentRecords {
+		long watermark = Long.MIN_VALUE;
+		long generationStartTs;
+		FingerprintSet current = new FingerprintSet();
+		FingerprintSet previous = new FingerprintSet();
+	}
+
+	private final long windowSec;
+
+	private volatile Fingerprinter[] fingerprinters = new Fingerprinter[STAT_TYPES.length];
+
+	// apId -> recent records, indexed by OFStatisticsType.ordinal().
+	private ConcurrentHashMap<Integer, RecentRecords[]> apRecords =
+			new ConcurrentHashMap<Integer, RecentRecords[]>();
+
+	private final AtomicLongArray checkedRecords = new AtomicLongArray(STAT_TYPES.length);
+	private final AtomicLongArray duplicateRecords = new AtomicLongArray(STAT_TYPES.length);
+	private final AtomicLongArray staleRecords = new AtomicLongArray(STAT_TYPES.length);
+
+	/**
+	 * @param windowSec dedup window (sec).
+	 */
+	public StatsDedupFilter(long windowSec) {
+		this.windowSec = Math.max(1, windowSec);
+	}
+
+	/**
+	 * Enable the deduplication of a type of statistics.
+	 *
+	 * @param statType
+	 * @param fingerprinter
+	 */
+	public synchronized void register(OFStatisticsType statType, Fingerprinter fingerprinter) {
+		Fingerprinter[] newFingerprinters = fingerprinters.clone();
+		newFingerprinters[statType.ordinal()] = fingerprinter;
+		fingerprinters = newFingerprinters;
+	}
+
+	public boolean isEnabled(OFStatisticsType statType) {
+		return fingerprinters[statType.ordinal()] != null;
+	}
+
+	/**
+	 * @param statType
+	 * @param stats
+	 * @param apId
+	 * @return the input statistics if none of them was already received from the AP, a new list
+	 * without the duplicates otherwise.
+	 */
+	public List<OFStatistics> filter(OFStatisticsType statType, List<OFStatistics> stats, int apId) {
+		int index = statType.ordinal();
+		Fingerprinter fingerprinter = fingerprinters[index];
+		if (fingerprinter == null) {
+			return stats;
+		}
+
+		RecentRecords recent = getRecentRecords(apId, index);
+		List<OFStatistics> filtered = null;
+		int duplicates = 0, stale = 0;
+
+		synchronized (recent) {
+			for (int i = 0; i < stats.size(); i++) {
+				OFStatistics stat = stats.get(i);
+				int status = check(recent, fingerprinter.getTimestamp(stat), fingerprinter.getFingerprint(stat));
+
+				if (status == 0) {
+					if (filtered != null) {
+						filtered.add(stat);
+					}
+					continue;
+				}
+
+				if (status == 1) {
+					duplicates ++;
+				} else {
+					stale ++;
+				}
+
+				// Copy the records before the first dropped one.
+				if (filtered == null) {
+					filtered = new ArrayList<OFStatistics>(stats.size());
+					filtered.addAll(stats.subList(0, i));
+				}
+			}
+		}
+
+		checkedRecords.addAndGet(index, stats.size());
+		if (filtered == null) {
+			return stats;
+		}
+
+		duplicateRecords.addAndGet(index, duplicates);
+		staleRecords.addAndGet(index, stale);
+		return filtered;
+	}
+
+	/**
+	 * Check a single record that isn't received as a statistics reply (e.g., a TRAFFICINFO
+	 * record of a data string), with the fingerprint computed by the caller (see hash()). The
+	 * type doesn't need to be registered.
+	 *
+	 * @param statType
+	 * @param apId
+	 * @param ts timestamp (sec) of the record.
+	 * @param fingerprint
+	 * @return true if the record was already received from the AP or is stale.
+	 */
+	public boolean isDuplicate(OFStatisticsType statType, int apId, long ts, long fingerprint) {
+		int index = statType.ordinal();
+		RecentRecords recent = getRecentRecords(apId, index);
+
+		int status;
+		synchronized (recent) {
+			status = check(recent, ts, fingerprint);
+		}
+
+		checkedRecords.incrementAndGet(index);
+		if (status == 1) {
+			duplicateRecords.incrementAndGet(index);
+		} else if (status == 2) {
+			staleRecords.incrementAndGet(index);
+		}
+
+		return status != 0;
+	}
+
+	/**
+	 * @return 0 for a new record, 1 for a duplicate, 2 for a stale record.
+	 */
+	private int check(RecentRecords recent, long ts, long fingerprint) {
+		if (recent.watermark != Long.MIN_VALUE && ts <= recent.watermark - windowSec) {
+			if (ts > recent.watermark - MAX_CLOCK_JUMP_WINDOWS * windowSec) {
+				return 2;
+			}
+
+			// The AP's clock went back, start over.
+			recent.watermark = Long.MIN_VALUE;
+			recent.current.clear();
+			recent.previous.clear();
+		}
+
+		if (recent.watermark == Long.MIN_VALUE) {
+			recent.watermark = ts;
+			recent.generationStartTs = ts;
+		} else if (ts > recent.watermark) {
+			recent.watermark = ts;
+			if (recent.watermark - recent.generationStartTs >= windowSec) {
+				FingerprintSet oldest = recent.previous;
+				recent.previous = recent.current;
+				recent.current = oldest;
+				recent.current.clear();
+				recent.generationStartTs = recent.watermark;
+			}
+		}
+
+		// Fingerprint of the record and its timestamp, 0 is reserved for the empty slots.
+		long key = hash(fingerprint, ts);
+		if (key == 0) {
+			key = 1;
+		}
+
+		if (recent.current.contains(key) || recent.previous.contains(key)) {
+			return 1;
+		}
+
+		recent.current.add(key);
+		return 0;
+	}
+
+	private RecentRecords getRecentRecords(int apId, int index) {
+		RecentRecords[] records = apRecords.get(apId);
+		if (records == null) {
+			RecentRecords[] newRecords = new RecentRecords[STAT_TYPES.length];
+			records = apRecords.putIfAbsent(apId, newRecords);
+			if (records == null) {
+				records = newRecords;
+			}
+		}
+
+		synchronized (records) {
+			if (records[index] == null) {
+				records[index] = new RecentRecords();
+			}
+
+			return records[index];
+		}
+	}
+
+	/**
+	 * Forget the records received from the AP (e.g., after it reconnects).
+	 *
+	 * @param apId
+	 */
+	public void reset(int apId) {
+		apRecords.remove(apId);
+	}
+
+	public long getCheckedRecords(OFStatisticsType statType) {
+		return checkedRecords.get(statType.ordinal());
+	}
+
+	/**
+	 * @param statType
+	 * @return number of records dropped since they were already received.
+	 */
+	public long getDuplicateRecords(OFStatisticsType statType) {
+		return duplicateRecords.get(statType.ordinal());
+	}
+
+	/**
+	 * @param statType
+	 * @return number of records dropped since they're older than the dedup window.
+	 */
+	public long getStaleRecords(OFStatisticsType statType) {
+		return staleRecords.get(statType.ordinal());
+	}
+
+	/**
+	 * Log the number of records suppressed for each type of statistics.
+	 *
+	 * @param log
+	 */
+	public void logStats(Logger log) {
+		StringBuilder sb = new StringBuilder("StatsDedupFilter:");
+		for (OFStatisticsType statType: STAT_TYPES) {
+			long checked = getCheckedRecords(statType);
+			if (checked > 0) {
+				sb.append(' ').append(statType).append(" checked ").append(checked)
+					.append(" duplicates ").append(getDuplicateRecords(statType))
+					.append(" stale ").append(getStaleRecords(statType)).append(',');
+			}
+		}
+
+		log.info(sb.toString());
+	}
+
+	/**
+	 * @param h
+	 * @param value
+	 * @return hash h combined with the input value.
+	 */
+	public static long hash(long h, long value) {
+		h ^= value;
+		h *= 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	/**
+	 * @param h
+	 * @param str may be null.
+	 * @return hash h combined with the characters of the input string (without allocating).
+	 */
+	public static long hash(long h, String str) {
+		if (str == null) {
+			return hash(h, -1L);
+		}
+
+		long strHash = str.length();
+		for (int i = 0; i < str.length(); ++i) {
+			strHash = strHash * 0x100000001B3L ^ str.charAt(i);
+		}
+
+		return hash(h, strHash);
+	}
+
+	/**
+	 * @param h
+	 * @param str
+	 * @param start
+	 * @param end
+	 * @return hash h combined with the characters of str[start, end) (without allocating).
+	 */
+	public static long hash(long h, String str, int start, int end) {
+		long strHash = end - start;
+		for (int i = start; i < end; ++i) {
+			strHash = strHash * 0x100000001B3L ^ str.charAt(i);
+		}
+
+		return hash(h, strHash);
+	}
+}
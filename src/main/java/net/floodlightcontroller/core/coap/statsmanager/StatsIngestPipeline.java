@@ -0,0 +1,180 @@
+package net.floodlightcontroller.core.coap.statsmanager;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.core.coap.util.StatsTokenizer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class constitutes a part of "StatsManager" module of the COAP server.
+ *
+ * Parses the statistics received from the COAP APs (polled or streamed) on a fixed set of
+ * worker threads (shards). Each AP is assigned to a single shard based on its apId, so the
+ * statistics of an AP are processed in the order in which they were received, while the
+ * statistics of different APs are processed in parallel. An AP sending a huge payload only
+ * delays the APs of its own shard.
+ *
+ * Each shard has its own parser state (e.g., the StatsTokenizer used by the text parsers), so
+ * that the parsers don't allocate or share it across threads, see getTokenizer().
+ */
+public class StatsIngestPipeline {
+
+	// Logger.
+	protected static Logger log =
+			LoggerFactory.getLogger(StatsIngestPipeline.class);
+
+	/**
+	 * Worker thread processing the statistics of the APs assigned to a shard.
+	 */
+	private static class IngestShard extends Thread {
+		private final ArrayBlockingQueue<Runnable> queue;
+
+		// Per-shard parser state.
+		private final StatsTokenizer tokenizer = new StatsTokenizer();
+
+		private final AtomicLong processedTasks = new AtomicLong(0);
+		private final AtomicLong busyNs = new AtomicLong(0);
+
+		IngestShard(int index, int queueLength) {
+			super("CoapStatsIngest-" + index);
+			setDaemon(true);
+			this.queue = new ArrayBlockingQueue<Runnable>(queueLength);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Runnable task;
+				try {
+					task = queue.take();
+				} catch (InterruptedException e) {
+					log.info(getName() + " interrupted, stopping");
+					return;
+				}
+
+				long startNs = System.nanoTime();
+				try {
+					task.run();
+				} catch (Exception e) {
+					log.error(getName() + ": error while processing stats: " + e);
+					e.printStackTrace();
+				} finally {
+					busyNs.addAndGet(System.nanoTime() - startNs);
+					processedTasks.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private IngestShard[] shards;
+
+	private AtomicLong rejectedTasks = new AtomicLong(0);
+
+	/**
+	 * Create and start the shards.
+	 *
+	 * @param numShards
+	 * @param queueLength max tasks waiting in each shard.
+	 */
+	public StatsIngestPipeline(int numShards, int queueLength) {
+		shards = new IngestShard[Math.max(1, numShards)];
+		for (int i = 0; i < shards.length; ++i) {
+			shards[i] = new IngestShard(i, queueLength);
+			shards[i].start();
+		}
+	}
+
+	/**
+	 * Queue the processing of statistics received from an AP on the AP's shard.
+	 *
+	 * @param apId
+	 * @param task
+	 * @throws RejectedExecutionException if the shard's queue is full.
+	 */
+	public void submit(int apId, Runnable task) {
+		IngestShard shard = shards[getShardIndex(apId)];
+		if (!shard.queue.offer(task)) {
+			rejectedTasks.incrementAndGet();
+			throw new RejectedExecutionException("Ingest queue of " + shard.getName() + " is full");
+		}
+	}
+
+	/**
+	 * @param apId
+	 * @return index of the shard processing the statistics of the AP.
+	 */
+	public int getShardIndex(int apId) {
+		// Spread consecutive apIds (e.g., derived from the AP's IP address) across the shards.
+		long hash = ((apId & 0xFFFFFFFFL) * 0x9E3779B97F4A7C15L) >>> 32;
+		return (int) ((hash * shards.length) >>> 32);
+	}
+
+	public int getNumShards() {
+		return shards.length;
+	}
+
+	/**
+	 * @return the worker threads of the shards.
+	 */
+	public Thread[] getShardThreads() {
+		Thread[] threads = new Thread[shards.length];
+		System.arraycopy(shards, 0, threads, 0, shards.length);
+		return threads;
+	}
+
+	/**
+	 * @return max number of tasks waiting in a single shard.
+	 */
+	public int getMaxQueueDepth() {
+		int maxDepth = 0;
+		for (IngestShard shard: shards) {
+			maxDepth = Math.max(maxDepth, shard.queue.size());
+		}
+
+		return maxDepth;
+	}
+
+	/**
+	 * @return number of tasks processed by each shard.
+	 */
+	public long[] getProcessedTasks() {
+		long[] processed = new long[shards.length];
+		for (int i = 0; i < shards.length; ++i) {
+			processed[i] = shards[i].processedTasks.get();
+		}
+
+		return processed;
+	}
+
+	/**
+	 * @return time (ns) spent processing tasks by each shard.
+	 */
+	public long[] getBusyNs() {
+		long[] busy = new long[shards.length];
+		for (int i = 0; i < shards.length; ++i) {
+			busy[i] = shards[i].busyNs.get();
+		}
+
+		return busy;
+	}
+
+	public long getRejectedTasks() {
+		return rejectedTasks.get();
+	}
+
+	/**
+	 * @return the current shard's tokenizer when called from a shard, a new tokenizer otherwise.
+	 */
+	public static StatsTokenizer getTokenizer() {
+		Thread t = Thread.currentThread();
+		if (t instanceof IngestShard) {
+			return ((IngestShard) t).tokenizer;
+		}
+
+		return new StatsTokenizer();
+	}
+}
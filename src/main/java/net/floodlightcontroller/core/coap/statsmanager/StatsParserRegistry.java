@@ -0,0 +1,239 @@
+package net.floodlightcontroller.core.coap.statsmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.floodlightcontroller.core.coap.dataparsers.StatsRecordParser;
+import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.StatsTrace;
+
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class constitutes a part of "StatsManager" module of the COAP server.
+ *
+ * Registry of the parsers (StatsRecordParser) for each type of the statistics polled from the
+ * COAP APs. A new type of statistics is supported by registering its parser(s), the ingest path
+ * (see ingest()) is the same for all the types:
+ *   - The statistics of a type nobody consumes (no parser registered, or disabled with
+ *     setConsumed()) are dropped before they're decoded.
+ *   - The records already received from the AP in a previous poll are dropped before they're
+ *     decoded, for the parsers registered as deduplicated and the types registered with the
+ *     StatsDedupFilter (see getDedupFilter()). The other parsers of the type get the whole batch,
+ *     e.g., a parser that replaces its state with each batch, or that decodes a payload of the
+ *     reply which isn't covered by the record's fingerprint.
+ *   - Each parser decodes the statistics into a batch of typed records, sized for the poll, and
+ *     adds the batch at once.
+ *
+ * Multiple parsers can be registered for a type (e.g., the PASSIVE statistics are split between
+ * the PassiveStatsParser and the PassiveHopParser), they're called in the order of registration.
+ */
+public class StatsParserRegistry {
+
+	// Logger.
+	protected static Logger log =
+			LoggerFactory.getLogger(StatsParserRegistry.class);
+
+	private static final StatsRecordParser<?>[] NO_PARSERS = new StatsRecordParser<?>[0];
+	private static final boolean[] NO_FLAGS = new boolean[0];
+
+	private static final OFStatisticsType[] STAT_TYPES = OFStatisticsType.values();
+
+	/**
+	 * Parsers of each type and whether each one gets the deduplicated records, indexed by
+	 * OFStatisticsType.ordinal(). Replaced as a whole on registration.
+	 */
+	private static final class Registrations {
+		final StatsRecordParser<?>[][] parsers;
+		final boolean[][] isDeduplicated;
+
+		Registrations(StatsRecordParser<?>[][] parsers, boolean[][] isDeduplicated) {
+			this.parsers = parsers;
+			this.isDeduplicated = isDeduplicated;
+		}
+	}
+
+	private volatile Registrations registrations;
+
+	// Bitmap of the statistics types that are consumed (1 << OFStatisticsType.ordinal()).
+	private volatile long consumedTypes = 0;
+
+	private final StatsDedupFilter dedupFilter = new StatsDedupFilter(CoapConstants.STATS_DEDUP_WINDOW_SEC);
+
+	private final AtomicLongArray ingestedRecords = new AtomicLongArray(STAT_TYPES.length);
+	private final AtomicLongArray droppedRecords = new AtomicLongArray(STAT_TYPES.length);
+
+	public StatsParserRegistry() {
+		StatsRecordParser<?>[][] emptyParsers = new StatsRecordParser<?>[STAT_TYPES.length][];
+		boolean[][] emptyFlags = new boolean[STAT_TYPES.length][];
+		for (int i = 0; i < emptyParsers.length; ++i) {
+			emptyParsers[i] = NO_PARSERS;
+			emptyFlags[i] = NO_FLAGS;
+		}
+
+		registrations = new Registrations(emptyParsers, emptyFlags);
+	}
+
+	/**
+	 * Register a parser for its statistics type, which gets all the records of each batch. The
+	 * type is consumed from now on.
+	 *
+	 * @param parser
+	 */
+	public void register(StatsRecordParser<?> parser) {
+		register(parser, false);
+	}
+
+	/**
+	 * Register a parser for its statistics type. The type is consumed from now on.
+	 *
+	 * @param parser
+	 * @param isDeduplicated true if the parser only gets the records that weren't already
+	 * received from the AP (see StatsDedupFilter).
+	 */
+	public synchronized void register(StatsRecordParser<?> parser, boolean isDeduplicated) {
+		int index = parser.getStatsType().ordinal();
+		Registrations curr = registrations;
+
+		StatsRecordParser<?>[][] newParsers = curr.parsers.clone();
+		newParsers[index] = Arrays.copyOf(curr.parsers[index], curr.parsers[index].length + 1);
+		newParsers[index][newParsers[index].length - 1] = parser;
+
+		boolean[][] newFlags = curr.isDeduplicated.clone();
+		newFlags[index] = Arrays.copyOf(curr.isDeduplicated[index], curr.isDeduplicated[index].length + 1);
+		newFlags[index][newFlags[index].length - 1] = isDeduplicated;
+
+		registrations = new Registrations(newParsers, newFlags);
+		consumedTypes |= 1L << index;
+	}
+
+	/**
+	 * @param statType
+	 * @return parsers registered for the statistics type.
+	 */
+	public List<StatsRecordParser<?>> getParsers(OFStatisticsType statType) {
+		List<StatsRecordParser<?>> typeParsers = new ArrayList<StatsRecordParser<?>>();
+		for (StatsRecordParser<?> parser: registrations.parsers[statType.ordinal()]) {
+			typeParsers.add(parser);
+		}
+
+		return typeParsers;
+	}
+
+	/**
+	 * Enable/disable the processing of a type of statistics, e.g., when neither the policy engine
+	 * nor the database use them. Only the types with registered parsers can be consumed.
+	 *
+	 * @param statType
+	 * @param isConsumed
+	 */
+	public synchronized void setConsumed(OFStatisticsType statType, boolean isConsumed) {
+		int index = statType.ordinal();
+		if (isConsumed && registrations.parsers[index].length > 0) {
+			consumedTypes |= 1L << index;
+		} else {
+			consumedTypes &= ~(1L << index);
+		}
+
+		log.info("StatsParserRegistry: " + statType + " consumed: " + isConsumed(statType));
+	}
+
+	public boolean isConsumed(OFStatisticsType statType) {
+		return (consumedTypes & (1L << statType.ordinal())) != 0;
+	}
+
+	/**
+	 * Decode the statistics of a single poll of an AP and add them to the type's parsers.
+	 *
+	 * @param statType
+	 * @param stats
+	 * @param apId
+	 * @return number of records added to the parsers.
+	 */
+	public int ingest(OFStatisticsType statType, List<OFStatistics> stats, int apId) {
+		if (stats == null || stats.isEmpty()) {
+			return 0;
+		}
+
+		int index = statType.ordinal();
+		if (!isConsumed(statType)) {
+			droppedRecords.addAndGet(index, stats.size());
+			return 0;
+		}
+
+		Registrations curr = registrations;
+		StatsRecordParser<?>[] typeParsers = curr.parsers[index];
+		boolean[] isDeduplicated = curr.isDeduplicated[index];
+
+		// The filter is applied once per batch, for the parsers registered as deduplicated.
+		List<OFStatistics> newStats = stats;
+		if (CoapConstants.USE_STATS_DEDUP && dedupFilter.isEnabled(statType)) {
+			for (boolean flag: isDeduplicated) {
+				if (flag) {
+					newStats = dedupFilter.filter(statType, stats, apId);
+					break;
+				}
+			}
+		}
+
+		String stage = statType.name();
+		for (int i = 0; i < stats.size(); i++) {
+			StatsTrace.trace(stage, apId, stats.get(i));
+		}
+
+		int added = 0;
+		for (int i = 0; i < typeParsers.length; i++) {
+			List<OFStatistics> parserStats = isDeduplicated[i] ? newStats : stats;
+			if (!parserStats.isEmpty()) {
+				added += ingest(typeParsers[i], parserStats, apId);
+			}
+		}
+
+		ingestedRecords.addAndGet(index, added);
+		return added;
+	}
+
+	private static <R> int ingest(StatsRecordParser<R> parser, List<OFStatistics> stats, int apId) {
+		List<R> records = new ArrayList<R>(stats.size());
+		for (int i = 0; i < stats.size(); i++) {
+			R record = parser.decode(stats.get(i), apId);
+			if (record != null) {
+				records.add(record);
+			}
+		}
+
+		if (!records.isEmpty()) {
+			parser.addAll(apId, records);
+		}
+
+		return records.size();
+	}
+
+	/**
+	 * @return the filter dropping the records already received from the APs.
+	 */
+	public StatsDedupFilter getDedupFilter() {
+		return dedupFilter;
+	}
+
+	/**
+	 * @param statType
+	 * @return number of records of the type added to the parsers.
+	 */
+	public long getIngestedRecords(OFStatisticsType statType) {
+		return ingestedRecords.get(statType.ordinal());
+	}
+
+	/**
+	 * @param statType
+	 * @return number of records of the type dropped since nobody consumes them.
+	 */
+	public long getDroppedRecords(OFStatisticsType statType) {
+		return droppedRecords.get(statType.ordinal());
+	}
+}
@@ -0,0 +1,394 @@
+package net.floodlightcontroller.core.coap.statsmanager;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+
+/**
+ * This class constitutes a part of "StatsManager" module of the COAP server.
+ *
+ * Collects metrics about the statistics polling performed by the MainStatsManager, e.g.,
+ * per-AP poll latency and the number of poll requests waiting in the poll queue.
+ *
+ * It also tracks how bursty the polls are (the number of AP polls dispatched in a single scheduler
+ * tick compared to the average) and the CPU and lock contention (blocked time) of the threads
+ * that process the polled statistics, which show whether the polling load is spread evenly.
+ *
+ * The overrun related metrics (polls skipped because the AP's previous poll was still in flight,
+ * abandoned polls, stats queries shed due to the global in-flight cap and the number of polls and
+ * queries in flight) show whether the poll intervals are sized correctly for the fleet size.
+ */
+public class StatsPollMetrics {
+
+	/**
+	 * Most recent poll latency (in ms) for each AP.
+	 */
+	private ConcurrentHashMap<Integer, Long> apPollLatencyMs = new ConcurrentHashMap<Integer, Long>();
+
+	// Per-cycle latency aggregates.
+	private AtomicInteger cyclePolls = new AtomicInteger(0);
+	private AtomicLong cycleLatencySumMs = new AtomicLong(0);
+	private AtomicLong cycleLatencyMaxMs = new AtomicLong(0);
+
+	// Poll queue depth.
+	private AtomicInteger maxQueueDepth = new AtomicInteger(0);
+	private volatile int lastQueueDepth = 0;
+
+	// Max tasks waiting in a single shard of the ingest pipeline.
+	private AtomicInteger maxIngestQueueDepth = new AtomicInteger(0);
+
+	// Polls dispatched per scheduler tick.
+	private AtomicInteger cycleTicks = new AtomicInteger(0);
+	private AtomicInteger cycleDispatchedPolls = new AtomicInteger(0);
+	private AtomicInteger cycleMaxDispatchedPolls = new AtomicInteger(0);
+
+	// Threads processing the polled statistics, and their CPU/blocked time at the last report.
+	private CopyOnWriteArrayList<Long> pollThreadIds = new CopyOnWriteArrayList<Long>();
+	private long lastPollThreadCpuNs = 0;
+	private long lastPollThreadBlockedMs = 0;
+	private long lastPollThreadBlockedCount = 0;
+
+	private ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	// Overruns and backpressure.
+	private ConcurrentHashMap<Integer, AtomicLong> apOverruns = new ConcurrentHashMap<Integer, AtomicLong>();
+	private AtomicInteger cycleOverruns = new AtomicInteger(0);
+	private AtomicLong totalOverruns = new AtomicLong(0);
+	private AtomicLong abandonedPolls = new AtomicLong(0);
+	private AtomicLongArray shedQueries = new AtomicLongArray(OFStatisticsType.values().length);
+	private AtomicInteger cycleShedQueries = new AtomicInteger(0);
+	private AtomicInteger maxInFlightPolls = new AtomicInteger(0);
+	private AtomicInteger maxInFlightQueries = new AtomicInteger(0);
+	private volatile int lastInFlightPolls = 0;
+	private volatile int lastInFlightQueries = 0;
+
+	// Overall counters.
+	private AtomicLong totalPolls = new AtomicLong(0);
+	private AtomicLong rejectedPolls = new AtomicLong(0);
+	private AtomicLong timedOutPolls = new AtomicLong(0);
+
+	/**
+	 * Record the time taken to poll the statistics from a single AP.
+	 *
+	 * @param apId
+	 * @param latencyMs
+	 */
+	public void recordPollLatency(int apId, long latencyMs) {
+		apPollLatencyMs.put(apId, latencyMs);
+
+		cyclePolls.incrementAndGet();
+		totalPolls.incrementAndGet();
+		cycleLatencySumMs.addAndGet(latencyMs);
+
+		long currMax = cycleLatencyMaxMs.get();
+		while (latencyMs > currMax && !cycleLatencyMaxMs.compareAndSet(currMax, latencyMs)) {
+			currMax = cycleLatencyMaxMs.get();
+		}
+	}
+
+	/**
+	 * Record a sample of the number of AP polls waiting in the poll queue, or of the stats
+	 * queries waiting for a reply when the queries are asynchronous.
+	 *
+	 * @param queueDepth
+	 */
+	public void recordQueueDepth(int queueDepth) {
+		lastQueueDepth = queueDepth;
+
+		int currMax = maxQueueDepth.get();
+		while (queueDepth > currMax && !maxQueueDepth.compareAndSet(currMax, queueDepth)) {
+			currMax = maxQueueDepth.get();
+		}
+	}
+
+	/**
+	 * Record a sample of the max number of tasks waiting in a single ingest pipeline shard.
+	 *
+	 * @param queueDepth
+	 */
+	public void recordIngestQueueDepth(int queueDepth) {
+		int currMax = maxIngestQueueDepth.get();
+		while (queueDepth > currMax && !maxIngestQueueDepth.compareAndSet(currMax, queueDepth)) {
+			currMax = maxIngestQueueDepth.get();
+		}
+	}
+
+	/**
+	 * Record the number of AP polls dispatched in a single scheduler tick.
+	 *
+	 * @param polls
+	 */
+	public void recordDispatchedPolls(int polls) {
+		cycleTicks.incrementAndGet();
+		cycleDispatchedPolls.addAndGet(polls);
+
+		int currMax = cycleMaxDispatchedPolls.get();
+		while (polls > currMax && !cycleMaxDispatchedPolls.compareAndSet(currMax, polls)) {
+			currMax = cycleMaxDispatchedPolls.get();
+		}
+	}
+
+	/**
+	 * Track the CPU and blocked time of a thread processing the polled statistics.
+	 *
+	 * @param t
+	 */
+	public void registerPollThread(Thread t) {
+		pollThreadIds.add(t.getId());
+
+		try {
+			if (threadBean.isThreadContentionMonitoringSupported() &&
+					!threadBean.isThreadContentionMonitoringEnabled()) {
+				threadBean.setThreadContentionMonitoringEnabled(true);
+			}
+		} catch (UnsupportedOperationException e) {
+			// Only the blocked count is available.
+		}
+	}
+
+	/**
+	 * Record a due poll that was skipped because the AP's previous poll was still in flight.
+	 *
+	 * @param apId
+	 */
+	public void recordOverrun(int apId) {
+		AtomicLong overruns = apOverruns.get(apId);
+		if (overruns == null) {
+			AtomicLong newOverruns = new AtomicLong(0);
+			overruns = apOverruns.putIfAbsent(apId, newOverruns);
+			if (overruns == null) {
+				overruns = newOverruns;
+			}
+		}
+
+		overruns.incrementAndGet();
+		cycleOverruns.incrementAndGet();
+		totalOverruns.incrementAndGet();
+	}
+
+	/**
+	 * Record an AP poll that was abandoned after not finishing within the poll timeout.
+	 */
+	public void recordAbandonedPoll() {
+		abandonedPolls.incrementAndGet();
+	}
+
+	/**
+	 * Record a stats query that was not sent because too many queries were in flight.
+	 *
+	 * @param statType
+	 */
+	public void recordShedQuery(OFStatisticsType statType) {
+		shedQueries.incrementAndGet(statType.ordinal());
+		cycleShedQueries.incrementAndGet();
+	}
+
+	/**
+	 * Record a sample of the number of AP polls and stats queries in flight.
+	 *
+	 * @param polls
+	 * @param queries
+	 */
+	public void recordInFlight(int polls, int queries) {
+		lastInFlightPolls = polls;
+		lastInFlightQueries = queries;
+
+		int currMax = maxInFlightPolls.get();
+		while (polls > currMax && !maxInFlightPolls.compareAndSet(currMax, polls)) {
+			currMax = maxInFlightPolls.get();
+		}
+
+		currMax = maxInFlightQueries.get();
+		while (queries > currMax && !maxInFlightQueries.compareAndSet(currMax, queries)) {
+			currMax = maxInFlightQueries.get();
+		}
+	}
+
+	/**
+	 * Record an AP poll that could not be queued.
+	 */
+	public void recordRejectedPoll() {
+		rejectedPolls.incrementAndGet();
+	}
+
+	/**
+	 * Record AP polls (or stats queries) that did not finish in time.
+	 *
+	 * @param count
+	 */
+	public void recordTimedOutPolls(int count) {
+		timedOutPolls.addAndGet(count);
+	}
+
+	/**
+	 * @param apId
+	 * @return most recent poll latency (ms) for the input AP, -1 if unknown.
+	 */
+	public long getPollLatencyMs(int apId) {
+		Long latency = apPollLatencyMs.get(apId);
+		return latency == null ? -1 : latency;
+	}
+
+	public Map<Integer, Long> getPollLatencyMap() {
+		return apPollLatencyMs;
+	}
+
+	public int getLastQueueDepth() {
+		return lastQueueDepth;
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	public long getTotalPolls() {
+		return totalPolls.get();
+	}
+
+	public long getRejectedPolls() {
+		return rejectedPolls.get();
+	}
+
+	public long getTimedOutPolls() {
+		return timedOutPolls.get();
+	}
+
+	/**
+	 * @param apId
+	 * @return number of polls of the input AP skipped due to overruns.
+	 */
+	public long getOverruns(int apId) {
+		AtomicLong overruns = apOverruns.get(apId);
+		return overruns == null ? 0 : overruns.get();
+	}
+
+	public long getTotalOverruns() {
+		return totalOverruns.get();
+	}
+
+	public long getAbandonedPolls() {
+		return abandonedPolls.get();
+	}
+
+	/**
+	 * @param statType
+	 * @return number of queries of the input statistics type shed due to the in-flight cap.
+	 */
+	public long getShedQueries(OFStatisticsType statType) {
+		return shedQueries.get(statType.ordinal());
+	}
+
+	public int getLastInFlightPolls() {
+		return lastInFlightPolls;
+	}
+
+	public int getLastInFlightQueries() {
+		return lastInFlightQueries;
+	}
+
+	/**
+	 * @return total CPU time (ns) used by the poll threads, -1 if not supported.
+	 */
+	public long getPollThreadCpuNs() {
+		if (!threadBean.isThreadCpuTimeSupported()) {
+			return -1;
+		}
+
+		long cpuNs = 0;
+		for (long id: pollThreadIds) {
+			long threadCpuNs = threadBean.getThreadCpuTime(id);
+			if (threadCpuNs > 0) {
+				cpuNs += threadCpuNs;
+			}
+		}
+
+		return cpuNs;
+	}
+
+	/**
+	 * @return {total blocked time (ms), total blocked count} of the poll threads. The blocked time
+	 * is -1 if thread contention monitoring is disabled.
+	 */
+	public long[] getPollThreadBlocked() {
+		long blockedMs = 0, blockedCount = 0;
+
+		for (long id: pollThreadIds) {
+			ThreadInfo info = threadBean.getThreadInfo(id);
+			if (info == null) {
+				continue;
+			}
+
+			blockedCount += info.getBlockedCount();
+			if (info.getBlockedTime() < 0) {
+				blockedMs = -1;
+			} else if (blockedMs >= 0) {
+				blockedMs += info.getBlockedTime();
+			}
+		}
+
+		return new long[] {blockedMs, blockedCount};
+	}
+
+	/**
+	 * Log the metrics of the current poll cycle and reset the per-cycle aggregates.
+	 *
+	 * @param log
+	 * @param cycleDurationMs
+	 */
+	public void logAndResetCycle(Logger log, long cycleDurationMs) {
+		int polls = cyclePolls.getAndSet(0);
+		long latencySum = cycleLatencySumMs.getAndSet(0);
+		long latencyMax = cycleLatencyMaxMs.getAndSet(0);
+		int queueMax = maxQueueDepth.getAndSet(0);
+		int ingestQueueMax = maxIngestQueueDepth.getAndSet(0);
+
+		int ticks = cycleTicks.getAndSet(0);
+		int dispatched = cycleDispatchedPolls.getAndSet(0);
+		int dispatchedMax = cycleMaxDispatchedPolls.getAndSet(0);
+
+		// Burst factor: 1.0 when the polls are spread evenly over the ticks.
+		double burstFactor = dispatched > 0 ? dispatchedMax * 1.0 * ticks / dispatched : 0.0;
+
+		int overruns = cycleOverruns.getAndSet(0);
+		int shed = cycleShedQueries.getAndSet(0);
+		int inFlightPollsMax = maxInFlightPolls.getAndSet(0);
+		int inFlightQueriesMax = maxInFlightQueries.getAndSet(0);
+
+		long cpuNs = getPollThreadCpuNs();
+		long cycleCpuNs = cpuNs - lastPollThreadCpuNs;
+		lastPollThreadCpuNs = cpuNs;
+
+		long[] blocked = getPollThreadBlocked();
+		long cycleBlockedMs = blocked[0] - lastPollThreadBlockedMs;
+		long cycleBlockedCount = blocked[1] - lastPollThreadBlockedCount;
+		lastPollThreadBlockedMs = blocked[0];
+		lastPollThreadBlockedCount = blocked[1];
+
+		log.info("StatsPollMetrics: cycle " + cycleDurationMs + " ms, polled " + polls + " APs" +
+				", avg latency " + (polls > 0 ? latencySum / polls : 0) + " ms" +
+				", max latency " + latencyMax + " ms" +
+				", max queue depth " + queueMax +
+				", max ingest queue depth " + ingestQueueMax +
+				", max polls/tick " + dispatchedMax +
+				", burst factor " + String.format("%.2f", burstFactor) +
+				", poll cpu " + (cpuNs < 0 ? "n/a" : (cycleCpuNs / 1000000) + " ms") +
+				", blocked " + cycleBlockedCount + " times" +
+				(blocked[0] < 0 ? "" : " for " + cycleBlockedMs + " ms") +
+				", overruns " + overruns +
+				", shed queries " + shed +
+				", max in flight " + inFlightPollsMax + " polls/" + inFlightQueriesMax + " queries" +
+				", total polls " + totalPolls.get() +
+				", rejected " + rejectedPolls.get() +
+				", timed out " + timedOutPolls.get() +
+				", abandoned " + abandonedPolls.get());
+	}
+}
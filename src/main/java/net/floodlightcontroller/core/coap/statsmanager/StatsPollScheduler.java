@@ -0,0 +1,320 @@
+package net.floodlightcontroller.core.coap.statsmanager;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.floodlightcontroller.core.coap.util.CoapConstants;
+
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.openflow.protocol.statistics.coap.OFStationStatisticsReply;
+import org.openflow.protocol.statistics.coap.OFUtilStatisticsReply;
+
+/**
+ * This class constitutes a part of "StatsManager" module of the COAP server.
+ *
+ * Decides which statistics types should be polled from each COAP AP. Each statistics type has
+ * its own poll interval per AP, which adapts to the activity observed in the polled statistics:
+ * the interval is halved (down to a minimum) when the activity changes and doubled (up to a
+ * maximum) when the AP is idle. For example, the airtime utilization and station statistics used
+ * by the CoapManager's policies are polled quickly from busy APs, while the AP and client
+ * information that rarely changes is polled slowly.
+ *
+ * To avoid polling the whole AP fleet in the same instant, each AP is assigned a consistent
+ * phase offset within every poll interval (derived from the hash of its apId). The polls of the
+ * APs, and therefore their replies and the parsing work, are spread evenly across the interval.
+ */
+public class StatsPollScheduler {
+
+	/**
+	 * Poll interval bounds (ms) for a single statistics type.
+	 */
+	public static class PollInterval {
+		public long minMs, initialMs, maxMs;
+
+		public PollInterval(long minMs, long initialMs, long maxMs) {
+			this.minMs = minMs;
+			this.initialMs = initialMs;
+			this.maxMs = maxMs;
+		}
+	}
+
+	/**
+	 * Polling state of a single AP, indexed by the statistics type's ordinal.
+	 */
+	private static class ApSchedule {
+		long[] nextPollTs = new long[OFStatisticsType.values().length];
+		long[] intervalMs = new long[OFStatisticsType.values().length];
+		double[] lastActivity = new double[OFStatisticsType.values().length];
+		boolean[] hasActivity = new boolean[OFStatisticsType.values().length];
+	}
+
+	private EnumMap<OFStatisticsType, PollInterval> pollIntervals =
+			new EnumMap<OFStatisticsType, PollInterval>(OFStatisticsType.class);
+
+	private ConcurrentHashMap<Integer, ApSchedule> apSchedules = new ConcurrentHashMap<Integer, ApSchedule>();
+
+	/**
+	 * Create a scheduler with the default poll intervals.
+	 */
+	public StatsPollScheduler() {
+		long base = CoapConstants.DATA_POLL_FREQUENCY_MSEC;
+
+		// Used by the CoapManager's policies.
+		setPollInterval(OFStatisticsType.UTIL, new PollInterval(base, base, 4 * base));
+		setPollInterval(OFStatisticsType.STATION, new PollInterval(base, base, 4 * base));
+
+		setPollInterval(OFStatisticsType.TRAFFICINFO, new PollInterval(base, base, 6 * base));
+		setPollInterval(OFStatisticsType.NONWIFI, new PollInterval(base, base, 6 * base));
+		setPollInterval(OFStatisticsType.PASSIVE, new PollInterval(base, 2 * base, 6 * base));
+
+		// Rarely changing information.
+		setPollInterval(OFStatisticsType.CLIENT, new PollInterval(2 * base, 6 * base, 30 * base));
+		setPollInterval(OFStatisticsType.APINFO, new PollInterval(6 * base, 6 * base, 60 * base));
+
+		// BEACON is polled by the NeighborhoodMapManager, SYNCBEACON isn't collected for now.
+	}
+
+	/**
+	 * Enable polling of a statistics type with the input interval bounds.
+	 *
+	 * @param statType
+	 * @param interval
+	 */
+	public void setPollInterval(OFStatisticsType statType, PollInterval interval) {
+		pollIntervals.put(statType, interval);
+	}
+
+	/**
+	 * Disable polling of a statistics type.
+	 *
+	 * @param statType
+	 */
+	public void removePollInterval(OFStatisticsType statType) {
+		pollIntervals.remove(statType);
+	}
+
+	/**
+	 * Return the statistics types that are due for polling from the input AP and schedule
+	 * their next poll.
+	 *
+	 * @param apId
+	 * @param currTs
+	 * @return bitmap of statistics types (1 << OFStatisticsType.ordinal()).
+	 */
+	public long getDueStatsBitmap(int apId, long currTs) {
+		ApSchedule schedule = getSchedule(apId);
+		long bitmap = 0;
+
+		synchronized (schedule) {
+			for (OFStatisticsType statType: pollIntervals.keySet()) {
+				int i = statType.ordinal();
+
+				if (schedule.intervalMs[i] == 0) {
+					// First poll of the AP: wait for the AP's slot in the interval.
+					schedule.intervalMs[i] = pollIntervals.get(statType).initialMs;
+					schedule.nextPollTs[i] = getPhaseAlignedTs(apId, currTs, schedule.intervalMs[i]);
+				}
+
+				if (schedule.nextPollTs[i] <= currTs) {
+					bitmap |= (1 << i);
+					schedule.nextPollTs[i] = getPhaseAlignedTs(apId, currTs + 1, schedule.intervalMs[i]);
+				}
+			}
+		}
+
+		return bitmap;
+	}
+
+	/**
+	 * @param apId
+	 * @param currTs
+	 * @return true if any statistics type is due for polling from the input AP. Unlike
+	 * getDueStatsBitmap(), the next polls are not scheduled.
+	 */
+	public boolean hasDueStats(int apId, long currTs) {
+		ApSchedule schedule = apSchedules.get(apId);
+		if (schedule == null) {
+			return false;
+		}
+
+		synchronized (schedule) {
+			for (OFStatisticsType statType: pollIntervals.keySet()) {
+				int i = statType.ordinal();
+				if (schedule.intervalMs[i] != 0 && schedule.nextPollTs[i] <= currTs) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Postpone the poll of a statistics type that was due but could not be sent.
+	 *
+	 * @param apId
+	 * @param statType
+	 * @param nextPollTs
+	 */
+	public void deferPoll(int apId, OFStatisticsType statType, long nextPollTs) {
+		ApSchedule schedule = getSchedule(apId);
+
+		synchronized (schedule) {
+			schedule.nextPollTs[statType.ordinal()] = nextPollTs;
+		}
+	}
+
+	/**
+	 * Adapt the poll interval of a statistics type for the input AP using the activity measured
+	 * from the most recently polled statistics (see measureActivity()).
+	 *
+	 * @param apId
+	 * @param statType
+	 * @param activity
+	 */
+	public void reportActivity(int apId, OFStatisticsType statType, double activity) {
+		PollInterval interval = pollIntervals.get(statType);
+		if (interval == null) {
+			return;
+		}
+
+		ApSchedule schedule = getSchedule(apId);
+		int i = statType.ordinal();
+
+		synchronized (schedule) {
+			double lastActivity = schedule.lastActivity[i];
+			boolean isChanging = !schedule.hasActivity[i] ||
+					Math.abs(activity - lastActivity) >
+						CoapConstants.POLL_ACTIVITY_CHANGE_THRESHOLD * Math.max(Math.abs(lastActivity), 1.0);
+
+			long currInterval = schedule.intervalMs[i] == 0 ? interval.initialMs : schedule.intervalMs[i];
+			long newInterval;
+
+			if (isChanging) {
+				newInterval = Math.max(interval.minMs, currInterval / 2);
+			} else {
+				newInterval = Math.min(interval.maxMs, currInterval * 2);
+			}
+
+			// Pull in the next poll if the AP sped up.
+			if (newInterval < currInterval) {
+				schedule.nextPollTs[i] = getPhaseAlignedTs(apId,
+						schedule.nextPollTs[i] - (currInterval - newInterval), newInterval);
+			}
+
+			schedule.intervalMs[i] = newInterval;
+			schedule.lastActivity[i] = activity;
+			schedule.hasActivity[i] = true;
+		}
+	}
+
+	/**
+	 * @param apId
+	 * @param statType
+	 * @return current poll interval (ms) of the statistics type for the input AP.
+	 */
+	public long getPollIntervalMs(int apId, OFStatisticsType statType) {
+		ApSchedule schedule = apSchedules.get(apId);
+		if (schedule == null || schedule.intervalMs[statType.ordinal()] == 0) {
+			PollInterval interval = pollIntervals.get(statType);
+			return interval == null ? -1 : interval.initialMs;
+		}
+
+		return schedule.intervalMs[statType.ordinal()];
+	}
+
+	/**
+	 * Forget the polling state of the input AP.
+	 *
+	 * @param apId
+	 */
+	public void removeAp(int apId) {
+		apSchedules.remove(apId);
+	}
+
+	/**
+	 * @param apId
+	 * @param intervalMs
+	 * @return consistent phase offset (ms) of the input AP within the poll interval.
+	 */
+	public static long getPhaseOffsetMs(int apId, long intervalMs) {
+		// Spread consecutive apIds (e.g., derived from the AP's IP address) across the interval.
+		long hash = ((apId & 0xFFFFFFFFL) * 0x9E3779B97F4A7C15L) >>> 32;
+		return (hash * intervalMs) >>> 32;
+	}
+
+	/**
+	 * @param apId
+	 * @param ts
+	 * @param intervalMs
+	 * @return the earliest timestamp at or after ts that lies on the AP's phase in the interval.
+	 */
+	private static long getPhaseAlignedTs(int apId, long ts, long intervalMs) {
+		if (intervalMs <= 0) {
+			return ts;
+		}
+
+		long delta = (getPhaseOffsetMs(apId, intervalMs) - ts) % intervalMs;
+		if (delta < 0) {
+			delta += intervalMs;
+		}
+
+		return ts + delta;
+	}
+
+	private ApSchedule getSchedule(int apId) {
+		ApSchedule schedule = apSchedules.get(apId);
+		if (schedule == null) {
+			ApSchedule newSchedule = new ApSchedule();
+			schedule = apSchedules.putIfAbsent(apId, newSchedule);
+			if (schedule == null) {
+				schedule = newSchedule;
+			}
+		}
+
+		return schedule;
+	}
+
+	/**
+	 * Measure the activity in the statistics polled from an AP. The airtime utilization is
+	 * measured as the average busy fraction of the channel, the station statistics as the total
+	 * number of packets, and the other statistics types as the number of reported instances.
+	 *
+	 * @param statType
+	 * @param stats
+	 * @return activity value.
+	 */
+	public static double measureActivity(OFStatisticsType statType, List<OFStatistics> stats) {
+		if (stats == null || stats.isEmpty()) {
+			return 0.0;
+		}
+
+		if (statType == OFStatisticsType.UTIL) {
+			double busy = 0.0;
+			int cnt = 0;
+
+			for (OFStatistics stat: stats) {
+				OFUtilStatisticsReply utilStat = (OFUtilStatisticsReply) stat;
+				if (utilStat.getActive() > 0) {
+					busy += utilStat.getBusy() * 1.0 / utilStat.getActive();
+					cnt ++;
+				}
+			}
+
+			// Scaled so that the change threshold works on percentage points.
+			return cnt > 0 ? 100.0 * busy / cnt : 0.0;
+		} else if (statType == OFStatisticsType.STATION) {
+			double packets = 0.0;
+
+			for (OFStatistics stat: stats) {
+				packets += ((OFStationStatisticsReply) stat).getPacketCount();
+			}
+
+			return packets;
+		}
+
+		return stats.size();
+	}
+}
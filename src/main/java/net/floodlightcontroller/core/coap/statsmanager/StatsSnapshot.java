@@ -0,0 +1,90 @@
+package net.floodlightcontroller.core.coap.statsmanager;
+
+import java.util.Map;
+
+import net.floodlightcontroller.core.coap.structs.AirtimeUtilSeries;
+import net.floodlightcontroller.core.coap.structs.ClientTable;
+import net.floodlightcontroller.core.coap.structs.StationStatsPerClient;
+import net.floodlightcontroller.core.coap.structs.TrafficInfoPerClient;
+
+/**
+ * This class constitutes a part of "StatsManager" module of the COAP server.
+ *
+ * Read-only view of the in-memory statistics of the COAP APs, taken for a pass of the policies
+ * of the CoapManager (see CoapDataManager.getStatsSnapshot()):
+ *   - The view isn't affected by the statistics received afterwards, and is read without
+ *     locking, the parsers aren't blocked for the policy pass.
+ *   - Each structure of an AP (e.g., its utilization series or its station statistics table) is
+ *     copied under its own lock, one after the other. The view isn't a consistent cut across the
+ *     APs or across the types of statistics of an AP: a batch ingested while the view is taken
+ *     may be included for some structures only. The epoch only numbers the views.
+ *   - The structures not updated since the previous view are shared with it. An updated
+ *     structure is copied again as a whole: all the samples of a utilization series (see
+ *     AirtimeUtilSeries.snapshot()), and every client of a client table, each sharing its older
+ *     entries (see ClientTable.snapshot()).
+ *
+ * The maps, series and client tables of the view must not be modified.
+ */
+public class StatsSnapshot {
+	private final long epoch;
+	private final long ts;
+
+	private final Map<Integer, AirtimeUtilSeries> util;
+	private final Map<Integer, AirtimeUtilSeries> utilHop;
+	private final Map<Integer, ClientTable<StationStatsPerClient>> stationStats;
+	private final Map<Integer, ClientTable<TrafficInfoPerClient>> trafficInfo;
+
+	public StatsSnapshot(long epoch, long ts, Map<Integer, AirtimeUtilSeries> util,
+			Map<Integer, AirtimeUtilSeries> utilHop,
+			Map<Integer, ClientTable<StationStatsPerClient>> stationStats,
+			Map<Integer, ClientTable<TrafficInfoPerClient>> trafficInfo) {
+		this.epoch = epoch;
+		this.ts = ts;
+		this.util = util;
+		this.utilHop = utilHop;
+		this.stationStats = stationStats;
+		this.trafficInfo = trafficInfo;
+	}
+
+	/**
+	 * @return sequence number of the snapshot, it doesn't identify a consistent state.
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return time (sec) at which the snapshot was taken.
+	 */
+	public long getTs() {
+		return ts;
+	}
+
+	/**
+	 * @return airtime utilization on the AP's channel, per AP.
+	 */
+	public Map<Integer, AirtimeUtilSeries> getUtil() {
+		return util;
+	}
+
+	/**
+	 * @return airtime utilization across the channels (see UtilHopParser), per AP.
+	 */
+	public Map<Integer, AirtimeUtilSeries> getUtilHop() {
+		return utilHop;
+	}
+
+	/**
+	 * @return station statistics, per AP.
+	 */
+	public Map<Integer, ClientTable<StationStatsPerClient>> getStationStats() {
+		return stationStats;
+	}
+
+	/**
+	 * @return traffic information, per AP.
+	 */
+	public Map<Integer, ClientTable<TrafficInfoPerClient>> getTrafficInfo() {
+		return trafficInfo;
+	}
+}
@@ -0,0 +1,321 @@
+package net.floodlightcontroller.core.coap.statsmanager;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.core.coap.util.CoapConstants;
+import net.floodlightcontroller.core.coap.util.CoapUtils;
+
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class constitutes a part of "StatsManager" module of the COAP server.
+ *
+ * Receives the statistics streamed by the COAP APs, as an alternative to polling them. A COAP AP
+ * subscribes by opening a TCP connection to the server (STATS_STREAM_BIND_ADDRESS:STATS_STREAM_PORT,
+ * loopback by default, i.e., only the APs' network interface should be configured) and writing one
+ * statistics record per line as soon as it is produced, using the same "type;rest" data string
+ * format that the APs use inside the polled statistics (e.g., "trafficinfo;01;...").
+ * The records are parsed on the AP's shard of the CoapDataManager's ingest pipeline.
+ *
+ * The apId of a connection is derived from the AP's IP address. The loopback AP simulator can
+ * override it by sending "hello;<apId>" as the first line. The override is only accepted from
+ * the loopback address, or if it matches the apId of the connection's IP address, so a host
+ * can't stream the statistics of another AP.
+ *
+ * The MainStatsManager does not poll the statistics types that an AP has recently streamed.
+ */
+public class StatsStreamServer implements Runnable {
+
+	// Logger.
+	protected static Logger log =
+			LoggerFactory.getLogger(StatsStreamServer.class);
+
+	public static final String HELLO_MSG = "hello";
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * State of a single AP connection.
+	 */
+	private static class StreamConnection {
+		int apId;
+		final InetAddress remoteAddress;
+		StringBuilder partialLine = new StringBuilder();
+		long records = 0;
+
+		StreamConnection(int apId, InetAddress remoteAddress) {
+			this.apId = apId;
+			this.remoteAddress = remoteAddress;
+		}
+	}
+
+	/**
+	 * apId -> timestamp (ms) of the last streamed record, indexed by the statistics type's ordinal.
+	 */
+	private static ConcurrentHashMap<Integer, long[]> lastStreamTs = new ConcurrentHashMap<Integer, long[]>();
+
+	private static AtomicLong streamedRecords = new AtomicLong(0);
+	private static AtomicLong droppedRecords = new AtomicLong(0);
+
+	private String bindAddress;
+	private int port;
+	private Selector selector;
+	private ByteBuffer readBuffer = ByteBuffer.allocate(CoapConstants.STATS_STREAM_BUFFER_LENGTH);
+
+	public StatsStreamServer(int port) {
+		this(CoapConstants.STATS_STREAM_BIND_ADDRESS, port);
+	}
+
+	/**
+	 * @param bindAddress local address on which the APs connect.
+	 * @param port
+	 */
+	public StatsStreamServer(String bindAddress, int port) {
+		this.bindAddress = bindAddress;
+		this.port = port;
+	}
+
+	@Override
+	public void run() {
+		try {
+			selector = Selector.open();
+
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
+			serverChannel.configureBlocking(false);
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(bindAddress, port));
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+			log.info("StatsStreamServer: listening for AP statistics streams on " + bindAddress + ":" + port);
+		} catch (IOException e) {
+			log.error("StatsStreamServer: failed to listen on " + bindAddress + ":" + port + ": " + e.getMessage());
+			e.printStackTrace();
+			return;
+		}
+
+		while (true) {
+			try {
+				selector.select();
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+
+					if (!key.isValid()) {
+						continue;
+					}
+
+					if (key.isAcceptable()) {
+						accept((ServerSocketChannel) key.channel());
+					} else if (key.isReadable()) {
+						read(key);
+					}
+				}
+			} catch (Exception e) {
+				log.error("Error in StatsStreamServer thread: " + e);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void accept(ServerSocketChannel serverChannel) throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+
+		channel.configureBlocking(false);
+
+		InetAddress remoteAddress = channel.socket().getInetAddress();
+		int apId = CoapUtils.getTestApIdFromRemoteIp(remoteAddress.getHostAddress());
+		channel.register(selector, SelectionKey.OP_READ, new StreamConnection(apId, remoteAddress));
+
+		log.info("StatsStreamServer: AP " + apId + " subscribed from " + channel.socket().getRemoteSocketAddress());
+	}
+
+	private void read(SelectionKey key) {
+		SocketChannel channel = (SocketChannel) key.channel();
+		StreamConnection conn = (StreamConnection) key.attachment();
+
+		int bytesRead;
+		try {
+			readBuffer.clear();
+			bytesRead = channel.read(readBuffer);
+		} catch (IOException e) {
+			bytesRead = -1;
+		}
+
+		if (bytesRead < 0) {
+			close(key, conn);
+			return;
+		}
+
+		readBuffer.flip();
+		String data = ASCII.decode(readBuffer).toString();
+
+		int start = 0;
+		int end;
+		while ((end = data.indexOf('\n', start)) >= 0) {
+			conn.partialLine.append(data, start, end);
+			processLine(conn, conn.partialLine.toString().trim());
+			conn.partialLine.setLength(0);
+			start = end + 1;
+		}
+
+		conn.partialLine.append(data, start, data.length());
+		if (conn.partialLine.length() > CoapConstants.STATS_STREAM_MAX_LINE_LENGTH) {
+			log.warn("StatsStreamServer: line too long from AP " + conn.apId + ", closing the stream");
+			droppedRecords.incrementAndGet();
+			close(key, conn);
+		}
+	}
+
+	private void processLine(StreamConnection conn, final String line) {
+		if (line.isEmpty()) {
+			return;
+		}
+
+		if (line.startsWith(HELLO_MSG + ";")) {
+			int helloApId;
+			try {
+				helloApId = Integer.parseInt(line.substring(HELLO_MSG.length() + 1).trim());
+			} catch (NumberFormatException e) {
+				log.warn("StatsStreamServer: invalid hello message: " + line);
+				return;
+			}
+
+			if (helloApId != conn.apId && !conn.remoteAddress.isLoopbackAddress()) {
+				log.warn("StatsStreamServer: " + conn.remoteAddress + " (AP " + conn.apId +
+						") isn't allowed to stream the statistics of AP " + helloApId);
+				return;
+			}
+
+			conn.apId = helloApId;
+			return;
+		}
+
+		// Parse the record on the AP's shard of the ingest pipeline, so that a large record
+		// doesn't hold up the streams of the other APs.
+		final OFStatisticsType statType = getStreamedStatsType(line);
+		final int apId = conn.apId;
+
+		try {
+			CoapDataManager.getIngestPipeline().submit(apId, new Runnable() {
+				@Override
+				public void run() {
+					if (CoapDataManager.processStreamedDataString(line, apId) < 0) {
+						droppedRecords.incrementAndGet();
+						return;
+					}
+
+					streamedRecords.incrementAndGet();
+
+					if (statType != null) {
+						recordStreamed(apId, statType, System.currentTimeMillis());
+					}
+				}
+			});
+			conn.records ++;
+		} catch (RejectedExecutionException e) {
+			droppedRecords.incrementAndGet();
+		}
+	}
+
+	private void close(SelectionKey key, StreamConnection conn) {
+		log.info("StatsStreamServer: AP " + conn.apId + " stream closed after " + conn.records + " records");
+
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// Ignore.
+		}
+	}
+
+	/**
+	 * @param line
+	 * @return the polled statistics type replaced by the streamed record, null if none.
+	 */
+	private static OFStatisticsType getStreamedStatsType(String line) {
+		if (line.startsWith(CoapConstants.TRAFFICINFO_MSG + ";")) {
+			return OFStatisticsType.TRAFFICINFO;
+		}
+
+		// The utilhop records are only a part of the UTIL statistics, so UTIL is still polled.
+		return null;
+	}
+
+	private static void recordStreamed(int apId, OFStatisticsType statType, long currTs) {
+		long[] ts = lastStreamTs.get(apId);
+		if (ts == null) {
+			long[] newTs = new long[OFStatisticsType.values().length];
+			ts = lastStreamTs.putIfAbsent(apId, newTs);
+			if (ts == null) {
+				ts = newTs;
+			}
+		}
+
+		synchronized (ts) {
+			ts[statType.ordinal()] = currTs;
+		}
+	}
+
+	/**
+	 * Return the statistics types that the input AP has streamed recently, which don't need
+	 * to be polled. If the stream stops, the types are polled again after STATS_STREAM_STALE_MSEC.
+	 *
+	 * @param apId
+	 * @param currTs
+	 * @return bitmap of statistics types (1 << OFStatisticsType.ordinal()).
+	 */
+	public static long getStreamedStatsBitmap(int apId, long currTs) {
+		long[] ts = lastStreamTs.get(apId);
+		if (ts == null) {
+			return 0;
+		}
+
+		long bitmap = 0;
+		synchronized (ts) {
+			for (int i = 0; i < ts.length; i++) {
+				if (ts[i] > 0 && currTs - ts[i] < CoapConstants.STATS_STREAM_STALE_MSEC) {
+					bitmap |= (1 << i);
+				}
+			}
+		}
+
+		return bitmap;
+	}
+
+	/**
+	 * Forget the streamed statistics types of a disconnected AP, so that they are polled if it
+	 * reconnects without streaming.
+	 *
+	 * @param apId
+	 */
+	public static void removeAp(int apId) {
+		lastStreamTs.remove(apId);
+	}
+
+	public static long getStreamedRecords() {
+		return streamedRecords.get();
+	}
+
+	public static long getDroppedRecords() {
+		return droppedRecords.get();
+	}
+}
@@ -0,0 +1,277 @@
+package net.floodlightcontroller.core.coap.structs;
+
+/**
+ * Stores the recent airtime utilization samples (see AirtimeUtilStat) observed by a single COAP AP,
+ * in time order, as a ring buffer of primitive columns (ts, frequency, active, busy, recv, xmit and
+ * noise floor). Compared with a list of AirtimeUtilStat objects:
+ *   - A sample takes 32 bytes, without object headers or references.
+ *   - append() and the expiry of the oldest samples are O(1) per sample, no elements are shifted.
+ *   - The scans over the recent samples read contiguous arrays.
+ *
+ * The buffer grows (doubling) up to its capacity, then the oldest sample is overwritten by each
+ * new one. With a window, append() also expires the samples older than the window, so the series
+ * stays bounded by the window without periodic sweeps. The samples are indexed from 0 (oldest) to size() - 1 (most recent), e.g., the recent
+ * samples are scanned backwards with:
+ *   synchronized (series) {
+ *     for (int i = series.size() - 1; i >= 0 && series.getTs(i) >= fromTsSec; i--) { ... }
+ *   }
+ * The writers and the readers synchronize on the series. Alternatively, the readers scan a
+ * read-only copy of the series (see snapshot()) without any locking.
+ */
+public class AirtimeUtilSeries {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final int capacity;
+
+	// Samples older than the most recent one by more than windowSec are expired, if >= 0.
+	private final int windowSec;
+
+	private long[] ts;
+	private int[] frequency, activeTime, busyTime, recvTime, transmitTime, noiseFloor;
+
+	// Position of the oldest sample, number of samples.
+	private int head = 0, size = 0;
+
+	// Incremented on each update, the last snapshot is reused until the series changes.
+	private long version = 0;
+	private AirtimeUtilSeries snapshot = null;
+	private long snapshotVersion = -1;
+
+	private final boolean isReadOnly;
+
+	/**
+	 * @param capacity maximum number of samples, rounded up to a power of 2.
+	 */
+	public AirtimeUtilSeries(int capacity) {
+		this(capacity, -1);
+	}
+
+	/**
+	 * @param capacity maximum number of samples, rounded up to a power of 2.
+	 * @param windowSec time window (sec) of the samples, e.g., CoapConstants.INMEMORY_DATA_INTERVAL_SEC.
+	 */
+	public AirtimeUtilSeries(int capacity, int windowSec) {
+		int maxCapacity = INITIAL_CAPACITY;
+		while (maxCapacity < capacity) {
+			maxCapacity <<= 1;
+		}
+
+		this.capacity = maxCapacity;
+		this.windowSec = windowSec;
+		this.isReadOnly = false;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Read-only copy of the input series' samples. Only the samples are copied (unwrapped, in
+	 * arrays of the next power of 2), not the unused part of the buffer.
+	 */
+	private AirtimeUtilSeries(AirtimeUtilSeries series) {
+		capacity = series.capacity;
+		windowSec = series.windowSec;
+		isReadOnly = true;
+
+		int length = 1;
+		while (length < series.size) {
+			length <<= 1;
+		}
+
+		allocate(length);
+		int mask = series.ts.length - 1;
+		for (int i = 0; i < series.size; ++i) {
+			int pos = (series.head + i) & mask;
+			ts[i] = series.ts[pos];
+			frequency[i] = series.frequency[pos];
+			activeTime[i] = series.activeTime[pos];
+			busyTime[i] = series.busyTime[pos];
+			recvTime[i] = series.recvTime[pos];
+			transmitTime[i] = series.transmitTime[pos];
+			noiseFloor[i] = series.noiseFloor[pos];
+		}
+
+		head = 0;
+		size = series.size;
+	}
+
+	private void allocate(int length) {
+		ts = new long[length];
+		frequency = new int[length];
+		activeTime = new int[length];
+		busyTime = new int[length];
+		recvTime = new int[length];
+		transmitTime = new int[length];
+		noiseFloor = new int[length];
+	}
+
+	/**
+	 * Append the most recent sample. Overwrites the oldest sample if the series is full, and
+	 * expires the samples older than the window.
+	 *
+	 * @param stat
+	 */
+	public synchronized void append(AirtimeUtilStat stat) {
+		checkWritable();
+
+		if (windowSec >= 0 && size > 0 && ts[head] < stat.ts - windowSec) {
+			expire(stat.ts - windowSec - 1);
+		}
+
+		if (size == ts.length) {
+			if (ts.length < capacity) {
+				grow();
+			} else {
+				// Full, drop the oldest sample.
+				head = (head + 1) & (ts.length - 1);
+				size --;
+			}
+		}
+
+		int pos = (head + size) & (ts.length - 1);
+		ts[pos] = stat.ts;
+		frequency[pos] = stat.frequency;
+		activeTime[pos] = stat.activeTime;
+		busyTime[pos] = stat.busyTime;
+		recvTime[pos] = stat.recvTime;
+		transmitTime[pos] = stat.transmitTime;
+		noiseFloor[pos] = stat.noiseFloor;
+		size ++;
+		version ++;
+	}
+
+	private void grow() {
+		long[] oldTs = ts;
+		int[] oldFrequency = frequency, oldActiveTime = activeTime, oldBusyTime = busyTime,
+				oldRecvTime = recvTime, oldTransmitTime = transmitTime, oldNoiseFloor = noiseFloor;
+
+		allocate(2 * oldTs.length);
+
+		// Unwrap the samples, the oldest one moves to position 0.
+		int firstLength = Math.min(size, oldTs.length - head);
+		copy(oldTs, ts, firstLength);
+		copy(oldFrequency, frequency, firstLength);
+		copy(oldActiveTime, activeTime, firstLength);
+		copy(oldBusyTime, busyTime, firstLength);
+		copy(oldRecvTime, recvTime, firstLength);
+		copy(oldTransmitTime, transmitTime, firstLength);
+		copy(oldNoiseFloor, noiseFloor, firstLength);
+
+		head = 0;
+	}
+
+	private void copy(Object src, Object dst, int firstLength) {
+		System.arraycopy(src, head, dst, 0, firstLength);
+		System.arraycopy(src, 0, dst, firstLength, size - firstLength);
+	}
+
+	/**
+	 * Remove the samples up to the input timestamp, e.g., the samples older than the in-memory
+	 * window. Only the removed samples are visited.
+	 *
+	 * @param tsLimit
+	 * @return number of removed samples.
+	 */
+	public synchronized int expire(long tsLimit) {
+		checkWritable();
+
+		int cnt = 0;
+		int mask = ts.length - 1;
+		while (size > 0 && ts[head] <= tsLimit) {
+			head = (head + 1) & mask;
+			size --;
+			cnt ++;
+		}
+
+		if (cnt > 0) {
+			version ++;
+		}
+
+		return cnt;
+	}
+
+	/**
+	 * Read-only copy of the current samples, e.g., for the policies of the CoapManager. The copy
+	 * isn't affected by the later updates of the series and is read without locking. The same
+	 * copy is returned until the series is updated, then all the samples are copied again (32
+	 * bytes per sample, i.e., up to 128KB for 4096 samples), the samples aren't shared between
+	 * the copies.
+	 *
+	 * @return read-only series.
+	 */
+	public synchronized AirtimeUtilSeries snapshot() {
+		if (isReadOnly) {
+			return this;
+		}
+
+		if (snapshotVersion != version) {
+			snapshot = new AirtimeUtilSeries(this);
+			snapshotVersion = version;
+		}
+
+		return snapshot;
+	}
+
+	public boolean isReadOnly() {
+		return isReadOnly;
+	}
+
+	private void checkWritable() {
+		if (isReadOnly) {
+			throw new UnsupportedOperationException("AirtimeUtilSeries snapshot is read-only");
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return maximum number of samples.
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	private int pos(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+
+		return (head + i) & (ts.length - 1);
+	}
+
+	/**
+	 * @param i index of the sample, 0 is the oldest one.
+	 * @return timestamp (sec) of the sample.
+	 */
+	public long getTs(int i) {
+		return ts[pos(i)];
+	}
+
+	public int getFrequency(int i) {
+		return frequency[pos(i)];
+	}
+
+	public int getActiveTime(int i) {
+		return activeTime[pos(i)];
+	}
+
+	public int getBusyTime(int i) {
+		return busyTime[pos(i)];
+	}
+
+	public int getRecvTime(int i) {
+		return recvTime[pos(i)];
+	}
+
+	public int getTransmitTime(int i) {
+		return transmitTime[pos(i)];
+	}
+
+	public int getNoiseFloor(int i) {
+		return noiseFloor[pos(i)];
+	}
+}
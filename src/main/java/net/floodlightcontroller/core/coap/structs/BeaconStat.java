@@ -1,5 +1,7 @@
 package net.floodlightcontroller.core.coap.structs;
 
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
+
 /**
  * Store information about a beacon received from a neighboring AP.
  * 
@@ -7,15 +9,20 @@ package net.floodlightcontroller.core.coap.structs;
  *
  */
 public class BeaconStat {
-	public String apId;
+	// BSSID of the neighboring AP, encoded with StatsDictionary.encodeMac().
+	public long apMac;
 	public double avgRssi;
 	public int channel;
 	public long timestamp;
 	
 	public BeaconStat(String apId, double avgRssi, int channel, long timestamp) {
-		this.apId = apId;
+		this.apMac = StatsDictionary.encodeMac(apId);
 		this.avgRssi = avgRssi;
 		this.channel = channel;
 		this.timestamp = timestamp;
 	}
+	
+	public String getApId() {
+		return StatsDictionary.decodeMac(apMac);
+	}
 }
\ No newline at end of file
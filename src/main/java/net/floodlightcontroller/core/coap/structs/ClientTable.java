@@ -0,0 +1,165 @@
+package net.floodlightcontroller.core.coap.structs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import net.floodlightcontroller.core.coap.util.LongKeyMap;
+
+/**
+ * Table of the clients of a single COAP AP (e.g., StationStatsPerClient), indexed by a primitive
+ * client key: the encoded client MAC (StatsDictionary.encodeMac()) or the client's dictionary id.
+ *   - find() is a constant-time lookup, without boxing the key (see LongKeyMap).
+ *   - Each client gets a slot, in the order of arrival, so the clients are scanned with size()
+ *     and get(slot) as with the previous per-AP client lists. The slots only move when the idle
+ *     clients are removed (see removeIdle()), the remaining clients keep their order.
+ *
+ * Not thread-safe, the parsers and the readers synchronize on the table's map. The readers that
+ * shouldn't block the parsers (e.g., the policies of the CoapManager) scan a read-only copy of
+ * the table instead, see snapshot().
+ */
+public class ClientTable<C> {
+	/**
+	 * Copies a client for a snapshot of the table.
+	 */
+	public interface Copier<C> {
+		C copy(C client);
+	}
+
+	/**
+	 * Tells whether a client can be removed from the table, e.g., it has no statistics left.
+	 */
+	public interface IdleCheck<C> {
+		boolean isIdle(C client);
+	}
+
+	private ArrayList<C> slots = new ArrayList<C>();
+	private long[] slotKeys = new long[16];
+	private LongKeyMap<C> index = new LongKeyMap<C>();
+
+	// Incremented on each update, the last snapshot is reused until the table changes.
+	private long version = 0;
+	private ClientTable<C> snapshot = null;
+	private long snapshotVersion = -1;
+
+	/**
+	 * @param key
+	 * @return the client, null if not present.
+	 */
+	public C find(long key) {
+		return index.get(key);
+	}
+
+	/**
+	 * Add a new client.
+	 *
+	 * @param key
+	 * @param client
+	 * @return slot of the client.
+	 */
+	public int add(long key, C client) {
+		if (index.put(key, client) != null) {
+			throw new IllegalStateException("Client " + key + " is already present");
+		}
+
+		if (slots.size() == slotKeys.length) {
+			slotKeys = Arrays.copyOf(slotKeys, 2 * slotKeys.length);
+		}
+
+		slotKeys[slots.size()] = key;
+		slots.add(client);
+		version ++;
+		return slots.size() - 1;
+	}
+
+	/**
+	 * Remove the idle clients, so that the table and its snapshots don't keep growing with every
+	 * client ever seen by the AP.
+	 *
+	 * @param idleCheck
+	 * @return number of clients removed.
+	 */
+	public int removeIdle(IdleCheck<C> idleCheck) {
+		int size = slots.size();
+		int kept = 0;
+		for (int slot = 0; slot < size; ++slot) {
+			C client = slots.get(slot);
+			if (idleCheck.isIdle(client)) {
+				index.remove(slotKeys[slot]);
+				continue;
+			}
+
+			slots.set(kept, client);
+			slotKeys[kept] = slotKeys[slot];
+			kept ++;
+		}
+
+		if (kept == size) {
+			return 0;
+		}
+
+		slots.subList(kept, size).clear();
+		version ++;
+		return size - kept;
+	}
+
+	/**
+	 * Record an update of a client stored in the table (e.g., a new entry of its statistics), so
+	 * the next snapshot() includes it.
+	 */
+	public void markModified() {
+		version ++;
+	}
+
+	/**
+	 * @return number of clients.
+	 */
+	public int size() {
+		return slots.size();
+	}
+
+	/**
+	 * @param slot
+	 * @return client of the slot.
+	 */
+	public C get(int slot) {
+		return slots.get(slot);
+	}
+
+	/**
+	 * @param slot
+	 * @return key of the slot's client.
+	 */
+	public long keyAt(int slot) {
+		if (slot >= slots.size()) {
+			throw new IndexOutOfBoundsException("Slot: " + slot + ", Size: " + slots.size());
+		}
+
+		return slotKeys[slot];
+	}
+
+	/**
+	 * Copy of the table with a copy of each client, in the same slots. The caller holds the lock
+	 * of the table, the copy is then read without locking. The same copy is returned until the
+	 * table is updated (see add() and markModified()), so it must not be modified. After an
+	 * update, every client is copied again, not only the updated ones: the cost is a copy per
+	 * client, each sharing the client's older entries (e.g., see TimeBucketList.copy()). The
+	 * parsers remove the idle clients (see removeIdle()), so the cost is bounded by the clients
+	 * with statistics in the in-memory window.
+	 *
+	 * @param copier
+	 * @return copy of the table.
+	 */
+	public ClientTable<C> snapshot(Copier<C> copier) {
+		if (snapshotVersion != version) {
+			ClientTable<C> copy = new ClientTable<C>();
+			for (int slot = 0; slot < slots.size(); ++slot) {
+				copy.add(slotKeys[slot], copier.copy(slots.get(slot)));
+			}
+
+			snapshot = copy;
+			snapshotVersion = version;
+		}
+
+		return snapshot;
+	}
+}
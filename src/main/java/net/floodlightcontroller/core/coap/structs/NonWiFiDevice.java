@@ -28,8 +28,47 @@ public class NonWiFiDevice {
 	public int subbandFreq;
 	public boolean isInactive;
 
-	public String getKey() {
-		return startTs + " " + type + " " + subbandFreq;
+	/**
+	 * @return identity of the device's activity, see getKey(long, NonWiFiDeviceType, int).
+	 */
+	public long getKey() {
+		return getKey(startTs, type, subbandFreq);
+	}
+
+	/**
+	 * Packs the identity of a non-WiFi device's activity (startTs, type, subbandFreq) into a long,
+	 * so that the devices are tracked without building a string key per update:
+	 *   - bits 63-32: startTs (sec).
+	 *   - bits 31-24: type code (0xFF for an unknown type).
+	 *   - bits 23-0: subbandFreq (MHz).
+	 * 
+	 * @param startTs
+	 * @param type may be null.
+	 * @param subbandFreq
+	 * @return key of the device.
+	 */
+	public static long getKey(long startTs, NonWiFiDeviceType type, int subbandFreq) {
+		long typeCode = type == null ? 0xFF : type.getValue() & 0xFF;
+		return (startTs << 32) | (typeCode << 24) | (subbandFreq & 0xFFFFFFL);
+	}
+
+	/**
+	 * Merge a newer report of the same device's activity (same key), in place.
+	 */
+	public void update(long timeStamp, long endTs, long duration, double rssi,
+			int startFreq, int centerFreq, int endFreq) {
+		this.timeStamp = timeStamp;
+
+		this.endTs = endTs;
+		this.duration = duration;
+
+		this.rssi = rssi;
+
+		this.startFreq = startFreq;
+		this.centerFreq = centerFreq;
+		this.endFreq = endFreq;
+
+		this.isInactive = false;
 	}
 
 	@Override
@@ -31,4 +31,8 @@ public class PassiveStats {
 	public int packetRetries;
 	public String rateString;
 	public int channel;
+	
+	// Link of the statistics, encoded with StatsDictionary.encodeMac().
+	public long senderMac, receiverMac;
+	public long ts;
 }
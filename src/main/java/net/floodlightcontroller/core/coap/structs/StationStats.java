@@ -1,7 +1,10 @@
 package net.floodlightcontroller.core.coap.structs;
 
+import java.util.Arrays;
 import java.util.HashMap;
 
+import net.floodlightcontroller.core.coap.util.StatsTokenizer;
+
 /**
  * Stores a single instance of the aggregate statistics about a client's MAC layer activity 
  * (e.g., aggregate activity over a 10 second duration).
@@ -25,10 +28,35 @@ public class StationStats {
 			put("MCS14", 117.0); put("MCS15", 130.0);}};
 	
 	public long ts;
+	// Client MAC, encoded with StatsDictionary.encodeMac().
+	public long clientMac;
 	public int packetCount;
 	public int packetRetries;
 	public String rateString;
 	
+	/**
+	 * The rate string ("rate@success@attempts#...") parsed into (rate, success, attempts) tuples, 
+	 * with the retry rate and average rate precomputed. Immutable, so that it can be shared by 
+	 * the threads querying the statistics.
+	 */
+	private static final class RateSummary {
+		final String rateString;
+		
+		// rate, success, attempts of the i-th bucket at [3 * i], [3 * i + 1], [3 * i + 2].
+		final double[] rateTuples;
+		final Pair<Double, Double> averageRateRetry;
+		
+		RateSummary(String rateString, double[] rateTuples, Pair<Double, Double> averageRateRetry) {
+			this.rateString = rateString;
+			this.rateTuples = rateTuples;
+			this.averageRateRetry = averageRateRetry;
+		}
+	}
+	
+	private static final double[] NO_RATES = new double[0];
+	
+	private RateSummary rateSummary;
+	
 	public StationStats() {
 	}
 
@@ -38,43 +66,166 @@ public class StationStats {
 		this.packetCount = packetCount;
 		this.packetRetries = packetRetries;
 		this.rateString = rateString;
+		
+		// Parse once at ingest. A malformed rate string is reported when it's queried.
+		try {
+			getRateSummary();
+		} catch (NumberFormatException e) {
+			rateSummary = null;
+		}
 	}
 
 	/**
 	 * Return a tuple containing information about the client's MAC layer retry rate ((retriedPackets / totalPackets)
 	 * and the average data rate over of all MAC layer packet transmissions. 
 	 * 
+	 * The rate string is parsed only once (when the statistics are created or the rate string is replaced),
+	 * repeated queries return the precomputed tuple. 
+	 * 
 	 * @return
 	 */
 	public Pair<Double, Double> getAverageRateRetry() {
-		String[] contents = rateString.split("#");
+		return getRateSummary().averageRateRetry;
+	}
+	
+	/**
+	 * @return MAC layer retry rate (retriedPackets / totalPackets), 0.0 if no packets were transmitted.
+	 */
+	public double getRetryRate() {
+		return getRateSummary().averageRateRetry.fst;
+	}
+	
+	/**
+	 * @return average data rate of all MAC layer packet transmissions, UNKNOWN_RATE if no packets were transmitted.
+	 */
+	public double getAverageRate() {
+		return getRateSummary().averageRateRetry.snd;
+	}
+	
+	/**
+	 * @return number of (rate, success, attempts) buckets in the rate string.
+	 */
+	public int getRateCount() {
+		return getRateSummary().rateTuples.length / 3;
+	}
+	
+	public double getRate(int i) {
+		return getRateSummary().rateTuples[3 * i];
+	}
+	
+	public double getSuccessCount(int i) {
+		return getRateSummary().rateTuples[3 * i + 1];
+	}
+	
+	public double getAttemptCount(int i) {
+		return getRateSummary().rateTuples[3 * i + 2];
+	}
+	
+	private RateSummary getRateSummary() {
+		RateSummary summary = rateSummary;
+		
+		// Re-parse only if the rate string was replaced.
+		if (summary == null || summary.rateString != rateString) {
+			summary = parseRateString(rateString);
+			rateSummary = summary;
+		}
+		
+		return summary;
+	}
+	
+	/**
+	 * Parse the rate string ("rate@success@attempts#...") in a single pass.
+	 * 
+	 * @param rateString
+	 * @return parsed rate tuples and the precomputed retry/average rate.
+	 * @throws NumberFormatException for a malformed rate string.
+	 */
+	private RateSummary parseRateString(String rateString) {
+		if (rateString == null || rateString.isEmpty()) {
+			return new RateSummary(rateString, NO_RATES, new Pair<Double, Double>(0.0, UNKNOWN_RATE));
+		}
+		
+		int numBuckets = 1;
+		for (int i = 0; i < rateString.length(); ++i) {
+			if (rateString.charAt(i) == '#') {
+				numBuckets ++;
+			}
+		}
+		
+		double[] rateTuples = new double[3 * numBuckets];
 		double totalPackets = 0, retriedPackets = 0, totalRate = 0;
-
-		for (int i = 0; i < contents.length; i++) {
-		      String[] temp_contents = contents[i].split("@");
-		      totalPackets += Double.parseDouble(temp_contents[2]);
-		      retriedPackets += (Double.parseDouble(temp_contents[2]) - Double.parseDouble(temp_contents[1]));
-
-		      
-		      // TODO: Not using goodput - Data rate for successful packets.
-		      // totalRate += (Double.parseDouble(temp_contents[0]) * Double.parseDouble(temp_contents[1])); // Data rate for successful packets.
-		      // Data rate for all packets.
-		      totalRate += (Double.parseDouble(temp_contents[0]) * Double.parseDouble(temp_contents[2])); // Data rate for successful packets.
+		int start = 0, cnt = 0;
+		
+		for (int i = 0; i < numBuckets; ++i) {
+			int end = rateString.indexOf('#', start);
+			if (end < 0) {
+				end = rateString.length();
+			}
+			
+			if (end == start) {
+				// Empty bucket (e.g., trailing '#'), skipped like String.split().
+				start = end + 1;
+				continue;
+			}
+			
+			int successStart = rateString.indexOf('@', start) + 1;
+			int attemptsStart = successStart > 0 ? rateString.indexOf('@', successStart) + 1 : 0;
+			if (successStart <= 0 || successStart > end || attemptsStart <= 0 || attemptsStart > end) {
+				throw new NumberFormatException("Invalid rate bucket: " + rateString.substring(start, end));
+			}
+			
+			int attemptsEnd = rateString.indexOf('@', attemptsStart);
+			if (attemptsEnd < 0 || attemptsEnd > end) {
+				attemptsEnd = end;
+			}
+			
+			double rate = parseDouble(rateString, start, successStart - 1);
+			double success = parseDouble(rateString, successStart, attemptsStart - 1);
+			double attempts = parseDouble(rateString, attemptsStart, attemptsEnd);
+			
+			rateTuples[3 * cnt] = rate;
+			rateTuples[3 * cnt + 1] = success;
+			rateTuples[3 * cnt + 2] = attempts;
+			cnt ++;
+			
+			totalPackets += attempts;
+			retriedPackets += (attempts - success);
+			
+			// TODO: Not using goodput - Data rate for successful packets.
+			// totalRate += rate * success; // Data rate for successful packets.
+			// Data rate for all packets.
+			totalRate += rate * attempts;
+			
+			start = end + 1;
+		}
+		
+		if (cnt < numBuckets) {
+			rateTuples = Arrays.copyOf(rateTuples, 3 * cnt);
 		}
 		
 		if (totalPackets > 0) {
-		    /*
-		    goodput_rate = 0.0
-		    if rate_packets > 0:
-		      goodput_rate = total_rate * 1.0 / total_packets
-		    }
-		    */
-
 			// TODO: Not using goodput.
-			return new Pair<Double, Double>(retriedPackets / totalPackets,
-					totalRate / totalPackets);
-	    }
+			return new RateSummary(rateString, rateTuples, 
+					new Pair<Double, Double>(retriedPackets / totalPackets, totalRate / totalPackets));
+		}
+		
+		return new RateSummary(rateString, rateTuples, new Pair<Double, Double>(0.0, UNKNOWN_RATE));
+	}
+	
+	/**
+	 * @param str
+	 * @param start
+	 * @param end
+	 * @return the number in str[start, end), parsed without a substring for integral values.
+	 */
+	private static double parseDouble(String str, int start, int end) {
+		for (int i = start; i < end; ++i) {
+			char c = str.charAt(i);
+			if ((c < '0' || c > '9') && !(i == start && c == '-')) {
+				return Double.parseDouble(str.substring(start, end));
+			}
+		}
 		
-		return new Pair<Double, Double>(0.0, UNKNOWN_RATE);
+		return StatsTokenizer.parseLong(str, start, end);
 	}
-}
\ No newline at end of file
+}
@@ -1,7 +1,5 @@
 package net.floodlightcontroller.core.coap.structs;
 
-import java.util.ArrayList;
-
 /**
  * Stores the time-series information about a client's MAC layer WiFi activity.
  *   
@@ -9,6 +7,18 @@ import java.util.ArrayList;
  *
  */
 public class StationStatsPerClient {
-	public String clientId;
-	public ArrayList<StationStats> statsList;
+	// Encoded with StatsDictionary.encodeMac().
+	public long clientMac;
+	public TimeBucketList<StationStats> statsList;
+
+	/**
+	 * @return copy of the client with its own list of the (shared) statistics entries, see
+	 * TimeBucketList.copy().
+	 */
+	public StationStatsPerClient copy() {
+		StationStatsPerClient copy = new StationStatsPerClient();
+		copy.clientMac = clientMac;
+		copy.statsList = statsList.copy();
+		return copy;
+	}
 }
\ No newline at end of file
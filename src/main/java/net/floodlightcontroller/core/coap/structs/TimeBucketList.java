@@ -0,0 +1,167 @@
+package net.floodlightcontroller.core.coap.structs;
+
+import java.util.ArrayList;
+
+/**
+ * Time-ordered list of the recent statistics entries of a client (e.g., StationStats), split in
+ * buckets of a fixed time slice (see CoapConstants.INMEMORY_BUCKET_SEC):
+ *   - The expiry drops whole buckets, the remaining entries aren't shifted (unlike removing the
+ *     head of an ArrayList) and only the dropped buckets are visited.
+ *   - add() expires the buckets older than the in-memory window on the fly, when a new bucket is
+ *     opened, so the list of an active client stays bounded without periodic sweeps.
+ *   - A copy (see copy()) shares the full buckets, only the most recent one is copied.
+ *
+ * An entry is kept until its bucket expires, i.e., up to one time slice longer than the window.
+ * The entries are indexed from 0 (oldest) to size() - 1 (most recent).
+ *
+ * Not thread-safe, see ClientTable.
+ */
+public class TimeBucketList<T> {
+
+	/**
+	 * Entries of a time slice. Only the most recent bucket of a list is updated.
+	 */
+	private static class Bucket<T> {
+		final long slice;
+		long maxTs = Long.MIN_VALUE;
+		final ArrayList<T> entries;
+
+		Bucket(long slice, ArrayList<T> entries) {
+			this.slice = slice;
+			this.entries = entries;
+		}
+	}
+
+	private final int bucketSec;
+	private final int windowSec;
+
+	private ArrayList<Bucket<T>> buckets = new ArrayList<Bucket<T>>();
+	private int size = 0;
+
+	/**
+	 * @param bucketSec time slice (sec) of a bucket.
+	 * @param windowSec entries older than the most recent one by more than windowSec are expired.
+	 */
+	public TimeBucketList(int bucketSec, int windowSec) {
+		if (bucketSec <= 0) {
+			throw new IllegalArgumentException("TimeBucketList bucket duration must be positive: " + bucketSec);
+		}
+
+		this.bucketSec = bucketSec;
+		this.windowSec = windowSec;
+	}
+
+	/**
+	 * Append the most recent entry. An entry older than the most recent bucket is added to the
+	 * most recent bucket, the list stays in the order of arrival.
+	 *
+	 * @param ts timestamp (sec) of the entry.
+	 * @param entry
+	 */
+	public void add(long ts, T entry) {
+		long slice = ts / bucketSec;
+
+		Bucket<T> last = buckets.isEmpty() ? null : buckets.get(buckets.size() - 1);
+		boolean isNewBucket = last == null || slice > last.slice;
+		if (isNewBucket) {
+			last = new Bucket<T>(slice, new ArrayList<T>());
+			buckets.add(last);
+		}
+
+		last.entries.add(entry);
+		last.maxTs = Math.max(last.maxTs, ts);
+		size ++;
+
+		if (isNewBucket) {
+			expire(ts - windowSec);
+		}
+	}
+
+	/**
+	 * Remove the buckets of the entries up to the input timestamp. The most recent bucket is
+	 * never removed by add().
+	 *
+	 * @param tsLimit
+	 * @return number of removed entries.
+	 */
+	public int expire(long tsLimit) {
+		int numExpired = 0;
+		while (numExpired < buckets.size() && buckets.get(numExpired).maxTs <= tsLimit) {
+			numExpired ++;
+		}
+
+		if (numExpired == 0) {
+			return 0;
+		}
+
+		int cnt = 0;
+		for (int i = 0; i < numExpired; ++i) {
+			cnt += buckets.get(i).entries.size();
+		}
+
+		buckets.subList(0, numExpired).clear();
+		size -= cnt;
+		return cnt;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param i index of the entry, 0 is the oldest one.
+	 * @return the entry.
+	 */
+	public T get(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+
+		// The recent entries are usually read, search from the most recent bucket.
+		int bucketEnd = size;
+		for (int b = buckets.size() - 1; b >= 0; b--) {
+			ArrayList<T> entries = buckets.get(b).entries;
+			int bucketStart = bucketEnd - entries.size();
+			if (i >= bucketStart) {
+				return entries.get(i - bucketStart);
+			}
+
+			bucketEnd = bucketStart;
+		}
+
+		throw new IllegalStateException("TimeBucketList size mismatch");
+	}
+
+	/**
+	 * @return timestamp (sec) of the most recent entry, Long.MIN_VALUE if empty.
+	 */
+	public long getMaxTs() {
+		return buckets.isEmpty() ? Long.MIN_VALUE : buckets.get(buckets.size() - 1).maxTs;
+	}
+
+	/**
+	 * @return copy of the list, not affected by the later updates of this list.
+	 */
+	public TimeBucketList<T> copy() {
+		TimeBucketList<T> copy = new TimeBucketList<T>(bucketSec, windowSec);
+		copy.buckets.ensureCapacity(buckets.size());
+		for (int b = 0; b < buckets.size(); ++b) {
+			Bucket<T> bucket = buckets.get(b);
+			if (b == buckets.size() - 1) {
+				// Only the most recent bucket is updated afterwards.
+				Bucket<T> lastCopy = new Bucket<T>(bucket.slice, new ArrayList<T>(bucket.entries));
+				lastCopy.maxTs = bucket.maxTs;
+				bucket = lastCopy;
+			}
+
+			copy.buckets.add(bucket);
+		}
+
+		copy.size = size;
+		return copy;
+	}
+}
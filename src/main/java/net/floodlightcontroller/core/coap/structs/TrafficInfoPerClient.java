@@ -1,6 +1,6 @@
 package net.floodlightcontroller.core.coap.structs;
 
-import java.util.ArrayList;
+import net.floodlightcontroller.core.coap.util.CoapConstants;
 
 /**
  * Stores time-series data about a client's traffic usage activity. 
@@ -10,9 +10,25 @@ import java.util.ArrayList;
  */
 public class TrafficInfoPerClient {
 	public TrafficInfoPerClient() {
-		statsList = new ArrayList<TrafficInfoStat>();
+		this(new TimeBucketList<TrafficInfoStat>(CoapConstants.INMEMORY_BUCKET_SEC,
+				CoapConstants.INMEMORY_DATA_INTERVAL_SEC));
 	}
 
-	public String clientId;
-	public ArrayList<TrafficInfoStat> statsList;
+	private TrafficInfoPerClient(TimeBucketList<TrafficInfoStat> statsList) {
+		this.statsList = statsList;
+	}
+
+	// StatsDictionary.CLIENT_IDS id.
+	public int clientId;
+	public TimeBucketList<TrafficInfoStat> statsList;
+
+	/**
+	 * @return copy of the client with its own list of the (shared) statistics entries, see
+	 * TimeBucketList.copy().
+	 */
+	public TrafficInfoPerClient copy() {
+		TrafficInfoPerClient copy = new TrafficInfoPerClient(statsList.copy());
+		copy.clientId = clientId;
+		return copy;
+	}
 }
\ No newline at end of file
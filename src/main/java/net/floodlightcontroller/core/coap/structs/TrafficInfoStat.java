@@ -1,8 +1,13 @@
 package net.floodlightcontroller.core.coap.structs;
 
+import net.floodlightcontroller.core.coap.util.StatsDictionary;
+
 /**
  * Represents a client's (clientId) traffic activity from a single source (srcIp, type) 
  * 
+ * The identifiers and labels are dictionary encoded (see StatsDictionary), since the same values 
+ * are repeated across the records kept in memory. Use the getters for the string values.
+ * 
  * @author "Ashish Patro"
  *
  */
@@ -10,10 +15,39 @@ public class TrafficInfoStat {
 	
 	public long ts;
 	public int packetCount, numBytes, packetRetries;
-	public String trafficId, type, tid, trafficInfo; // E.g., netflix, youtube
+	public String trafficId;
+	
+	// StatsDictionary.LABELS ids, e.g., "TCP", "google", "google_inc.^us" (netflix, youtube).
+	public int type, tid, trafficInfo;
 	
-	public String clientId;
+	// StatsDictionary.CLIENT_IDS id.
+	public int clientId;
 	
-	public String srcIp, dstIp;
+	// StatsDictionary tokens.
+	public long srcIp, dstIp;
 	public int srcPort, dstPort;
+	
+	public String getType() {
+		return StatsDictionary.LABELS.getString(type);
+	}
+	
+	public String getTid() {
+		return StatsDictionary.LABELS.getString(tid);
+	}
+	
+	public String getTrafficInfo() {
+		return StatsDictionary.LABELS.getString(trafficInfo);
+	}
+	
+	public String getClientId() {
+		return StatsDictionary.CLIENT_IDS.getString(clientId);
+	}
+	
+	public String getSrcIp() {
+		return StatsDictionary.decodeToken(srcIp);
+	}
+	
+	public String getDstIp() {
+		return StatsDictionary.decodeToken(dstIp);
+	}
 }
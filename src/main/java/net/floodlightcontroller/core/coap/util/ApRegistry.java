@@ -0,0 +1,196 @@
+package net.floodlightcontroller.core.coap.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.IOFSwitchListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains the mapping between the COAP AP identifiers (apId) and the OpenFlow datapath IDs
+ * (dpid) of the connected APs. The mapping is updated only when an AP connects or disconnects
+ * (as an IOFSwitchListener), and can be looked up in both directions without locking from
+ * any thread.
+ *
+ * The generation counter is incremented on every change, so that consumers caching the set
+ * of APs can cheaply check whether it changed. The modules keeping per-AP state register a
+ * Listener to reset or drop it when an AP connects or disconnects.
+ */
+public class ApRegistry implements IOFSwitchListener {
+
+	// Logger.
+	protected static Logger log =
+			LoggerFactory.getLogger(ApRegistry.class);
+
+	/**
+	 * Notified when an AP connects or disconnects, under the registry's lock.
+	 */
+	public interface Listener {
+		/**
+		 * @param apId AP that (re)connected.
+		 */
+		void apConnected(int apId);
+
+		/**
+		 * @param apId AP that disconnected, or whose mapping was replaced by a new connection.
+		 */
+		void apDisconnected(int apId);
+	}
+
+	private static ApRegistry instance = new ApRegistry();
+
+	private CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private ConcurrentHashMap<Integer, Long> apIdToDpid = new ConcurrentHashMap<Integer, Long>();
+	private ConcurrentHashMap<Long, Integer> dpidToApId = new ConcurrentHashMap<Long, Integer>();
+
+	private AtomicLong generation = new AtomicLong(0);
+
+	/**
+	 * @return the registry instance.
+	 */
+	public static ApRegistry getInstance() {
+		return instance;
+	}
+
+	private ApRegistry() {
+	}
+
+	/**
+	 * Register as a switch listener and add the APs that are already connected.
+	 *
+	 * @param floodlightProvider
+	 */
+	public synchronized void init(IFloodlightProviderService floodlightProvider) {
+		floodlightProvider.removeOFSwitchListener(this);
+		floodlightProvider.addOFSwitchListener(this);
+
+		for (IOFSwitch sw: floodlightProvider.getAllSwitchMap().values()) {
+			addedSwitch(sw);
+		}
+	}
+
+	/**
+	 * @param listener
+	 */
+	public void addListener(Listener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @param apId
+	 * @return OpenFlow datapath ID of the AP, -1 if the AP isn't connected.
+	 */
+	public long getDpid(int apId) {
+		Long dpid = apIdToDpid.get(apId);
+		return dpid == null ? -1 : dpid;
+	}
+
+	/**
+	 * @param dpid
+	 * @return apId of the AP with the input datapath ID, -1 if the AP isn't connected.
+	 */
+	public int getApId(long dpid) {
+		Integer apId = dpidToApId.get(dpid);
+		return apId == null ? -1 : apId;
+	}
+
+	/**
+	 * @return read-only view of apId -> dpid for the connected APs.
+	 */
+	public Map<Integer, Long> getApIdToDpidMap() {
+		return Collections.unmodifiableMap(apIdToDpid);
+	}
+
+	/**
+	 * @return counter incremented on every change of the registry.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	@Override
+	public synchronized void addedSwitch(IOFSwitch sw) {
+		if (sw.getInetAddress() == null) {
+			return;
+		}
+
+		long dpid = sw.getId();
+		int apId = CoapUtils.getTestApIdFromRemoteIp(sw.getInetAddress().toString());
+
+		// Drop a stale mapping of the AP (e.g., reconnected with a different dpid) or of the dpid.
+		Long oldDpid = apIdToDpid.put(apId, dpid);
+		if (oldDpid != null && oldDpid != dpid) {
+			dpidToApId.remove(oldDpid, apId);
+		}
+
+		Integer oldApId = dpidToApId.put(dpid, apId);
+		if (oldApId != null && oldApId != apId && apIdToDpid.remove(oldApId, dpid)) {
+			notifyDisconnected(oldApId);
+		}
+
+		// The disconnection of the AP's previous connection may not have been reported yet. The
+		// same dpid being added again (e.g., by init() and the switch listener) isn't one.
+		if (oldDpid != null && oldDpid != dpid) {
+			notifyDisconnected(apId);
+		}
+
+		generation.incrementAndGet();
+		log.info("ApRegistry: AP " + apId + " connected with dpid " + dpid);
+
+		for (Listener listener: listeners) {
+			try {
+				listener.apConnected(apId);
+			} catch (Exception e) {
+				log.error("ApRegistry: listener failed for AP " + apId, e);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void removedSwitch(IOFSwitch sw) {
+		long dpid = sw.getId();
+
+		Integer apId = dpidToApId.remove(dpid);
+		if (apId == null) {
+			return;
+		}
+
+		apIdToDpid.remove(apId, dpid);
+
+		generation.incrementAndGet();
+		log.info("ApRegistry: AP " + apId + " with dpid " + dpid + " disconnected");
+
+		notifyDisconnected(apId);
+	}
+
+	private void notifyDisconnected(int apId) {
+		for (Listener listener: listeners) {
+			try {
+				listener.apDisconnected(apId);
+			} catch (Exception e) {
+				log.error("ApRegistry: listener failed for AP " + apId, e);
+			}
+		}
+	}
+
+	@Override
+	public void switchPortChanged(Long switchId) {
+	}
+
+	@Override
+	public String getName() {
+		return "coapApRegistry";
+	}
+}
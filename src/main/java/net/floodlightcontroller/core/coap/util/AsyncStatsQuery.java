@@ -0,0 +1,155 @@
+package net.floodlightcontroller.core.coap.util;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.floodlightcontroller.core.IOFSwitch;
+
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handle for a statistics query sent asynchronously to a COAP AP. The query is completed
+ * by the StatsQueryDispatcher, which invokes the query's callback exactly once.
+ */
+public class AsyncStatsQuery {
+	
+	// Logger.
+	protected static Logger log = 
+			LoggerFactory.getLogger(AsyncStatsQuery.class);
+	
+	private IOFSwitch sw;
+	private OFStatisticsType statType;
+	private Future<List<OFStatistics>> future;
+	private StatsQueryCallback callback;
+	
+	private long sendTs;
+	private long deadline;
+	
+	// Next completion check by the StatsQueryDispatcher, and the delay until the following one.
+	private long nextCheckTs;
+	private long checkIntervalMs = StatsQueryDispatcher.DISPATCH_INTERVAL_MSEC;
+	
+	private AtomicBoolean completed = new AtomicBoolean(false);
+	
+	public AsyncStatsQuery(IOFSwitch sw, OFStatisticsType statType, 
+			Future<List<OFStatistics>> future, long timeoutMs, StatsQueryCallback callback) {
+		this.sw = sw;
+		this.statType = statType;
+		this.future = future;
+		this.callback = callback;
+		
+		this.sendTs = System.currentTimeMillis();
+		this.deadline = sendTs + timeoutMs;
+		this.nextCheckTs = Math.min(sendTs + checkIntervalMs, deadline);
+	}
+	
+	public IOFSwitch getSwitch() {
+		return sw;
+	}
+	
+	public OFStatisticsType getStatType() {
+		return statType;
+	}
+	
+	public long getSendTs() {
+		return sendTs;
+	}
+	
+	public long getDeadline() {
+		return deadline;
+	}
+	
+	long getNextCheckTs() {
+		return nextCheckTs;
+	}
+	
+	/**
+	 * Back off the next completion check, without passing the deadline. Called by the
+	 * StatsQueryDispatcher thread for a query that is still pending.
+	 * 
+	 * @param currTs
+	 */
+	void scheduleNextCheck(long currTs) {
+		checkIntervalMs = Math.min(2 * checkIntervalMs, StatsQueryDispatcher.DISPATCH_MAX_INTERVAL_MSEC);
+		nextCheckTs = Math.max(currTs, Math.min(currTs + checkIntervalMs, deadline));
+	}
+	
+	public boolean isCompleted() {
+		return completed.get();
+	}
+	
+	/**
+	 * Cancel the query. The callback is notified with a CancellationException if the
+	 * query was still pending.
+	 * 
+	 * @return True, if the query was still pending.
+	 */
+	public boolean cancel() {
+		if (!completed.compareAndSet(false, true)) {
+			return false;
+		}
+		
+		future.cancel(true);
+		notifyFailed(new CancellationException("Query cancelled"));
+		return true;
+	}
+	
+	/**
+	 * Complete the query if the reply was received or the deadline has passed. Called
+	 * by the StatsQueryDispatcher thread.
+	 * 
+	 * @param currTs
+	 * @return True, if the query is no longer pending.
+	 */
+	boolean checkCompletion(long currTs) {
+		if (completed.get()) {
+			return true;
+		}
+		
+		if (future.isDone()) {
+			if (!completed.compareAndSet(false, true)) {
+				return true;
+			}
+			
+			List<OFStatistics> values;
+			try {
+				values = future.get();
+			} catch (Exception e) {
+				notifyFailed(e);
+				return true;
+			}
+			
+			try {
+				callback.statsReceived(sw, statType, values);
+			} catch (Exception e) {
+				log.error("Error in statsReceived callback for switch " + sw + " " + statType, e);
+			}
+			return true;
+		}
+		
+		if (currTs >= deadline) {
+			if (completed.compareAndSet(false, true)) {
+				future.cancel(true);
+				notifyFailed(new TimeoutException(statType + " query timed out after " + 
+						(currTs - sendTs) + " ms"));
+			}
+			return true;
+		}
+		
+		return false;
+	}
+	
+	private void notifyFailed(Throwable cause) {
+		try {
+			callback.statsFailed(sw, statType, cause);
+		} catch (Exception e) {
+			log.error("Error in statsFailed callback for switch " + sw + " " + statType, e);
+		}
+	}
+}
@@ -73,7 +73,39 @@ public class CoapConstants {
 	 *  StatsManager related constants
 	 */
 	public static final int DATA_POLL_FREQUENCY_MSEC = USE_DEBUG ? 3 * 1000 : 10 * 1000;
-	
+
+	public static final int STATS_POLL_THREAD_POOL_SIZE = 16; // Long-lived threads used to poll the APs.
+	public static final int STATS_POLL_QUEUE_LENGTH = 4096; // Max AP polls waiting for a poll thread.
+	public static final int STATS_POLL_TIMEOUT_MSEC = 12 * 1000; // Hard timeout for an AP poll to finish before it's abandoned.
+	public static final int STATS_INGEST_SHARDS = Math.max(2, Runtime.getRuntime().availableProcessors()); // Threads parsing the stats, APs are sharded across them.
+	public static final int STATS_INGEST_QUEUE_LENGTH = 1024; // Max AP polls/streamed records waiting in a single shard.
+	public static final int STATS_MAX_INFLIGHT_QUERIES = 2048; // Max stats queries without a reply across all APs.
+	public static final int STATS_QUERY_TIMEOUT_MSEC = 10 * 1000; // Timeout for a single AP to reply to a stats query.
+	public static final boolean USE_CONCURRENT_STATS_QUERIES = true; // Send all stats queries to an AP back-to-back.
+	public static final boolean USE_ASYNC_STATS_QUERIES = true; // Don't block a poll thread while an AP replies.
+	
+	public static final int POLL_SCHEDULER_TICK_MSEC = 250; // Granularity of the per-AP, per-stat poll scheduler (poll slots).
+	public static final double POLL_ACTIVITY_CHANGE_THRESHOLD = 0.2; // Relative change in activity that speeds up polling.
+	public static final boolean USE_INCREMENTAL_STATS_PULL = true; // Only pull new STATION and TRAFFICINFO records.
+	public static final int STATS_CURSOR_MARGIN_SEC = 5; // Extra seconds requested before an AP's cursor, against clock drift.
+	public static final boolean USE_STATS_DEDUP = true; // Drop the records already received from an AP in a previous poll.
+	public static final int STATS_DEDUP_WINDOW_SEC = 120; // Records older than an AP's most recent record by more are dropped.
+	
+	public static final boolean USE_STATS_STREAMING = false; // Accept statistics streamed by the APs.
+	public static final int STATS_STREAM_PORT = 6699; // Port used by the APs to stream statistics.
+	public static final String STATS_STREAM_BIND_ADDRESS = "127.0.0.1"; // Address of the stream server, e.g., the AP network's interface.
+	public static final int STATS_STREAM_BUFFER_LENGTH = 16 * 1024; // Read buffer of the stream server.
+	public static final int STATS_STREAM_MAX_LINE_LENGTH = 64 * 1024; // Max length of a streamed record.
+	public static final int STATS_STREAM_STALE_MSEC = 3 * DATA_POLL_FREQUENCY_MSEC; // Resume polling after a silent stream.
+	
+	public static final int DIAGNOSTIC_PORT = 8777; // AP's ControlSocket port for the diagnostic statistics.
+	public static final int DIAGNOSTIC_CONNECT_TIMEOUT_MSEC = 2000; // Timeout for connecting to an AP.
+	public static final int DIAGNOSTIC_READ_TIMEOUT_MSEC = 5000; // Timeout for an AP to send the diagnostic statistics.
+	public static final int DIAGNOSTIC_BANNER_WAIT_MSEC = 200; // Wait for the ControlSocket banner after connecting.
+	public static final int DIAGNOSTIC_BANNER_RECHECK_MSEC = 60000; // Wait for the banner again after a missing banner.
+	public static final int DIAGNOSTIC_MAX_IDLE_CONNECTIONS = 2; // Pooled connections per AP.
+	public static final int DIAGNOSTIC_BUFFER_LENGTH = 8 * 1024; // Read buffer per connection.
+
 	/**
 	 *  COAPManager related constants. Contains values for running COAP in experimental and production mode.
 	 */
@@ -85,6 +117,10 @@ public class CoapConstants {
 	public static int MIN_CHECKUTILS_ENTRIES = USE_DEBUG ? 1 : 3;
 	
 	public static int INMEMORY_DATA_INTERVAL_SEC = 1200;
+	public static int INMEMORY_BUCKET_SEC = 60; // Time slice of the in-memory entries expired at once (see TimeBucketList).
+	public static int INMEMORY_EVICTION_INTERVAL_SEC = 60; // Interval of the eviction of the idle APs/clients' in-memory data.
+	public static int DICTIONARY_EVICTION_INTERVAL_SEC = INMEMORY_DATA_INTERVAL_SEC; // Unused StatsDictionary strings are evicted after an interval.
+	public static int UTIL_SERIES_CAPACITY = 4096; // Max utilization samples kept in memory per AP (see AirtimeUtilSeries).
 	public static int DEFAULT_INACTIVE_DURATION_SEC = 1000;
 	public static int INACTIVE_PACKET_COUNT_THESHOLD = USE_DEBUG ? 500 : 200;
 	public static int INACTIVE_SEARCH_INTERVAL_SEC = USE_DEBUG ? 15 : 60;
@@ -1,12 +1,13 @@
 package net.floodlightcontroller.core.coap.util;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
@@ -40,6 +41,18 @@ public class CoapQueryUtils {
 	protected static Logger log = 
 			LoggerFactory.getLogger(CoapQueryUtils.class);
 
+	/**
+	 * Per statistics type timeouts for the asynchronous queries.
+	 */
+	private static Map<OFStatisticsType, Long> statsQueryTimeoutMs = 
+			Collections.synchronizedMap(new EnumMap<OFStatisticsType, Long>(OFStatisticsType.class));
+
+	/**
+	 * Client used for obtaining the diagnostic statistics from the APs.
+	 */
+	private static DiagnosticStatsClient diagnosticClient = new DiagnosticStatsClient(
+			CoapConstants.DIAGNOSTIC_CONNECT_TIMEOUT_MSEC, CoapConstants.DIAGNOSTIC_READ_TIMEOUT_MSEC);
+
 	/**
 	 * Get a specific type of statistics from the input switch.
 	 * 
@@ -59,76 +72,8 @@ public class CoapQueryUtils {
 		Future<List<OFStatistics>> future;
 		List<OFStatistics> values = null;
 		if (sw != null) {
-			OFStatisticsRequest req = new OFStatisticsRequest();
-			req.setStatisticType(statType);
-
-			int requestLength = req.getLengthU();
-
-			// TODO: 0123 Dummy value - not using the type field for now.
-			if (statType == OFStatisticsType.APINFO) {
-				OFApinfoStatisticsRequest specificReq = new OFApinfoStatisticsRequest();
-				specificReq.setType((short) 0); 
-				req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-				requestLength += specificReq.getLength();
-
-			} else if (statType == OFStatisticsType.UTIL) {
-				OFUtilStatisticsRequest specificReq = new OFUtilStatisticsRequest();
-				specificReq.setType((short) 0); 
-				req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-				requestLength += specificReq.getLength();
-
-			} else if (statType == OFStatisticsType.STATION) {
-				OFStationStatisticsRequest specificReq = new OFStationStatisticsRequest();
-				specificReq.setType((short) 0); 
-				req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-				requestLength += specificReq.getLength();
-
-			} else if (statType == OFStatisticsType.SYNCBEACON) {
-				OFSyncBeaconStatisticsRequest specificReq = new OFSyncBeaconStatisticsRequest();
-				specificReq.setType((short) 0);
-				req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-				requestLength += specificReq.getLength();
-
-			} else if (statType == OFStatisticsType.BEACON) {
-				OFBeaconStatisticsRequest specificReq = new OFBeaconStatisticsRequest();
-				specificReq.setType((short) 0);
-				req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-				requestLength += specificReq.getLength();
-
-			} else if (statType == OFStatisticsType.CLIENT) {
-				OFClientStatisticsRequest specificReq = new OFClientStatisticsRequest();
-				specificReq.setType((short) 0);
-				req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-				requestLength += specificReq.getLength();
-
-			} else if (statType == OFStatisticsType.NONWIFI) {
-				OFNonWiFiStatisticsRequest specificReq = new OFNonWiFiStatisticsRequest();
-				specificReq.setType((short) 0);
-				req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-				requestLength += specificReq.getLength();
-
-			} else if (statType == OFStatisticsType.PASSIVE) {
-				OFPassiveStatisticsRequest specificReq = new OFPassiveStatisticsRequest();
-				specificReq.setType((short) 0);
-				req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-				requestLength += specificReq.getLength();
-
-			} else if (statType == OFStatisticsType.TRAFFICINFO) {
-				OFTrafficinfoStatisticsRequest specificReq = new OFTrafficinfoStatisticsRequest();
-				specificReq.setType((short) 0);
-				req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-				requestLength += specificReq.getLength();
-
-			} else if (statType == OFStatisticsType.DIAGNOSTICINFO) {
-				OFDiagnosticinfoStatisticsRequest specificReq = new OFDiagnosticinfoStatisticsRequest();
-				specificReq.setType((short) 0);
-				req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-				requestLength += specificReq.getLength();
-			}
-
-			req.setLengthU(requestLength);
 			try {
-				future = sw.queryStatistics(req);
+				future = sw.queryStatistics(createStatisticsRequest(sw, statType));
 				values = future.get(10, TimeUnit.SECONDS);
 			} catch (Exception e) {
 				log.error("Failure retrieving statistics from switch " + sw, e);
@@ -137,39 +82,254 @@ public class CoapQueryUtils {
 		return values;
 	}
 
+	/**
+	 * Get multiple types of statistics from the input switch. All the requests are sent to the
+	 * switch back-to-back before waiting for any reply, so the total time taken is bounded by the
+	 * slowest reply instead of the sum of all the replies. A statistics type is mapped to null
+	 * if its reply was not received within the timeout.
+	 * 
+	 * @param sw
+	 * @param statTypes
+	 * @param timeoutMs
+	 * @return statistics type -> statistics.
+	 */
+	@LogMessageDoc(level="ERROR",
+			message="Failure retrieving statistics from switch {switch}",
+			explanation="An error occurred while retrieving statistics" +
+					"from the switch",
+					recommendation=LogMessageDoc.CHECK_SWITCH + " " +
+							LogMessageDoc.GENERIC_ACTION)
+	public static Map<OFStatisticsType, List<OFStatistics>> getSwitchStatistics(IOFSwitch sw,
+			List<OFStatisticsType> statTypes, long timeoutMs) {
+
+		Map<OFStatisticsType, List<OFStatistics>> values = 
+				new EnumMap<OFStatisticsType, List<OFStatistics>>(OFStatisticsType.class);
+		if (sw == null) {
+			return values;
+		}
+
+		// Send all the requests first.
+		Map<OFStatisticsType, Future<List<OFStatistics>>> futures = 
+				new EnumMap<OFStatisticsType, Future<List<OFStatistics>>>(OFStatisticsType.class);
+		for (OFStatisticsType statType: statTypes) {
+			try {
+				futures.put(statType, sw.queryStatistics(createStatisticsRequest(sw, statType)));
+			} catch (Exception e) {
+				log.error("Failure sending " + statType + " statistics request to switch " + sw, e);
+				values.put(statType, null);
+			}
+		}
+
+		// Collect the replies against a common deadline.
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		for (Map.Entry<OFStatisticsType, Future<List<OFStatistics>>> entry: futures.entrySet()) {
+			List<OFStatistics> reply = null;
+			try {
+				long remainingMs = Math.max(0, deadline - System.currentTimeMillis());
+				reply = entry.getValue().get(remainingMs, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				log.warn("Timed out waiting for " + entry.getKey() + " statistics from switch " + sw);
+				entry.getValue().cancel(true);
+			} catch (Exception e) {
+				log.error("Failure retrieving " + entry.getKey() + " statistics from switch " + sw, e);
+			}
+
+			values.put(entry.getKey(), reply);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Send a statistics query to the input switch without waiting for the reply. The callback
+	 * is invoked by the StatsQueryDispatcher thread when the reply arrives, or when the query
+	 * fails, times out or is cancelled. The timeout configured for the statistics type is used.
+	 * 
+	 * @param sw
+	 * @param statType
+	 * @param callback
+	 * @return handle to the query, which can be used for cancelling it.
+	 */
+	public static AsyncStatsQuery getSwitchStatisticsAsync(IOFSwitch sw, 
+			OFStatisticsType statType, StatsQueryCallback callback) {
+		return getSwitchStatisticsAsync(sw, statType, getStatsQueryTimeout(statType), callback);
+	}
+
+	/**
+	 * Send a statistics query to the input switch without waiting for the reply.
+	 * 
+	 * @param sw
+	 * @param statType
+	 * @param timeoutMs
+	 * @param callback
+	 * @return handle to the query, null if the query could not be sent.
+	 */
+	public static AsyncStatsQuery getSwitchStatisticsAsync(IOFSwitch sw, 
+			OFStatisticsType statType, long timeoutMs, StatsQueryCallback callback) {
+		if (sw == null) {
+			callback.statsFailed(sw, statType, new IllegalArgumentException("null switch"));
+			return null;
+		}
+
+		Future<List<OFStatistics>> future;
+		try {
+			future = sw.queryStatistics(createStatisticsRequest(sw, statType));
+		} catch (Exception e) {
+			log.error("Failure sending " + statType + " statistics request to switch " + sw, e);
+			callback.statsFailed(sw, statType, e);
+			return null;
+		}
+
+		AsyncStatsQuery query = new AsyncStatsQuery(sw, statType, future, timeoutMs, callback);
+		StatsQueryDispatcher.getInstance().addQuery(query);
+		return query;
+	}
+
+	/**
+	 * @param statType
+	 * @return timeout (ms) used for the asynchronous queries of the input statistics type.
+	 */
+	public static long getStatsQueryTimeout(OFStatisticsType statType) {
+		Long timeoutMs = statsQueryTimeoutMs.get(statType);
+		return timeoutMs == null ? CoapConstants.STATS_QUERY_TIMEOUT_MSEC : timeoutMs;
+	}
+
+	/**
+	 * Set the timeout used for the asynchronous queries of the input statistics type.
+	 * 
+	 * @param statType
+	 * @param timeoutMs
+	 */
+	public static void setStatsQueryTimeout(OFStatisticsType statType, long timeoutMs) {
+		statsQueryTimeoutMs.put(statType, timeoutMs);
+	}
+
+	/**
+	 * Create the statistics request message for the input statistics type, requesting all
+	 * the records.
+	 * 
+	 * @param statType
+	 * @return statistics request
+	 */
+	public static OFStatisticsRequest createStatisticsRequest(OFStatisticsType statType) {
+		return createStatisticsRequest(statType, (short) 0);
+	}
+
+	/**
+	 * Create the statistics request message for the input switch. The incrementally pulled
+	 * statistics types only request the records newer than the switch's StatsCursor.
+	 * 
+	 * @param sw
+	 * @param statType
+	 * @return statistics request
+	 */
+	private static OFStatisticsRequest createStatisticsRequest(IOFSwitch sw, OFStatisticsType statType) {
+		short cursor = 0;
+		if (StatsCursor.isIncremental(statType)) {
+			int apId = ApRegistry.getInstance().getApId(sw.getId());
+			cursor = StatsCursor.getRequestCursor(apId, statType, System.currentTimeMillis());
+		}
+
+		return createStatisticsRequest(statType, cursor);
+	}
+
+	/**
+	 * Create the statistics request message for the input statistics type.
+	 * 
+	 * @param statType
+	 * @param cursor age (sec) of the most recent record already received for the STATION
+	 * and TRAFFICINFO types (see StatsCursor), 0 for all the records.
+	 * @return statistics request
+	 */
+	public static OFStatisticsRequest createStatisticsRequest(OFStatisticsType statType, short cursor) {
+		OFStatisticsRequest req = new OFStatisticsRequest();
+		req.setStatisticType(statType);
+
+		int requestLength = req.getLengthU();
+
+		// TODO: 0123 Dummy value - not using the type field for now, except for the cursor.
+		if (statType == OFStatisticsType.APINFO) {
+			OFApinfoStatisticsRequest specificReq = new OFApinfoStatisticsRequest();
+			specificReq.setType((short) 0); 
+			req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+			requestLength += specificReq.getLength();
+
+		} else if (statType == OFStatisticsType.UTIL) {
+			OFUtilStatisticsRequest specificReq = new OFUtilStatisticsRequest();
+			specificReq.setType((short) 0); 
+			req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+			requestLength += specificReq.getLength();
+
+		} else if (statType == OFStatisticsType.STATION) {
+			OFStationStatisticsRequest specificReq = new OFStationStatisticsRequest();
+			specificReq.setType(cursor);
+			req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+			requestLength += specificReq.getLength();
+
+		} else if (statType == OFStatisticsType.SYNCBEACON) {
+			OFSyncBeaconStatisticsRequest specificReq = new OFSyncBeaconStatisticsRequest();
+			specificReq.setType((short) 0);
+			req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+			requestLength += specificReq.getLength();
+
+		} else if (statType == OFStatisticsType.BEACON) {
+			OFBeaconStatisticsRequest specificReq = new OFBeaconStatisticsRequest();
+			specificReq.setType((short) 0);
+			req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+			requestLength += specificReq.getLength();
+
+		} else if (statType == OFStatisticsType.CLIENT) {
+			OFClientStatisticsRequest specificReq = new OFClientStatisticsRequest();
+			specificReq.setType((short) 0);
+			req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+			requestLength += specificReq.getLength();
+
+		} else if (statType == OFStatisticsType.NONWIFI) {
+			OFNonWiFiStatisticsRequest specificReq = new OFNonWiFiStatisticsRequest();
+			specificReq.setType((short) 0);
+			req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+			requestLength += specificReq.getLength();
+
+		} else if (statType == OFStatisticsType.PASSIVE) {
+			OFPassiveStatisticsRequest specificReq = new OFPassiveStatisticsRequest();
+			specificReq.setType((short) 0);
+			req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+			requestLength += specificReq.getLength();
+
+		} else if (statType == OFStatisticsType.TRAFFICINFO) {
+			OFTrafficinfoStatisticsRequest specificReq = new OFTrafficinfoStatisticsRequest();
+			specificReq.setType(cursor);
+			req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+			requestLength += specificReq.getLength();
+
+		} else if (statType == OFStatisticsType.DIAGNOSTICINFO) {
+			OFDiagnosticinfoStatisticsRequest specificReq = new OFDiagnosticinfoStatisticsRequest();
+			specificReq.setType((short) 0);
+			req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+			requestLength += specificReq.getLength();
+		}
+
+		req.setLengthU(requestLength);
+		return req;
+	}
+
 	/**
 	 * Obtain diagnostic statistics from a COAP AP. The statistics 
 	 * consist of packet-level summaries with packet transmission
 	 * information. These statistics are used for interference detection.
 	 * 
-	 * TODO - Currently used to pull data more efficiently from the APs.
+	 * TODO - Currently used to pull data more efficiently from the APs. The data is read
+	 * from the AP's ControlSocket using pooled non-blocking connections (DiagnosticStatsClient).
 	 * 
 	 * @param ipAddress
 	 * @param diagnosticStats
 	 */
 	public static void ObtainDiagnosticStats(String ipAddress, List<OFStatistics> diagnosticStats) {
-		String[] cmd = {
-				"/bin/sh",
-				"-c",
-				"echo 'read passive_ap_state.stats' | nc " + ipAddress + " 8777 < /dev/stdin"
-		};
-
 		try {
 			log.info("Getting pie results from " + ipAddress);
 
-			BufferedReader input = new BufferedReader
-					(new InputStreamReader(Runtime.getRuntime().exec(cmd).getInputStream()));
-
-			String line = "", output = "";
-
-			// Get the last line.
-			while ((line = input.readLine()) != null) {
-				// output += (line + '\n');
-				output = line;
-			}
-			input.close();
-
-			//System.out.println("Result: " + output);
+			String output = diagnosticClient.query(ipAddress, CoapConstants.DIAGNOSTIC_PORT, 
+					"read passive_ap_state.stats");
 
 			OFDiagnosticinfoStatisticsReply currReply = new OFDiagnosticinfoStatisticsReply();
 			currReply.setDiagnosticInfoStatsString(output);
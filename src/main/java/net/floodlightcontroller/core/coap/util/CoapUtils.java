@@ -2,6 +2,7 @@ package net.floodlightcontroller.core.coap.util;
 
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Miscellaneous utility functions used by the COAP server.
@@ -23,6 +24,20 @@ public class CoapUtils {
 		return sdf.format(cal.getTime());
 	}
 
+	/**
+	 * Raise the input maximum to the value, e.g., the most recent timestamp updated by the 
+	 * writers of different APs.
+	 * 
+	 * @param max
+	 * @param value
+	 */
+	public static void updateMax(AtomicLong max, long value) {
+		long curr = max.get();
+		while (value > curr && !max.compareAndSet(curr, value)) {
+			curr = max.get();
+		}
+	}
+
 	/**
 	 * For debug testing - Return an AP identifier using its IP.
 	 * @param ipString
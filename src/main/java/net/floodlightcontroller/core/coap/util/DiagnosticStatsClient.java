@@ -0,0 +1,380 @@
+package net.floodlightcontroller.core.coap.util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking socket client for reading the diagnostic statistics exported by the COAP APs
+ * through their Click ControlSocket (DIAGNOSTIC_PORT), replacing the previous "echo | nc"
+ * shell-out.
+ *
+ * The client keeps a small pool of open connections per AP, bounds every connect/read with a
+ * timeout and parses the reply as it arrives, keeping only its last line (the most recent
+ * record). ControlSocket replies are length-framed ("DATA <n>"), which allows the connection
+ * to be reused for the next query. Servers that don't follow the ControlSocket protocol are
+ * read until they close the connection, like nc used to.
+ */
+public class DiagnosticStatsClient {
+
+	// Logger.
+	protected static Logger log =
+			LoggerFactory.getLogger(DiagnosticStatsClient.class);
+
+	public static final String CONTROLSOCKET_BANNER = "Click::ControlSocket";
+
+	/**
+	 * An open connection to an AP.
+	 */
+	private static class Connection {
+		SocketChannel channel;
+		Selector selector;
+		ByteBuffer buffer = ByteBuffer.allocate(CoapConstants.DIAGNOSTIC_BUFFER_LENGTH);
+		boolean isControlSocket = false;
+		boolean isReusable = false;
+		boolean isEof = false;
+
+		Connection(SocketChannel channel, Selector selector) {
+			this.channel = channel;
+			this.selector = selector;
+			buffer.flip(); // Empty buffer in read mode.
+		}
+
+		void close() {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Ignore.
+			}
+
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Ignore.
+			}
+		}
+	}
+
+	/**
+	 * "ip:port" -> idle connections.
+	 */
+	private ConcurrentHashMap<String, ConcurrentLinkedQueue<Connection>> idleConnections =
+			new ConcurrentHashMap<String, ConcurrentLinkedQueue<Connection>>();
+
+	/**
+	 * "ip:port" -> time (msec) until which the server is assumed not to be a ControlSocket (no need
+	 * to wait for a banner). Only a missing banner is cached, and not for good: a ControlSocket may
+	 * have been slow to greet, see DIAGNOSTIC_BANNER_RECHECK_MSEC.
+	 */
+	private ConcurrentHashMap<String, Long> nonControlSocketServers = new ConcurrentHashMap<String, Long>();
+
+	private long connectTimeoutMs, readTimeoutMs;
+
+	private AtomicLong openedConnections = new AtomicLong(0);
+	private AtomicLong reusedConnections = new AtomicLong(0);
+
+	public DiagnosticStatsClient(long connectTimeoutMs, long readTimeoutMs) {
+		this.connectTimeoutMs = connectTimeoutMs;
+		this.readTimeoutMs = readTimeoutMs;
+	}
+
+	/**
+	 * Send a command to the AP and return the last line of the reply.
+	 *
+	 * @param ipAddress
+	 * @param port
+	 * @param command e.g., "read passive_ap_state.stats".
+	 * @return last line of the reply, "" if the reply is empty.
+	 * @throws IOException on connection failures or timeouts.
+	 */
+	public String query(String ipAddress, int port, String command) throws IOException {
+		String key = ipAddress + ":" + port;
+
+		// A pooled connection might have been closed by the AP, retry once with a new one.
+		Connection conn = borrowConnection(key);
+		if (conn != null) {
+			try {
+				reusedConnections.incrementAndGet();
+				return query(key, conn, command);
+			} catch (IOException e) {
+				log.debug("Pooled connection to " + key + " failed, reconnecting: " + e.getMessage());
+			}
+		}
+
+		conn = connect(key, ipAddress, port);
+		return query(key, conn, command);
+	}
+
+	private String query(String key, Connection conn, String command) throws IOException {
+		boolean success = false;
+		try {
+			long deadline = System.currentTimeMillis() + readTimeoutMs;
+
+			write(conn, command + "\n", deadline);
+			String reply = readReply(conn, deadline);
+
+			success = true;
+			return reply;
+		} catch (SocketTimeoutException e) {
+			if (!conn.isControlSocket) {
+				// A ControlSocket whose banner was missed never closes the connection, wait for
+				// the banner again on the next connection.
+				nonControlSocketServers.remove(key);
+			}
+			throw e;
+		} finally {
+			if (success && conn.isReusable && !conn.isEof) {
+				releaseConnection(key, conn);
+			} else {
+				conn.close();
+			}
+		}
+	}
+
+	private Connection borrowConnection(String key) {
+		ConcurrentLinkedQueue<Connection> idle = idleConnections.get(key);
+		return idle == null ? null : idle.poll();
+	}
+
+	private void releaseConnection(String key, Connection conn) {
+		ConcurrentLinkedQueue<Connection> idle = idleConnections.get(key);
+		if (idle == null) {
+			ConcurrentLinkedQueue<Connection> newIdle = new ConcurrentLinkedQueue<Connection>();
+			idle = idleConnections.putIfAbsent(key, newIdle);
+			if (idle == null) {
+				idle = newIdle;
+			}
+		}
+
+		if (idle.size() < CoapConstants.DIAGNOSTIC_MAX_IDLE_CONNECTIONS) {
+			idle.add(conn);
+		} else {
+			conn.close();
+		}
+	}
+
+	private Connection connect(String key, String ipAddress, int port) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		Selector selector = null;
+
+		try {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			selector = Selector.open();
+
+			Connection conn = new Connection(channel, selector);
+			long deadline = System.currentTimeMillis() + connectTimeoutMs;
+
+			if (!channel.connect(new InetSocketAddress(ipAddress, port))) {
+				channel.register(selector, SelectionKey.OP_CONNECT);
+				while (!channel.finishConnect()) {
+					select(conn, deadline, "connecting");
+				}
+			}
+
+			openedConnections.incrementAndGet();
+
+			// A ControlSocket greets with its banner first. Wait shortly for it, as other
+			// servers may not send anything before the command.
+			Long noBannerUntil = nonControlSocketServers.get(key);
+			if (noBannerUntil == null || System.currentTimeMillis() >= noBannerUntil) {
+				String banner = readLine(conn, Math.min(deadline,
+						System.currentTimeMillis() + CoapConstants.DIAGNOSTIC_BANNER_WAIT_MSEC), true);
+				conn.isControlSocket = banner != null && banner.startsWith(CONTROLSOCKET_BANNER);
+				if (conn.isControlSocket) {
+					nonControlSocketServers.remove(key);
+				} else {
+					nonControlSocketServers.put(key,
+							System.currentTimeMillis() + CoapConstants.DIAGNOSTIC_BANNER_RECHECK_MSEC);
+				}
+			}
+
+			return conn;
+		} catch (IOException e) {
+			if (selector != null) {
+				selector.close();
+			}
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void write(Connection conn, String data, long deadline) throws IOException {
+		ByteBuffer out = ByteBuffer.wrap(data.getBytes("US-ASCII"));
+
+		while (out.hasRemaining()) {
+			if (conn.channel.write(out) == 0) {
+				conn.channel.register(conn.selector, SelectionKey.OP_WRITE);
+				select(conn, deadline, "writing");
+			}
+		}
+	}
+
+	private String readReply(Connection conn, long deadline) throws IOException {
+		if (conn.isControlSocket) {
+			// 200 Read handler 'passive_ap_state.stats' OK
+			// DATA <n>
+			// <n bytes>
+			String status = readLine(conn, deadline, false);
+			if (status == null || !status.startsWith("200")) {
+				throw new IOException("ControlSocket error: " + status);
+			}
+
+			String dataLine = readLine(conn, deadline, false);
+			if (dataLine == null || !dataLine.startsWith("DATA ")) {
+				throw new IOException("Unexpected ControlSocket reply: " + dataLine);
+			}
+
+			long length;
+			try {
+				length = Long.parseLong(dataLine.substring(5).trim());
+			} catch (NumberFormatException e) {
+				throw new IOException("Unexpected ControlSocket reply: " + dataLine);
+			}
+
+			conn.isReusable = true;
+			return readLastLine(conn, length, deadline);
+		}
+
+		// Read until the server closes the connection.
+		conn.isReusable = false;
+		return readLastLine(conn, -1, deadline);
+	}
+
+	/**
+	 * Read a single line.
+	 *
+	 * @param conn
+	 * @param deadline
+	 * @param isOptional if true, return null instead of failing on a timeout.
+	 * @return line without the line terminator, null on EOF.
+	 * @throws IOException
+	 */
+	private String readLine(Connection conn, long deadline, boolean isOptional) throws IOException {
+		StringBuilder line = new StringBuilder();
+
+		while (true) {
+			while (conn.buffer.hasRemaining()) {
+				char c = (char) (conn.buffer.get() & 0xFF);
+				if (c == '\n') {
+					return trimCarriageReturn(line);
+				}
+				line.append(c);
+			}
+
+			try {
+				if (fill(conn, deadline) < 0) {
+					return line.length() > 0 ? trimCarriageReturn(line) : null;
+				}
+			} catch (SocketTimeoutException e) {
+				if (isOptional) {
+					return null;
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Read "length" bytes of the reply (or until EOF if length is negative) keeping only the
+	 * last non-empty line.
+	 */
+	private String readLastLine(Connection conn, long length, long deadline) throws IOException {
+		StringBuilder currLine = new StringBuilder();
+		String lastLine = "";
+		long remaining = length;
+
+		while (remaining != 0) {
+			while (conn.buffer.hasRemaining() && remaining != 0) {
+				char c = (char) (conn.buffer.get() & 0xFF);
+				remaining --;
+
+				if (c == '\n') {
+					if (currLine.length() > 0) {
+						lastLine = trimCarriageReturn(currLine);
+					}
+					currLine.setLength(0);
+				} else if (currLine.length() < CoapConstants.DIAGNOSTICINFO_STATS_LENGTH) {
+					currLine.append(c);
+				}
+			}
+
+			if (remaining != 0 && fill(conn, deadline) < 0) {
+				if (length >= 0) {
+					throw new IOException("Connection closed before the end of the reply");
+				}
+				break;
+			}
+		}
+
+		if (currLine.length() > 0) {
+			lastLine = trimCarriageReturn(currLine);
+		}
+
+		return lastLine;
+	}
+
+	/**
+	 * Read more data into the connection's buffer.
+	 *
+	 * @return number of bytes read, -1 on EOF.
+	 */
+	private int fill(Connection conn, long deadline) throws IOException {
+		conn.buffer.clear();
+
+		try {
+			while (true) {
+				int bytesRead = conn.channel.read(conn.buffer);
+				if (bytesRead < 0) {
+					conn.isEof = true;
+					return -1;
+				} else if (bytesRead > 0) {
+					return bytesRead;
+				}
+
+				conn.channel.register(conn.selector, SelectionKey.OP_READ);
+				select(conn, deadline, "reading");
+			}
+		} finally {
+			conn.buffer.flip();
+		}
+	}
+
+	private void select(Connection conn, long deadline, String op) throws IOException {
+		long remainingMs = deadline - System.currentTimeMillis();
+		if (remainingMs <= 0 || conn.selector.select(remainingMs) == 0) {
+			if (System.currentTimeMillis() >= deadline) {
+				throw new SocketTimeoutException("Timed out " + op);
+			}
+		}
+
+		conn.selector.selectedKeys().clear();
+	}
+
+	private static String trimCarriageReturn(StringBuilder line) {
+		int len = line.length();
+		if (len > 0 && line.charAt(len - 1) == '\r') {
+			len --;
+		}
+
+		return line.substring(0, len);
+	}
+
+	public long getOpenedConnections() {
+		return openedConnections.get();
+	}
+
+	public long getReusedConnections() {
+		return reusedConnections.get();
+	}
+}
@@ -0,0 +1,198 @@
+package net.floodlightcontroller.core.coap.util;
+
+/**
+ * Map with primitive long keys (e.g., the packed NonWiFiDevice keys), using open addressing with
+ * linear probing over parallel key/value arrays. Unlike a HashMap<Long, V>, get(), put() of an
+ * existing key and remove() don't allocate (no boxed keys or entry objects), and each entry
+ * takes two array slots.
+ *
+ * Null values aren't supported (a null value marks an empty slot). Not thread-safe.
+ *
+ * The entries are iterated by slot:
+ *   for (int slot = 0; slot < map.capacity(); ++slot) {
+ *     V value = map.valueAt(slot);
+ *     if (value != null) { ... map.keyAt(slot) ... }
+ *   }
+ * The map shouldn't be modified during the iteration.
+ */
+public class LongKeyMap<V> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+
+	public LongKeyMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize
+	 */
+	public LongKeyMap(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < 2 * expectedSize) {
+			capacity <<= 1;
+		}
+
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param key
+	 * @return value of the key, null if none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int slot = find(key);
+		return slot < 0 ? null : (V) values[slot];
+	}
+
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * @param key
+	 * @param value non-null value.
+	 * @return the previous value of the key, null if none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("LongKeyMap doesn't support null values");
+		}
+
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				V prev = (V) values[slot];
+				values[slot] = value;
+				return prev;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+		size ++;
+
+		if (2 * size > keys.length) {
+			resize(2 * keys.length);
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param key
+	 * @return the removed value, null if none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return null;
+		}
+
+		V prev = (V) values[slot];
+		values[slot] = null;
+		size --;
+
+		// Shift back the following entries of the probe sequence into the freed slot.
+		int mask = keys.length - 1;
+		int free = slot;
+		for (int i = (slot + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+			int home = hash(keys[i]) & mask;
+			if (((i - home) & mask) >= ((i - free) & mask)) {
+				keys[free] = keys[i];
+				values[free] = values[i];
+				values[i] = null;
+				free = i;
+			}
+		}
+
+		return prev;
+	}
+
+	public void clear() {
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = null;
+		}
+
+		size = 0;
+	}
+
+	/**
+	 * @return number of slots, see valueAt().
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * @param slot
+	 * @return key stored in the slot, undefined if valueAt(slot) is null.
+	 */
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * @param slot
+	 * @return value stored in the slot, null if the slot is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public V valueAt(int slot) {
+		return (V) values[slot];
+	}
+
+	private int find(long key) {
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+		}
+
+		return -1;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+
+		keys = new long[capacity];
+		values = new Object[capacity];
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldValues[i] != null) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,260 @@
+package net.floodlightcontroller.core.coap.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the most recent statistics timestamp (in seconds, AP clock) ingested from each
+ * COAP AP for the incrementally pulled statistics types (STATION and TRAFFICINFO).
+ *
+ * The cursor is used in two places:
+ * - When querying an AP, the age of the cursor is sent in the type field of the statistics
+ *   request, so that the AP only returns records from the cursor's second onwards. A cursor of 0
+ *   requests all the records.
+ * - When parsing the reply, records older than the cursor are skipped before any of their
+ *   fields are allocated. The records of the cursor's second are kept, an AP may report more
+ *   records of that second after a poll, and the ones already ingested are dropped as exact
+ *   repeats by the StatsDedupFilter.
+ *
+ * The AP interprets the age against its own clock, which may be skewed from the controller's.
+ * The AP's clock is estimated from the replies, as the largest lead seen so far of a reply's
+ * newest record over the time its query was sent. The estimate only lags the AP's clock by the
+ * time the AP had no newer records when it replied, i.e., by records that don't exist, and it
+ * may lead by the reply's delay, a wider window only costs repeats that are skipped. The age is
+ * widened by STATS_CURSOR_MARGIN_SEC for the records that an AP reports late.
+ *
+ * Nothing in the protocol tells whether an AP honors the cursor, so each AP is polled in full
+ * until a reply to a cursor request (a probe, sent once a full poll returned records older than
+ * the requested window) shows that the AP left out the older records. A reply that includes
+ * them shows that the AP ignores the cursor, and it keeps being polled in full.
+ *
+ * The cursors of an AP are reset when it (re)connects (see ApRegistry), e.g., a rebooted AP's
+ * clock may restart behind its previous cursor, or its software may have changed.
+ */
+public class StatsCursor {
+
+	// Logger.
+	protected static Logger log = LoggerFactory.getLogger(StatsCursor.class);
+
+	// Whether the AP honors the cursor.
+	private static final int SUPPORT_UNKNOWN = 0;
+	private static final int SUPPORT_YES = 1;
+	private static final int SUPPORT_NO = 2;
+
+	/**
+	 * Cursor state of an AP, guarded by itself.
+	 */
+	private static class ApCursor {
+		// Indexed by the statistics type's ordinal.
+		long[] watermark = new long[OFStatisticsType.values().length];
+		int[] support = new int[OFStatisticsType.values().length];
+
+		// Oldest record (AP clock) returned by the last full poll, 0 if none.
+		long[] oldestFullPollTs = new long[OFStatisticsType.values().length];
+
+		// Start of the window (AP clock) requested by the outstanding cursor request, and the
+		// time (ms) it was sent, 0 if none.
+		long[] requestedFromTs = new long[OFStatisticsType.values().length];
+		long[] requestTs = new long[OFStatisticsType.values().length];
+
+		// Lower bound of (AP clock - controller clock), in seconds.
+		boolean hasClockLead = false;
+		long clockLeadSec = 0;
+	}
+
+	/**
+	 * apId -> cursor state.
+	 */
+	private static ConcurrentHashMap<Integer, ApCursor> apCursors = new ConcurrentHashMap<Integer, ApCursor>();
+
+	// Records skipped/ingested by the parsers using the cursor.
+	private static AtomicLong skippedRecords = new AtomicLong(0);
+	private static AtomicLong ingestedRecords = new AtomicLong(0);
+
+	/**
+	 * @param statType
+	 * @return true if the statistics type is pulled incrementally.
+	 */
+	public static boolean isIncremental(OFStatisticsType statType) {
+		return CoapConstants.USE_INCREMENTAL_STATS_PULL &&
+				(statType == OFStatisticsType.STATION || statType == OFStatisticsType.TRAFFICINFO);
+	}
+
+	private static ApCursor getApCursor(int apId) {
+		ApCursor apCursor = apCursors.get(apId);
+		if (apCursor == null) {
+			ApCursor newApCursor = new ApCursor();
+			apCursor = apCursors.putIfAbsent(apId, newApCursor);
+			if (apCursor == null) {
+				apCursor = newApCursor;
+			}
+		}
+
+		return apCursor;
+	}
+
+	/**
+	 * @param apId
+	 * @param statType
+	 * @return timestamp (sec, AP clock) of the most recent record ingested from the AP, 0 if none.
+	 */
+	public static long getWatermark(int apId, OFStatisticsType statType) {
+		ApCursor apCursor = apCursors.get(apId);
+		if (apCursor == null) {
+			return 0;
+		}
+
+		synchronized (apCursor) {
+			return apCursor.watermark[statType.ordinal()];
+		}
+	}
+
+	/**
+	 * Move the cursor forward after a batch of records was ingested from the AP.
+	 *
+	 * @param apId
+	 * @param statType
+	 * @param ts
+	 */
+	public static void advance(int apId, OFStatisticsType statType, long ts) {
+		ApCursor apCursor = getApCursor(apId);
+		synchronized (apCursor) {
+			apCursor.watermark[statType.ordinal()] = Math.max(apCursor.watermark[statType.ordinal()], ts);
+		}
+	}
+
+	/**
+	 * Record the range of the timestamps (sec, AP clock) of all the records in a reply from the
+	 * AP, before any of them is skipped. Called once per reply, before the cursor is advanced.
+	 *
+	 * @param apId
+	 * @param statType
+	 * @param minTs
+	 * @param maxTs
+	 */
+	public static void observeReply(int apId, OFStatisticsType statType, long minTs, long maxTs) {
+		if (!isIncremental(statType) || minTs > maxTs) {
+			return;
+		}
+
+		ApCursor apCursor = getApCursor(apId);
+		int idx = statType.ordinal();
+
+		synchronized (apCursor) {
+			long requestedFromTs = apCursor.requestedFromTs[idx];
+			long requestTs = apCursor.requestTs[idx];
+			apCursor.requestedFromTs[idx] = 0;
+			apCursor.requestTs[idx] = 0;
+
+			// Streamed records have no query to be compared against, and their arrival may be
+			// later than when they were sent, so they don't estimate the AP's clock.
+			if (requestTs == 0) {
+				return;
+			}
+
+			long leadSec = maxTs - requestTs / 1000;
+			if (!apCursor.hasClockLead || leadSec > apCursor.clockLeadSec) {
+				apCursor.clockLeadSec = leadSec;
+				apCursor.hasClockLead = true;
+			}
+
+			if (requestedFromTs == 0) {
+				apCursor.oldestFullPollTs[idx] = minTs;
+				return;
+			}
+
+			if (minTs < requestedFromTs - getToleranceSec()) {
+				if (apCursor.support[idx] != SUPPORT_NO) {
+					log.warn("AP " + apId + " ignores the " + statType + " cursor, polling it in full");
+				}
+
+				apCursor.support[idx] = SUPPORT_NO;
+			} else if (apCursor.support[idx] == SUPPORT_UNKNOWN) {
+				apCursor.support[idx] = SUPPORT_YES;
+			}
+		}
+	}
+
+	/**
+	 * Forget the cursors of the input AP (e.g., after it reconnects), so that all the records
+	 * are requested again.
+	 *
+	 * @param apId
+	 */
+	public static void reset(int apId) {
+		apCursors.remove(apId);
+	}
+
+	/**
+	 * Return the cursor sent to the AP in the statistics request: the age (sec, AP clock) of the
+	 * most recent record ingested from the AP, widened by STATS_CURSOR_MARGIN_SEC. 0 requests all
+	 * the records, i.e., until the AP is known to honor the cursor, or if the age doesn't fit.
+	 *
+	 * @param apId
+	 * @param statType
+	 * @param currTs
+	 * @return cursor value.
+	 */
+	public static short getRequestCursor(int apId, OFStatisticsType statType, long currTs) {
+		if (!isIncremental(statType) || apId < 0) {
+			return 0;
+		}
+
+		ApCursor apCursor = getApCursor(apId);
+		int idx = statType.ordinal();
+		synchronized (apCursor) {
+			apCursor.requestedFromTs[idx] = 0;
+			apCursor.requestTs[idx] = currTs;
+
+			long watermark = apCursor.watermark[idx];
+			if (watermark == 0 || !apCursor.hasClockLead || apCursor.support[idx] == SUPPORT_NO) {
+				return 0;
+			}
+
+			long requestedFromTs = watermark - CoapConstants.STATS_CURSOR_MARGIN_SEC;
+
+			// Probe only if the AP is known to hold records the cursor should leave out.
+			if (apCursor.support[idx] == SUPPORT_UNKNOWN && (apCursor.oldestFullPollTs[idx] == 0 ||
+					apCursor.oldestFullPollTs[idx] >= requestedFromTs - getToleranceSec())) {
+				return 0;
+			}
+
+			long apNowSec = currTs / 1000 + apCursor.clockLeadSec;
+			long ageSec = Math.max(1, apNowSec - requestedFromTs);
+			if (ageSec > Short.MAX_VALUE) {
+				return 0;
+			}
+
+			apCursor.requestedFromTs[idx] = requestedFromTs;
+			return (short) ageSec;
+		}
+	}
+
+	/**
+	 * The estimated AP clock may lead the real one by the delay of the reply it was estimated
+	 * from, the AP may then return records older than the requested window by as much.
+	 */
+	private static long getToleranceSec() {
+		return CoapConstants.STATS_QUERY_TIMEOUT_MSEC / 1000 + CoapConstants.STATS_CURSOR_MARGIN_SEC;
+	}
+
+	public static void recordSkipped(int cnt) {
+		skippedRecords.addAndGet(cnt);
+	}
+
+	public static void recordIngested(int cnt) {
+		ingestedRecords.addAndGet(cnt);
+	}
+
+	public static long getSkippedRecords() {
+		return skippedRecords.get();
+	}
+
+	public static long getIngestedRecords() {
+		return ingestedRecords.get();
+	}
+}
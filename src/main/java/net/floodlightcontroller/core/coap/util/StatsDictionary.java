@@ -0,0 +1,489 @@
+package net.floodlightcontroller.core.coap.util;
+
+import java.util.Arrays;
+
+/**
+ * Shared dictionary for the identifiers and labels repeated across the statistics records kept
+ * in memory by the COAP server. The same few thousand client identifiers, MAC addresses and
+ * traffic labels (e.g., "TCP", "google^google_inc.^us") are reported in every poll, so storing
+ * them once and keeping a compact code per record saves a String (and its char array) per field
+ * per record over the in-memory window.
+ *
+ * Three encodings are provided:
+ *   - Categorical strings are mapped to dense int ids (getId() / getString()). The strings that
+ *     weren't looked up for a DICTIONARY_EVICTION_INTERVAL_SEC are evicted and their ids reused
+ *     after another interval, once the records referencing them left the in-memory window and
+ *     were committed (see evictUnused()).
+ *   - MAC addresses ("28:cf:e9:18:14:c1") are packed into the lower 48 bits of a long, with
+ *     their spelling (case and separator) in the bits above, so that they're decoded to the
+ *     string reported by the AP (encodeMac() / decodeMac()).
+ *   - Hexadecimal tokens (e.g., the anonymized IP addresses "711e9530338") of up to 15 digits
+ *     are stored as their value (encodeToken() / decodeToken()).
+ * Values that don't fit the MAC/token formats fall back to the LABELS dictionary, stored as a
+ * negative long (-(id + 1)), so that they're still decoded to the original string.
+ *
+ * Lookups are lock-free, only new strings are added under the dictionary's lock. Lookups by region
+ * (str[start, end)) don't allocate if the string is already in the dictionary.
+ */
+public class StatsDictionary {
+
+	/**
+	 * Client identifiers, lower-cased.
+	 */
+	public static final StatsDictionary CLIENT_IDS = new StatsDictionary("clientIds", true);
+
+	/**
+	 * Traffic types and labels, and the values that don't fit the MAC/token encodings.
+	 */
+	public static final StatsDictionary LABELS = new StatsDictionary("labels", false);
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Generation of the pinned entries, which are never evicted.
+	private static final int PINNED = Integer.MAX_VALUE;
+
+	// Spelling of an encoded MAC address, none of the bits is set for "28:cf:e9:18:14:c1".
+	private static final long MAC_UPPER_CASE = 1L << 48;
+	private static final long MAC_DASH_SEPARATOR = 1L << 49;
+	private static final long MAC_NO_SEPARATOR = 1L << 50;
+
+	/**
+	 * Dictionary entry, safely published to the lock-free readers. Only the generation of its
+	 * last lookup is updated.
+	 */
+	private static final class Entry {
+		final String str;
+		final int hash, id;
+		volatile int usedGeneration;
+
+		Entry(String str, int hash, int id, int usedGeneration) {
+			this.str = str;
+			this.hash = hash;
+			this.id = id;
+			this.usedGeneration = usedGeneration;
+		}
+	}
+
+	/**
+	 * Open addressing (linear probing) table of the entries and the id -> string array. Replaced
+	 * as a whole when it's resized.
+	 */
+	private static final class Table {
+		final Entry[] entries;
+		final String[] strings;
+
+		Table(int capacity) {
+			entries = new Entry[capacity];
+			strings = new String[capacity / 2];
+		}
+	}
+
+	private final String name;
+	private final boolean isLowerCase;
+
+	private volatile Table table = new Table(INITIAL_CAPACITY);
+	// Ids below idLimit were assigned, some of them may be free.
+	private volatile int idLimit = 0;
+	private int size = 0;
+	private long stringChars = 0;
+
+	// Incremented by each evictUnused(), the entries record the generation of their last lookup.
+	private volatile int generation = 0;
+	private long lastEvictionTs = -1;
+
+	// Ids of the entries evicted by the last evictUnused(), reused after the next one.
+	private int[] pendingIds = new int[0];
+	private int numPendingIds = 0;
+	private int[] freeIds = new int[0];
+	private int numFreeIds = 0;
+
+	/**
+	 * @param name
+	 * @param isLowerCase true if the strings are lower-cased (and looked up ignoring the case).
+	 */
+	public StatsDictionary(String name, boolean isLowerCase) {
+		this.name = name;
+		this.isLowerCase = isLowerCase;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return number of strings in the dictionary.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @param str
+	 * @return id of the input string, added to the dictionary if needed.
+	 */
+	public int getId(String str) {
+		return getId(str, 0, str.length());
+	}
+
+	/**
+	 * @param str
+	 * @return id of the input string, which is never evicted (e.g., for the ids kept in constants).
+	 */
+	public synchronized int getPinnedId(String str) {
+		int id = getId(str);
+		find(table, str, 0, str.length(), hash(str, 0, str.length())).usedGeneration = PINNED;
+		return id;
+	}
+
+	/**
+	 * @param str
+	 * @param start
+	 * @param end
+	 * @return id of the string str[start, end), added to the dictionary if needed.
+	 */
+	public int getId(String str, int start, int end) {
+		int hash = hash(str, start, end);
+
+		Entry entry = find(table, str, start, end, hash);
+		if (entry != null) {
+			return markUsed(entry);
+		}
+
+		synchronized (this) {
+			Table currTable = table;
+			entry = find(currTable, str, start, end, hash);
+			if (entry != null) {
+				return markUsed(entry);
+			}
+
+			int id;
+			if (numFreeIds > 0) {
+				id = freeIds[--numFreeIds];
+			} else {
+				id = idLimit;
+				if (id >= currTable.strings.length) {
+					currTable = resize(currTable);
+				}
+			}
+
+			String value = str.substring(start, end);
+			if (isLowerCase) {
+				value = value.toLowerCase();
+			}
+
+			currTable.strings[id] = value;
+			insert(currTable.entries, new Entry(value, hash, id, generation));
+			size ++;
+			stringChars += value.length();
+
+			// Publish the table, then the entry (volatile writes), after the entry is complete.
+			table = currTable;
+			idLimit = Math.max(idLimit, id + 1);
+
+			return id;
+		}
+	}
+
+	private int markUsed(Entry entry) {
+		// Written once per generation, not on every lookup.
+		int currGeneration = generation;
+		if (entry.usedGeneration < currGeneration) {
+			entry.usedGeneration = currGeneration;
+		}
+
+		return entry.id;
+	}
+
+	/**
+	 * @param id
+	 * @return the string with the input id.
+	 * @throws IllegalArgumentException for an unknown id.
+	 */
+	public String getString(int id) {
+		// Read the id limit before the table, see getId().
+		int currIdLimit = idLimit;
+		Table currTable = table;
+		String str = id >= 0 && id < currIdLimit ? currTable.strings[id] : null;
+		if (str == null) {
+			throw new IllegalArgumentException("Unknown " + name + " id: " + id);
+		}
+
+		return str;
+	}
+
+	/**
+	 * Evict the strings that weren't looked up since the previous eviction, at most once per
+	 * DICTIONARY_EVICTION_INTERVAL_SEC. An evicted string is still decoded until the next eviction,
+	 * its id is reused afterwards: the records referencing it are then at least two intervals old,
+	 * i.e., they left the in-memory window and were committed. A string looked up again after its
+	 * eviction gets a new id.
+	 *
+	 * @param currTs current time (sec).
+	 * @return number of evicted strings.
+	 */
+	public synchronized int evictUnused(long currTs) {
+		if (lastEvictionTs < 0) {
+			lastEvictionTs = currTs;
+			return 0;
+		}
+
+		if (currTs - lastEvictionTs < CoapConstants.DICTIONARY_EVICTION_INTERVAL_SEC) {
+			return 0;
+		}
+
+		lastEvictionTs = currTs;
+		int evictedGeneration = generation;
+
+		// The index is rebuilt without the unused entries, the lock-free readers keep using the
+		// previous table meanwhile.
+		Table currTable = table;
+		Table newTable = new Table(currTable.entries.length);
+		System.arraycopy(currTable.strings, 0, newTable.strings, 0, idLimit);
+
+		// The ids evicted by the previous call aren't referenced anymore.
+		for (int i = 0; i < numPendingIds; ++i) {
+			int id = pendingIds[i];
+			newTable.strings[id] = null;
+			freeIds = push(freeIds, numFreeIds++, id);
+		}
+		numPendingIds = 0;
+
+		int evicted = 0;
+		for (Entry entry: currTable.entries) {
+			if (entry == null) {
+				continue;
+			}
+
+			if (entry.usedGeneration >= evictedGeneration) {
+				insert(newTable.entries, entry);
+			} else {
+				pendingIds = push(pendingIds, numPendingIds++, entry.id);
+				stringChars -= entry.str.length();
+				evicted ++;
+			}
+		}
+
+		size -= evicted;
+		table = newTable;
+		generation = evictedGeneration + 1;
+
+		return evicted;
+	}
+
+	private static int[] push(int[] ids, int numIds, int id) {
+		if (numIds == ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(16, 2 * ids.length));
+		}
+
+		ids[numIds] = id;
+		return ids;
+	}
+
+	/**
+	 * @return approximate heap footprint (bytes) of the dictionary, including its strings.
+	 */
+	public long getFootprintBytes() {
+		Table currTable = table;
+		int entrySize = 24, stringSize = 40;
+
+		synchronized (this) {
+			return 4L * currTable.entries.length + 4L * currTable.strings.length +
+					4L * (pendingIds.length + freeIds.length) +
+					(long) size * (entrySize + stringSize) + 2 * stringChars;
+		}
+	}
+
+	private Entry find(Table currTable, String str, int start, int end, int hash) {
+		Entry[] entries = currTable.entries;
+		int mask = entries.length - 1;
+		int len = end - start;
+
+		for (int i = hash & mask; ; i = (i + 1) & mask) {
+			Entry entry = entries[i];
+			if (entry == null) {
+				return null;
+			}
+
+			if (entry.hash == hash && entry.str.length() == len &&
+					entry.str.regionMatches(isLowerCase, 0, str, start, len)) {
+				return entry;
+			}
+		}
+	}
+
+	private static void insert(Entry[] entries, Entry entry) {
+		int mask = entries.length - 1;
+		int i = entry.hash & mask;
+		while (entries[i] != null) {
+			i = (i + 1) & mask;
+		}
+
+		entries[i] = entry;
+	}
+
+	private Table resize(Table currTable) {
+		Table newTable = new Table(currTable.entries.length * 2);
+		System.arraycopy(currTable.strings, 0, newTable.strings, 0, idLimit);
+
+		for (Entry entry: currTable.entries) {
+			if (entry != null) {
+				insert(newTable.entries, entry);
+			}
+		}
+
+		return newTable;
+	}
+
+	private int hash(String str, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; ++i) {
+			char c = str.charAt(i);
+			hash = 31 * hash + (isLowerCase ? Character.toLowerCase(c) : c);
+		}
+
+		// Spread the bits for the power of two table.
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @param mac
+	 * @return the MAC address packed into a long, see encodeMac(String, int, int).
+	 */
+	public static long encodeMac(String mac) {
+		return encodeMac(mac, 0, mac.length());
+	}
+
+	/**
+	 * Pack the MAC address in str[start, end), with ':' or '-' separators or none (e.g.,
+	 * "28:CF:E9:18:14:C1", "28cfe91814c1"), into the lower 48 bits of a long, and its spelling
+	 * into the bits above (see MAC_UPPER_CASE), so that the same string is decoded. The values
+	 * that don't fit the format or mix the cases or the separators (e.g., "28:cf:E9-18:14:c1") are
+	 * added to the LABELS dictionary and returned as -(id + 1).
+	 *
+	 * @param str
+	 * @param start
+	 * @param end
+	 * @return encoded MAC address.
+	 */
+	public static long encodeMac(String str, int start, int end) {
+		int len = end - start;
+		if (len == 12 || len == 17) {
+			long mac = 0;
+			int digits = 0;
+			boolean hasUpper = false, hasLower = false;
+			char separator = 0;
+
+			for (int i = start; i < end; ++i) {
+				char c = str.charAt(i);
+				int digit = Character.digit(c, 16);
+
+				if (digit >= 0) {
+					mac = (mac << 4) | digit;
+					digits ++;
+					hasUpper |= c >= 'A' && c <= 'F';
+					hasLower |= c >= 'a' && c <= 'f';
+				} else if (len == 17 && (c == ':' || c == '-') && (i - start) % 3 == 2 &&
+						(separator == 0 || separator == c)) {
+					separator = c;
+				} else {
+					digits = -1;
+					break;
+				}
+			}
+
+			if (digits == 12 && !(hasUpper && hasLower)) {
+				if (hasUpper) {
+					mac |= MAC_UPPER_CASE;
+				}
+
+				if (separator == '-') {
+					mac |= MAC_DASH_SEPARATOR;
+				} else if (separator == 0) {
+					mac |= MAC_NO_SEPARATOR;
+				}
+
+				return mac;
+			}
+		}
+
+		return -(LABELS.getId(str, start, end) + 1L);
+	}
+
+	/**
+	 * @param mac
+	 * @return the MAC address (e.g., "28:cf:e9:18:14:c1") or the string encoded by encodeMac().
+	 */
+	public static String decodeMac(long mac) {
+		if (mac < 0) {
+			return LABELS.getString((int) (-mac - 1));
+		}
+
+		boolean isUpperCase = (mac & MAC_UPPER_CASE) != 0;
+		char separator = (mac & MAC_NO_SEPARATOR) != 0 ? 0 : (mac & MAC_DASH_SEPARATOR) != 0 ? '-' : ':';
+
+		int width = separator == 0 ? 2 : 3;
+		char[] chars = new char[separator == 0 ? 12 : 17];
+		for (int i = 0; i < 6; ++i) {
+			int b = (int) (mac >>> (8 * (5 - i))) & 0xFF;
+			chars[width * i] = hexDigit(b >>> 4, isUpperCase);
+			chars[width * i + 1] = hexDigit(b & 0xF, isUpperCase);
+			if (separator != 0 && i < 5) {
+				chars[width * i + 2] = separator;
+			}
+		}
+
+		return new String(chars);
+	}
+
+	private static char hexDigit(int digit, boolean isUpperCase) {
+		char c = Character.forDigit(digit, 16);
+		return isUpperCase ? Character.toUpperCase(c) : c;
+	}
+
+	/**
+	 * Encode a lower-case hexadecimal token in str[start, end) of up to 15 digits (without leading
+	 * zeros, so that it's decoded to the same string) as its value. Other values are added to the
+	 * LABELS dictionary and returned as -(id + 1).
+	 *
+	 * @param str
+	 * @param start
+	 * @param end
+	 * @return encoded token.
+	 */
+	public static long encodeToken(String str, int start, int end) {
+		int len = end - start;
+		if (len > 0 && len <= 15 && (str.charAt(start) != '0' || len == 1)) {
+			long value = 0;
+			int i = start;
+
+			for (; i < end; ++i) {
+				char c = str.charAt(i);
+				if (c >= '0' && c <= '9') {
+					value = (value << 4) | (c - '0');
+				} else if (c >= 'a' && c <= 'f') {
+					value = (value << 4) | (c - 'a' + 10);
+				} else {
+					break;
+				}
+			}
+
+			if (i == end) {
+				return value;
+			}
+		}
+
+		return -(LABELS.getId(str, start, end) + 1L);
+	}
+
+	/**
+	 * @param token
+	 * @return the string encoded by encodeToken().
+	 */
+	public static String decodeToken(long token) {
+		if (token < 0) {
+			return LABELS.getString((int) (-token - 1));
+		}
+
+		return Long.toHexString(token);
+	}
+}
@@ -0,0 +1,35 @@
+package net.floodlightcontroller.core.coap.util;
+
+import java.util.List;
+
+import net.floodlightcontroller.core.IOFSwitch;
+
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+/**
+ * Callback interface for the asynchronous statistics queries sent to the COAP APs
+ * (see CoapQueryUtils.getSwitchStatisticsAsync). The callbacks are executed by the 
+ * StatsQueryDispatcher thread and should hand off any expensive processing.
+ */
+public interface StatsQueryCallback {
+	
+	/**
+	 * Called when the switch replied to the statistics query.
+	 * 
+	 * @param sw
+	 * @param statType
+	 * @param values
+	 */
+	public void statsReceived(IOFSwitch sw, OFStatisticsType statType, List<OFStatistics> values);
+	
+	/**
+	 * Called when the statistics query failed, timed out (TimeoutException) or was
+	 * cancelled (CancellationException).
+	 * 
+	 * @param sw
+	 * @param statType
+	 * @param cause
+	 */
+	public void statsFailed(IOFSwitch sw, OFStatisticsType statType, Throwable cause);
+}
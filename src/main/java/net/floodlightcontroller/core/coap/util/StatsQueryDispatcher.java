@@ -0,0 +1,158 @@
+package net.floodlightcontroller.core.coap.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Completes the asynchronous statistics queries sent to the COAP APs. A single thread 
+ * watches all the pending queries, invokes the callbacks of the queries whose replies have
+ * arrived and times out the queries whose deadline has passed. This allows a handful of 
+ * threads to poll thousands of APs without blocking a thread per AP.
+ * 
+ * The replies don't notify the dispatcher, so each query is checked at its own next check time
+ * (see AsyncStatsQuery.scheduleNextCheck()): shortly after it's sent, then less often, and at its
+ * deadline. The thread sleeps until the earliest check time and only checks the queries that are
+ * due, it doesn't wake up while no query is pending.
+ */
+public class StatsQueryDispatcher implements Runnable {
+	
+	// Logger.
+	protected static Logger log = 
+			LoggerFactory.getLogger(StatsQueryDispatcher.class);
+	
+	/**
+	 * Delay of the first check of a query, doubled after each check.
+	 */
+	public static final int DISPATCH_INTERVAL_MSEC = 10;
+	
+	/**
+	 * Max delay between two checks of a query.
+	 */
+	public static final int DISPATCH_MAX_INTERVAL_MSEC = 40;
+	
+	private static StatsQueryDispatcher instance = null;
+	
+	/**
+	 * Pending queries, ordered by their next check time. Guarded by the dispatcher.
+	 */
+	private PriorityQueue<AsyncStatsQuery> pendingQueries = new PriorityQueue<AsyncStatsQuery>(64, 
+			new Comparator<AsyncStatsQuery>() {
+				@Override
+				public int compare(AsyncStatsQuery q1, AsyncStatsQuery q2) {
+					return Long.compare(q1.getNextCheckTs(), q2.getNextCheckTs());
+				}
+			});
+	
+	// Pending queries, including the ones being checked.
+	private int numPendingQueries = 0;
+	
+	/**
+	 * @return the dispatcher instance, starting its thread on first use.
+	 */
+	public static synchronized StatsQueryDispatcher getInstance() {
+		if (instance == null) {
+			instance = new StatsQueryDispatcher();
+			
+			Thread t = new Thread(instance, "CoapStatsQueryDispatcher");
+			t.setDaemon(true);
+			t.start();
+		}
+		
+		return instance;
+	}
+	
+	private StatsQueryDispatcher() {
+	}
+	
+	/**
+	 * Add a query to the list of queries watched by the dispatcher.
+	 * 
+	 * @param query
+	 */
+	public synchronized void addQuery(AsyncStatsQuery query) {
+		pendingQueries.add(query);
+		numPendingQueries ++;
+		
+		// Wake up the thread if the query is due before the queries it's sleeping for.
+		if (pendingQueries.peek() == query) {
+			notify();
+		}
+	}
+	
+	/**
+	 * @return number of pending queries.
+	 */
+	public synchronized int getPendingQueryCount() {
+		return numPendingQueries;
+	}
+
+	@Override
+	public void run() {
+		ArrayList<AsyncStatsQuery> dueQueries = new ArrayList<AsyncStatsQuery>();
+		
+		while (true) {
+			try {
+				long currTs = takeDueQueries(dueQueries);
+				
+				// The callbacks are invoked without holding the dispatcher's lock.
+				int completed = 0;
+				for (int i = 0; i < dueQueries.size(); ++i) {
+					AsyncStatsQuery query = dueQueries.get(i);
+					if (query.checkCompletion(currTs)) {
+						dueQueries.set(i, null);
+						completed ++;
+					} else {
+						query.scheduleNextCheck(currTs);
+					}
+				}
+				
+				synchronized (this) {
+					for (AsyncStatsQuery query: dueQueries) {
+						if (query != null) {
+							pendingQueries.add(query);
+						}
+					}
+					numPendingQueries -= completed;
+				}
+				dueQueries.clear();
+			} catch (InterruptedException e) {
+				log.error("StatsQueryDispatcher interrupted, exiting");
+				return;
+			} catch (Exception e) {
+				log.error("Error in StatsQueryDispatcher thread: " + e);
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Wait until some queries are due to be checked and remove them from the pending queries.
+	 * 
+	 * @param dueQueries output list of the due queries.
+	 * @return current time (msec).
+	 * @throws InterruptedException
+	 */
+	private synchronized long takeDueQueries(ArrayList<AsyncStatsQuery> dueQueries) throws InterruptedException {
+		while (true) {
+			AsyncStatsQuery head = pendingQueries.peek();
+			long currTs = System.currentTimeMillis();
+			
+			if (head == null) {
+				wait();
+			} else if (head.getNextCheckTs() > currTs) {
+				wait(head.getNextCheckTs() - currTs);
+			} else {
+				while (head != null && head.getNextCheckTs() <= currTs) {
+					dueQueries.add(pendingQueries.poll());
+					head = pendingQueries.peek();
+				}
+				
+				return currTs;
+			}
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package net.floodlightcontroller.core.coap.util;
+
+/**
+ * Cursor over a region of a statistics string received from the COAP APs. The fields are read
+ * in a single pass without regular expressions, intermediate arrays or substrings for the
+ * numeric fields, e.g., for a traffic information record:
+ *
+ *   99514018ec7a996121 711e9530338 514fcb67d0a 443 58859 TCP google^google_inc.^us 159 223008 1425159713
+ *
+ * Each next*() function reads the field starting at the cursor up to the input delimiter (or the
+ * end of the region) and moves the cursor past the delimiter. The tokenizer can be reset and
+ * reused for parsing multiple regions/strings.
+ */
+public class StatsTokenizer {
+
+	private String str;
+	private int pos, end;
+
+	public StatsTokenizer() {
+	}
+
+	public StatsTokenizer(String str) {
+		reset(str, 0, str.length());
+	}
+
+	/**
+	 * Start reading the region str[start, end).
+	 *
+	 * @param str
+	 * @param start
+	 * @param end
+	 */
+	public void reset(String str, int start, int end) {
+		this.str = str;
+		this.pos = start;
+		this.end = end;
+	}
+
+	public String getString() {
+		return str;
+	}
+
+	public int getPosition() {
+		return pos;
+	}
+
+	public void setPosition(int pos) {
+		this.pos = pos;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public boolean hasMore() {
+		return pos < end;
+	}
+
+	/**
+	 * @param delim
+	 * @return index of the next delimiter in the region, or the end of the region.
+	 */
+	public int indexOf(char delim) {
+		int idx = str.indexOf(delim, pos);
+		return (idx < 0 || idx > end) ? end : idx;
+	}
+
+	/**
+	 * Skip the next field.
+	 *
+	 * @param delim
+	 */
+	public void skip(char delim) {
+		pos = Math.min(end, indexOf(delim) + 1);
+	}
+
+	/**
+	 * @param delim
+	 * @return the next field.
+	 */
+	public String nextString(char delim) {
+		int fieldEnd = indexOf(delim);
+		String field = str.substring(pos, fieldEnd);
+		pos = Math.min(end, fieldEnd + 1);
+		return field;
+	}
+
+	/**
+	 * Return the next field, reusing the matching instance from the input candidates
+	 * (e.g., "TCP", "UDP") instead of allocating a new string.
+	 *
+	 * @param delim
+	 * @param candidates
+	 * @return the next field.
+	 */
+	public String nextString(char delim, String[] candidates) {
+		int fieldEnd = indexOf(delim);
+		int len = fieldEnd - pos;
+
+		for (String candidate: candidates) {
+			if (candidate.length() == len && str.regionMatches(pos, candidate, 0, len)) {
+				pos = Math.min(end, fieldEnd + 1);
+				return candidate;
+			}
+		}
+
+		return nextString(delim);
+	}
+
+	/**
+	 * Return the dictionary id of the next field. Doesn't allocate if the field is already in the
+	 * dictionary.
+	 *
+	 * @param delim
+	 * @param dictionary
+	 * @return dictionary id of the next field.
+	 */
+	public int nextId(char delim, StatsDictionary dictionary) {
+		int fieldEnd = indexOf(delim);
+		int id = dictionary.getId(str, pos, fieldEnd);
+		pos = Math.min(end, fieldEnd + 1);
+		return id;
+	}
+
+	/**
+	 * @param delim
+	 * @return the next field encoded with StatsDictionary.encodeToken().
+	 */
+	public long nextToken(char delim) {
+		int fieldEnd = indexOf(delim);
+		long token = StatsDictionary.encodeToken(str, pos, fieldEnd);
+		pos = Math.min(end, fieldEnd + 1);
+		return token;
+	}
+
+	/**
+	 * @param delim
+	 * @return the next field parsed as an integer.
+	 * @throws NumberFormatException
+	 */
+	public int nextInt(char delim) {
+		long val = nextLong(delim);
+		if (val < Integer.MIN_VALUE || val > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Integer out of range: " + val);
+		}
+
+		return (int) val;
+	}
+
+	/**
+	 * @param delim
+	 * @return the next field parsed as a long.
+	 * @throws NumberFormatException
+	 */
+	public long nextLong(char delim) {
+		int fieldEnd = indexOf(delim);
+		long val = parseLong(str, pos, fieldEnd);
+		pos = Math.min(end, fieldEnd + 1);
+		return val;
+	}
+
+	/**
+	 * Parse the 2 digit record count at the start of a payload, e.g., "50;<record>;<record>...".
+	 *
+	 * @param str
+	 * @param offset start of the payload.
+	 * @param end end of the payload.
+	 * @return number of records announced by the payload.
+	 * @throws NumberFormatException if the payload doesn't start with a valid count.
+	 */
+	public static int parseRecordCount(String str, int offset, int end) {
+		if (offset + 2 > end) {
+			throw new NumberFormatException("Truncated record count at " + offset);
+		}
+
+		long cnt = parseLong(str, offset, offset + 2);
+		if (cnt < 0) {
+			throw new NumberFormatException("Invalid record count: " + cnt);
+		}
+
+		return (int) cnt;
+	}
+
+	/**
+	 * Parse a decimal number, with an optional sign, from str[start, end).
+	 *
+	 * @param str
+	 * @param start
+	 * @param end
+	 * @return parsed value.
+	 * @throws NumberFormatException
+	 */
+	public static long parseLong(String str, int start, int end) {
+		if (start >= end) {
+			throw new NumberFormatException("Empty field at " + start);
+		}
+
+		boolean isNegative = false;
+		int i = start;
+
+		char c = str.charAt(i);
+		if (c == '-' || c == '+') {
+			isNegative = (c == '-');
+			if (++i == end) {
+				throw new NumberFormatException("Invalid number at " + start);
+			}
+		}
+
+		long val = 0;
+		for (; i < end; ++i) {
+			c = str.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new NumberFormatException("Invalid number: " + str.substring(start, end));
+			}
+			val = val * 10 + (c - '0');
+		}
+
+		return isNegative ? -val : val;
+	}
+}
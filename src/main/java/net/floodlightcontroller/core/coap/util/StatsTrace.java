@@ -0,0 +1,79 @@
+package net.floodlightcontroller.core.coap.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sampled debug tracing of the statistics records ingested by the COAP server. Formatting every
+ * record (e.g., OFStatistics.toString()) is too expensive for the ingest path, even when the
+ * log level is disabled, since the message is built before it's logged. Instead, 1 in
+ * "sampleRate" records is traced, and the record is only formatted if it's traced.
+ *
+ * Tracing is disabled by default. It can be enabled at runtime with setSampleRate() or at startup
+ * with the "coap.stats.trace.sampleRate" system property (e.g., -Dcoap.stats.trace.sampleRate=1000).
+ * When disabled, trace() costs a single volatile read.
+ */
+public class StatsTrace {
+
+	// Logger.
+	protected static Logger log =
+			LoggerFactory.getLogger(StatsTrace.class);
+
+	public static final String SAMPLE_RATE_PROPERTY = "coap.stats.trace.sampleRate";
+
+	// 0 disables the tracing.
+	private static volatile int sampleRate = Math.max(0, Integer.getInteger(SAMPLE_RATE_PROPERTY, 0));
+
+	private static AtomicLong records = new AtomicLong(0);
+	private static AtomicLong tracedRecords = new AtomicLong(0);
+
+	/**
+	 * @param rate trace 1 in "rate" records, 0 to disable the tracing.
+	 */
+	public static void setSampleRate(int rate) {
+		sampleRate = Math.max(0, rate);
+		log.info("StatsTrace: sample rate set to " + sampleRate);
+	}
+
+	public static int getSampleRate() {
+		return sampleRate;
+	}
+
+	public static boolean isEnabled() {
+		return sampleRate > 0;
+	}
+
+	/**
+	 * @return true if the current record should be traced.
+	 */
+	public static boolean shouldTrace() {
+		int rate = sampleRate;
+		if (rate <= 0) {
+			return false;
+		}
+
+		return records.incrementAndGet() % rate == 0;
+	}
+
+	/**
+	 * Trace the input record if it's sampled.
+	 *
+	 * @param stage ingest stage or statistics type, e.g., "station".
+	 * @param apId
+	 * @param record formatted (toString()) only if it's traced.
+	 */
+	public static void trace(String stage, int apId, Object record) {
+		if (!shouldTrace()) {
+			return;
+		}
+
+		tracedRecords.incrementAndGet();
+		log.info("StatsTrace: " + stage + " apId " + apId + ": " + record);
+	}
+
+	public static long getTracedRecords() {
+		return tracedRecords.get();
+	}
+}